@@ -0,0 +1,381 @@
+package com.nuix.innovation.enginewrapper;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import nuix.Item;
+import nuix.ItemEventCallback;
+import nuix.ItemEventInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/***
+ * An {@link ItemEventCallback} which logs item failures in bounded volume, for operations (exports, processing, OCR,
+ * etc.) where a systemic failure could otherwise produce a log line per item.  Failures are grouped by a signature
+ * made of the exception type and its message, with numbers and GUIDs masked so that failures differing only in the
+ * item they concern share a signature.  The first occurrences of each signature are logged in full, after which the
+ * signature is only counted, remembering a few sample item GUIDs.  So that memory and log volume stay bounded even when
+ * failure messages vary in ways the masking does not catch, only a limited number of distinct signatures are tracked
+ * (failures with further new signatures are counted together under {@link #OTHER_SIGNATURE}), and only a limited
+ * number of failures are logged in full per summary interval across all signatures.  At most once per summary interval
+ * a summary of the counts per signature (along with the progress of the operation) is logged, and {@link #close()} logs a final report,
+ * optionally also written to a JSON file.  No threads are started, summaries are logged by whichever worker thread
+ * reports an event once the interval has elapsed.
+ * <pre>
+ * {@code
+ * try (AggregatingItemEventLogger itemEventLogger = new AggregatingItemEventLogger("Export")
+ *         .withReportFile(new File(exportDirectory, "ExportFailures.json"))) {
+ *     exporter.whenItemEventOccurs(itemEventLogger);
+ *     exporter.exportItems(items);
+ * }
+ * }
+ * </pre>
+ * @author Jason Wells
+ */
+public class AggregatingItemEventLogger implements ItemEventCallback, AutoCloseable {
+    private static final Logger defaultLog = LoggerFactory.getLogger(AggregatingItemEventLogger.class);
+    private static final Gson gson = new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create();
+    private static final Pattern GUID_PATTERN = Pattern.compile("[0-9a-fA-F]{8}-?[0-9a-fA-F]{4}-?[0-9a-fA-F]{4}-?[0-9a-fA-F]{4}-?[0-9a-fA-F]{12}");
+    private static final Pattern NUMBER_PATTERN = Pattern.compile("\\d+");
+    private static final int MAX_SIGNATURE_MESSAGE_LENGTH = 200;
+
+    /***
+     * Signature under which failures are counted once {@link #withMaxSignatures(int)} distinct signatures are tracked.
+     */
+    public static final String OTHER_SIGNATURE = "(other signatures)";
+
+    /***
+     * The failures sharing a signature.
+     */
+    public static class SignatureSummary {
+        private final String signature;
+        private final String exampleMessage;
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong countSinceSummary = new AtomicLong();
+        private final List<String> sampleGuids = new ArrayList<>();
+
+        SignatureSummary(String signature, String exampleMessage) {
+            this.signature = signature;
+            this.exampleMessage = exampleMessage;
+        }
+
+        public String getSignature() {
+            return signature;
+        }
+
+        /***
+         * @return The full message of the first failure with this signature.
+         */
+        public String getExampleMessage() {
+            return exampleMessage;
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        /***
+         * @return GUIDs of some of the items which failed with this signature.
+         */
+        public synchronized List<String> getSampleGuids() {
+            return new ArrayList<>(sampleGuids);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s x %s, e.g. items %s", count.get(), signature, getSampleGuids());
+        }
+    }
+
+    private final String operationName;
+    private Logger log = defaultLog;
+    private int maxLoggedPerSignature = 5;
+    private int maxSampleGuids = 5;
+    private int maxSignatures = 100;
+    private int maxLoggedPerInterval = 50;
+    private long summaryIntervalMillis = 60 * 1000;
+    private File reportFile = null;
+
+    private final Map<String, SignatureSummary> signatures = new ConcurrentHashMap<>();
+    private final AtomicLong eventCount = new AtomicLong();
+    private final AtomicLong failureCount = new AtomicLong();
+    private final AtomicLong suppressedCount = new AtomicLong();
+    private final AtomicLong loggedSinceSummary = new AtomicLong();
+    private final AtomicLong lastSummaryMillis = new AtomicLong(System.currentTimeMillis());
+    private final long startedMillis = System.currentTimeMillis();
+    private volatile String lastStage = null;
+    private volatile long lastStageCount = 0;
+    private boolean closed = false;
+
+    /***
+     * Creates a new instance.
+     * @param operationName Name of the operation, such as "Export", used in the messages logged
+     */
+    public AggregatingItemEventLogger(String operationName) {
+        this.operationName = operationName;
+    }
+
+    /***
+     * @param log The logger to log to, by default the logger of this class
+     * @return This instance for chained method calls.
+     */
+    public AggregatingItemEventLogger withLogger(Logger log) {
+        this.log = log;
+        return this;
+    }
+
+    /***
+     * @param maxLoggedPerSignature How many failures of each signature are logged in full, default is 5
+     * @return This instance for chained method calls.
+     */
+    public AggregatingItemEventLogger withMaxLoggedPerSignature(int maxLoggedPerSignature) {
+        this.maxLoggedPerSignature = Math.max(0, maxLoggedPerSignature);
+        return this;
+    }
+
+    /***
+     * @param maxSampleGuids How many item GUIDs are remembered for each signature, default is 5
+     * @return This instance for chained method calls.
+     */
+    public AggregatingItemEventLogger withMaxSampleGuids(int maxSampleGuids) {
+        this.maxSampleGuids = Math.max(0, maxSampleGuids);
+        return this;
+    }
+
+    /***
+     * @param maxSignatures How many distinct signatures are tracked, default is 100.  Failures with a signature not
+     *                      seen before once this many are tracked are counted under {@link #OTHER_SIGNATURE}.
+     * @return This instance for chained method calls.
+     */
+    public AggregatingItemEventLogger withMaxSignatures(int maxSignatures) {
+        this.maxSignatures = Math.max(1, maxSignatures);
+        return this;
+    }
+
+    /***
+     * @param maxLoggedPerInterval How many failures are logged in full per summary interval across all signatures,
+     *                             default is 50.  Further failures in the interval are only counted.
+     * @return This instance for chained method calls.
+     */
+    public AggregatingItemEventLogger withMaxLoggedPerInterval(int maxLoggedPerInterval) {
+        this.maxLoggedPerInterval = Math.max(0, maxLoggedPerInterval);
+        return this;
+    }
+
+    /***
+     * @param summaryIntervalMillis Minimum time between summaries in milliseconds, default is 60 seconds
+     * @return This instance for chained method calls.
+     */
+    public AggregatingItemEventLogger withSummaryInterval(long summaryIntervalMillis) {
+        this.summaryIntervalMillis = summaryIntervalMillis;
+        return this;
+    }
+
+    /***
+     * @param reportFile JSON file the final report is written to by {@link #close()}, null to only log it
+     * @return This instance for chained method calls.
+     */
+    public AggregatingItemEventLogger withReportFile(File reportFile) {
+        this.reportFile = reportFile;
+        return this;
+    }
+
+    @Override
+    public void itemProcessed(ItemEventInfo info) {
+        lastStage = info.getStage();
+        lastStageCount = info.getStageCount();
+        eventCount.incrementAndGet();
+
+        Exception failure = info.getFailure();
+        if (failure != null) {
+            Item item = info.getItem();
+            recordFailure(item != null ? item.getGuid() : null, item, failure);
+        }
+        summarizeIfDue();
+    }
+
+    /***
+     * Records a failure reported other than through {@link #itemProcessed(ItemEventInfo)}.
+     * @param guid GUID of the item which failed, may be null
+     * @param failure The failure
+     */
+    public void recordFailure(String guid, Throwable failure) {
+        recordFailure(guid, null, failure);
+        summarizeIfDue();
+    }
+
+    private void recordFailure(String guid, Item item, Throwable failure) {
+        failureCount.incrementAndGet();
+        String message = String.valueOf(failure.getMessage());
+        SignatureSummary summary = getSignatureSummary(getSignature(failure), message);
+        long occurrence = summary.count.incrementAndGet();
+        summary.countSinceSummary.incrementAndGet();
+        if (guid != null) {
+            synchronized (summary) {
+                if (summary.sampleGuids.size() < maxSampleGuids) {
+                    summary.sampleGuids.add(guid);
+                }
+            }
+        }
+
+        long loggedCount = occurrence <= maxLoggedPerSignature ? loggedSinceSummary.incrementAndGet() : Long.MAX_VALUE;
+        if (loggedCount <= maxLoggedPerInterval) {
+            String itemName = item != null ? item.getLocalisedName() : null;
+            log.error(String.format("%s failed for item %s%s: %s", operationName, guid,
+                    itemName != null ? "/" + itemName : "", message));
+            if (occurrence == maxLoggedPerSignature) {
+                log.error(String.format("Further %s failures like this will be summarized: %s", operationName,
+                        summary.getSignature()));
+            }
+            if (loggedCount == maxLoggedPerInterval) {
+                log.error(String.format("Logged %s %s failures since the last summary, further failures will only be " +
+                        "summarized until the next one", maxLoggedPerInterval, operationName));
+            }
+        } else {
+            suppressedCount.incrementAndGet();
+        }
+    }
+
+    private SignatureSummary getSignatureSummary(String signature, String message) {
+        SignatureSummary summary = signatures.get(signature);
+        if (summary != null) {
+            return summary;
+        }
+
+        // Adding a signature is serialized so the cap holds exactly, which is rare once the common signatures are known
+        synchronized (signatures) {
+            summary = signatures.get(signature);
+            if (summary == null) {
+                int trackedCount = signatures.size() - (signatures.containsKey(OTHER_SIGNATURE) ? 1 : 0);
+                if (trackedCount < maxSignatures) {
+                    summary = new SignatureSummary(signature, message);
+                    signatures.put(signature, summary);
+                } else {
+                    summary = signatures.get(OTHER_SIGNATURE);
+                    if (summary == null) {
+                        log.warn(String.format("%s failures have more than %s distinct signatures, failures with new " +
+                                "signatures will be counted as %s", operationName, maxSignatures, OTHER_SIGNATURE));
+                        summary = new SignatureSummary(OTHER_SIGNATURE, message);
+                        signatures.put(OTHER_SIGNATURE, summary);
+                    }
+                }
+            }
+        }
+        return summary;
+    }
+
+    /***
+     * @param failure A failure
+     * @return The signature failures like the provided one are grouped by
+     */
+    protected String getSignature(Throwable failure) {
+        String message = failure.getMessage() == null ? "" : failure.getMessage();
+        message = GUID_PATTERN.matcher(message).replaceAll("<guid>");
+        message = NUMBER_PATTERN.matcher(message).replaceAll("#");
+        if (message.length() > MAX_SIGNATURE_MESSAGE_LENGTH) {
+            message = message.substring(0, MAX_SIGNATURE_MESSAGE_LENGTH) + "...";
+        }
+        return failure.getClass().getName() + ": " + message;
+    }
+
+    private void summarizeIfDue() {
+        long now = System.currentTimeMillis();
+        long last = lastSummaryMillis.get();
+        // Only the thread which advances the timestamp logs the summary
+        if (now - last >= summaryIntervalMillis && lastSummaryMillis.compareAndSet(last, now)) {
+            logSummary();
+        }
+    }
+
+    private void logSummary() {
+        loggedSinceSummary.set(0);
+        log.info(String.format("%s progress: Stage: %s, Progress: %s, Events: %s, Failures: %s (%s not logged individually)",
+                operationName, lastStage, lastStageCount, eventCount.get(), failureCount.get(), suppressedCount.get()));
+        for (SignatureSummary summary : getSignatureSummaries()) {
+            long sinceSummary = summary.countSinceSummary.getAndSet(0);
+            if (sinceSummary > 0) {
+                log.info(String.format("  %s new, %s", sinceSummary, summary));
+            }
+        }
+    }
+
+    /***
+     * @return The failures recorded so far per signature, most frequent first.
+     */
+    public List<SignatureSummary> getSignatureSummaries() {
+        List<SignatureSummary> summaries = new ArrayList<>(signatures.values());
+        summaries.sort(Comparator.comparingLong(SignatureSummary::getCount).reversed());
+        return summaries;
+    }
+
+    public long getEventCount() {
+        return eventCount.get();
+    }
+
+    public long getFailureCount() {
+        return failureCount.get();
+    }
+
+    /***
+     * @return How many failures were counted without being logged individually.
+     */
+    public long getSuppressedCount() {
+        return suppressedCount.get();
+    }
+
+    /***
+     * Logs the final report of the operation and writes it to the report file, if one was provided.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        List<SignatureSummary> summaries = getSignatureSummaries();
+        log.info(String.format("%s finished in %sms: Events: %s, Failures: %s in %s distinct signatures (%s not logged individually)",
+                operationName, System.currentTimeMillis() - startedMillis, eventCount.get(), failureCount.get(),
+                summaries.size(), suppressedCount.get()));
+        summaries.forEach(summary -> log.info("  " + summary));
+
+        if (reportFile != null) {
+            Map<String, Object> report = new LinkedHashMap<>();
+            report.put("operation", operationName);
+            report.put("startedMillis", startedMillis);
+            report.put("finishedMillis", System.currentTimeMillis());
+            report.put("eventCount", eventCount.get());
+            report.put("failureCount", failureCount.get());
+            report.put("suppressedCount", suppressedCount.get());
+            List<Map<String, Object>> signatureReports = new ArrayList<>();
+            for (SignatureSummary summary : summaries) {
+                Map<String, Object> signatureReport = new LinkedHashMap<>();
+                signatureReport.put("signature", summary.getSignature());
+                signatureReport.put("exampleMessage", summary.getExampleMessage());
+                signatureReport.put("count", summary.getCount());
+                signatureReport.put("sampleGuids", summary.getSampleGuids());
+                signatureReports.add(signatureReport);
+            }
+            report.put("signatures", signatureReports);
+
+            try {
+                File parent = reportFile.getAbsoluteFile().getParentFile();
+                parent.mkdirs();
+                Files.writeString(reportFile.toPath(), gson.toJson(report), StandardCharsets.UTF_8);
+            } catch (Exception exc) {
+                log.error("Error while writing report to " + reportFile.getAbsolutePath(), exc);
+            }
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package com.nuix.innovation.enginewrapper;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.Appender;
+import org.apache.logging.log4j.core.Filter;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.LoggerContext;
+import org.apache.logging.log4j.core.appender.AbstractAppender;
+import org.apache.logging.log4j.core.appender.AsyncAppender;
+import org.apache.logging.log4j.core.config.AppenderRef;
+import org.apache.logging.log4j.core.config.Configuration;
+import org.apache.logging.log4j.core.config.LoggerConfig;
+import org.apache.logging.log4j.core.config.Property;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/***
+ * Opt-in asynchronous logging, see {@link NuixEngine#setAsyncLogging(AsyncLogging)}.  When logging is initialized,
+ * each appender configured by the engine's log4j2.yml, along with the console appender added by {@link NuixEngine},
+ * is wrapped in a log4j2 {@link AsyncAppender} with a bounded queue.  Threads logging (including engine worker
+ * callback threads) then only hand the event to the queue, while formatting and writing happen on the appender's
+ * background thread.<br><br>
+ * When the queue is full, what happens depends on the {@link OverflowPolicy}.  Discarded events are counted, see
+ * {@link #getDroppedEventCount()}.  Caller location (such as <code>%L</code> in a pattern) is not captured for queued
+ * events, since capturing it is expensive.
+ * <pre>
+ * {@code
+ * AsyncLogging asyncLogging = new AsyncLogging()
+ *     .withBufferSize(16384)
+ *     .withOverflowPolicy(AsyncLogging.OverflowPolicy.DISCARD_BELOW_WARN);
+ * NuixEngine nuixEngine = NuixEngine.usingFirstAvailableLicense(resolvers)
+ *     .setAsyncLogging(asyncLogging);
+ * }
+ * </pre>
+ * @author Jason Wells
+ */
+public class AsyncLogging {
+    private static final Logger log = LoggerFactory.getLogger(AsyncLogging.class);
+    private static final String ASYNC_APPENDER_PREFIX = "Async_";
+    private static final String OVERFLOW_APPENDER_PREFIX = "Overflow_";
+
+    /***
+     * What happens to an event logged while the queue of an appender is full.
+     */
+    public enum OverflowPolicy {
+        /***
+         * The logging thread waits for room in the queue, no events are lost.
+         */
+        BLOCK,
+        /***
+         * The event is discarded.
+         */
+        DISCARD,
+        /***
+         * Events below WARN are discarded, WARN and above are written on the logging thread.
+         */
+        DISCARD_BELOW_WARN
+    }
+
+    /***
+     * Receives the events an {@link AsyncAppender} could not queue, counting those discarded and writing those the
+     * overflow policy keeps directly to the wrapped appender.
+     */
+    private static class OverflowAppender extends AbstractAppender {
+        private final Appender target;
+        private final AsyncLogging asyncLogging;
+
+        private OverflowAppender(Appender target, AsyncLogging asyncLogging) {
+            super(OVERFLOW_APPENDER_PREFIX + target.getName(), null, null, true, Property.EMPTY_ARRAY);
+            this.target = target;
+            this.asyncLogging = asyncLogging;
+        }
+
+        @Override
+        public void append(LogEvent event) {
+            if (asyncLogging.overflowPolicy == OverflowPolicy.DISCARD_BELOW_WARN && event.getLevel().isMoreSpecificThan(Level.WARN)) {
+                target.append(event);
+            } else {
+                asyncLogging.droppedEventCount.incrementAndGet();
+            }
+        }
+    }
+
+    private int bufferSize = 8192;
+    private OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+    private long shutdownTimeoutMillis = 2000;
+    private final AtomicLong droppedEventCount = new AtomicLong();
+
+    /***
+     * Specifies how many events the queue of each appender holds.
+     * @param bufferSize Number of events, default is 8192
+     * @return This instance for chained method calls.
+     */
+    public AsyncLogging withBufferSize(int bufferSize) {
+        this.bufferSize = Math.max(1, bufferSize);
+        return this;
+    }
+
+    /***
+     * Specifies what happens to an event logged while the queue of an appender is full.
+     * @param overflowPolicy The policy, default is {@link OverflowPolicy#BLOCK}
+     * @return This instance for chained method calls.
+     */
+    public AsyncLogging withOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+        return this;
+    }
+
+    /***
+     * Specifies how long stopping logging waits for queued events to be written.
+     * @param shutdownTimeoutMillis Timeout in milliseconds, default is 2 seconds
+     * @return This instance for chained method calls.
+     */
+    public AsyncLogging withShutdownTimeout(long shutdownTimeoutMillis) {
+        this.shutdownTimeoutMillis = shutdownTimeoutMillis;
+        return this;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /***
+     * @return How many events have been discarded because the queue of an appender was full.
+     */
+    public long getDroppedEventCount() {
+        return droppedEventCount.get();
+    }
+
+    /***
+     * Wraps every appender referenced by the loggers of the provided context in an {@link AsyncAppender}, keeping the
+     * level and filter each logger applied to it.
+     * @param context The logger context to make asynchronous
+     * @return The number of appenders wrapped
+     */
+    int install(LoggerContext context) {
+        Configuration configuration = context.getConfiguration();
+        List<LoggerConfig> loggerConfigs = new ArrayList<>(configuration.getLoggers().values());
+        if (!loggerConfigs.contains(configuration.getRootLogger())) {
+            loggerConfigs.add(configuration.getRootLogger());
+        }
+
+        Map<String, AsyncAppender> asyncAppenders = new LinkedHashMap<>();
+        for (LoggerConfig loggerConfig : loggerConfigs) {
+            for (Appender appender : new ArrayList<>(loggerConfig.getAppenders().values())) {
+                if (appender instanceof AsyncAppender || appender instanceof OverflowAppender) {
+                    continue;
+                }
+                AsyncAppender asyncAppender = asyncAppenders.computeIfAbsent(appender.getName(),
+                        name -> createAsyncAppender(configuration, appender));
+
+                // Keep the level and filter of the reference being replaced
+                Level level = null;
+                Filter filter = null;
+                for (AppenderRef appenderRef : loggerConfig.getAppenderRefs()) {
+                    if (appenderRef.getRef().equals(appender.getName())) {
+                        level = appenderRef.getLevel();
+                        filter = appenderRef.getFilter();
+                    }
+                }
+                loggerConfig.removeAppender(appender.getName());
+                loggerConfig.addAppender(asyncAppender, level, filter);
+            }
+        }
+        context.updateLoggers();
+
+        log.info("Logging asynchronously through {} appenders, buffer size {}, overflow policy {}",
+                asyncAppenders.size(), bufferSize, overflowPolicy);
+        return asyncAppenders.size();
+    }
+
+    private AsyncAppender createAsyncAppender(Configuration configuration, Appender appender) {
+        String errorRef = null;
+        if (overflowPolicy != OverflowPolicy.BLOCK) {
+            OverflowAppender overflowAppender = new OverflowAppender(appender, this);
+            overflowAppender.start();
+            configuration.addAppender(overflowAppender);
+            errorRef = overflowAppender.getName();
+        }
+
+        AsyncAppender asyncAppender = AsyncAppender.newBuilder()
+                .setName(ASYNC_APPENDER_PREFIX + appender.getName())
+                .setConfiguration(configuration)
+                .setAppenderRefs(new AppenderRef[]{AppenderRef.createAppenderRef(appender.getName(), null, null)})
+                .setBufferSize(bufferSize)
+                .setBlocking(overflowPolicy == OverflowPolicy.BLOCK)
+                .setErrorRef(errorRef)
+                .setIncludeLocation(false)
+                .setShutdownTimeout(shutdownTimeoutMillis)
+                .build();
+        asyncAppender.start();
+        configuration.addAppender(asyncAppender);
+        return asyncAppender;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("AsyncLogging[bufferSize=%s, overflowPolicy=%s, dropped=%s]", bufferSize, overflowPolicy,
+                droppedEventCount.get());
+    }
+}
@@ -0,0 +1,139 @@
+package com.nuix.innovation.enginewrapper;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/***
+ * The outcome of checking each Nuix third party dependency, as produced by {@link ThirdPartyDependencyChecker} and
+ * made available by {@link NuixEngine#getDependencyCheckAsync()}.
+ * @author Jason Wells
+ */
+public class DependencyCheckReport {
+    /***
+     * The state a dependency check ended in.
+     */
+    public enum State {
+        /*** The check completed and the dependency does not require attention */
+        OK,
+        /*** The check completed and the dependency requires attention (for example it is not installed) */
+        ATTENTION_REQUIRED,
+        /*** The check threw an exception */
+        ERROR,
+        /*** The check did not complete within the timeout */
+        TIMED_OUT
+    }
+
+    /***
+     * The outcome of checking a single dependency.
+     */
+    public static class Result {
+        private final String description;
+        private final State state;
+        private final String message;
+        private final long startedMillis;
+        private final long durationMillis;
+
+        Result(String description, State state, String message, long startedMillis, long durationMillis) {
+            this.description = description;
+            this.state = state;
+            this.message = message;
+            this.startedMillis = startedMillis;
+            this.durationMillis = durationMillis;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+
+        public State getState() {
+            return state;
+        }
+
+        /***
+         * @return The status message reported by the check, or for {@link State#ERROR} and {@link State#TIMED_OUT}
+         * a description of what went wrong.
+         */
+        public String getMessage() {
+            return message;
+        }
+
+        /***
+         * @return Time (epoch milliseconds) the check started.  For cached results, when the check was originally
+         * performed.
+         */
+        public long getStartedMillis() {
+            return startedMillis;
+        }
+
+        public long getDurationMillis() {
+            return durationMillis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %s (%s)", description, state, message);
+        }
+    }
+
+    private final List<Result> results;
+    private final boolean fromCache;
+    private final long durationMillis;
+
+    DependencyCheckReport(List<Result> results, boolean fromCache, long durationMillis) {
+        this.results = Collections.unmodifiableList(results);
+        this.fromCache = fromCache;
+        this.durationMillis = durationMillis;
+    }
+
+    /***
+     * @return The result of each dependency, in the order the engine lists them.
+     */
+    public List<Result> getResults() {
+        return results;
+    }
+
+    /***
+     * @param description The description of the dependency, as reported by ThirdPartyDependency.getDescription
+     * @return The result of the described dependency, or null if there is no such dependency.
+     */
+    public Result getResult(String description) {
+        return results.stream().filter(result -> result.getDescription().equals(description)).findFirst().orElse(null);
+    }
+
+    /***
+     * @param state The state to filter by
+     * @return The results which ended in the provided state.
+     */
+    public List<Result> getResults(State state) {
+        return results.stream().filter(result -> result.getState() == state).collect(Collectors.toList());
+    }
+
+    /***
+     * @return True if every dependency check completed without requiring attention.
+     */
+    public boolean isAllOk() {
+        return results.stream().allMatch(result -> result.getState() == State.OK);
+    }
+
+    /***
+     * @return True if the results were loaded from the cache rather than by performing the checks.
+     */
+    public boolean isFromCache() {
+        return fromCache;
+    }
+
+    /***
+     * @return How long producing this report took, in milliseconds.
+     */
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("DependencyCheckReport[fromCache=%s, durationMillis=%s, ok=%s, attentionRequired=%s, error=%s, timedOut=%s]",
+                fromCache, durationMillis, getResults(State.OK).size(), getResults(State.ATTENTION_REQUIRED).size(),
+                getResults(State.ERROR).size(), getResults(State.TIMED_OUT).size());
+    }
+}
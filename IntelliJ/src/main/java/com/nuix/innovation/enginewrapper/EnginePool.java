@@ -0,0 +1,201 @@
+package com.nuix.innovation.enginewrapper;
+
+import nuix.Utilities;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/***
+ * Maintains a pool of licensed {@link NuixEngine} instances within one JVM, leasing them to concurrent jobs.  Each
+ * engine is created by the provided supplier and licensed through its own {@link LicenseResolver} chain, while all of
+ * them share the process wide GlobalContainer.  Engines are returned to the pool (still licensed) when their lease is
+ * closed, and engines which sit idle longer than the idle timeout are closed, releasing their license, as long as the
+ * pool stays at or above its minimum size.
+ * <pre>
+ * {@code
+ * EnginePool enginePool = new EnginePool(() -> NuixEngine.usingFirstAvailableLicense(resolvers)
+ *         .setEngineDistributionDirectoryFromEnvVar())
+ *     .withMinSize(1)
+ *     .withMaxSize(4)
+ *     .withIdleTimeout(10 * 60 * 1000);
+ *
+ * try (EnginePool.Lease lease = enginePool.lease()) {
+ *     Utilities utilities = lease.getUtilities();
+ *     // Run a job
+ * }
+ * }
+ * </pre>
+ * Engines created by the pool are configured not to stop logging when closed (see
+ * {@link NuixEngine#setStopLoggingOnClose(boolean)}), since logging is shared by all of them.
+ * @author Jason Wells
+ */
+public class EnginePool extends ResourcePool<NuixEngine, EnginePool.Lease> {
+    private static final Logger log = LoggerFactory.getLogger(EnginePool.class);
+
+    /***
+     * Represents an engine leased from an {@link EnginePool}.  Closing the lease returns the engine to the pool, or
+     * closes it if {@link #invalidate()} was called, for example after a job has left it in a bad state.
+     */
+    public static class Lease extends ResourcePool.Lease<NuixEngine> {
+        private Lease(EnginePool pool, NuixEngine engine, long waitMillis) {
+            super(pool, engine, waitMillis);
+        }
+
+        /***
+         * @return The leased engine
+         */
+        public NuixEngine getEngine() {
+            return getResource();
+        }
+
+        /***
+         * Convenience method for getting the licensed Utilities of the leased engine.
+         * @return The licensed Utilities of the leased engine
+         * @throws Exception If thrown by {@link NuixEngine#getUtilities()}
+         */
+        public Utilities getUtilities() throws Exception {
+            return getResource().getUtilities();
+        }
+    }
+
+    private final Supplier<NuixEngine> engineSupplier;
+    protected int minSize = 0;
+
+    /***
+     * Creates a new pool.
+     * @param engineSupplier Supplies new, not yet licensed, {@link NuixEngine} instances.  Each call must return a new
+     *                       instance, configured with its engine distribution directory, license resolvers, etc.
+     */
+    public EnginePool(Supplier<NuixEngine> engineSupplier) {
+        super("EnginePool", 1, 10 * 60 * 1000);
+        this.engineSupplier = engineSupplier;
+    }
+
+    /***
+     * Specifies how many engines this pool keeps licensed even while idle.  Engines needed to reach this size are
+     * created in the background, starting once {@link #warmUp()} is called or an engine is first leased.
+     * @param minSize The minimum number of engines
+     * @return This pool for chained method calls.
+     */
+    public EnginePool withMinSize(int minSize) {
+        this.minSize = Math.max(0, minSize);
+        return this;
+    }
+
+    /***
+     * Specifies the maximum number of engines (and therefore licenses) this pool will have at any one time.  When all
+     * engines are leased, calls to {@link #lease()} block until one is returned.
+     * @param maxSize The maximum number of engines, must be at least 1.
+     * @return This pool for chained method calls.
+     */
+    public EnginePool withMaxSize(int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be at least 1");
+        }
+        this.maxSize = maxSize;
+        return this;
+    }
+
+    /***
+     * Specifies how long an engine may sit idle before it is closed, releasing its license.  Engines needed to
+     * satisfy {@link #withMinSize(int)} are not closed.
+     * @param idleTimeoutMillis Idle timeout in milliseconds.  A value of 0 or less disables idle release.
+     * @return This pool for chained method calls.
+     */
+    public EnginePool withIdleTimeout(long idleTimeoutMillis) {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        return this;
+    }
+
+    public int getMinSize() {
+        return minSize;
+    }
+
+    /***
+     * Starts creating and licensing engines in the background, up to {@link #withMinSize(int)}, without waiting for
+     * them.
+     */
+    @Override
+    public void warmUp() {
+        super.warmUp();
+    }
+
+    /***
+     * Leases an engine from this pool, waiting as long as needed for one to become available.
+     * @return A lease on a licensed engine
+     * @throws Exception If a new engine could not be created or licensed, or if interrupted while waiting
+     */
+    public Lease lease() throws Exception {
+        return lease(0);
+    }
+
+    /***
+     * Leases an engine from this pool.  An idle engine is handed out when there is one, otherwise if the pool is below
+     * its maximum size a new engine is created and licensed on the calling thread, otherwise this waits for an engine
+     * to be returned.
+     * @param timeoutMillis Maximum time to wait for an engine to be returned, 0 or less to wait forever
+     * @return A lease on a licensed engine
+     * @throws TimeoutException If no engine became available within the timeout
+     * @throws Exception If a new engine could not be created or licensed, or if interrupted while waiting
+     */
+    public Lease lease(long timeoutMillis) throws Exception {
+        Lease lease = acquire(timeoutMillis);
+        if (lease.getWaitMillis() > 1000) {
+            log.info("Waited {}ms to lease an engine", lease.getWaitMillis());
+        }
+        return lease;
+    }
+
+    /***
+     * Creates a new engine using the supplier and obtains its license.
+     * @return A licensed engine
+     * @throws Exception If the engine could not be created or no license could be obtained
+     */
+    protected NuixEngine createEngine() throws Exception {
+        long started = System.currentTimeMillis();
+        NuixEngine engine = engineSupplier.get();
+        engine.setStopLoggingOnClose(false);
+        try {
+            if (engine.getUtilities() == null) {
+                throw new IllegalStateException("No license could be obtained for pooled engine");
+            }
+        } catch (Exception exc) {
+            try {
+                engine.close();
+            } catch (Exception closeExc) {
+                exc.addSuppressed(closeExc);
+            }
+            throw exc;
+        }
+        log.info("Created and licensed pooled engine in {}ms", System.currentTimeMillis() - started);
+        return engine;
+    }
+
+    @Override
+    protected NuixEngine create() throws Exception {
+        return createEngine();
+    }
+
+    @Override
+    protected Lease newLease(NuixEngine engine, long waitMillis) {
+        return new Lease(this, engine, waitMillis);
+    }
+
+    // Keeps minSize engines in existence, whether leased or idle
+    @Override
+    protected int getWarmUpShortfall(int idleCount, int creatingCount, int totalCount) {
+        return minSize - totalCount;
+    }
+
+    @Override
+    protected boolean canEvict(int idleCount, int totalCount) {
+        return totalCount > minSize;
+    }
+
+    @Override
+    protected void destroy(NuixEngine engine) throws Exception {
+        engine.close();
+    }
+}
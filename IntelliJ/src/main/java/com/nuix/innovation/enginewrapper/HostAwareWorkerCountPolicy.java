@@ -0,0 +1,125 @@
+package com.nuix.innovation.enginewrapper;
+
+import lombok.NonNull;
+import nuix.LicenceProperties;
+import nuix.engine.AvailableLicence;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+
+/***
+ * A {@link WorkerCountPolicy} which requests as many workers as the host can make use of: the lowest of the available
+ * cores, the physical memory divided by the memory each worker needs, and the workers the license has available.  The
+ * result is then bounded by the resolver's minimum and maximum worker counts, the minimum winning if the host appears
+ * too small for it.<br><br>
+ * Example usage:
+ * <pre>
+ * {@code
+ * LicenseResolver cloud = NuixLicenseResolver.fromCloud()
+ *     .withLicenseCredentialsResolvedFromEnvVars()
+ *     .withMinWorkerCount(2)
+ *     .withWorkerCountPolicy(WorkerCountPolicy.hostAware()
+ *         .withMemoryPerWorker(4L * 1024 * 1024 * 1024)
+ *         .withReservedCores(2));
+ * }
+ * </pre>
+ * @author Jason Wells
+ */
+public class HostAwareWorkerCountPolicy implements WorkerCountPolicy {
+    private static final Logger log = LoggerFactory.getLogger(HostAwareWorkerCountPolicy.class);
+
+    private long memoryPerWorkerBytes = 2L * 1024 * 1024 * 1024;
+    private long reservedMemoryBytes = 4L * 1024 * 1024 * 1024;
+    private int reservedCores = 1;
+
+    /***
+     * Specifies how much physical memory each worker is expected to need.
+     * @param memoryPerWorkerBytes Memory per worker in bytes, default is 2GB
+     * @return This policy for chained method calls.
+     */
+    public HostAwareWorkerCountPolicy withMemoryPerWorker(long memoryPerWorkerBytes) {
+        this.memoryPerWorkerBytes = Math.max(1, memoryPerWorkerBytes);
+        return this;
+    }
+
+    /***
+     * Specifies how much physical memory to leave for the engine's own JVM, the operating system and anything else
+     * running on the host.
+     * @param reservedMemoryBytes Reserved memory in bytes, default is 4GB
+     * @return This policy for chained method calls.
+     */
+    public HostAwareWorkerCountPolicy withReservedMemory(long reservedMemoryBytes) {
+        this.reservedMemoryBytes = Math.max(0, reservedMemoryBytes);
+        return this;
+    }
+
+    /***
+     * Specifies how many cores to leave for the engine's own JVM and anything else running on the host.
+     * @param reservedCores Reserved cores, default is 1
+     * @return This policy for chained method calls.
+     */
+    public HostAwareWorkerCountPolicy withReservedCores(int reservedCores) {
+        this.reservedCores = Math.max(0, reservedCores);
+        return this;
+    }
+
+    @Override
+    public int chooseWorkerCount(@NonNull AvailableLicence licence, int minWorkerCount, int maxWorkerCount) {
+        int cores = getAvailableCores();
+        long physicalMemory = getPhysicalMemoryBytes();
+        Integer licenceWorkers = ((LicenceProperties) licence).getWorkers();
+
+        int byCores = Math.max(1, cores - reservedCores);
+        // Memory can only be considered if the JVM is able to tell us how much the host has
+        int byMemory = physicalMemory > 0
+                ? (int) Math.max(1, Math.min(Integer.MAX_VALUE, (physicalMemory - reservedMemoryBytes) / memoryPerWorkerBytes))
+                : Integer.MAX_VALUE;
+        int count = Math.min(byCores, byMemory);
+        if (licenceWorkers != null && licenceWorkers > 0) {
+            count = Math.min(count, licenceWorkers);
+        }
+
+        int bounded = Math.max(count, Math.max(minWorkerCount, 1));
+        if (maxWorkerCount > 0) {
+            bounded = Math.min(bounded, maxWorkerCount);
+        }
+
+        log.info(String.format("Host has %s cores (%s reserved) and %sMB physical memory (%sMB reserved, %sMB per worker), " +
+                        "license has %s workers available: supports %s workers by cores, %s by memory, " +
+                        "requesting %s workers (min %s, max %s)",
+                cores, reservedCores, physicalMemory / (1024 * 1024), reservedMemoryBytes / (1024 * 1024),
+                memoryPerWorkerBytes / (1024 * 1024), licenceWorkers, byCores,
+                byMemory == Integer.MAX_VALUE ? "unknown" : byMemory, bounded, minWorkerCount, maxWorkerCount));
+        return bounded;
+    }
+
+    /***
+     * @return The cores available to this JVM
+     */
+    protected int getAvailableCores() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /***
+     * @return The physical memory of the host in bytes, or 0 if it cannot be determined
+     */
+    @SuppressWarnings("deprecation")
+    protected long getPhysicalMemoryBytes() {
+        OperatingSystemMXBean osBean = ManagementFactory.getOperatingSystemMXBean();
+        if (osBean instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) osBean).getTotalPhysicalMemorySize();
+        }
+        return 0;
+    }
+
+    @Override
+    public String toString() {
+        return "HostAwareWorkerCountPolicy{" +
+                "memoryPerWorkerBytes=" + memoryPerWorkerBytes +
+                ", reservedMemoryBytes=" + reservedMemoryBytes +
+                ", reservedCores=" + reservedCores +
+                '}';
+    }
+}
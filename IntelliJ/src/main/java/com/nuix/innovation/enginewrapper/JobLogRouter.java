@@ -0,0 +1,181 @@
+package com.nuix.innovation.enginewrapper;
+
+import org.apache.logging.log4j.core.Appender;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.LoggerContext;
+import org.apache.logging.log4j.core.appender.AbstractAppender;
+import org.apache.logging.log4j.core.appender.FileAppender;
+import org.apache.logging.log4j.core.config.Configuration;
+import org.apache.logging.log4j.core.config.Property;
+import org.apache.logging.log4j.core.layout.PatternLayout;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/***
+ * A log4j2 appender which routes log events to a log file per job, keyed by the job ID a {@link JobLogScope} places
+ * in the thread context.  It is attached to the root logger once per process (see
+ * {@link NuixEngine#setJobLogDirectory(File)}), so that several jobs can run in one JVM against engines sharing a
+ * single logging configuration while each job still gets a log of its own.<br><br>
+ * The file appender of a job is created when the first event of the job is logged and is closed once the last
+ * {@link JobLogScope} of the job is closed.  Events without a job ID, or whose job has no open scope, are ignored by
+ * this appender; they still reach the other appenders as usual.
+ * @author Jason Wells
+ */
+public class JobLogRouter extends AbstractAppender {
+    private static final Logger log = LoggerFactory.getLogger(JobLogRouter.class);
+    public static final String APPENDER_NAME = "Nuix_Job_Log_Router";
+    public static final String DEFAULT_PATTERN = "%d{yyyy-MM-dd HH:mm:ss.SSS Z} [%t] %-5p %c - %m%n";
+
+    private static JobLogRouter installed = null;
+
+    private final File directory;
+    private final Configuration configuration;
+    private final PatternLayout layout;
+    // Number of open scopes and file appender per job, guarded by this
+    private final Map<String, Integer> openScopes = new HashMap<>();
+    private final Map<String, FileAppender> jobAppenders = new HashMap<>();
+
+    private JobLogRouter(File directory, Configuration configuration) {
+        super(APPENDER_NAME, null, null, true, Property.EMPTY_ARRAY);
+        this.directory = directory;
+        this.configuration = configuration;
+        this.layout = PatternLayout.newBuilder().withPattern(DEFAULT_PATTERN).withConfiguration(configuration).build();
+    }
+
+    /***
+     * Attaches a router writing job logs to the provided directory to the root logger of the provided context, unless
+     * one is already attached to it.
+     * @param context The logger context
+     * @param directory Directory job log files are written to
+     * @return The router attached to the context
+     */
+    static synchronized JobLogRouter install(LoggerContext context, File directory) {
+        Configuration configuration = context.getConfiguration();
+        if (installed != null && configuration.getAppender(APPENDER_NAME) == installed) {
+            if (!installed.directory.getAbsoluteFile().equals(directory.getAbsoluteFile())) {
+                log.warn("Job logs are already routed to {}, ignoring {}", installed.directory, directory);
+            }
+            return installed;
+        }
+
+        directory.mkdirs();
+        JobLogRouter router = new JobLogRouter(directory, configuration);
+        router.start();
+        configuration.addAppender(router);
+        configuration.getRootLogger().addAppender(router, null, null);
+        context.updateLoggers();
+        installed = router;
+        log.info("Routing job logs to {}", directory.getAbsolutePath());
+        return router;
+    }
+
+    /***
+     * @return The router attached to the current logging configuration, or null if job logs are not being routed.
+     */
+    public static synchronized JobLogRouter getInstalled() {
+        if (installed != null && installed.isStopped()) {
+            installed = null;
+        }
+        return installed;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /***
+     * @param jobId A job ID
+     * @return The file the log of the provided job is written to
+     */
+    public File getJobLogFile(String jobId) {
+        return new File(directory, jobId.replaceAll("[^A-Za-z0-9._-]", "_") + ".log");
+    }
+
+    /***
+     * @return The number of jobs with a log file currently open.
+     */
+    public synchronized int getOpenJobLogCount() {
+        return jobAppenders.size();
+    }
+
+    synchronized void jobStarted(String jobId) {
+        openScopes.merge(jobId, 1, Integer::sum);
+    }
+
+    void jobEnded(String jobId) {
+        FileAppender appender;
+        synchronized (this) {
+            Integer count = openScopes.get(jobId);
+            if (count == null) {
+                return;
+            } else if (count > 1) {
+                openScopes.put(jobId, count - 1);
+                return;
+            }
+            openScopes.remove(jobId);
+            appender = jobAppenders.remove(jobId);
+        }
+
+        if (appender != null) {
+            stopJobAppender(appender);
+        }
+    }
+
+    @Override
+    public void append(LogEvent event) {
+        String jobId = event.getContextData().getValue(JobLogScope.JOB_ID_KEY);
+        if (jobId == null) {
+            return;
+        }
+
+        Appender appender;
+        synchronized (this) {
+            if (!openScopes.containsKey(jobId)) {
+                return;
+            }
+            appender = jobAppenders.computeIfAbsent(jobId, this::createJobAppender);
+        }
+
+        // Events of one job are written while holding the lock of its appender rather than this router, so jobs do
+        // not wait on each other, and stopJobAppender takes the same lock so an appender is never stopped mid-write
+        synchronized (appender) {
+            if (appender.isStarted()) {
+                appender.append(event);
+            }
+        }
+    }
+
+    private void stopJobAppender(Appender appender) {
+        synchronized (appender) {
+            appender.stop();
+        }
+    }
+
+    private FileAppender createJobAppender(String jobId) {
+        FileAppender appender = FileAppender.newBuilder()
+                .setName("Nuix_Job_" + jobId)
+                .withFileName(getJobLogFile(jobId).getAbsolutePath())
+                .withAppend(true)
+                .setBufferedIo(true)
+                .setImmediateFlush(false)
+                .setLayout(layout)
+                .setConfiguration(configuration)
+                .build();
+        appender.start();
+        return appender;
+    }
+
+    @Override
+    public boolean stop(long timeout, TimeUnit timeUnit) {
+        synchronized (this) {
+            jobAppenders.values().forEach(this::stopJobAppender);
+            jobAppenders.clear();
+        }
+        return super.stop(timeout, timeUnit);
+    }
+}
@@ -0,0 +1,161 @@
+package com.nuix.innovation.enginewrapper;
+
+import org.apache.logging.log4j.ThreadContext;
+
+import java.io.File;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+/***
+ * Marks the work done on the current thread as belonging to a job, by placing the job ID in the log4j2 thread context
+ * under {@link #JOB_ID_KEY} until closed.  When job logs are routed (see {@link NuixEngine#setJobLogDirectory(File)}),
+ * events logged within the scope are also written to a log file of the job, see {@link JobLogRouter}.  The job ID is
+ * also available to logging patterns as <code>%X{jobId}</code>.<br><br>
+ * The thread context is per thread, so work the job hands to other threads should be wrapped with
+ * {@link #wrap(Runnable)} or run on an executor from {@link #propagating(Executor)}.  Ruby scripts run through a
+ * {@link NuixEngine} within a scope are attributed to the job automatically.
+ * <pre>
+ * {@code
+ * try (JobLogScope scope = JobLogScope.open("job-42")) {
+ *     log.info("Written to the process log and to job-42.log");
+ *     nuixEngine.runRubyScriptAsync(script, null, null).join();
+ * }
+ * }
+ * </pre>
+ * @author Jason Wells
+ */
+public class JobLogScope implements AutoCloseable {
+    public static final String JOB_ID_KEY = "jobId";
+
+    private final String jobId;
+    private final String previousJobId;
+    private final JobLogRouter router;
+    private boolean closed = false;
+
+    private JobLogScope(String jobId) {
+        this.jobId = jobId;
+        this.previousJobId = ThreadContext.get(JOB_ID_KEY);
+        this.router = JobLogRouter.getInstalled();
+        if (router != null) {
+            router.jobStarted(jobId);
+        }
+        ThreadContext.put(JOB_ID_KEY, jobId);
+    }
+
+    /***
+     * Opens a scope for the provided job on the current thread.  Scopes may be nested, closing a scope restores the
+     * job ID the thread had before it was opened.  Several threads may open scopes for the same job, its log file is
+     * closed once all of them are closed.
+     * @param jobId The ID of the job
+     * @return The scope, to be closed when the job's work on this thread is done
+     */
+    public static JobLogScope open(String jobId) {
+        if (jobId == null || jobId.isBlank()) {
+            throw new IllegalArgumentException("jobId cannot be null or blank");
+        }
+        return new JobLogScope(jobId);
+    }
+
+    /***
+     * @return The job ID of the current thread, or null if it is not running within a scope.
+     */
+    public static String getCurrentJobId() {
+        return ThreadContext.get(JOB_ID_KEY);
+    }
+
+    public String getJobId() {
+        return jobId;
+    }
+
+    /***
+     * @return The log file of this job, or null if job logs are not being routed.
+     */
+    public File getLogFile() {
+        return router != null ? router.getJobLogFile(jobId) : null;
+    }
+
+    /***
+     * @param runnable Work to be run on another thread
+     * @return A runnable which runs the provided one with this job's ID in the thread context
+     */
+    public Runnable wrap(Runnable runnable) {
+        return withJobId(jobId, runnable);
+    }
+
+    /***
+     * @param callable Work to be run on another thread
+     * @param <T> The type of the result
+     * @return A callable which calls the provided one with this job's ID in the thread context
+     */
+    public <T> Callable<T> wrap(Callable<T> callable) {
+        return () -> {
+            String previous = ThreadContext.get(JOB_ID_KEY);
+            ThreadContext.put(JOB_ID_KEY, jobId);
+            try {
+                return callable.call();
+            } finally {
+                restore(previous);
+            }
+        };
+    }
+
+    /***
+     * Wraps an executor so that tasks submitted to it run with the job ID the submitting thread had at the time.
+     * @param executor The executor to wrap
+     * @return The wrapping executor
+     */
+    public static Executor propagating(Executor executor) {
+        return runnable -> executor.execute(withJobId(getCurrentJobId(), runnable));
+    }
+
+    /***
+     * Wraps a consumer, such as one receiving script output on a dispatcher thread, so that it runs with the provided
+     * job ID in the thread context.
+     */
+    static <T> Consumer<T> withJobId(String jobId, Consumer<T> consumer) {
+        if (jobId == null) {
+            return consumer;
+        }
+        return value -> withJobId(jobId, () -> consumer.accept(value)).run();
+    }
+
+    private static Runnable withJobId(String jobId, Runnable runnable) {
+        if (jobId == null) {
+            return runnable;
+        }
+        return () -> {
+            String previous = ThreadContext.get(JOB_ID_KEY);
+            ThreadContext.put(JOB_ID_KEY, jobId);
+            try {
+                runnable.run();
+            } finally {
+                restore(previous);
+            }
+        };
+    }
+
+    private static void restore(String previousJobId) {
+        if (previousJobId == null) {
+            ThreadContext.remove(JOB_ID_KEY);
+        } else {
+            ThreadContext.put(JOB_ID_KEY, previousJobId);
+        }
+    }
+
+    /***
+     * Restores the job ID the thread had before this scope was opened and, if this was the last open scope of the
+     * job, closes the job's log file.  Work still running on other threads for the job is no longer written to it.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        restore(previousJobId);
+        if (router != null) {
+            router.jobEnded(jobId);
+        }
+    }
+}
@@ -0,0 +1,329 @@
+package com.nuix.innovation.enginewrapper;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
+import nuix.LicenceProperties;
+import nuix.engine.AvailableLicence;
+import nuix.engine.LicenceSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/***
+ * Caches the licenses found by {@link NuixLicenseResolver} license discovery, so that engines started repeatedly against
+ * the same license source do not need to go back to the licensor (a network round trip for CLS and NMS, an enumeration
+ * for dongles) to filter candidates and choose one.  Provide a cache to resolvers using
+ * {@link NuixLicenseResolver#withDiscoveryCache(LicenseDiscoveryCache)}; a single cache can be shared by any number of
+ * resolvers, entries are keyed by the license source each resolver uses.<br><br>
+ * Cached candidates record each license's short name, description, count, worker count, features and source, which is
+ * all filtering and a final decider need.  A resolver none of whose cached candidates meet its criteria is therefore
+ * skipped without contacting its license source until the entry expires.  A license can only be acquired through an
+ * instance obtained from the licensor though, so acquiring a cached candidate performs one live lookup for the chosen
+ * short name.  If that license is no longer available, the cache entry is discarded and the resolver reports that it
+ * found no license.<br><br>
+ * Entries are kept in memory and, if {@link #withCacheFile(File)} is used, in a file which is shared by all JVMs on the
+ * host using the same file (access to the file is serialized with a lock within the JVM and a file lock between JVMs).
+ * @author Jason Wells
+ */
+public class LicenseDiscoveryCache {
+    private static final Logger log = LoggerFactory.getLogger(LicenseDiscoveryCache.class);
+    private static final Gson gson = new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create();
+
+    /***
+     * The details of a license recorded by the cache.
+     */
+    public static class CachedLicence {
+        private String shortName;
+        private String description;
+        private int count;
+        private Integer workers;
+        private Set<String> features;
+        private boolean canChooseWorkers;
+        private String sourceType;
+        private String sourceLocation;
+
+        static CachedLicence describe(AvailableLicence licence) {
+            CachedLicence result = new CachedLicence();
+            result.shortName = licence.getShortName();
+            result.description = licence.getDescription();
+            result.count = licence.getCount();
+            result.workers = ((LicenceProperties) licence).getWorkers();
+            result.features = new LinkedHashSet<>(licence.getAllEnabledFeatures());
+            result.canChooseWorkers = licence.canChooseWorkers();
+            if (licence.getSource() != null) {
+                result.sourceType = licence.getSource().getType();
+                result.sourceLocation = licence.getSource().getLocation();
+            }
+            return result;
+        }
+
+        /***
+         * @param licence A license found through live discovery
+         * @return True if the provided license appears to be the license this describes.  The worker count of a
+         * license which shares a worker pool changes as other engines acquire workers, so it is only compared for
+         * licenses with a fixed worker count.
+         */
+        boolean matches(AvailableLicence licence) {
+            return Objects.equals(shortName, licence.getShortName()) &&
+                    canChooseWorkers == licence.canChooseWorkers() &&
+                    (canChooseWorkers || Objects.equals(workers, ((LicenceProperties) licence).getWorkers())) &&
+                    (licence.getSource() == null || (Objects.equals(sourceType, licence.getSource().getType()) &&
+                            Objects.equals(sourceLocation, licence.getSource().getLocation())));
+        }
+
+        public String getShortName() {
+            return shortName;
+        }
+
+        public Integer getWorkers() {
+            return workers;
+        }
+
+        public Set<String> getFeatures() {
+            return Collections.unmodifiableSet(features);
+        }
+
+        public String getSourceType() {
+            return sourceType;
+        }
+
+        public String getSourceLocation() {
+            return sourceLocation;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("CachedLicence[shortName=%s, workers=%s, source=%s %s]", shortName, workers, sourceType, sourceLocation);
+        }
+    }
+
+    /***
+     * Implemented by the {@link AvailableLicence} instances this cache hands out, which stand in for a license found
+     * earlier.  These instances cannot be acquired directly, see {@link NuixLicenseResolver#acquireLicense}.
+     */
+    public interface CachedCandidate {
+        CachedLicence getCachedLicence();
+    }
+
+    // One cached discovery result
+    private static class Entry {
+        private long createdMillis;
+        private List<CachedLicence> licences;
+    }
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private long ttlMillis = 5 * 60 * 1000;
+    private File cacheFile = null;
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    /***
+     * Specifies how long discovery results remain valid.
+     * @param ttlMillis Time to live in milliseconds
+     * @return This cache for chained method calls.
+     */
+    public LicenseDiscoveryCache withTtl(long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+        return this;
+    }
+
+    /***
+     * Specifies a file discovery results are also stored in, allowing other JVMs on the same host to make use of them.
+     * @param cacheFile The cache file, or null to only cache in memory
+     * @return This cache for chained method calls.
+     */
+    public LicenseDiscoveryCache withCacheFile(File cacheFile) {
+        this.cacheFile = cacheFile;
+        return this;
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /***
+     * Gets the cached candidates for a license source.
+     * @param key Identifies the license source
+     * @return Stand-ins for the cached licenses, or null if there is no valid cache entry
+     */
+    List<AvailableLicence> get(String key) {
+        Entry entry = entries.get(key);
+        if (!isValid(entry) && cacheFile != null) {
+            entry = readFile().get(key);
+            if (isValid(entry)) {
+                entries.put(key, entry);
+            }
+        }
+
+        if (!isValid(entry)) {
+            missCount.incrementAndGet();
+            return null;
+        }
+
+        hitCount.incrementAndGet();
+        List<AvailableLicence> result = new ArrayList<>();
+        for (CachedLicence cachedLicence : entry.licences) {
+            result.add(createCandidate(cachedLicence));
+        }
+        return result;
+    }
+
+    /***
+     * Records the licenses found by live discovery for a license source.
+     * @param key Identifies the license source
+     * @param licences The licenses found
+     */
+    void put(String key, List<AvailableLicence> licences) {
+        Entry entry = new Entry();
+        entry.createdMillis = System.currentTimeMillis();
+        entry.licences = new ArrayList<>();
+        for (AvailableLicence licence : licences) {
+            entry.licences.add(CachedLicence.describe(licence));
+        }
+        entries.put(key, entry);
+        if (cacheFile != null) {
+            updateFile(key, entry);
+        }
+    }
+
+    /***
+     * Discards the cache entry for a license source, for example because a cached license is no longer available.
+     * @param key Identifies the license source
+     */
+    void invalidate(String key) {
+        entries.remove(key);
+        if (cacheFile != null) {
+            updateFile(key, null);
+        }
+    }
+
+    /***
+     * Discards all cache entries.
+     */
+    public void clear() {
+        entries.clear();
+        if (cacheFile != null) {
+            cacheFile.delete();
+        }
+    }
+
+    private boolean isValid(Entry entry) {
+        return entry != null && entry.licences != null &&
+                (ttlMillis <= 0 || System.currentTimeMillis() - entry.createdMillis <= ttlMillis);
+    }
+
+    private static AvailableLicence createCandidate(CachedLicence cachedLicence) {
+        LicenceSource source = (LicenceSource) Proxy.newProxyInstance(LicenseDiscoveryCache.class.getClassLoader(),
+                new Class<?>[]{LicenceSource.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getType":
+                            return cachedLicence.sourceType;
+                        case "getLocation":
+                            return cachedLicence.sourceLocation;
+                        case "toString":
+                            return cachedLicence.sourceType + " " + cachedLicence.sourceLocation;
+                        default:
+                            throw new UnsupportedOperationException("Cached licence source does not support " + method.getName());
+                    }
+                });
+
+        return (AvailableLicence) Proxy.newProxyInstance(LicenseDiscoveryCache.class.getClassLoader(),
+                new Class<?>[]{AvailableLicence.class, LicenceProperties.class, CachedCandidate.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getCachedLicence":
+                            return cachedLicence;
+                        case "getShortName":
+                            return cachedLicence.shortName;
+                        case "getDescription":
+                            return cachedLicence.description;
+                        case "getCount":
+                            return cachedLicence.count;
+                        case "getWorkers":
+                            return cachedLicence.workers;
+                        case "getAllEnabledFeatures":
+                            return Collections.unmodifiableSet(cachedLicence.features);
+                        case "hasFeature":
+                            return cachedLicence.features.contains((String) args[0]);
+                        case "canChooseWorkers":
+                            return cachedLicence.canChooseWorkers;
+                        case "getSource":
+                            return source;
+                        case "toString":
+                            return cachedLicence.toString();
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        default:
+                            throw new UnsupportedOperationException("Cached licence candidate does not support " +
+                                    method.getName() + ", it must be acquired through the resolver which found it");
+                    }
+                });
+    }
+
+    private File getLockFile() {
+        return new File(cacheFile.getAbsolutePath() + ".lock");
+    }
+
+    private Map<String, Entry> readFile() {
+        if (!cacheFile.isFile()) {
+            return Collections.emptyMap();
+        }
+        try {
+            return SharedFileLock.withLock(getLockFile(), this::readFileLocked);
+        } catch (Exception exc) {
+            log.warn("Error while reading license discovery cache " + cacheFile.getAbsolutePath(), exc);
+            return Collections.emptyMap();
+        }
+    }
+
+    private Map<String, Entry> readFileLocked() throws Exception {
+        if (!cacheFile.isFile()) {
+            return new HashMap<>();
+        }
+        Map<String, Entry> fileEntries = gson.fromJson(Files.readString(cacheFile.toPath(), StandardCharsets.UTF_8),
+                new TypeToken<Map<String, Entry>>() {}.getType());
+        return fileEntries == null ? new HashMap<>() : fileEntries;
+    }
+
+    private void updateFile(String key, Entry entry) {
+        try {
+            File parent = cacheFile.getAbsoluteFile().getParentFile();
+            parent.mkdirs();
+            SharedFileLock.withLock(getLockFile(), () -> {
+                Map<String, Entry> fileEntries = readFileLocked();
+                if (entry == null) {
+                    fileEntries.remove(key);
+                } else {
+                    fileEntries.put(key, entry);
+                }
+                File tempFile = File.createTempFile("license-discovery", ".tmp", parent);
+                Files.writeString(tempFile.toPath(), gson.toJson(fileEntries), StandardCharsets.UTF_8);
+                Files.move(tempFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                return null;
+            });
+        } catch (Exception exc) {
+            log.warn("Error while writing license discovery cache " + cacheFile.getAbsolutePath(), exc);
+        }
+    }
+}
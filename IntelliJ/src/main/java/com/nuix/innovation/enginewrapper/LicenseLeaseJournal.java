@@ -0,0 +1,318 @@
+package com.nuix.innovation.enginewrapper;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+/***
+ * A small on-disk journal of the licenses held by {@link NuixEngine} instances on this host.  An entry is written when
+ * a license is acquired and removed when it is released.  If a JVM is killed hard, the shutdown hook which would
+ * have released its license never runs, and a license from a shared pool stays checked out until the license server
+ * times it out.  The journal lets the next engine to start detect such orphaned leases: entries whose process is no
+ * longer running.<br><br>
+ * The Nuix API can only release a license through the Engine which acquired it, so an orphaned lease cannot be
+ * released from another process through the API.  Recovery therefore logs each orphaned lease (source, short name,
+ * worker count, process and time) and hands it to the {@link StaleLeaseHandler} provided with
+ * {@link #withStaleLeaseHandler(StaleLeaseHandler)}, which can release it through whatever means the license
+ * server offers, such as an administrative API.  Entries a handler fails to release are retried at the next startup,
+ * until they are older than {@link #withStaleLeaseExpiry(long)}, by which time the server will have timed them out.
+ * <br><br>
+ * The journal file can be shared by all JVMs on the host and by any number of engines within a JVM; access to it is
+ * serialized with a lock within the JVM and a file lock between JVMs.  Provide a
+ * journal to engines using {@link NuixEngine#setLeaseJournal(LicenseLeaseJournal)}.
+ * @author Jason Wells
+ */
+public class LicenseLeaseJournal {
+    private static final Logger log = LoggerFactory.getLogger(LicenseLeaseJournal.class);
+    private static final Gson gson = new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create();
+
+    /***
+     * Releases, or otherwise deals with, a lease held by a process which is no longer running.
+     */
+    @FunctionalInterface
+    public interface StaleLeaseHandler {
+        /***
+         * @param lease The orphaned lease
+         * @return True if the lease has been dealt with and can be removed from the journal, false to try again at
+         * the next startup.
+         * @throws Exception If thrown, the lease is also tried again at the next startup.
+         */
+        boolean release(Lease lease) throws Exception;
+    }
+
+    /***
+     * A license held by an engine.
+     */
+    public static class Lease {
+        private String id;
+        private String source;
+        private String shortName;
+        private int workers;
+        private long pid;
+        private long processStartMillis;
+        private String host;
+        private long acquiredMillis;
+
+        public String getId() {
+            return id;
+        }
+
+        /***
+         * @return Where the license came from, see {@link NuixLicenseResolver#getSourceKey()}.
+         */
+        public String getSource() {
+            return source;
+        }
+
+        public String getShortName() {
+            return shortName;
+        }
+
+        public int getWorkers() {
+            return workers;
+        }
+
+        /***
+         * @return The process ID of the JVM holding the license.
+         */
+        public long getPid() {
+            return pid;
+        }
+
+        public String getHost() {
+            return host;
+        }
+
+        /***
+         * @return Time (epoch milliseconds) the license was acquired.
+         */
+        public long getAcquiredMillis() {
+            return acquiredMillis;
+        }
+
+        /***
+         * @return True if the process which holds this lease is no longer running.  The start time of the process is
+         * compared as well, so that a PID reused by another process is not mistaken for the one holding the lease.
+         */
+        public boolean isStale() {
+            Optional<ProcessHandle> process = ProcessHandle.of(pid);
+            if (process.isEmpty() || !process.get().isAlive()) {
+                return true;
+            }
+            long startMillis = process.get().info().startInstant().map(Instant::toEpochMilli).orElse(0L);
+            return processStartMillis > 0 && startMillis > 0 && startMillis != processStartMillis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Lease[source=%s, shortName=%s, workers=%s, pid=%s, host=%s, acquired=%s]",
+                    source, shortName, workers, pid, host, Instant.ofEpochMilli(acquiredMillis));
+        }
+    }
+
+    private final File journalFile;
+    private StaleLeaseHandler staleLeaseHandler = null;
+    private long staleLeaseExpiryMillis = 24 * 60 * 60 * 1000;
+
+    /***
+     * Creates a journal stored in the provided file.
+     * @param journalFile The journal file, which is created as needed
+     */
+    public LicenseLeaseJournal(File journalFile) {
+        this.journalFile = journalFile;
+    }
+
+    /***
+     * Provides a handler which releases leases orphaned by processes which are no longer running.  Without one,
+     * orphaned leases are logged and removed from the journal, leaving the license server to time them out.
+     * @param staleLeaseHandler The handler
+     * @return This journal for chained method calls.
+     */
+    public LicenseLeaseJournal withStaleLeaseHandler(StaleLeaseHandler staleLeaseHandler) {
+        this.staleLeaseHandler = staleLeaseHandler;
+        return this;
+    }
+
+    /***
+     * Specifies how long an orphaned lease the handler fails to release is kept in the journal.
+     * @param staleLeaseExpiryMillis Expiry in milliseconds, default is 24 hours
+     * @return This journal for chained method calls.
+     */
+    public LicenseLeaseJournal withStaleLeaseExpiry(long staleLeaseExpiryMillis) {
+        this.staleLeaseExpiryMillis = staleLeaseExpiryMillis;
+        return this;
+    }
+
+    public File getJournalFile() {
+        return journalFile;
+    }
+
+    /***
+     * Records a license acquired by this process.
+     * @param source Where the license came from
+     * @param shortName The short name of the license
+     * @param workers The number of workers acquired
+     * @return The recorded lease, to later provide to {@link #remove(Lease)}
+     * @throws IOException If the journal could not be updated
+     */
+    public Lease record(String source, String shortName, int workers) throws IOException {
+        ProcessHandle current = ProcessHandle.current();
+        Lease lease = new Lease();
+        lease.id = UUID.randomUUID().toString();
+        lease.source = source;
+        lease.shortName = shortName;
+        lease.workers = workers;
+        lease.pid = current.pid();
+        lease.processStartMillis = current.info().startInstant().map(Instant::toEpochMilli).orElse(0L);
+        lease.host = getHostName();
+        lease.acquiredMillis = System.currentTimeMillis();
+        update(leases -> leases.add(lease));
+        return lease;
+    }
+
+    /***
+     * Removes a lease once its license has been released.
+     * @param lease The lease returned by {@link #record(String, String, int)}
+     * @throws IOException If the journal could not be updated
+     */
+    public void remove(Lease lease) throws IOException {
+        update(leases -> leases.removeIf(l -> l.id.equals(lease.id)));
+    }
+
+    /***
+     * @return All leases in the journal.
+     * @throws IOException If the journal could not be read
+     */
+    public List<Lease> getLeases() throws IOException {
+        List<Lease> result = new ArrayList<>();
+        update(result::addAll);
+        return result;
+    }
+
+    /***
+     * Finds leases held by processes on this host which are no longer running and releases them using the
+     * {@link StaleLeaseHandler}, removing those dealt with from the journal.  Stale leases are claimed (taken out of
+     * the journal) before being handed to the handler, so that engines starting at the same time in other processes
+     * do not also try to release them; those the handler fails to release are put back.
+     * @return The orphaned leases which were found
+     * @throws IOException If the journal could not be updated
+     */
+    public List<Lease> recoverStaleLeases() throws IOException {
+        String host = getHostName();
+        List<Lease> staleLeases = new ArrayList<>();
+        update(leases -> {
+            for (Iterator<Lease> iterator = leases.iterator(); iterator.hasNext(); ) {
+                Lease lease = iterator.next();
+                // Only processes on this host can be checked
+                if (host.equalsIgnoreCase(lease.host) && lease.isStale()) {
+                    staleLeases.add(lease);
+                    iterator.remove();
+                }
+            }
+        });
+        if (staleLeases.isEmpty()) {
+            return staleLeases;
+        }
+
+        int orphanedWorkers = staleLeases.stream().mapToInt(Lease::getWorkers).sum();
+        log.warn("Found {} license leases ({} workers) orphaned by processes which are no longer running",
+                staleLeases.size(), orphanedWorkers);
+
+        List<Lease> unresolved = new ArrayList<>();
+        for (Lease lease : staleLeases) {
+            if (staleLeaseHandler == null) {
+                log.warn("Discarded orphaned {} from the journal without releasing it, no stale lease handler was " +
+                        "provided.  It will remain checked out until the license server times it out", lease);
+                continue;
+            }
+
+            boolean released = false;
+            try {
+                released = staleLeaseHandler.release(lease);
+            } catch (Exception exc) {
+                log.warn("Error while releasing orphaned " + lease, exc);
+            }
+
+            if (released) {
+                log.info("Orphaned {} has been released", lease);
+            } else if (System.currentTimeMillis() - lease.acquiredMillis > staleLeaseExpiryMillis) {
+                log.info("Orphaned {} is older than {}ms, assuming the license server has timed it out", lease,
+                        staleLeaseExpiryMillis);
+            } else {
+                unresolved.add(lease);
+            }
+        }
+
+        if (!unresolved.isEmpty()) {
+            log.info("Returning {} orphaned leases to the journal to try again at the next startup", unresolved.size());
+            try {
+                update(leases -> leases.addAll(unresolved));
+            } catch (IOException exc) {
+                log.error("Could not return orphaned leases to the journal, they will not be retried: {}", unresolved);
+                throw exc;
+            }
+        }
+        return staleLeases;
+    }
+
+    private interface JournalUpdate {
+        void apply(List<Lease> leases);
+    }
+
+    /***
+     * Reads the journal, applies the update and writes the journal back, all while holding the journal's lock.
+     */
+    private void update(JournalUpdate journalUpdate) throws IOException {
+        File parent = journalFile.getAbsoluteFile().getParentFile();
+        parent.mkdirs();
+        try {
+            SharedFileLock.withLock(new File(journalFile.getAbsolutePath() + ".lock"), () -> {
+                List<Lease> leases = null;
+                if (journalFile.isFile()) {
+                    leases = gson.fromJson(Files.readString(journalFile.toPath(), StandardCharsets.UTF_8),
+                            new TypeToken<List<Lease>>() {}.getType());
+                }
+                if (leases == null) {
+                    leases = new ArrayList<>();
+                }
+
+                String before = gson.toJson(leases);
+                journalUpdate.apply(leases);
+                String after = gson.toJson(leases);
+                if (!after.equals(before)) {
+                    File tempFile = File.createTempFile("lease-journal", ".tmp", parent);
+                    Files.writeString(tempFile.toPath(), after, StandardCharsets.UTF_8);
+                    Files.move(tempFile.toPath(), journalFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                }
+                return null;
+            });
+        } catch (IOException exc) {
+            throw exc;
+        } catch (Exception exc) {
+            throw new IOException("Error while updating license lease journal " + journalFile.getAbsolutePath(), exc);
+        }
+    }
+
+    private static String getHostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (Exception exc) {
+            return "localhost";
+        }
+    }
+}
@@ -1,8 +1,11 @@
 package com.nuix.innovation.enginewrapper;
 
 import lombok.NonNull;
+import nuix.engine.AvailableLicence;
 import nuix.engine.Engine;
 
+import java.util.Optional;
+
 /***
  * An interface for providing {@link NuixEngine} license resolution.
  * @author Jason Wells
@@ -16,4 +19,64 @@ public interface LicenseResolver {
      * to bubble up for caller to respond to.
      */
     boolean resolveLicense(@NonNull Engine engine) throws Exception;
+
+    /***
+     * Attempts to license the provided Engine instance, requesting a specific worker count from licenses which
+     * support choosing one.  Used by {@link NuixEngine#reacquireLicense(int)} to resize the workers held by a long-lived
+     * engine.  Resolvers which cannot request a worker count (the default) behave as {@link #resolveLicense(Engine)}.
+     * @param engine The engine instance to attempt to license.
+     * @param workerCount The number of workers to request
+     * @return True if a license was obtained, false if not.
+     * @throws Exception Exceptions thrown by any of the methods working to obtain a license will be uncaught and allowed
+     * to bubble up for caller to respond to.
+     */
+    default boolean resolveLicense(@NonNull Engine engine, int workerCount) throws Exception {
+        return resolveLicense(engine);
+    }
+
+    /***
+     * Whether this resolver supports finding a license separately from acquiring it, through
+     * {@link #findLicense(Engine)} and {@link #acquireLicense(Engine, AvailableLicence)}.  This allows
+     * {@link NuixEngine#setRaceLicenseResolvers(boolean)} to perform discovery for several resolvers at the same time.
+     * Resolvers which do not (the default) are only ever called upon through {@link #resolveLicense(Engine)}.
+     * @return True if discovery and acquisition are supported separately
+     */
+    default boolean supportsDiscovery() {
+        return false;
+    }
+
+    /***
+     * Whether discovery by this resolver relies on process wide state, such as the "nuix.registry.servers" system
+     * property, which it must have to itself while discovering.  When racing resolvers (see
+     * {@link NuixEngine#setRaceLicenseResolvers(boolean)}), such resolvers are discovered one at a time in resolver
+     * order rather than at the same time.  Defaults to false.
+     * @return True if discovery must not run at the same time as that of other such resolvers
+     */
+    default boolean usesRegistryServers() {
+        return false;
+    }
+
+    /***
+     * Finds the license this resolver would acquire, without acquiring it.  Resolvers which do not support
+     * discovery (see {@link #supportsDiscovery()}) find nothing, the default.
+     * @param engine The engine instance licenses are being found for
+     * @return The license which would be acquired, or empty if there is no suitable license
+     * @throws Exception If thrown while finding licenses
+     */
+    default Optional<AvailableLicence> findLicense(@NonNull Engine engine) throws Exception {
+        return Optional.empty();
+    }
+
+    /***
+     * Acquires a license previously found by {@link #findLicense(Engine)}.  Resolvers which do not support
+     * discovery (see {@link #supportsDiscovery()}) ignore the provided license and behave as
+     * {@link #resolveLicense(Engine)}, the default.
+     * @param engine The engine instance to license
+     * @param licence The license returned by {@link #findLicense(Engine)}
+     * @return True if a license was acquired
+     * @throws Exception If thrown while acquiring the license
+     */
+    default boolean acquireLicense(@NonNull Engine engine, @NonNull AvailableLicence licence) throws Exception {
+        return resolveLicense(engine);
+    }
 }
@@ -0,0 +1,346 @@
+package com.nuix.innovation.enginewrapper;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/***
+ * Tracks the health of the license sources {@link NuixLicenseResolver} instances use (the Cloud License Server, a
+ * given Nuix Management Server host and port, dongles, a custom source) and acts as a circuit breaker for each of them.
+ * After {@link #withFailureThreshold(int)} consecutive failures a source's breaker opens and resolvers using this
+ * tracker skip that source, rather than each engine start waiting out the same connection timeout.  Once the backoff
+ * has elapsed a single probe attempt is allowed through; if it succeeds the breaker closes, if it fails the breaker
+ * opens again with the backoff doubled, up to {@link #withMaxBackoff(long)}.<br><br>
+ * Provide a tracker to resolvers using {@link NuixLicenseResolver#withHealthTracker(LicenseSourceHealthTracker)}.  A
+ * tracker is meant to be shared by the resolvers of every engine started by the process, {@link #getShared()} provides
+ * a process wide instance for this.
+ * @author Jason Wells
+ */
+public class LicenseSourceHealthTracker {
+    private static final Logger log = LoggerFactory.getLogger(LicenseSourceHealthTracker.class);
+    private static final LicenseSourceHealthTracker shared = new LicenseSourceHealthTracker();
+
+    /***
+     * The state of a license source's circuit breaker.
+     */
+    public enum State {
+        /***
+         * The source is being used normally.
+         */
+        CLOSED,
+        /***
+         * The source has failed repeatedly and is skipped until its backoff has elapsed.
+         */
+        OPEN,
+        /***
+         * The backoff has elapsed and a probe attempt is being allowed through.
+         */
+        HALF_OPEN
+    }
+
+    /***
+     * A single recorded attempt to use a license source.
+     */
+    public static class Attempt {
+        private final long timestamp;
+        private final long durationMillis;
+        private final boolean succeeded;
+        private final String error;
+
+        Attempt(long timestamp, long durationMillis, boolean succeeded, String error) {
+            this.timestamp = timestamp;
+            this.durationMillis = durationMillis;
+            this.succeeded = succeeded;
+            this.error = error;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public long getDurationMillis() {
+            return durationMillis;
+        }
+
+        public boolean isSucceeded() {
+            return succeeded;
+        }
+
+        /***
+         * @return A description of the error for a failed attempt, otherwise null
+         */
+        public String getError() {
+            return error;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s in %sms%s", succeeded ? "Succeeded" : "Failed", durationMillis,
+                    succeeded ? "" : ": " + error);
+        }
+    }
+
+    /***
+     * A snapshot of the health of a single license source.
+     */
+    public static class SourceHealth {
+        private final String source;
+        private final State state;
+        private final int consecutiveFailures;
+        private final long retryAt;
+        private final List<Attempt> history;
+
+        SourceHealth(String source, State state, int consecutiveFailures, long retryAt, List<Attempt> history) {
+            this.source = source;
+            this.state = state;
+            this.consecutiveFailures = consecutiveFailures;
+            this.retryAt = retryAt;
+            this.history = Collections.unmodifiableList(history);
+        }
+
+        public String getSource() {
+            return source;
+        }
+
+        public State getState() {
+            return state;
+        }
+
+        public int getConsecutiveFailures() {
+            return consecutiveFailures;
+        }
+
+        /***
+         * @return When an open breaker will next allow a probe attempt (epoch millis), 0 if the breaker is not open
+         */
+        public long getRetryAt() {
+            return retryAt;
+        }
+
+        /***
+         * @return The most recent attempts, oldest first
+         */
+        public List<Attempt> getHistory() {
+            return history;
+        }
+
+        /***
+         * @return The fraction of attempts in the history which failed, 0.0 when there is no history
+         */
+        public double getFailureRate() {
+            if (history.isEmpty()) {
+                return 0.0;
+            }
+            return history.stream().filter(a -> !a.isSucceeded()).count() / (double) history.size();
+        }
+
+        /***
+         * @return The average duration of successful attempts in the history, -1 when there are none
+         */
+        public long getAverageLatencyMillis() {
+            return (long) history.stream().filter(Attempt::isSucceeded)
+                    .mapToLong(Attempt::getDurationMillis).average().orElse(-1);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %s, %s consecutive failures, failure rate %.0f%%, average latency %sms",
+                    source, state, consecutiveFailures, getFailureRate() * 100, getAverageLatencyMillis());
+        }
+    }
+
+    // Mutable state of a single source, guarded by the tracker
+    private static class SourceState {
+        private State state = State.CLOSED;
+        private int consecutiveFailures = 0;
+        private long backoffMillis = 0;
+        private long retryAt = 0;
+        private boolean probeInFlight = false;
+        private final Deque<Attempt> history = new ArrayDeque<>();
+    }
+
+    private final Map<String, SourceState> sources = new TreeMap<>();
+    private int failureThreshold = 3;
+    private long initialBackoffMillis = 30 * 1000;
+    private long maxBackoffMillis = 10 * 60 * 1000;
+    private int historySize = 20;
+
+    /***
+     * @return A tracker shared by the whole process
+     */
+    public static LicenseSourceHealthTracker getShared() {
+        return shared;
+    }
+
+    /***
+     * Specifies how many consecutive failures open a source's breaker.
+     * @param failureThreshold The number of consecutive failures, default is 3
+     * @return This tracker for chained method calls.
+     */
+    public LicenseSourceHealthTracker withFailureThreshold(int failureThreshold) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+        return this;
+    }
+
+    /***
+     * Specifies how long a source is skipped the first time its breaker opens.  Each failed probe doubles this.
+     * @param initialBackoffMillis The initial backoff in milliseconds, default is 30 seconds
+     * @return This tracker for chained method calls.
+     */
+    public LicenseSourceHealthTracker withInitialBackoff(long initialBackoffMillis) {
+        this.initialBackoffMillis = initialBackoffMillis;
+        return this;
+    }
+
+    /***
+     * Specifies the longest a source will be skipped between probe attempts.
+     * @param maxBackoffMillis The maximum backoff in milliseconds, default is 10 minutes
+     * @return This tracker for chained method calls.
+     */
+    public LicenseSourceHealthTracker withMaxBackoff(long maxBackoffMillis) {
+        this.maxBackoffMillis = maxBackoffMillis;
+        return this;
+    }
+
+    /***
+     * Specifies how many recent attempts are kept for each source.
+     * @param historySize The number of attempts to keep, default is 20
+     * @return This tracker for chained method calls.
+     */
+    public LicenseSourceHealthTracker withHistorySize(int historySize) {
+        this.historySize = Math.max(1, historySize);
+        return this;
+    }
+
+    /***
+     * Determines whether a source should be used now.  When this returns true for a source whose backoff has elapsed,
+     * the caller is making the probe attempt and must report its outcome through {@link #recordSuccess(String, long)},
+     * {@link #recordFailure(String, long, Throwable)} or {@link #recordAbandoned(String)}.
+     * @param source Identifies the license source
+     * @return True if the source should be used, false if it should be skipped
+     */
+    public synchronized boolean allowAttempt(String source) {
+        SourceState sourceState = getState(source);
+        switch (sourceState.state) {
+            case OPEN:
+                if (System.currentTimeMillis() < sourceState.retryAt) {
+                    return false;
+                }
+                log.info("Backoff for license source {} has elapsed, allowing a probe attempt", source);
+                sourceState.state = State.HALF_OPEN;
+                sourceState.probeInFlight = true;
+                return true;
+            case HALF_OPEN:
+                // Only one probe at a time
+                if (sourceState.probeInFlight) {
+                    return false;
+                }
+                sourceState.probeInFlight = true;
+                return true;
+            default:
+                return true;
+        }
+    }
+
+    /***
+     * Records that a source was used successfully, closing its breaker.
+     * @param source Identifies the license source
+     * @param durationMillis How long the attempt took
+     */
+    public synchronized void recordSuccess(String source, long durationMillis) {
+        SourceState sourceState = getState(source);
+        if (sourceState.state != State.CLOSED) {
+            log.info("License source {} has recovered, closing its breaker", source);
+        }
+        sourceState.state = State.CLOSED;
+        sourceState.consecutiveFailures = 0;
+        sourceState.backoffMillis = 0;
+        sourceState.retryAt = 0;
+        sourceState.probeInFlight = false;
+        addAttempt(sourceState, new Attempt(System.currentTimeMillis(), durationMillis, true, null));
+    }
+
+    /***
+     * Records that using a source failed, opening its breaker once the failure threshold is reached or if this was
+     * a probe attempt.
+     * @param source Identifies the license source
+     * @param durationMillis How long the attempt took
+     * @param error What went wrong
+     */
+    public synchronized void recordFailure(String source, long durationMillis, Throwable error) {
+        SourceState sourceState = getState(source);
+        sourceState.consecutiveFailures++;
+        sourceState.probeInFlight = false;
+        addAttempt(sourceState, new Attempt(System.currentTimeMillis(), durationMillis, false, String.valueOf(error)));
+
+        if (sourceState.state == State.HALF_OPEN) {
+            sourceState.backoffMillis = Math.min(maxBackoffMillis, Math.max(initialBackoffMillis, sourceState.backoffMillis * 2));
+        } else if (sourceState.state == State.CLOSED && sourceState.consecutiveFailures >= failureThreshold) {
+            sourceState.backoffMillis = Math.min(maxBackoffMillis, initialBackoffMillis);
+        } else {
+            return;
+        }
+        sourceState.state = State.OPEN;
+        sourceState.retryAt = System.currentTimeMillis() + sourceState.backoffMillis;
+        log.warn("License source {} has failed {} consecutive times, skipping it for {}ms", source,
+                sourceState.consecutiveFailures, sourceState.backoffMillis);
+    }
+
+    /***
+     * Records that an attempt allowed by {@link #allowAttempt(String)} never reached the source, so its outcome says
+     * nothing about the source's health.
+     * @param source Identifies the license source
+     */
+    public synchronized void recordAbandoned(String source) {
+        SourceState sourceState = getState(source);
+        if (sourceState.state == State.HALF_OPEN && sourceState.probeInFlight) {
+            sourceState.probeInFlight = false;
+        }
+    }
+
+    /***
+     * @param source Identifies the license source
+     * @return A snapshot of the health of the source
+     */
+    public synchronized SourceHealth getHealth(String source) {
+        SourceState sourceState = getState(source);
+        return new SourceHealth(source, sourceState.state, sourceState.consecutiveFailures,
+                sourceState.state == State.OPEN ? sourceState.retryAt : 0, new ArrayList<>(sourceState.history));
+    }
+
+    /***
+     * @return A snapshot of the health of every source this tracker has seen
+     */
+    public synchronized List<SourceHealth> getAllHealth() {
+        List<SourceHealth> result = new ArrayList<>();
+        for (String source : sources.keySet()) {
+            result.add(getHealth(source));
+        }
+        return result;
+    }
+
+    /***
+     * Forgets everything recorded about every source, closing all breakers.
+     */
+    public synchronized void reset() {
+        sources.clear();
+    }
+
+    private SourceState getState(String source) {
+        return sources.computeIfAbsent(source, s -> new SourceState());
+    }
+
+    private void addAttempt(SourceState sourceState, Attempt attempt) {
+        sourceState.history.addLast(attempt);
+        while (sourceState.history.size() > historySize) {
+            sourceState.history.removeFirst();
+        }
+    }
+}
@@ -1,48 +1,388 @@
 package com.nuix.innovation.enginewrapper;
 
 import java.io.File;
+import java.io.IOException;
 import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
+import javax.management.InstanceNotFoundException;
 import javax.management.MBeanServer;
 import javax.management.MBeanServerFactory;
+import javax.management.MalformedObjectNameException;
 import javax.management.ObjectName;
 
+import org.apache.commons.io.FileUtils;
 import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /***
- * Provides methods for generating Nuix diagnostics files.
+ * Provides methods for generating Nuix diagnostics files.  Diagnostics are generated by the Nuix DiagnosticsControl
+ * MBean, which is located with targeted ObjectName queries the first time it is needed and then cached.<br><br>
+ * {@link #saveDiagnosticsToFileAsync(File, long, long)} generates diagnostics on a background thread, so that they can
+ * be captured from code which cannot afford to wait for the zip file to be written.  Overloads accepting a
+ * {@link RuntimeSnapshotSampler} also bundle its most recent snapshots with the diagnostics, so that they show what the
+ * JVM was doing in the minutes leading up to the capture.
  * @author Jason Wells
  */
 public class NuixDiagnostics {
 	private final static Logger logger = LoggerFactory.getLogger(NuixDiagnostics.class);
+	private final static String DIAGNOSTICS_BEAN_NAME = "DiagnosticsControl";
+	private final static String SNAPSHOTS_DIRECTORY_NAME = "RuntimeSnapshots";
+	private final static String[] DIAGNOSTICS_BEAN_PATTERNS = {
+			"*:type=" + DIAGNOSTICS_BEAN_NAME + ",*",
+			"*:name=" + DIAGNOSTICS_BEAN_NAME + ",*",
+			"*" + DIAGNOSTICS_BEAN_NAME + "*:*"
+	};
+
+	// Guards the cached bean separately, so that resolving it never holds up starting an asynchronous capture
+	private final static Object diagnosticsBeanLock = new Object();
+	private static MBeanServer diagnosticsBeanServer = null;
+	private static ObjectName diagnosticsBeanName = null;
+	private static ExecutorService captureExecutor = null;
+	private static CompletableFuture<Result> generationInProgress = null;
+	private static CompletableFuture<Result> captureInProgress = null;
+	private static File captureInProgressFile = null;
 
 	/***
-	 * Saves a Nuix diagnostics zip file at the specified path.
-	 * @param zipFile The zip file to save Nuix diagnostics into
+	 * The outcome of an asynchronous diagnostics capture.
 	 */
-	public static void saveDiagnosticsToFile(File zipFile){
+	public static class Result {
+		private final File zipFile;
+		private final boolean successful;
+		private final long sizeBytes;
+		private final long elapsedMillis;
+		private final String error;
+
+		Result(File zipFile, boolean successful, long sizeBytes, long elapsedMillis, String error) {
+			this.zipFile = zipFile;
+			this.successful = successful;
+			this.sizeBytes = sizeBytes;
+			this.elapsedMillis = elapsedMillis;
+			this.error = error;
+		}
+
+		public File getZipFile() {
+			return zipFile;
+		}
+
+		/***
+		 * @return True if the diagnostics file was written within the caps of the capture.
+		 */
+		public boolean isSuccessful() {
+			return successful;
+		}
+
+		/***
+		 * @return Size of the diagnostics file in bytes, 0 if none was written.
+		 */
+		public long getSizeBytes() {
+			return sizeBytes;
+		}
+
+		public long getElapsedMillis() {
+			return elapsedMillis;
+		}
+
+		/***
+		 * @return Why the capture was not successful, otherwise null.
+		 */
+		public String getError() {
+			return error;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("Diagnostics %s: %s bytes in %sms%s", zipFile, sizeBytes, elapsedMillis,
+					successful ? "" : ", failed: " + error);
+		}
+	}
+
+	/***
+	 * Locates the DiagnosticsControl MBean, querying for it by ObjectName pattern on the platform MBean server and then
+	 * on any other MBean servers.  Falls back to scanning all MBean names only if none of the patterns match.  The
+	 * result is cached.  Must be called while holding diagnosticsBeanLock.
+	 * @return True if the bean was found
+	 */
+	private static boolean resolveDiagnosticsBean() {
+		if (diagnosticsBeanName != null) {
+			return true;
+		}
+
 		List<MBeanServer> beanServers = new ArrayList<MBeanServer>();
 		beanServers.add(ManagementFactory.getPlatformMBeanServer());
 		beanServers.addAll(MBeanServerFactory.findMBeanServer(null));
+		try {
+			for (String pattern : DIAGNOSTICS_BEAN_PATTERNS) {
+				ObjectName query = new ObjectName(pattern);
+				for (MBeanServer mBeanServer : beanServers) {
+					Set<ObjectName> objectNames = mBeanServer.queryNames(query, null);
+					if (!objectNames.isEmpty()) {
+						diagnosticsBeanServer = mBeanServer;
+						diagnosticsBeanName = objectNames.iterator().next();
+						return true;
+					}
+				}
+			}
+		} catch (MalformedObjectNameException e) {
+			logger.error("Error querying for diagnostics bean", e);
+		}
+
 		for (MBeanServer mBeanServer : beanServers) {
-			Set<ObjectName> objectNames = mBeanServer.queryNames(null, null);
-			for (ObjectName beanName : objectNames) {
-				if(beanName.toString().contains("DiagnosticsControl")){
-					zipFile.mkdirs();
-					try {
-						mBeanServer.invoke(beanName,"generateDiagnostics",new Object[] {zipFile.getPath()},new String[] {"java.lang.String"});
-						return;
-					} catch (Exception e) {
-						logger.error("Error saving diagnostics", e);
+			for (ObjectName beanName : mBeanServer.queryNames(null, null)) {
+				if (beanName.toString().contains(DIAGNOSTICS_BEAN_NAME)) {
+					logger.info("Diagnostics bean {} was only found by scanning all beans", beanName);
+					diagnosticsBeanServer = mBeanServer;
+					diagnosticsBeanName = beanName;
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/***
+	 * Uses the provided MBean for generating diagnostics instead of locating one, until it is no longer registered.
+	 * Allows tests to supply a stand-in for the Nuix DiagnosticsControl MBean.
+	 * @param mBeanServer The server the bean is registered with
+	 * @param beanName The name of the bean, null to locate the DiagnosticsControl MBean again when next needed
+	 */
+	static void setDiagnosticsBean(MBeanServer mBeanServer, ObjectName beanName) {
+		synchronized (diagnosticsBeanLock) {
+			diagnosticsBeanServer = beanName != null ? mBeanServer : null;
+			diagnosticsBeanName = beanName;
+		}
+	}
+
+	/***
+	 * Generates diagnostics using the cached DiagnosticsControl MBean, resolving it again once if the cached bean is no
+	 * longer registered.
+	 * @param zipFile The zip file to save Nuix diagnostics into
+	 * @throws Exception If the bean could not be found or generating diagnostics failed
+	 */
+	private static void generateDiagnostics(File zipFile) throws Exception {
+		for (int attempt = 0; attempt < 2; attempt++) {
+			MBeanServer mBeanServer;
+			ObjectName beanName;
+			synchronized (diagnosticsBeanLock) {
+				if (!resolveDiagnosticsBean()) {
+					throw new IllegalStateException("Nuix " + DIAGNOSTICS_BEAN_NAME + " MBean could not be found");
+				}
+				mBeanServer = diagnosticsBeanServer;
+				beanName = diagnosticsBeanName;
+			}
+
+			zipFile.mkdirs();
+			try {
+				mBeanServer.invoke(beanName,"generateDiagnostics",new Object[] {zipFile.getPath()},new String[] {"java.lang.String"});
+				return;
+			} catch (InstanceNotFoundException e) {
+				synchronized (diagnosticsBeanLock) {
+					diagnosticsBeanServer = null;
+					diagnosticsBeanName = null;
+				}
+				if (attempt > 0) {
+					throw e;
+				}
+			}
+		}
+	}
+
+	/***
+	 * Adds the most recent snapshots of a sampler to generated diagnostics, in a "RuntimeSnapshots" directory.
+	 * Diagnostics written as a zip file have the snapshots added to the zip, diagnostics written as a directory have
+	 * them copied into it.  Errors are logged rather than thrown, so that a problem with the snapshots does not cost
+	 * the diagnostics themselves.
+	 * @param zipFile The zip file Nuix diagnostics were saved into
+	 * @param sampler The sampler whose snapshots are bundled, may be null
+	 * @param snapshotCount Maximum number of snapshots to bundle
+	 */
+	private static void bundleSnapshots(File zipFile, RuntimeSnapshotSampler sampler, int snapshotCount) {
+		if (sampler == null || snapshotCount < 1) {
+			return;
+		}
+		List<File> snapshotFiles = sampler.getLatestSnapshotFiles(snapshotCount);
+		if (snapshotFiles.isEmpty()) {
+			return;
+		}
+
+		try {
+			if (zipFile.isDirectory()) {
+				File snapshotsDirectory = new File(zipFile, SNAPSHOTS_DIRECTORY_NAME);
+				snapshotsDirectory.mkdirs();
+				for (File snapshotFile : snapshotFiles) {
+					FileUtils.copyFileToDirectory(snapshotFile, snapshotsDirectory);
+				}
+			} else {
+				URI zipUri = URI.create("jar:" + zipFile.getAbsoluteFile().toURI());
+				try (FileSystem zipFileSystem = FileSystems.newFileSystem(zipUri, Collections.singletonMap("create", String.valueOf(!zipFile.exists())))) {
+					Path snapshotsDirectory = Files.createDirectories(zipFileSystem.getPath(SNAPSHOTS_DIRECTORY_NAME));
+					for (File snapshotFile : snapshotFiles) {
+						Files.copy(snapshotFile.toPath(), snapshotsDirectory.resolve(snapshotFile.getName()), StandardCopyOption.REPLACE_EXISTING);
 					}
 				}
 			}
+			logger.info("Bundled {} runtime snapshots with diagnostics {}", snapshotFiles.size(), zipFile);
+		} catch (IOException e) {
+			logger.error("Error bundling runtime snapshots with diagnostics", e);
+		}
+	}
+
+	/***
+	 * Saves a Nuix diagnostics zip file at the specified path.
+	 * @param zipFile The zip file to save Nuix diagnostics into
+	 */
+	public static void saveDiagnosticsToFile(File zipFile){
+		saveDiagnosticsToFile(zipFile, null, 0);
+	}
+
+	/***
+	 * Saves a Nuix diagnostics zip file at the specified path, along with the most recent snapshots of the provided
+	 * sampler.  The snapshots are bundled even if generating the Nuix diagnostics fails.
+	 * @param zipFile The zip file to save Nuix diagnostics into
+	 * @param sampler The sampler whose snapshots are bundled, may be null
+	 * @param snapshotCount Maximum number of the most recent snapshots to bundle
+	 */
+	public static void saveDiagnosticsToFile(File zipFile, RuntimeSnapshotSampler sampler, int snapshotCount){
+		try {
+			generateDiagnostics(zipFile);
+		} catch (Exception e) {
+			logger.error("Error saving diagnostics", e);
+		}
+		bundleSnapshots(zipFile, sampler, snapshotCount);
+	}
+
+	/***
+	 * Saves a Nuix diagnostics zip file at the specified path on a background thread, returning right away.  Only one
+	 * capture runs at a time; while one is in progress, further calls for the same file return its future rather than
+	 * starting another, so triggering diagnostics repeatedly (for example on every failure of a hot code path) does not
+	 * pile up captures.  Calls for a different file while one is in progress are rejected, returning an unsuccessful
+	 * result right away.
+	 * @param zipFile The zip file to save Nuix diagnostics into
+	 * @param timeoutMillis Maximum time to wait for diagnostics to be generated, 0 or less for no limit.  Generation
+	 *                      cannot be aborted once started, but the future completes as unsuccessful once this elapses.
+	 * @param maxBytes Maximum size of the diagnostics file, 0 or less for no limit.  A larger file is deleted and the
+	 *                 capture reported as unsuccessful.
+	 * @return A future which completes with the outcome of the capture, never exceptionally
+	 */
+	public static CompletableFuture<Result> saveDiagnosticsToFileAsync(File zipFile, long timeoutMillis, long maxBytes) {
+		return saveDiagnosticsToFileAsync(zipFile, timeoutMillis, maxBytes, null, 0);
+	}
+
+	/***
+	 * Saves a Nuix diagnostics zip file at the specified path on a background thread, along with the most recent
+	 * snapshots of the provided sampler, see {@link #saveDiagnosticsToFileAsync(File, long, long)}.  The size cap
+	 * applies to the diagnostics and bundled snapshots together.
+	 * @param zipFile The zip file to save Nuix diagnostics into
+	 * @param timeoutMillis Maximum time to wait for diagnostics to be generated, 0 or less for no limit
+	 * @param maxBytes Maximum size of the diagnostics file, 0 or less for no limit
+	 * @param sampler The sampler whose snapshots are bundled, may be null
+	 * @param snapshotCount Maximum number of the most recent snapshots to bundle
+	 * @return A future which completes with the outcome of the capture, never exceptionally
+	 */
+	public static synchronized CompletableFuture<Result> saveDiagnosticsToFileAsync(File zipFile, long timeoutMillis, long maxBytes,
+																				  RuntimeSnapshotSampler sampler, int snapshotCount) {
+		// A capture which timed out may still be generating, in which case it also counts as in progress
+		if (generationInProgress != null && !generationInProgress.isDone()) {
+			if (captureInProgressFile.getAbsoluteFile().equals(zipFile.getAbsoluteFile())) {
+				return captureInProgress;
+			}
+			String error = String.format("Diagnostics are already being captured to %s", captureInProgressFile);
+			logger.warn("Not capturing diagnostics to {}: {}", zipFile, error);
+			return CompletableFuture.completedFuture(new Result(zipFile, false, 0, 0, error));
+		}
+
+		if (captureExecutor == null) {
+			captureExecutor = Executors.newSingleThreadExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "NuixDiagnostics-Capture");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+
+		long started = System.currentTimeMillis();
+		CompletableFuture<Result> generation = CompletableFuture.supplyAsync(() -> {
+			String generationError = null;
+			try {
+				generateDiagnostics(zipFile);
+			} catch (Exception e) {
+				logger.error("Error saving diagnostics", e);
+				generationError = String.valueOf(e.getMessage());
+			}
+			bundleSnapshots(zipFile, sampler, snapshotCount);
+			if (generationError != null) {
+				return new Result(zipFile, false, 0, System.currentTimeMillis() - started, generationError);
+			}
+
+			long elapsedMillis = System.currentTimeMillis() - started;
+			long sizeBytes = zipFile.isFile() ? zipFile.length() : zipFile.isDirectory() ? FileUtils.sizeOfDirectory(zipFile) : 0;
+			if (maxBytes > 0 && sizeBytes > maxBytes) {
+				FileUtils.deleteQuietly(zipFile);
+				String error = String.format("Diagnostics were %s bytes, exceeding the cap of %s bytes, and were deleted", sizeBytes, maxBytes);
+				logger.warn(error);
+				return new Result(zipFile, false, 0, elapsedMillis, error);
+			}
+			Result result = new Result(zipFile, true, sizeBytes, elapsedMillis, null);
+			logger.info(result.toString());
+			return result;
+		}, captureExecutor);
+
+		CompletableFuture<Result> capture = generation.copy();
+		if (timeoutMillis > 0) {
+			capture = capture.completeOnTimeout(new Result(zipFile, false, 0, timeoutMillis,
+					String.format("Diagnostics were not generated within %sms", timeoutMillis)), timeoutMillis, TimeUnit.MILLISECONDS);
 		}
+		generationInProgress = generation;
+		captureInProgress = capture;
+		captureInProgressFile = zipFile;
+		return capture;
+	}
+
+	/***
+	 * Convenience method for saving a diagnostics file to a directory on a background thread.  Internally calls
+	 * {@link #saveDiagnosticsToFileAsync(File, long, long)} with a file path using the specified directory and a time
+	 * stamped file name.
+	 * @param directory The directory to save Nuix the diagnostics zip file to.
+	 * @param timeoutMillis Maximum time to wait for diagnostics to be generated, 0 or less for no limit
+	 * @param maxBytes Maximum size of the diagnostics file, 0 or less for no limit
+	 * @return A future which completes with the outcome of the capture, never exceptionally
+	 */
+	public static CompletableFuture<Result> saveDiagnosticsToDirectoryAsync(File directory, long timeoutMillis, long maxBytes) {
+		return saveDiagnosticsToFileAsync(getTimeStampedFile(directory), timeoutMillis, maxBytes);
+	}
+
+	/***
+	 * Convenience method for saving a diagnostics file, along with the most recent snapshots of the provided sampler, to
+	 * a directory on a background thread, see {@link #saveDiagnosticsToFileAsync(File, long, long, RuntimeSnapshotSampler, int)}.
+	 * @param directory The directory to save Nuix the diagnostics zip file to.
+	 * @param timeoutMillis Maximum time to wait for diagnostics to be generated, 0 or less for no limit
+	 * @param maxBytes Maximum size of the diagnostics file, 0 or less for no limit
+	 * @param sampler The sampler whose snapshots are bundled, may be null
+	 * @param snapshotCount Maximum number of the most recent snapshots to bundle
+	 * @return A future which completes with the outcome of the capture, never exceptionally
+	 */
+	public static CompletableFuture<Result> saveDiagnosticsToDirectoryAsync(File directory, long timeoutMillis, long maxBytes,
+																			RuntimeSnapshotSampler sampler, int snapshotCount) {
+		return saveDiagnosticsToFileAsync(getTimeStampedFile(directory), timeoutMillis, maxBytes, sampler, snapshotCount);
+	}
+
+	private static File getTimeStampedFile(File directory) {
+		DateTime timeStamp = DateTime.now();
+		String timeStampString = timeStamp.toString("yyyyMMddHHmmss");
+		return new File(directory,"NuixEngineDiagnostics-"+timeStampString+".zip");
 	}
 
 	/***
@@ -57,10 +397,19 @@ public class NuixDiagnostics {
 	 * @param directory The directory to save Nuix the diagnostics zip file to.
 	 */
 	public static void saveDiagnosticsToDirectory(File directory) {
-		DateTime timeStamp = DateTime.now();
-		String timeStampString = timeStamp.toString("yyyyMMddHHmmss");
-		File zipFile = new File(directory,"NuixEngineDiagnostics-"+timeStampString+".zip");
-		saveDiagnosticsToFile(zipFile);
+		saveDiagnosticsToFile(getTimeStampedFile(directory));
+	}
+
+	/***
+	 * Convenience method for saving a diagnostics file, along with the most recent snapshots of the provided sampler, to
+	 * a directory.  Internally calls {@link #saveDiagnosticsToFile(File, RuntimeSnapshotSampler, int)} with a file path
+	 * using the specified directory and a time stamped file name.
+	 * @param directory The directory to save Nuix the diagnostics zip file to.
+	 * @param sampler The sampler whose snapshots are bundled, may be null
+	 * @param snapshotCount Maximum number of the most recent snapshots to bundle
+	 */
+	public static void saveDiagnosticsToDirectory(File directory, RuntimeSnapshotSampler sampler, int snapshotCount) {
+		saveDiagnosticsToFile(getTimeStampedFile(directory), sampler, snapshotCount);
 	}
 
 	/***
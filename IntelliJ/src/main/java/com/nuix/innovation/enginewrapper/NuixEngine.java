@@ -1,9 +1,9 @@
 package com.nuix.innovation.enginewrapper;
 
 import com.google.common.base.Suppliers;
-import nuix.ThirdPartyDependency;
-import nuix.ThirdPartyDependencyStatus;
+import nuix.Case;
 import nuix.Utilities;
+import nuix.engine.AvailableLicence;
 import nuix.engine.Engine;
 import nuix.engine.GlobalContainer;
 import nuix.engine.GlobalContainerFactory;
@@ -25,10 +25,25 @@ import java.io.File;
 import java.io.IOException;
 import java.lang.management.ManagementFactory;
 import java.lang.management.RuntimeMXBean;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
@@ -67,25 +82,92 @@ import java.util.function.Supplier;
  * @author Jason Wells
  */
 public class NuixEngine implements AutoCloseable {
+    private static final int WORKER_SCALING_HISTORY_SIZE = 100;
+    // How long rescaleWorkers leaves a worker count which could not be acquired before asking for it again
+    private static final long UNREACHABLE_WORKER_COUNT_RETRY_MILLIS = 5 * 60 * 1000;
     private static GlobalContainer globalContainer = null;
+    private static int globalContainerReferences = 0;
+    private static boolean loggingConfigured = false;
+    // Description of the logging configuration in effect, see describeLoggingConfiguration
+    private static String activeLoggingConfiguration = null;
     protected Supplier<File> engineDistributionDirectorySupplier;
     protected Supplier<File> logDirectorySupplier;
     protected Supplier<File> userDataDirectorySupplier;
     protected List<LicenseResolver> nuixLicenseResolvers;
+    protected ScriptingContainerPool scriptingContainerPool;
+    protected boolean ownsScriptingContainerPool = false;
+    protected ScriptCache scriptCache;
+    protected ScriptOutputDispatcher scriptOutputDispatcher;
+    protected boolean scriptOutputDispatcherPerRun = false;
+    protected ScriptOutputDispatcher ownedScriptOutputDispatcher;
+    protected Executor scriptExecutor;
+    protected int scriptConcurrency = 0;
+    protected ExecutorService ownedScriptExecutor;
+    protected final ScriptStatistics scriptStatistics = new ScriptStatistics();
 
     protected Logger log = null;
     protected Engine engine = null;
     protected Utilities utilities = null;
     protected Thread shutdownHook = null;
+    protected boolean stopLoggingOnClose = false;
+    protected long shutdownDrainTimeoutMillis = 30 * 1000;
+    protected AsyncLogging asyncLogging = null;
+    protected File jobLogDirectory = null;
+    protected RuntimeSnapshotSampler runtimeSnapshotSampler = null;
+    protected boolean closing = false;
+    protected final Set<RubyScriptRunner> activeScriptRunners = ConcurrentHashMap.newKeySet();
+    protected boolean warmUpScriptingContainersOnStart = false;
+    protected CompletableFuture<Utilities> utilitiesFuture = null;
+    protected CompletableFuture<DependencyCheckReport> dependencyCheckFuture = null;
+    protected ThirdPartyDependencyChecker dependencyChecker = new ThirdPartyDependencyChecker();
+    protected boolean raceLicenseResolvers = false;
+    protected long licenseDiscoveryTimeoutMillis = 0;
+    protected StartupReport startupReport = null;
+    protected File startupHistoryFile = null;
+    protected final Map<String, Long> startupPhaseBudgets = new HashMap<>();
+    protected WorkerScalingPolicy workerScalingPolicy = null;
+    protected final List<WorkerScalingDecision> workerScalingHistory = new ArrayList<>();
+    protected long lastBusyMillis = System.currentTimeMillis();
+    // Whether the license held lets us choose its worker count, null while not known
+    protected Boolean licenseCanChooseWorkers = null;
+    // Smallest worker count which recently could not be acquired and when, see rescaleWorkers
+    protected int unreachableWorkerCount = 0;
+    protected long unreachableWorkerCountMillis = 0;
+    protected LicenseLeaseJournal leaseJournal = null;
+    protected LicenseLeaseJournal.Lease currentLease = null;
+    protected LicenseResolver licensingResolver = null;
+    protected boolean holdsGlobalContainerReference = false;
+    protected boolean releaseGlobalContainerOnClose = false;
 
     protected NuixEngine() {
     }
 
-    public static void closeGlobalContainer() {
+    /***
+     * Closes the process wide GlobalContainer, unless an instance which has not yet been closed is still using it.
+     * Creating a GlobalContainer is expensive, so it is kept open once created for other instances to share, until
+     * either this is called or the last instance using it is closed with
+     * {@link #setReleaseGlobalContainerOnClose(boolean)} enabled.
+     * @return True if the GlobalContainer was closed (or there was none), false if instances are still using it.
+     */
+    public static synchronized boolean closeGlobalContainer() {
+        if (globalContainerReferences > 0) {
+            LogManager.getLogger(NuixEngine.class).warn(String.format(
+                    "Not closing GlobalContainer, it is still in use by %s NuixEngine instances", globalContainerReferences));
+            return false;
+        }
         if (globalContainer != null) {
             globalContainer.close();
             globalContainer = null;
         }
+        return true;
+    }
+
+    /***
+     * @return The number of instances currently using the process wide GlobalContainer, those which have started
+     * initialization and have not yet been closed.
+     */
+    public static synchronized int getGlobalContainerReferenceCount() {
+        return globalContainerReferences;
     }
 
     /***
@@ -256,6 +338,365 @@ public class NuixEngine implements AutoCloseable {
         return this;
     }
 
+    /***
+     * Logging is configured by the first instance to be initialized and is shared by all instances in the process, so
+     * by default closing an instance leaves it running for the next instance, and log4j2 stops it when the JVM exits.
+     * When enabled, closing this instance also stops log4j2 if no other instance is still using the GlobalContainer.
+     * Logging can also be stopped explicitly with {@link #stopLogging()}.
+     * @param stopLoggingOnClose Whether {@link #close()} should stop log4j2
+     * @return This instance for method call chaining
+     */
+    public NuixEngine setStopLoggingOnClose(boolean stopLoggingOnClose) {
+        this.stopLoggingOnClose = stopLoggingOnClose;
+        return this;
+    }
+
+    /***
+     * Enables asynchronous logging, so that formatting and writing log events happens on background threads rather
+     * than on the threads logging them, see {@link AsyncLogging}.  Logging is configured once for the process by the
+     * first instance to be initialized, so this only has an effect on that instance.
+     * @param asyncLogging The asynchronous logging settings, or null to log synchronously (the default)
+     * @return This instance for method call chaining
+     */
+    public NuixEngine setAsyncLogging(AsyncLogging asyncLogging) {
+        this.asyncLogging = asyncLogging;
+        return this;
+    }
+
+    /***
+     * Routes log events logged within a {@link JobLogScope} to a log file per job in the provided directory, see
+     * {@link JobLogRouter}.  Routing is set up once for the process, the first instance initialized with a job log
+     * directory decides where job logs are written.
+     * @param jobLogDirectory Directory job log files are written to, or null to not route job logs
+     * @return This instance for method call chaining
+     */
+    public NuixEngine setJobLogDirectory(File jobLogDirectory) {
+        this.jobLogDirectory = jobLogDirectory;
+        return this;
+    }
+
+    /***
+     * Periodically captures snapshots of the JVM (threads, memory, garbage collection, load) to a rolling set of files
+     * while this instance is in use, see {@link RuntimeSnapshotSampler}.  The sampler is started once logging has been
+     * initialized and stopped when this instance is closed.  If the sampler has no directory, snapshots are written to
+     * the "snapshots" sub directory of the log directory.
+     * @param runtimeSnapshotSampler The sampler, or null to not capture snapshots (the default)
+     * @return This instance for method call chaining
+     */
+    public NuixEngine setRuntimeSnapshotSampler(RuntimeSnapshotSampler runtimeSnapshotSampler) {
+        this.runtimeSnapshotSampler = runtimeSnapshotSampler;
+        return this;
+    }
+
+    public RuntimeSnapshotSampler getRuntimeSnapshotSampler() {
+        return runtimeSnapshotSampler;
+    }
+
+    /***
+     * When closed, this instance stops accepting new Ruby scripts and waits for scripts already running (and their
+     * callbacks) and the background dependency checks to finish before releasing its license.  Scripts still running
+     * once this timeout has elapsed are stopped.
+     * @param shutdownDrainTimeoutMillis Timeout in milliseconds, default is 30 seconds, 0 or less to stop running scripts
+     *                                   right away
+     * @return This instance for method call chaining
+     */
+    public NuixEngine setShutdownDrainTimeout(long shutdownDrainTimeoutMillis) {
+        this.shutdownDrainTimeoutMillis = shutdownDrainTimeoutMillis;
+        return this;
+    }
+
+    /***
+     * By default, the process wide GlobalContainer is kept open once created, so that instances created later do not
+     * pay to create it again (see {@link #closeGlobalContainer()}).  When enabled, closing this instance also closes the
+     * GlobalContainer if no other instance is still using it.
+     * @param releaseGlobalContainerOnClose Whether {@link #close()} should close the GlobalContainer when this is the
+     *                                      last instance using it
+     * @return This instance for method call chaining
+     */
+    public NuixEngine setReleaseGlobalContainerOnClose(boolean releaseGlobalContainerOnClose) {
+        this.releaseGlobalContainerOnClose = releaseGlobalContainerOnClose;
+        return this;
+    }
+
+    /***
+     * When enabled, the {@link ScriptingContainerPool} starts booting its JRuby containers in the background while the
+     * engine is being initialized and licensed, so the first Ruby script run does not have to wait for one to boot.
+     * @param warmUpScriptingContainersOnStart Whether to warm up scripting containers during initialization
+     * @return This instance for method call chaining
+     */
+    public NuixEngine setWarmUpScriptingContainersOnStart(boolean warmUpScriptingContainersOnStart) {
+        this.warmUpScriptingContainersOnStart = warmUpScriptingContainersOnStart;
+        return this;
+    }
+
+    /***
+     * By default, the license resolvers provided when creating this instance are called upon one at a time, so a slow
+     * or unreachable license server delays trying the resolvers after it.  When enabled, license discovery is
+     * performed for all resolvers at the same time (for resolvers which support it, see
+     * {@link LicenseResolver#supportsDiscovery()}), except that resolvers which use the registry servers take turns in
+     * the order provided (see {@link LicenseResolver#usesRegistryServers()}).  Resolver order still decides which
+     * license is acquired: the first resolver, in the order provided, which found a license wins.  Only that license
+     * is acquired and the discovery of the remaining resolvers is cancelled.  The time each resolver took is logged
+     * and recorded in the {@link StartupReport}, which can help with tuning resolver order.
+     * @param raceLicenseResolvers Whether to perform license discovery for all resolvers at the same time
+     * @return This instance for method call chaining
+     */
+    public NuixEngine setRaceLicenseResolvers(boolean raceLicenseResolvers) {
+        this.raceLicenseResolvers = raceLicenseResolvers;
+        return this;
+    }
+
+    /***
+     * When racing license resolvers (see {@link #setRaceLicenseResolvers(boolean)}), specifies how long to wait for
+     * the discovery of a resolver before cancelling it in favour of the resolvers after it.  This time starts once the
+     * resolvers before it have been dealt with, since resolvers which use the registry servers are discovered one at
+     * a time (see {@link LicenseResolver#usesRegistryServers()}).
+     * @param licenseDiscoveryTimeoutMillis Timeout in milliseconds, 0 or less to wait as long as discovery takes
+     * @return This instance for method call chaining
+     */
+    public NuixEngine setLicenseDiscoveryTimeout(long licenseDiscoveryTimeoutMillis) {
+        this.licenseDiscoveryTimeoutMillis = licenseDiscoveryTimeoutMillis;
+        return this;
+    }
+
+    /***
+     * Specifies the policy {@link #rescaleWorkers(int)} consults to decide how many workers this instance should hold.
+     * @param workerScalingPolicy The policy to use, such as {@link WorkerScalingPolicy#queueDepth()}
+     * @return This instance for method call chaining
+     */
+    public NuixEngine setWorkerScalingPolicy(WorkerScalingPolicy workerScalingPolicy) {
+        this.workerScalingPolicy = workerScalingPolicy;
+        return this;
+    }
+
+    /***
+     * Specifies a journal in which the license held by this instance is recorded while it is held.  Before resolving a
+     * license, leases in the journal orphaned by processes which are no longer running (such as a JVM which was killed
+     * before its shutdown hook could release its license) are recovered, see {@link LicenseLeaseJournal}.
+     * @param leaseJournal The journal to use, or null to not keep one
+     * @return This instance for method call chaining
+     */
+    public NuixEngine setLeaseJournal(LicenseLeaseJournal leaseJournal) {
+        this.leaseJournal = leaseJournal;
+        return this;
+    }
+
+    /***
+     * Once licensed, the Nuix third party dependencies are checked in the background using a
+     * {@link ThirdPartyDependencyChecker}.  This method allows you to provide one configured with a different
+     * per check timeout or with a cache file, so that repeat startups on an unchanged host skip the checks.
+     * @param dependencyChecker The checker to use
+     * @return This instance for method call chaining
+     */
+    public NuixEngine setDependencyChecker(ThirdPartyDependencyChecker dependencyChecker) {
+        this.dependencyChecker = dependencyChecker;
+        return this;
+    }
+
+    /***
+     * Specifies a file each {@link StartupReport} is appended to as a line of JSON once initialization, including the
+     * background dependency checks, has finished.  Keeping this history makes it easy to spot startup regressions
+     * across Nuix upgrades or host changes.
+     * @param startupHistoryFile The JSON lines file to append to, or null to not record history
+     * @return This instance for method call chaining
+     */
+    public NuixEngine setStartupHistoryFile(File startupHistoryFile) {
+        this.startupHistoryFile = startupHistoryFile;
+        return this;
+    }
+
+    /***
+     * Specifies how long a startup phase is expected to take.  Each occurrence of the phase which takes longer is
+     * logged as a warning and listed by {@link StartupReport#getBudgetOverruns()}.
+     * @param phaseName The phase name, one of the constants of {@link StartupReport}, such as {@link StartupReport#LICENSE}
+     * @param budgetMillis The budget in milliseconds
+     * @return This instance for method call chaining
+     */
+    public NuixEngine setStartupPhaseBudget(String phaseName, long budgetMillis) {
+        startupPhaseBudgets.put(phaseName, budgetMillis);
+        return this;
+    }
+
+    /***
+     * Gets the timings of the most recent initialization of this instance.  Note that the report may still be
+     * receiving the timings of dependency checks, which are performed in the background, see
+     * {@link StartupReport#isComplete()}.
+     * @return The startup report, or null if initialization has not been started.
+     */
+    public synchronized StartupReport getStartupReport() {
+        return startupReport;
+    }
+
+    /***
+     * Ruby scripts run via {@link #runRubyScriptAsync(String, Map, Consumer, Consumer, BiConsumer)} and
+     * {@link #runRubyScriptFileAsync(File, Map, Consumer, Consumer, BiConsumer)} lease their JRuby scripting
+     * container from a {@link ScriptingContainerPool}.  This method allows you to provide the pool to use, for
+     * example to share one pool between multiple instances or to configure its size and idle timeout.  A pool
+     * provided this way is not closed when this instance is closed.  If not called, a pool with default settings is
+     * created the first time a script is run and closed along with this instance.
+     * @param scriptingContainerPool The pool Ruby scripts should lease their containers from
+     * @return This instance for method call chaining
+     */
+    public NuixEngine setScriptingContainerPool(ScriptingContainerPool scriptingContainerPool) {
+        this.scriptingContainerPool = scriptingContainerPool;
+        this.ownsScriptingContainerPool = false;
+        return this;
+    }
+
+    /***
+     * Gets the {@link ScriptingContainerPool} Ruby scripts run by this instance lease their containers from,
+     * creating one with default settings if one has not yet been provided.
+     * @return The scripting container pool used by this instance
+     */
+    public synchronized ScriptingContainerPool getScriptingContainerPool() {
+        if (scriptingContainerPool == null) {
+            scriptingContainerPool = new ScriptingContainerPool();
+            if (scriptConcurrency > 0) {
+                scriptingContainerPool.withMaxSize(scriptConcurrency);
+            }
+            ownsScriptingContainerPool = true;
+        }
+        return scriptingContainerPool;
+    }
+
+    /***
+     * Ruby scripts run via {@link #runRubyScriptAsync(String, Map, Consumer, Consumer, BiConsumer)} and
+     * {@link #runRubyScriptFileAsync(File, Map, Consumer, Consumer, BiConsumer)} are compiled through a
+     * {@link ScriptCache} so that scripts which are run repeatedly are not re-parsed each time.  This method allows you
+     * to provide the cache to use, for example one configured with a cache directory so compiled scripts survive JVM
+     * restarts.  If not called, an in-memory cache with default settings is used.
+     * @param scriptCache The script cache to use
+     * @return This instance for method call chaining
+     */
+    public NuixEngine setScriptCache(ScriptCache scriptCache) {
+        this.scriptCache = scriptCache;
+        return this;
+    }
+
+    /***
+     * Standard and error output of Ruby scripts run by this instance is delivered to its consumers through a
+     * {@link ScriptOutputDispatcher}.  This method allows you to provide a dispatcher with a specific queue capacity and
+     * {@link ScriptOutputDispatcher.OverflowPolicy}.  If not called, script runs share a dispatcher created by this
+     * instance, which is closed when this instance is closed (see also {@link #setScriptOutputDispatcherPerRun(boolean)}).
+     * @param scriptOutputDispatcher The dispatcher to deliver script output through
+     * @return This instance for method call chaining
+     */
+    public NuixEngine setScriptOutputDispatcher(ScriptOutputDispatcher scriptOutputDispatcher) {
+        this.scriptOutputDispatcher = scriptOutputDispatcher;
+        return this;
+    }
+
+    /***
+     * Specifies whether, when no dispatcher has been provided (see {@link #setScriptOutputDispatcher(ScriptOutputDispatcher)}),
+     * each Ruby script run delivers its output through a dispatcher of its own rather than one shared by all script
+     * runs of this instance.  A dispatcher per run costs a thread per run, but means a slow consumer of one script's
+     * output does not hold up the output of others.  Defaults to false.
+     * @param scriptOutputDispatcherPerRun True to create a dispatcher for each script run
+     * @return This instance for method call chaining
+     */
+    public NuixEngine setScriptOutputDispatcherPerRun(boolean scriptOutputDispatcherPerRun) {
+        this.scriptOutputDispatcherPerRun = scriptOutputDispatcherPerRun;
+        return this;
+    }
+
+    /***
+     * Gets the dispatcher which delivers the output of Ruby scripts run by this instance.
+     * @return The dispatcher provided by {@link #setScriptOutputDispatcher(ScriptOutputDispatcher)}, otherwise null if
+     * {@link #setScriptOutputDispatcherPerRun(boolean)} was set, otherwise a dispatcher shared by this instance's script
+     * runs, created when first needed.
+     */
+    public synchronized ScriptOutputDispatcher getScriptOutputDispatcher() {
+        if (scriptOutputDispatcher != null) {
+            return scriptOutputDispatcher;
+        } else if (scriptOutputDispatcherPerRun) {
+            return null;
+        } else {
+            if (ownedScriptOutputDispatcher == null) {
+                ownedScriptOutputDispatcher = new ScriptOutputDispatcher(ScriptOutputDispatcher.DEFAULT_CAPACITY,
+                        ScriptOutputDispatcher.OverflowPolicy.Block);
+            }
+            return ownedScriptOutputDispatcher;
+        }
+    }
+
+    /***
+     * Ruby scripts run by this instance execute on an {@link Executor}.  This method allows you to provide the executor
+     * to use, for example one sized to match a larger {@link ScriptingContainerPool}.  If not called,
+     * {@link RubyScriptRunner#getSharedExecutor()} is used.
+     * @param scriptExecutor The executor Ruby scripts should be run on
+     * @return This instance for method call chaining
+     */
+    public NuixEngine setScriptExecutor(Executor scriptExecutor) {
+        this.scriptExecutor = scriptExecutor;
+        return this;
+    }
+
+    /***
+     * Specifies how many Ruby scripts run by this instance may execute at the same time.  Every script run through
+     * {@link #runRubyScriptAsync(String, Map, Consumer, Consumer, BiConsumer)},
+     * {@link #submitRubyScript(String, Map, Consumer, Consumer, long)} and their file based equivalents executes in
+     * its own scripting container with its own copy of the injected variables, so independent read only scripts (reports,
+     * counts, etc.) against the same {@link Utilities} can run side by side.  When set, the default
+     * {@link ScriptingContainerPool} is created with this maximum size and, unless one was provided through
+     * {@link #setScriptExecutor(Executor)}, scripts run on an executor with this many threads which is shut down
+     * along with this instance.  If not called, concurrency is bounded by the defaults of
+     * {@link ScriptingContainerPool} and {@link RubyScriptRunner#getSharedExecutor()}, one per available processor.
+     * Must be called before the first script is run.
+     * @param scriptConcurrency The maximum number of scripts to execute at the same time, must be at least 1.
+     * @return This instance for method call chaining
+     */
+    public NuixEngine setScriptConcurrency(int scriptConcurrency) {
+        if (scriptConcurrency < 1) {
+            throw new IllegalArgumentException("scriptConcurrency must be at least 1");
+        }
+        this.scriptConcurrency = scriptConcurrency;
+        return this;
+    }
+
+    /***
+     * Gets the executor Ruby scripts run by this instance execute on.
+     * @return The executor provided by {@link #setScriptExecutor(Executor)}, otherwise an executor sized by
+     * {@link #setScriptConcurrency(int)} if that was called, otherwise {@link RubyScriptRunner#getSharedExecutor()}.
+     */
+    public synchronized Executor getScriptExecutor() {
+        if (scriptExecutor != null) {
+            return scriptExecutor;
+        } else if (scriptConcurrency > 0) {
+            if (ownedScriptExecutor == null) {
+                AtomicInteger threadNumber = new AtomicInteger();
+                ownedScriptExecutor = Executors.newFixedThreadPool(scriptConcurrency, runnable -> {
+                    Thread thread = new Thread(runnable, "NuixEngine-Script-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+            return ownedScriptExecutor;
+        } else {
+            return RubyScriptRunner.getSharedExecutor();
+        }
+    }
+
+    /***
+     * Gets the rolling per script statistics (wall time, CPU time, allocated bytes, compile vs execute time and output
+     * volume) of the Ruby scripts run by this instance, useful for finding which scripts are the most expensive.
+     * @return The script statistics of this instance
+     */
+    public ScriptStatistics getScriptStatistics() {
+        return scriptStatistics;
+    }
+
+    /***
+     * Gets the {@link ScriptCache} used by Ruby scripts run by this instance, creating an in-memory cache with default
+     * settings if one has not yet been provided.  Its hit and miss counters can be used to check cache effectiveness.
+     * @return The script cache used by this instance
+     */
+    public synchronized ScriptCache getScriptCache() {
+        if (scriptCache == null) {
+            scriptCache = new ScriptCache();
+        }
+        return scriptCache;
+    }
+
     /***
      * Gets Utilities object to begin making use of the Nuix API.  If instance has been previously obtained, then
      * that instance will be returned.  Otherwise, calling this method performs a series of steps to get setup:
@@ -291,78 +732,555 @@ public class NuixEngine implements AutoCloseable {
      *     <li>{@link #setEngineDistributionDirectoryFromEnvVar(String)}</li>
      *     <li>{@link #setEngineDistributionDirectoryFromEnvVar()}</li>
      * </ul>
+     * If initialization was already started by {@link #startAsync()} or {@link #getUtilitiesAsync()}, this waits for
+     * that initialization to complete rather than starting another one.
      *
      * @return If this instance already has an instance of Utilities, that is returned.  Otherwise necessary steps
      * will be taken to attempt to obtain and license underlying engine instance to ultimately provide a licensed
      * Utilities instance.
      * @throws Exception Allows exceptions to bubble up so caller can handle them.
      */
-    public Utilities getUtilities() throws Exception {
-        if (utilities == null) {
-            // Check to make sure some requirements are in place before proceeding
-            checkPreConditions();
+    public Utilities getUtilities() throws Exception {
+        CompletableFuture<Utilities> initialization;
+        boolean initializeOnCallingThread = false;
+        synchronized (this) {
+            if (closing) {
+                throw new IllegalStateException("NuixEngine is being closed");
+            }
+            if (utilitiesFuture == null) {
+                utilitiesFuture = new CompletableFuture<>();
+                initializeOnCallingThread = true;
+            }
+            initialization = utilitiesFuture;
+        }
+
+        // Either perform initialization here or wait on the one already in flight (see getUtilitiesAsync)
+        if (initializeOnCallingThread) {
+            initialize(initialization);
+        }
+        try {
+            initialization.get();
+        } catch (ExecutionException exc) {
+            if (exc.getCause() instanceof Exception) {
+                throw (Exception) exc.getCause();
+            } else {
+                throw exc;
+            }
+        }
+
+        // Set NuixVersion.current to right value
+        NuixVersion.setCurrent(NuixVersion.parse(engine.getVersion()));
+        return utilities;
+    }
+
+    /***
+     * Starts initializing and licensing this instance in the background, returning immediately.  This allows a
+     * process to begin booting the engine at startup and do other work (such as validating its input) in the
+     * meantime.  Calling {@link #getUtilities()} or {@link #getUtilitiesAsync()} afterwards shares this same
+     * initialization rather than starting another one.
+     * <pre>
+     * {@code
+     * NuixEngine nuixEngine = NuixEngine.usingFirstAvailableLicense(resolvers)
+     *     .setEngineDistributionDirectoryFromEnvVar()
+     *     .startAsync();
+     * // Do other work while the engine boots
+     * Utilities utilities = nuixEngine.getUtilities();
+     * }
+     * </pre>
+     * @return This instance for method call chaining
+     */
+    public NuixEngine startAsync() {
+        getUtilitiesAsync();
+        return this;
+    }
+
+    /***
+     * Asynchronous version of {@link #getUtilities()}.  Initialization (see {@link #getUtilities()}) is performed on a
+     * background thread, and concurrent callers all share the single initialization in flight.  While the engine is
+     * being licensed, scripting containers are warmed up if {@link #setWarmUpScriptingContainersOnStart(boolean)} was
+     * enabled, and once licensed the third party dependency checks are performed in the background (see
+     * {@link #getDependencyCheckAsync()}) rather than delaying the availability of Utilities.
+     * @return A future which completes with licensed Utilities, with null if no license could be obtained, or
+     * exceptionally if initialization failed.  Cancelling the returned future does not cancel initialization.
+     */
+    public CompletableFuture<Utilities> getUtilitiesAsync() {
+        CompletableFuture<Utilities> initialization;
+        synchronized (this) {
+            if (closing) {
+                return CompletableFuture.failedFuture(new IllegalStateException("NuixEngine is being closed"));
+            }
+            if (utilitiesFuture != null) {
+                return utilitiesFuture.copy();
+            }
+            utilitiesFuture = new CompletableFuture<>();
+            initialization = utilitiesFuture;
+        }
+
+        Thread startupThread = new Thread(() -> initialize(initialization), "NuixEngine-Startup");
+        startupThread.setDaemon(true);
+        startupThread.start();
+        return initialization.copy();
+    }
+
+    /***
+     * Gets a future for the third party dependency checks which are performed in the background once a license has
+     * been obtained (see {@link #logAllDependencyInfo(Utilities)}).
+     * @return A future which completes with the results of the checks, or null if they have not started.  If the list
+     * of dependencies could not be obtained, the future completes with null.
+     */
+    public synchronized CompletableFuture<DependencyCheckReport> getDependencyCheckAsync() {
+        return dependencyCheckFuture;
+    }
+
+    /***
+     * Performs initialization, completing the provided future with the outcome.  When initialization fails or no
+     * license is obtained the in flight future is cleared, so a later call can try again.
+     * @param initialization The future to complete
+     */
+    private void initialize(CompletableFuture<Utilities> initialization) {
+        try {
+            Utilities result = initializeUtilities();
+            if (result == null) {
+                synchronized (this) {
+                    utilitiesFuture = null;
+                }
+            }
+            initialization.complete(result);
+        } catch (Throwable throwable) {
+            synchronized (this) {
+                utilitiesFuture = null;
+            }
+            initialization.completeExceptionally(throwable);
+        }
+    }
+
+    /***
+     * Performs the steps described by {@link #getUtilities()}.
+     * @return Licensed Utilities or null if no license was obtained
+     * @throws Exception Allows exceptions to bubble up so caller can handle them.
+     */
+    private Utilities initializeUtilities() throws Exception {
+        StartupReport report = new StartupReport(startupPhaseBudgets);
+        synchronized (this) {
+            startupReport = report;
+        }
+
+        boolean dependencyChecksStarted = false;
+        try {
+            // Check to make sure some requirements are in place before proceeding
+            try (StartupReport.PhaseTimer phase = report.startPhase(StartupReport.PRECONDITIONS, null)) {
+                checkPreConditions();
+                phase.succeeded();
+            }
+
+            // Make sure logging gets initialized
+            try (StartupReport.PhaseTimer phase = report.startPhase(StartupReport.LOGGING, null)) {
+                initializeLogging();
+                phase.succeeded();
+            } catch (Exception exc) {
+                System.out.println("Error while initializing logging: " + exc.getMessage());
+                throw new Exception("Error while initializing logging", exc);
+            }
+
+            // Proceed with constructing engine instance, obtaining license and providing licensed Utilities
+            // to provided callback
+            log.info("Engine Distribution Directory: " + engineDistributionDirectorySupplier.get().getAbsolutePath());
+            log.info("Log Directory: " + logDirectorySupplier.get().getAbsolutePath());
+            log.info("User Data Directory: " + userDataDirectorySupplier.get().getAbsolutePath());
+
+            if (runtimeSnapshotSampler != null) {
+                if (runtimeSnapshotSampler.getDirectory() == null) {
+                    runtimeSnapshotSampler.withDirectory(new File(logDirectorySupplier.get(), "snapshots"));
+                }
+                runtimeSnapshotSampler.start();
+            }
+
+            // Booting JRuby does not depend on the engine, so it can overlap with engine creation and licensing
+            if (warmUpScriptingContainersOnStart) {
+                getScriptingContainerPool().warmUp();
+            }
+
+            try (StartupReport.PhaseTimer phase = report.startPhase(StartupReport.GLOBAL_CONTAINER, null)) {
+                ensureGlobalContainer();
+                phase.succeeded();
+            }
+            try (StartupReport.PhaseTimer phase = report.startPhase(StartupReport.NEW_ENGINE, null)) {
+                buildEngine();
+                phase.succeeded();
+            }
+            report.setNuixVersion(engine.getVersion());
+
+            if (leaseJournal != null) {
+                try (StartupReport.PhaseTimer phase = report.startPhase(StartupReport.LEASE_RECOVERY, null)) {
+                    leaseJournal.recoverStaleLeases();
+                    phase.succeeded();
+                } catch (IOException exc) {
+                    log.error("Error while recovering orphaned license leases, continuing without recovery", exc);
+                }
+            }
+
+            boolean licenseWasObtained;
+            try (StartupReport.PhaseTimer phase = report.startPhase(StartupReport.LICENSE, null)) {
+                licenseWasObtained = obtainLicense(report);
+                if (licenseWasObtained) {
+                    phase.succeeded();
+                }
+            }
+            report.setLicensed(licenseWasObtained);
+
+            if (licenseWasObtained) {
+                utilities = engine.getUtilities();
+                NuixVersion.setCurrent(NuixVersion.parse(engine.getVersion()));
+                recordLease();
+
+                // Dependency checks can take a while and are informational only, so they are performed in the
+                // background rather than delaying the caller
+                Utilities licensedUtilities = utilities;
+                synchronized (this) {
+                    dependencyCheckFuture = new CompletableFuture<>();
+                }
+                CompletableFuture<DependencyCheckReport> dependencyCheck = dependencyCheckFuture;
+                Thread dependencyCheckThread = new Thread(() -> {
+                    DependencyCheckReport dependencyCheckReport = null;
+                    try (StartupReport.PhaseTimer phase = report.startPhase(StartupReport.DEPENDENCY_CHECKS, null)) {
+                        dependencyCheckReport = logAllDependencyInfo(licensedUtilities);
+                        if (dependencyCheckReport != null) {
+                            phase.succeeded();
+                        }
+                    } finally {
+                        completeStartupReport(report);
+                        dependencyCheck.complete(dependencyCheckReport);
+                    }
+                }, "NuixEngine-DependencyCheck");
+                dependencyCheckThread.setDaemon(true);
+                dependencyCheckThread.start();
+                dependencyChecksStarted = true;
+            } else {
+                log.error("No license was able to be resolved");
+            }
+            return utilities;
+        } finally {
+            if (!dependencyChecksStarted) {
+                completeStartupReport(report);
+            }
+        }
+    }
+
+    /***
+     * Marks a startup report as complete, logs it and appends it to the startup history file if one was provided.
+     * @param report The report to complete
+     */
+    private void completeStartupReport(StartupReport report) {
+        report.markComplete();
+        Logger log = this.log;
+        if (log != null) {
+            log.info("Startup report: " + report);
+        }
+
+        if (startupHistoryFile != null) {
+            try {
+                report.appendTo(startupHistoryFile);
+            } catch (Exception exc) {
+                final String message = "Error while appending startup report to " + startupHistoryFile.getAbsolutePath();
+                if (log != null) {
+                    log.warn(message, exc);
+                } else {
+                    System.out.println(message + ": " + exc.getMessage());
+                }
+            }
+        }
+    }
+
+    /***
+     * Convenience method for running an operation with a licensed engine instance and then automatically closing this instance.
+     * Supplied consumer will be provided a utilities instance by internally calling {@link #getUtilities()}.
+     * Upon return from consumer, either from normal return or exception, a 'finally' block will call the
+     * {@link #close()} method for you.  Exceptions will be allowed to bubble up, so caller can handle them directly.
+     * @param throwCapableConsumer A callback which is to receive Utilities upon successful initialization and licensing.
+     * @throws Exception May be thrown by process or getting engine initialized or code in supplied consumer.
+     */
+    public void run(ThrowCapableConsumer<Utilities> throwCapableConsumer) throws Exception {
+        try {
+            throwCapableConsumer.accept(getUtilities());
+        } finally {
+            close();
+        }
+    }
+
+    /***
+     * @return The number of workers the license held by this instance provides, 0 if this instance is not licensed.
+     */
+    public synchronized int getWorkerCount() {
+        if (engine == null || utilities == null || engine.getLicence() == null) {
+            return 0;
+        }
+        Integer workers = engine.getLicence().getWorkers();
+        return workers == null ? 0 : workers;
+    }
+
+    /***
+     * Consults the policy provided by {@link #setWorkerScalingPolicy(WorkerScalingPolicy)} and, if it asks for a
+     * different worker count than is currently held, re-acquires the license with that count (see
+     * {@link #reacquireLicense(int)}).  Intended to be called by long-lived services between jobs, so that workers are
+     * taken from a shared pool while there is work queued up and returned to it while idle.  The license is left as it
+     * is when it does not support choosing a worker count, and a worker count which could not be acquired is not asked
+     * for again (nor any higher count) for 5 minutes.  Every decision is logged and recorded, see
+     * {@link #getWorkerScalingHistory()}.
+     * @param queuedJobs The number of jobs currently waiting to be run
+     * @return Licensed Utilities, which are a new instance if the license was re-acquired.
+     * @throws Exception If the license could be re-acquired with neither the target nor the previous worker count.
+     */
+    public synchronized Utilities rescaleWorkers(int queuedJobs) throws Exception {
+        if (workerScalingPolicy == null) {
+            throw new IllegalStateException("No worker scaling policy has been provided, see setWorkerScalingPolicy");
+        }
+
+        long now = System.currentTimeMillis();
+        if (queuedJobs > 0) {
+            lastBusyMillis = now;
+        }
+        long idleMillis = queuedJobs > 0 ? 0 : now - lastBusyMillis;
+        int previousWorkerCount = getWorkerCount();
+        int targetWorkerCount = workerScalingPolicy.chooseWorkerCount(previousWorkerCount, queuedJobs, idleMillis);
+
+        String error = null;
+        try {
+            if (targetWorkerCount != previousWorkerCount && targetWorkerCount > 0) {
+                if (Boolean.FALSE.equals(licenseCanChooseWorkers)) {
+                    log.info(String.format("License does not support choosing worker count, keeping %s workers rather than re-acquiring",
+                            previousWorkerCount));
+                } else if (unreachableWorkerCount > 0 && targetWorkerCount >= unreachableWorkerCount &&
+                        now - unreachableWorkerCountMillis < UNREACHABLE_WORKER_COUNT_RETRY_MILLIS) {
+                    log.info(String.format("A license with %s workers could not be acquired %sms ago, keeping %s workers",
+                            unreachableWorkerCount, now - unreachableWorkerCountMillis, previousWorkerCount));
+                } else {
+                    reacquireLicense(targetWorkerCount);
+                }
+            }
+            return utilities;
+        } catch (Exception exc) {
+            error = exc.getMessage();
+            throw exc;
+        } finally {
+            WorkerScalingDecision decision = new WorkerScalingDecision(now, queuedJobs, idleMillis, previousWorkerCount,
+                    targetWorkerCount, getWorkerCount(), System.currentTimeMillis() - now, error);
+            workerScalingHistory.add(decision);
+            while (workerScalingHistory.size() > WORKER_SCALING_HISTORY_SIZE) {
+                workerScalingHistory.remove(0);
+            }
+            if (log != null) {
+                log.info("Worker scaling decision by " + workerScalingPolicy + ": " + decision);
+            }
+        }
+    }
+
+    /***
+     * @return The decisions made by {@link #rescaleWorkers(int)}, oldest first (the most recent 100 are kept).
+     */
+    public synchronized List<WorkerScalingDecision> getWorkerScalingHistory() {
+        return new ArrayList<>(workerScalingHistory);
+    }
+
+    /***
+     * Releases the license held by this instance and acquires one with a different worker count, without shutting
+     * down the GlobalContainer, scripting containers or logging.  The Nuix API does not allow changing the license of
+     * an Engine, so the current Engine is closed (releasing its workers back to the pool) and a new one is created from
+     * the same GlobalContainer and licensed through the resolvers, each of which is asked for the provided worker count
+     * (see {@link LicenseResolver#resolveLicense(Engine, int)}).  If no resolver can provide that count, a license with
+     * the previous worker count is re-acquired instead.<br><br>
+     * Utilities and anything obtained from them (such as open cases) belong to the closed Engine, so this must only be
+     * called between jobs, and callers must use the returned Utilities afterwards.
+     * @param workerCount The number of workers to acquire
+     * @return Licensed Utilities from the new Engine
+     * @throws Exception If a license could be acquired with neither the requested nor the previous worker count.  This
+     * instance is left unlicensed and a later call to {@link #getUtilities()} will start over.
+     */
+    public synchronized Utilities reacquireLicense(int workerCount) throws Exception {
+        if (engine == null || utilities == null) {
+            throw new IllegalStateException("License can only be re-acquired once this instance is licensed, see getUtilities");
+        }
+
+        int previousWorkerCount = getWorkerCount();
+        log.info(String.format("Re-acquiring license with %s workers, currently holding %s workers", workerCount, previousWorkerCount));
+        releaseEngine();
+        buildEngine();
+        boolean licenseWasObtained = obtainLicenseWithWorkerCount(workerCount);
+        if (licenseWasObtained) {
+            Integer acquiredWorkerCount = engine.getLicence() != null ? engine.getLicence().getWorkers() : null;
+            if (acquiredWorkerCount != null && acquiredWorkerCount != workerCount) {
+                // Licenses which let us choose are acquired with the requested count, so this one has a fixed count
+                log.info(String.format("License was acquired with %s rather than %s workers, it does not support choosing worker count",
+                        acquiredWorkerCount, workerCount));
+                licenseCanChooseWorkers = false;
+            } else if (workerCount >= unreachableWorkerCount) {
+                unreachableWorkerCount = 0;
+            }
+        } else {
+            unreachableWorkerCount = unreachableWorkerCount > 0 ? Math.min(unreachableWorkerCount, workerCount) : workerCount;
+            unreachableWorkerCountMillis = System.currentTimeMillis();
+        }
+
+        if (!licenseWasObtained && previousWorkerCount > 0 && previousWorkerCount != workerCount) {
+            log.warn(String.format("Unable to acquire a license with %s workers, re-acquiring with previous %s workers",
+                    workerCount, previousWorkerCount));
+            releaseEngine();
+            buildEngine();
+            licenseWasObtained = obtainLicenseWithWorkerCount(previousWorkerCount);
+        }
+
+        if (!licenseWasObtained) {
+            releaseEngine();
+            utilitiesFuture = null;
+            throw new Exception(String.format("Unable to re-acquire a license with %s or %s workers", workerCount, previousWorkerCount));
+        }
+
+        utilities = engine.getUtilities();
+        utilitiesFuture = CompletableFuture.completedFuture(utilities);
+        recordLease();
+        log.info(String.format("Obtained license: %s", NuixLicenseFeaturesLogger.summarizeLicense(engine.getLicence())));
+        return utilities;
+    }
+
+    /***
+     * Closes the current Engine, releasing its license, and removes the shutdown hook registered for it by
+     * {@link #buildEngine()}.
+     */
+    private void releaseEngine() {
+        utilities = null;
+        if (shutdownHook != null) {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            shutdownHook = null;
+        }
+        if (engine != null) {
+            engine.close();
+            engine = null;
+        }
+        removeLease();
+    }
 
-            // Make sure logging gets initialized
+    /***
+     * Records the license now held by this instance in the lease journal, if there is one.
+     */
+    private void recordLease() {
+        if (leaseJournal == null) {
+            return;
+        }
+        removeLease();
+        String source;
+        if (licensingResolver instanceof NuixLicenseResolver) {
+            source = ((NuixLicenseResolver) licensingResolver).getSourceKey();
+        } else {
+            source = String.valueOf(licensingResolver);
+        }
+        String shortName = engine.getLicence() != null ? engine.getLicence().getShortName() : null;
+        try {
+            currentLease = leaseJournal.record(source, shortName, getWorkerCount());
+        } catch (IOException exc) {
+            log.error(String.format("Error while recording license lease (source %s, short name %s) in the lease " +
+                    "journal, it will not be recovered if this process dies", source, shortName), exc);
+        }
+    }
+
+    /***
+     * Removes the lease of this instance from the lease journal, once its license has been released.
+     */
+    private void removeLease() {
+        if (leaseJournal != null && currentLease != null) {
             try {
-                initializeLogging();
-            } catch (Exception exc) {
-                System.out.println("Error while initializing logging: " + exc.getMessage());
-                throw new Exception("Error while initializing logging", exc);
+                leaseJournal.remove(currentLease);
+            } catch (IOException exc) {
+                log.error(String.format("Error while removing released %s from the lease journal, it will be treated " +
+                        "as orphaned once this process exits", currentLease), exc);
             }
+        }
+        currentLease = null;
+    }
 
-            // Proceed with constructing engine instance, obtaining license and providing licensed Utilities
-            // to provided callback
-            log.info("Engine Distribution Directory: " + engineDistributionDirectorySupplier.get().getAbsolutePath());
-            log.info("Log Directory: " + logDirectorySupplier.get().getAbsolutePath());
-            log.info("User Data Directory: " + userDataDirectorySupplier.get().getAbsolutePath());
-
-            ensureGlobalContainer();
-            buildEngine();
-            if (obtainLicenseFromResolvers()) {
-                utilities = engine.getUtilities();
-                logAllDependencyInfo(utilities);
-            } else {
-                log.error("No license was able to be resolved");
+    /***
+     * Asks each resolver in turn to license the current Engine with the provided worker count.  Unlike at startup, an
+     * exception thrown by a resolver is logged and the next resolver is tried, since the caller still has the
+     * previous worker count to fall back on.
+     * @param workerCount The number of workers to request
+     * @return True if a license was obtained, false if not.
+     */
+    private boolean obtainLicenseWithWorkerCount(int workerCount) {
+        for (LicenseResolver resolver : nuixLicenseResolvers) {
+            log.info(String.format("Attempting to resolve license with %s workers using: %s", workerCount, resolver));
+            try {
+                if (resolver.resolveLicense(engine, workerCount)) {
+                    licensingResolver = resolver;
+                    return true;
+                }
+            } catch (Exception exc) {
+                log.error(String.format("Error while resolving license with %s workers using: %s", workerCount, resolver), exc);
             }
         }
-
-        // Set NuixVersion.current to right value
-        NuixVersion.setCurrent(NuixVersion.parse(engine.getVersion()));
-        return utilities;
+        return false;
     }
 
     /***
-     * Convenience method for running an operation with a licensed engine instance and then automatically closing this instance.
-     * Supplied consumer will be provided a utilities instance by internally calling {@link #getUtilities()}.
-     * Upon return from consumer, either from normal return or exception, a 'finally' block will call the
-     * {@link #close()} method for you.  Exceptions will be allowed to bubble up, so caller can handle them directly.
-     * @param throwCapableConsumer A callback which is to receive Utilities upon successful initialization and licensing.
-     * @throws Exception May be thrown by process or getting engine initialized or code in supplied consumer.
+     * For tests only.  Licenses the provided engine, rather than one built from an engine distribution, using the
+     * resolvers of this instance, so license resolution can be exercised against simulated license sources.  Only
+     * usable on an instance which has not started an engine of its own.
+     * @param engine The engine to license, this instance does not close it
+     * @param report The startup report each resolver attempt is recorded in
+     * @return True if a license was obtained, false if not.
+     * @throws IllegalStateException If this instance already has an engine
+     * @throws Exception Thrown by the resolvers and allowed to bubble up.
      */
-    public void run(ThrowCapableConsumer<Utilities> throwCapableConsumer) throws Exception {
+    synchronized boolean obtainLicenseFor(Engine engine, StartupReport report) throws Exception {
+        if (this.engine != null) {
+            throw new IllegalStateException("Cannot license a separate engine on an instance which already has an engine");
+        }
+        if (log == null) {
+            log = LogManager.getLogger(this.getClass());
+        }
+        this.engine = engine;
         try {
-            throwCapableConsumer.accept(getUtilities());
+            return obtainLicense(report);
         } finally {
-            close();
+            this.engine = null;
         }
     }
 
+    /***
+     * Licenses the current engine using the resolvers of this instance, either one after another or by racing them
+     * (see {@link #setRaceLicenseResolvers(boolean)}).
+     * @param report The startup report each resolver attempt is recorded in
+     * @return True if a license was obtained, false if not.
+     * @throws Exception Thrown by the resolvers and allowed to bubble up.
+     */
+    private boolean obtainLicense(StartupReport report) throws Exception {
+        licenseCanChooseWorkers = null;
+        return raceLicenseResolvers ? obtainLicenseByRacingResolvers(report) : obtainLicenseFromResolvers(report);
+    }
+
     /***
      * When creating a new instance via {@link NuixEngine#usingFirstAvailableLicense(LicenseResolver...)}, caller can
      * specify a series of {@link NuixLicenseResolver} instances which will be called upon in sequence until one acquires
      * a license.  This method iterates through those resolvers to make that happen.
+     * @param report The startup report each resolver attempt is recorded in
      * @return True if a license was obtained, false if not.
      * @throws Exception This method does not throw any methods itself, but instead allows any thrown methods to bubble up.
      */
-    private boolean obtainLicenseFromResolvers() throws Exception {
+    private boolean obtainLicenseFromResolvers(StartupReport report) throws Exception {
         boolean licenseWasObtained = false;
         // Iterate each provided license resolver in order until one signals to use it has licensed
         // our engine instance.
         for (LicenseResolver resolver : nuixLicenseResolvers) {
             log.info(String.format("Attempting to resolve license using: %s", resolver));
-            licenseWasObtained = resolver.resolveLicense(engine);
+            try (StartupReport.PhaseTimer phase = report.startPhase(StartupReport.LICENSE_RESOLVER, resolver.toString())) {
+                licenseWasObtained = resolver.resolveLicense(engine);
+                if (licenseWasObtained) {
+                    phase.succeeded();
+                }
+            }
             if (licenseWasObtained) {
                 log.info(String.format("Obtained license: %s", NuixLicenseFeaturesLogger.summarizeLicense(engine.getLicence())));
+                licensingResolver = resolver;
+                break;
+            } else if (adoptLateLicense(resolver)) {
+                licenseWasObtained = true;
                 break;
             } else {
                 log.info("No license was obtained, will try next resolver if there is one");
@@ -371,6 +1289,175 @@ public class NuixEngine implements AutoCloseable {
         return licenseWasObtained;
     }
 
+    /***
+     * A resolver which gave up on acquiring a license, for example because its acquire deadline passed, may still have
+     * licensed the engine by the time it returns.  Rather than acquiring another license on top of it with the next
+     * resolver, or reporting the engine as unlicensed while it holds a license, that license is adopted.
+     * @param resolver The resolver which last attempted to acquire a license
+     * @return True if the engine turned out to be licensed
+     */
+    private boolean adoptLateLicense(LicenseResolver resolver) {
+        if (engine.getLicence() == null) {
+            return false;
+        }
+        log.warn(String.format("Engine was licensed by %s even though it reported failure, keeping license: %s",
+                resolver, NuixLicenseFeaturesLogger.summarizeLicense(engine.getLicence())));
+        licensingResolver = resolver;
+        return true;
+    }
+
+    /***
+     * Performs license discovery for all resolvers which support it at the same time, then walks the resolvers in the
+     * order they were provided, acquiring the license found by the first of them which found one.  Resolvers which do
+     * not support separate discovery are called upon through {@link LicenseResolver#resolveLicense(Engine)} when
+     * their turn comes.  See {@link #setRaceLicenseResolvers(boolean)}.
+     * @param report The startup report the discovery and acquisition of each resolver is recorded in
+     * @return True if a license was obtained, false if not.
+     * @throws Exception If no license was obtained, the first exception thrown by a resolver, if any.
+     */
+    private boolean obtainLicenseByRacingResolvers(StartupReport report) throws Exception {
+        AtomicInteger discoveryThreadCount = new AtomicInteger();
+        ThreadFactory discoveryThreadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "NuixEngine-LicenseDiscovery-" + discoveryThreadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        // Resolvers which rely on the process wide registry servers property take turns using it, so rather than
+        // contending for it they are discovered one at a time in resolver order.  That way a slow server lower down
+        // the list cannot hold up a server higher up, while dongles and the like are still discovered alongside.
+        ExecutorService registryDiscoveryExecutor = Executors.newSingleThreadExecutor(discoveryThreadFactory);
+        ExecutorService discoveryExecutor = Executors.newCachedThreadPool(discoveryThreadFactory);
+        Map<LicenseResolver, Future<Optional<AvailableLicence>>> discoveries = new LinkedHashMap<>();
+        for (LicenseResolver resolver : nuixLicenseResolvers) {
+            if (resolver.supportsDiscovery()) {
+                ExecutorService executor = resolver.usesRegistryServers() ? registryDiscoveryExecutor : discoveryExecutor;
+                discoveries.put(resolver, executor.submit(() -> discoverLicense(resolver, report)));
+            }
+        }
+
+        Exception firstException = null;
+        try {
+            for (LicenseResolver resolver : nuixLicenseResolvers) {
+                Future<Optional<AvailableLicence>> discovery = discoveries.get(resolver);
+                boolean licenseWasObtained;
+                try {
+                    // Resolvers without separate discovery, or whose discovery was cancelled because acquiring an
+                    // earlier resolver's license failed, are resolved in full now
+                    if (discovery == null || discovery.isCancelled()) {
+                        log.info(String.format("Attempting to resolve license using: %s", resolver));
+                        try (StartupReport.PhaseTimer phase = report.startPhase(StartupReport.LICENSE_RESOLVER, resolver.toString())) {
+                            licenseWasObtained = resolver.resolveLicense(engine);
+                            if (licenseWasObtained) {
+                                phase.succeeded();
+                            }
+                        }
+                    } else {
+                        Optional<AvailableLicence> candidate;
+                        if (licenseDiscoveryTimeoutMillis > 0) {
+                            try {
+                                candidate = discovery.get(licenseDiscoveryTimeoutMillis, TimeUnit.MILLISECONDS);
+                            } catch (TimeoutException exc) {
+                                // Interrupting the discovery also lets the next registry discovery start
+                                discovery.cancel(true);
+                                throw exc;
+                            }
+                        } else {
+                            candidate = discovery.get();
+                        }
+
+                        licenseWasObtained = false;
+                        if (candidate.isPresent()) {
+                            // Other discovery still in progress could be holding up acquisition, for example by
+                            // holding the lock around the registry servers property, so it is cancelled first
+                            cancelLicenseDiscovery(discoveries);
+                            log.info(String.format("Acquiring license found using: %s", resolver));
+                            try (StartupReport.PhaseTimer phase = report.startPhase(StartupReport.LICENSE_ACQUIRE, resolver.toString())) {
+                                licenseWasObtained = resolver.acquireLicense(engine, candidate.get());
+                                if (licenseWasObtained) {
+                                    licenseCanChooseWorkers = candidate.get().canChooseWorkers();
+                                    phase.succeeded();
+                                }
+                            }
+                        }
+                    }
+                } catch (TimeoutException exc) {
+                    log.warn(String.format("License discovery using %s did not complete within %sms, cancelled it and " +
+                            "moving on to next resolver", resolver, licenseDiscoveryTimeoutMillis));
+                    continue;
+                } catch (ExecutionException exc) {
+                    Exception cause = exc.getCause() instanceof Exception ? (Exception) exc.getCause() : exc;
+                    log.error(String.format("Error while resolving license using %s, moving on to next resolver", resolver), cause);
+                    if (firstException == null) {
+                        firstException = cause;
+                    }
+                    continue;
+                } catch (Exception exc) {
+                    if (adoptLateLicense(resolver)) {
+                        return true;
+                    }
+                    log.error(String.format("Error while resolving license using %s, moving on to next resolver", resolver), exc);
+                    if (firstException == null) {
+                        firstException = exc;
+                    }
+                    continue;
+                }
+
+                if (licenseWasObtained) {
+                    log.info(String.format("Obtained license: %s", NuixLicenseFeaturesLogger.summarizeLicense(engine.getLicence())));
+                    licensingResolver = resolver;
+                    return true;
+                } else if (adoptLateLicense(resolver)) {
+                    return true;
+                } else {
+                    log.info("No license was obtained, will try next resolver if there is one");
+                }
+            }
+        } finally {
+            // Discovery still in progress is no longer needed, whether or not a license was obtained
+            cancelLicenseDiscovery(discoveries);
+            registryDiscoveryExecutor.shutdownNow();
+            discoveryExecutor.shutdownNow();
+        }
+
+        if (firstException != null) {
+            throw firstException;
+        }
+        return false;
+    }
+
+    /***
+     * Performs license discovery for one resolver while racing them, see {@link #obtainLicenseByRacingResolvers(StartupReport)}.
+     * @param resolver The resolver to perform discovery for
+     * @param report The startup report the discovery is recorded in
+     * @return The license the resolver found, if any
+     * @throws Exception Thrown by the resolver
+     */
+    private Optional<AvailableLicence> discoverLicense(LicenseResolver resolver, StartupReport report) throws Exception {
+        long started = System.currentTimeMillis();
+        try (StartupReport.PhaseTimer phase = report.startPhase(StartupReport.LICENSE_RESOLVER, resolver.toString())) {
+            Optional<AvailableLicence> candidate = resolver.findLicense(engine);
+            if (candidate.isPresent()) {
+                phase.succeeded();
+            }
+            log.info(String.format("License discovery using %s took %sms and %s", resolver,
+                    System.currentTimeMillis() - started, candidate.isPresent() ? "found a license" : "found no license"));
+            return candidate;
+        } catch (Exception exc) {
+            log.info(String.format("License discovery using %s failed after %sms: %s", resolver,
+                    System.currentTimeMillis() - started, exc.getMessage()));
+            throw exc;
+        }
+    }
+
+    private void cancelLicenseDiscovery(Map<LicenseResolver, Future<Optional<AvailableLicence>>> discoveries) {
+        discoveries.forEach((resolver, discovery) -> {
+            if (!discovery.isDone()) {
+                log.info("Cancelling license discovery using " + resolver);
+                discovery.cancel(true);
+            }
+        });
+    }
+
     /***
      * This method checks to ensure various things are configured early on in the engine initialization process.  We want
      * to detect common misconfigurations here and when detected report the issue.
@@ -502,56 +1589,122 @@ public class NuixEngine implements AutoCloseable {
      */
     protected void initializeLogging() {
         if (log == null) {
-            // Default log4j2.yaml included with engine distribution references these system properties
-            // so we want them in place before we ask log4j2 to reload configuration
-            System.setProperty("nuix.loglevel", "info");
-            System.setProperty("nuix.logdir", logDirectorySupplier.get().getAbsolutePath());
-
-            // Use Log4j2 config YAML from engine distribution directory
-            File log4jConfigFile = new File(engineDistributionDirectorySupplier.get(), "config/log4j2.yml");
-            System.setProperty("log4j.configurationFile", log4jConfigFile.toURI().toString());
-
-            // Report settings we're using
-            System.out.println("log4j.configurationFile => " + System.getProperty("log4j.configurationFile"));
-            System.out.println("nuix.loglevel => " + System.getProperty("nuix.loglevel"));
-            System.out.println("nuix.logdir => " + System.getProperty("nuix.logdir"));
-
-            // Log4j2 has likely already attempted to configure itself at this point but configuration
-            // above likely was not already in place at that moment.  Now that we have configured those values
-            // we ask log4j2 to reconfigure itself.  It should then find the "log4j.configurationFile" property
-            // and configure itself from that.
-            System.out.println("Asking log4j2 to reload configuration...");
-            LoggerContext context = (org.apache.logging.log4j.core.LoggerContext) LogManager.getContext(false);
-            context.reconfigure();
-
-            // Default log4j2.yml file only appends to console when logged event is fatal, also it logs that to
-            // SYSTEM_ERR rather than SYSTEM_OUT.  For testing it can be helpful to have INFO events written to the
-            // console, so we will add our own appender with these traits.
-            ConsoleAppender consoleAppender = ConsoleAppender.newBuilder()
-                    .setName("Nuix_Engine_Console_Appender")
-                    .setFilter(new AbstractFilter() {
-                        @Override
-                        public Result filter(LogEvent event) {
-                            return Result.NEUTRAL;
-                        }
-                    })
-                    .setLayout(PatternLayout.newBuilder().withPattern("%d{yyyy-MM-dd HH:mm:ss.SSS Z} [%t] %r %-5p %c - %m%n").build())
-                    .setConfiguration(context.getConfiguration()).build();
-            consoleAppender.start();
-            context.getConfiguration().addAppender(consoleAppender);
-            context.getRootLogger().addAppender(context.getConfiguration().getAppender(consoleAppender.getName()));
-            context.updateLoggers();
+            String requestedLoggingConfiguration = describeLoggingConfiguration();
+            String ignoredLoggingConfiguration = null;
+            String activeConfiguration;
+            synchronized (NuixEngine.class) {
+                // Logging configuration is process wide, so when several instances are in use (such as in an
+                // EnginePool) it is only configured by the first of them
+                if (!loggingConfigured) {
+                    // Default log4j2.yaml included with engine distribution references these system properties
+                    // so we want them in place before we ask log4j2 to reload configuration
+                    System.setProperty("nuix.loglevel", "info");
+                    System.setProperty("nuix.logdir", logDirectorySupplier.get().getAbsolutePath());
+
+                    // Use Log4j2 config YAML from engine distribution directory
+                    File log4jConfigFile = new File(engineDistributionDirectorySupplier.get(), "config/log4j2.yml");
+                    System.setProperty("log4j.configurationFile", log4jConfigFile.toURI().toString());
+
+                    // Report settings we're using
+                    System.out.println("log4j.configurationFile => " + System.getProperty("log4j.configurationFile"));
+                    System.out.println("nuix.loglevel => " + System.getProperty("nuix.loglevel"));
+                    System.out.println("nuix.logdir => " + System.getProperty("nuix.logdir"));
+
+                    // Log4j2 has likely already attempted to configure itself at this point but configuration
+                    // above likely was not already in place at that moment.  Now that we have configured those values
+                    // we ask log4j2 to reconfigure itself.  It should then find the "log4j.configurationFile" property
+                    // and configure itself from that.
+                    System.out.println("Asking log4j2 to reload configuration...");
+                    LoggerContext context = (org.apache.logging.log4j.core.LoggerContext) LogManager.getContext(false);
+                    context.reconfigure();
+
+                    // Default log4j2.yml file only appends to console when logged event is fatal, also it logs that to
+                    // SYSTEM_ERR rather than SYSTEM_OUT.  For testing it can be helpful to have INFO events written to the
+                    // console, so we will add our own appender with these traits.
+                    ConsoleAppender consoleAppender = ConsoleAppender.newBuilder()
+                            .setName("Nuix_Engine_Console_Appender")
+                            .setFilter(new AbstractFilter() {
+                                @Override
+                                public Result filter(LogEvent event) {
+                                    return Result.NEUTRAL;
+                                }
+                            })
+                            .setLayout(PatternLayout.newBuilder().withPattern("%d{yyyy-MM-dd HH:mm:ss.SSS Z} [%t] %r %-5p %c - %m%n").build())
+                            .setConfiguration(context.getConfiguration()).build();
+                    consoleAppender.start();
+                    context.getConfiguration().addAppender(consoleAppender);
+                    context.getRootLogger().addAppender(context.getConfiguration().getAppender(consoleAppender.getName()));
+                    context.updateLoggers();
+
+                    if (asyncLogging != null) {
+                        asyncLogging.install(context);
+                    }
+                    loggingConfigured = true;
+                    activeLoggingConfiguration = requestedLoggingConfiguration;
+                } else if (!requestedLoggingConfiguration.equals(activeLoggingConfiguration)) {
+                    ignoredLoggingConfiguration = requestedLoggingConfiguration;
+                }
+                activeConfiguration = activeLoggingConfiguration;
+
+                // Job log routing can be set up by any instance, but only once per logging configuration
+                if (jobLogDirectory != null) {
+                    JobLogRouter.install((LoggerContext) LogManager.getContext(false), jobLogDirectory);
+                }
+            }
 
             log = LogManager.getLogger(this.getClass());
+            if (ignoredLoggingConfiguration != null) {
+                log.warn("Logging was already configured by another NuixEngine instance, requested logging " +
+                        "configuration is ignored.  Requested: " + ignoredLoggingConfiguration +
+                        ", active: " + activeConfiguration);
+            }
         }
     }
 
     /***
-     * If we do not yet have a global container instance, creates one.
+     * @return A description of the process wide logging configuration this instance requests, used to detect when an
+     * instance initialized after logging was configured asks for something different.
+     */
+    private String describeLoggingConfiguration() {
+        String asyncDescription = asyncLogging == null ? "synchronous" :
+                String.format("asynchronous (bufferSize=%s, overflowPolicy=%s)", asyncLogging.getBufferSize(), asyncLogging.getOverflowPolicy());
+        return String.format("logDirectory=%s, %s", logDirectorySupplier.get().getAbsolutePath(), asyncDescription);
+    }
+
+    /***
+     * If we do not yet have a global container instance, creates one.  Also counts this instance as using it until
+     * closed, so that it is not closed out from under this instance by another one, see {@link #closeGlobalContainer()}.
      */
     protected void ensureGlobalContainer() {
-        if (globalContainer == null) {
-            globalContainer = GlobalContainerFactory.newContainer();
+        synchronized (NuixEngine.class) {
+            if (globalContainer == null) {
+                globalContainer = GlobalContainerFactory.newContainer();
+            }
+            if (!holdsGlobalContainerReference) {
+                holdsGlobalContainerReference = true;
+                globalContainerReferences++;
+            }
+        }
+    }
+
+    /***
+     * Stops counting this instance as using the GlobalContainer, closing it if this was the last instance using it and
+     * {@link #setReleaseGlobalContainerOnClose(boolean)} is enabled.
+     */
+    protected void releaseGlobalContainer() {
+        synchronized (NuixEngine.class) {
+            if (!holdsGlobalContainerReference) {
+                return;
+            }
+            holdsGlobalContainerReference = false;
+            globalContainerReferences--;
+            if (globalContainerReferences == 0 && releaseGlobalContainerOnClose && globalContainer != null) {
+                if (log != null) {
+                    log.info("Closing GlobalContainer, no other NuixEngine instances are using it");
+                }
+                globalContainer.close();
+                globalContainer = null;
+            }
         }
     }
 
@@ -562,13 +1715,20 @@ public class NuixEngine implements AutoCloseable {
      * period has elapsed for the license.
      */
     protected void buildEngine() {
-        System.setProperty("nuix.userDataBase", userDataDirectorySupplier.get().getAbsolutePath());
         Map<Object, Object> engineConfiguration = Map.of(
                 "user", System.getProperty("user.name"),
                 "userDataDirs", userDataDirectorySupplier.get().getAbsolutePath()
         );
 
-        engine = globalContainer.newEngine(engineConfiguration);
+        // The user data system property is process wide, so it is set and read by the new engine while holding the
+        // same lock instances starting on other threads (possibly with other user data directories) would need
+        synchronized (NuixEngine.class) {
+            if (globalContainer == null || !holdsGlobalContainerReference) {
+                throw new IllegalStateException("GlobalContainer has not been obtained, see ensureGlobalContainer");
+            }
+            System.setProperty("nuix.userDataBase", userDataDirectorySupplier.get().getAbsolutePath());
+            engine = globalContainer.newEngine(engineConfiguration);
+        }
         log.info("Obtained Engine instance v" + engine.getVersion());
 
         // Whenever we create an instance of the engine to hand over to the user, we will register
@@ -620,10 +1780,10 @@ public class NuixEngine implements AutoCloseable {
      * @param script The Ruby script to execute.  Cannot be null.
      * @param additionalVariables A map of any additional global/local variables you would like to set.  Note that
      *                            constants cannot be set using this approach.  Can be null.
-     * @param standardOutputReceiver Consumer which will receive standard output messages.  If null is provided, will
-     *                               default to logging info messages.
-     * @param errorOutputReceiver Consumer which will receive error output messages.  If null is provided, will
-     *                            default to logging error messages.
+     * @param standardOutputReceiver Consumer which will receive standard output, one line at a time without line
+     *                               terminators.  If null is provided, will default to logging info messages.
+     * @param errorOutputReceiver Consumer which will receive error output, one line at a time without line
+     *                            terminators.  If null is provided, will default to logging error messages.
      * @param completedCallback Optional callback to be invoked upon script completion.  Callback provided implicit value
      *                          of last script operation as well as map of variables.
      * @return A {@link RubyScriptRunner} instance.  Call {@link RubyScriptRunner#join()} to wait for script to complete.
@@ -633,16 +1793,8 @@ public class NuixEngine implements AutoCloseable {
                                                @Nullable Consumer<String> standardOutputReceiver,
                                                @Nullable Consumer<String> errorOutputReceiver,
                                                @Nullable BiConsumer<Object, BiVariableMap> completedCallback) throws Exception {
-        Map<String, Object> vars = new HashMap<>();
-        if (additionalVariables != null) {
-            vars.putAll(additionalVariables);
-        }
-
-        vars.put("$utilities", getUtilities());
-        vars.put("$nuix_version", getNuixVersion());
-        RubyScriptRunner rubyScriptRunner = new RubyScriptRunner();
-        rubyScriptRunner.setStandardOutputConsumer(standardOutputReceiver);
-        rubyScriptRunner.setErrorOutputConsumer(errorOutputReceiver);
+        Map<String, Object> vars = buildScriptVariables(additionalVariables);
+        RubyScriptRunner rubyScriptRunner = createRubyScriptRunner(standardOutputReceiver, errorOutputReceiver);
         if (completedCallback != null) {
             rubyScriptRunner.whenScriptCompletes(completedCallback);
         }
@@ -703,10 +1855,10 @@ public class NuixEngine implements AutoCloseable {
      * @param scriptFile The file containing the Ruby script to execute.  Cannot be null.
      * @param additionalVariables A map of any additional global/local variables you would like to set.  Note that
      *                            constants cannot be set using this approach.  Can be null.
-     * @param standardOutputReceiver Consumer which will receive standard output messages.  If null is provided, will
-     *                               default to logging info messages.
-     * @param errorOutputReceiver Consumer which will receive error output messages.  If null is provided, will
-     *                            default to logging error messages.
+     * @param standardOutputReceiver Consumer which will receive standard output, one line at a time without line
+     *                               terminators.  If null is provided, will default to logging info messages.
+     * @param errorOutputReceiver Consumer which will receive error output, one line at a time without line
+     *                            terminators.  If null is provided, will default to logging error messages.
      *  @param completedCallback Optional callback to be invoked upon script completion.  Callback provided implicit value
      *                           of last script operation as well as map of variables.
      * @return A {@link RubyScriptRunner} instance.  Call {@link RubyScriptRunner#join()} to wait for script to complete.
@@ -716,16 +1868,8 @@ public class NuixEngine implements AutoCloseable {
                                                    @Nullable Consumer<String> standardOutputReceiver,
                                                    @Nullable Consumer<String> errorOutputReceiver,
                                                    @Nullable BiConsumer<Object, BiVariableMap> completedCallback) throws Exception {
-        Map<String, Object> vars = new HashMap<>();
-        if (additionalVariables != null) {
-            vars.putAll(additionalVariables);
-        }
-
-        vars.put("$utilities", getUtilities());
-        vars.put("$nuix_version", getNuixVersion());
-        RubyScriptRunner rubyScriptRunner = new RubyScriptRunner();
-        rubyScriptRunner.setStandardOutputConsumer(standardOutputReceiver);
-        rubyScriptRunner.setErrorOutputConsumer(errorOutputReceiver);
+        Map<String, Object> vars = buildScriptVariables(additionalVariables);
+        RubyScriptRunner rubyScriptRunner = createRubyScriptRunner(standardOutputReceiver, errorOutputReceiver);
         if (completedCallback != null) {
             rubyScriptRunner.whenScriptCompletes(completedCallback);
         }
@@ -778,47 +1922,282 @@ public class NuixEngine implements AutoCloseable {
     }
 
     /***
-     * Logs information about all Nuix third party dependencies
+     * Submits the Ruby script contained in the provided String to be run, returning a future which completes with its
+     * {@link ScriptResult}.  The same variables/constants are injected as for
+     * {@link #runRubyScriptAsync(String, Map, Consumer, Consumer, BiConsumer)}.  If the script runs longer than
+     * timeoutMillis it is stopped and the result's exception is a {@link java.util.concurrent.TimeoutException}.
+     * Cancelling the returned future also stops the script.
+     * @param script The Ruby script to execute.  Cannot be null.
+     * @param additionalVariables A map of any additional global/local variables you would like to set.  Can be null.
+     * @param standardOutputReceiver Consumer which will receive standard output, one line at a time without line
+     *                               terminators.  If null is provided, will default to logging info messages.
+     * @param errorOutputReceiver Consumer which will receive error output, one line at a time without line
+     *                            terminators.  If null is provided, will default to logging error messages.
+     * @param timeoutMillis Maximum time in milliseconds the script may run for, 0 or less for no limit
+     * @return A future which completes with the result of the script run
+     * @throws Exception Exceptions are allowed to bubble up.
+     */
+    public CompletableFuture<ScriptResult> submitRubyScript(String script, @Nullable Map<String, Object> additionalVariables,
+                                                            @Nullable Consumer<String> standardOutputReceiver,
+                                                            @Nullable Consumer<String> errorOutputReceiver,
+                                                            long timeoutMillis) throws Exception {
+        Map<String, Object> vars = buildScriptVariables(additionalVariables);
+        RubyScriptRunner rubyScriptRunner = createRubyScriptRunner(standardOutputReceiver, errorOutputReceiver);
+        return rubyScriptRunner.submitScript(script, getNuixVersionString(), vars, timeoutMillis);
+    }
+
+    /***
+     * Submits the Ruby script contained in the specified file to be run, returning a future which completes with its
+     * {@link ScriptResult}.  The same variables/constants are injected as for
+     * {@link #runRubyScriptFileAsync(File, Map, Consumer, Consumer, BiConsumer)}.  If the script runs longer than
+     * timeoutMillis it is stopped and the result's exception is a {@link java.util.concurrent.TimeoutException}.
+     * Cancelling the returned future also stops the script.
+     * @param scriptFile The file containing the Ruby script to execute.  Cannot be null.
+     * @param additionalVariables A map of any additional global/local variables you would like to set.  Can be null.
+     * @param standardOutputReceiver Consumer which will receive standard output, one line at a time without line
+     *                               terminators.  If null is provided, will default to logging info messages.
+     * @param errorOutputReceiver Consumer which will receive error output, one line at a time without line
+     *                            terminators.  If null is provided, will default to logging error messages.
+     * @param timeoutMillis Maximum time in milliseconds the script may run for, 0 or less for no limit
+     * @return A future which completes with the result of the script run
+     * @throws Exception Exceptions are allowed to bubble up.
+     */
+    public CompletableFuture<ScriptResult> submitRubyScriptFile(File scriptFile, @Nullable Map<String, Object> additionalVariables,
+                                                                @Nullable Consumer<String> standardOutputReceiver,
+                                                                @Nullable Consumer<String> errorOutputReceiver,
+                                                                long timeoutMillis) throws Exception {
+        Map<String, Object> vars = buildScriptVariables(additionalVariables);
+        RubyScriptRunner rubyScriptRunner = createRubyScriptRunner(standardOutputReceiver, errorOutputReceiver);
+        return rubyScriptRunner.submitFile(scriptFile, getNuixVersionString(), vars, timeoutMillis);
+    }
+
+    /***
+     * Creates a {@link RubyScriptMapReduce} which runs a script defining <code>map(items)</code> and
+     * <code>reduce(partials)</code> against the items matching a query, mapping shards of items in parallel on this
+     * instance's {@link ScriptingContainerPool}.  The same variables/constants are injected as for
+     * {@link #runRubyScriptAsync(String, Map, Consumer, Consumer, BiConsumer)}, along with <code>$current_case</code>.
+     * Configure chunk size, parallelism and progress reporting on the returned object, then call
+     * {@link RubyScriptMapReduce#run()}.
+     * @param nuixCase The case to search
+     * @param query The query selecting the items to process
+     * @param script The Ruby script defining <code>map</code> and optionally <code>reduce</code>
+     * @return A configured {@link RubyScriptMapReduce} ready to be run
+     * @throws Exception Exceptions are allowed to bubble up.
+     */
+    public RubyScriptMapReduce mapReduceRubyScript(Case nuixCase, String query, String script) throws Exception {
+        return createRubyScriptMapReduce(nuixCase, query).withScript(script);
+    }
+
+    /***
+     * Creates a {@link RubyScriptMapReduce} which runs a script file defining <code>map(items)</code> and
+     * <code>reduce(partials)</code> against the items matching a query.  See
+     * {@link #mapReduceRubyScript(Case, String, String)} for details.
+     * @param nuixCase The case to search
+     * @param query The query selecting the items to process
+     * @param scriptFile The file containing the Ruby script defining <code>map</code> and optionally <code>reduce</code>
+     * @return A configured {@link RubyScriptMapReduce} ready to be run
+     * @throws Exception Exceptions are allowed to bubble up.
+     */
+    public RubyScriptMapReduce mapReduceRubyScriptFile(Case nuixCase, String query, File scriptFile) throws Exception {
+        return createRubyScriptMapReduce(nuixCase, query).withScriptFile(scriptFile);
+    }
+
+    private RubyScriptMapReduce createRubyScriptMapReduce(Case nuixCase, String query) throws Exception {
+        Map<String, Object> vars = buildScriptVariables(Map.of("$current_case", nuixCase));
+        return new RubyScriptMapReduce(getScriptingContainerPool(), nuixCase, query)
+                .withNuixVersion(getNuixVersionString())
+                .withVariables(vars)
+                .withExecutor(getScriptExecutor())
+                .withScriptCache(getScriptCache())
+                .withOutputDispatcher(getScriptOutputDispatcher());
+    }
+
+    private Map<String, Object> buildScriptVariables(@Nullable Map<String, Object> additionalVariables) throws Exception {
+        Map<String, Object> vars = new HashMap<>();
+        if (additionalVariables != null) {
+            vars.putAll(additionalVariables);
+        }
+
+        vars.put("$utilities", getUtilities());
+        vars.put("$nuix_version", getNuixVersion());
+        return vars;
+    }
+
+    private RubyScriptRunner createRubyScriptRunner(@Nullable Consumer<String> standardOutputReceiver,
+                                                    @Nullable Consumer<String> errorOutputReceiver) {
+        // Runners are kept track of so that close can wait for their scripts, those which are done are dropped here.
+        // Registering under the same lock close uses to set closing means a runner is either seen by drainWork or
+        // rejected, even if close started after buildScriptVariables obtained Utilities.
+        RubyScriptRunner rubyScriptRunner;
+        synchronized (this) {
+            if (closing) {
+                throw new IllegalStateException("NuixEngine is being closed");
+            }
+            rubyScriptRunner = new RubyScriptRunner(getScriptingContainerPool());
+            activeScriptRunners.removeIf(runner -> !runner.isAlive());
+            activeScriptRunners.add(rubyScriptRunner);
+        }
+
+        // Scripts started within a JobLogScope, and their output delivered on dispatcher threads, belong to that job
+        String jobId = JobLogScope.getCurrentJobId();
+        if (jobId != null) {
+            Logger scriptLog = LogManager.getLogger(RubyScriptRunner.class);
+            standardOutputReceiver = JobLogScope.withJobId(jobId, standardOutputReceiver != null ? standardOutputReceiver : scriptLog::info);
+            errorOutputReceiver = JobLogScope.withJobId(jobId, errorOutputReceiver != null ? errorOutputReceiver : scriptLog::error);
+        }
+        rubyScriptRunner.setStandardOutputConsumer(standardOutputReceiver);
+        rubyScriptRunner.setErrorOutputConsumer(errorOutputReceiver);
+        rubyScriptRunner.setScriptCache(getScriptCache());
+        rubyScriptRunner.setOutputDispatcher(getScriptOutputDispatcher());
+        rubyScriptRunner.setOutputDispatcherPerRun(scriptOutputDispatcherPerRun);
+        rubyScriptRunner.setExecutor(jobId != null ? JobLogScope.propagating(getScriptExecutor()) : getScriptExecutor());
+        rubyScriptRunner.whenMetricsRecorded(scriptStatistics::record);
+        return rubyScriptRunner;
+    }
+
+    /***
+     * Checks all Nuix third party dependencies using the {@link ThirdPartyDependencyChecker} (see
+     * {@link #setDependencyChecker(ThirdPartyDependencyChecker)}) and logs information about each of them.
      * @param utilities Needs an instance of Utilities to get access to third party dependency information
+     * @return The results of the checks, or null if the list of dependencies could not be obtained
      */
-    protected void logAllDependencyInfo(Utilities utilities) {
+    protected DependencyCheckReport logAllDependencyInfo(Utilities utilities) {
+        // Checks run in the background and this instance may be closed meanwhile, which clears its logger field
+        Logger log = this.log;
         log.info("Reviewing third party dependency statuses:");
+        DependencyCheckReport dependencyCheckReport;
         try {
-            List<ThirdPartyDependency> dependencies = utilities.getThirdPartyDependencies();
-            for (ThirdPartyDependency dependency : dependencies) {
-                try {
-                    ThirdPartyDependencyStatus status = dependency.performCheck();
+            File engineDistributionDirectory = engineDistributionDirectorySupplier != null ? engineDistributionDirectorySupplier.get() : null;
+            dependencyCheckReport = dependencyChecker.check(utilities, getNuixVersionString(), engineDistributionDirectory);
+        } catch (Exception e) {
+            log.error("Error while fetching list of third party dependencies", e);
+            return null;
+        }
+
+        // Timings are recorded in the startup report, unless called outside of initialization
+        StartupReport report = getStartupReport();
+        for (DependencyCheckReport.Result result : dependencyCheckReport.getResults()) {
+            switch (result.getState()) {
+                case OK:
+                case ATTENTION_REQUIRED:
                     log.info(String.format(
                             "[%s] '%s': %s",
-                            status.isAttentionRequired() ? " " : "X",
-                            dependency.getDescription(),
-                            status.getMessage()
+                            result.getState() == DependencyCheckReport.State.ATTENTION_REQUIRED ? " " : "X",
+                            result.getDescription(),
+                            result.getMessage()
                     ));
-                } catch (Exception e) {
+                    break;
+                default:
                     log.error(String.format(
-                            "[!] '%s': Error Checking Status: %s",
-                            dependency.getDescription(),
-                            e.getMessage()
+                            "[!] '%s': %s",
+                            result.getDescription(),
+                            result.getMessage()
                     ));
-                }
+                    break;
+            }
+
+            if (report != null && !dependencyCheckReport.isFromCache()) {
+                boolean completed = result.getState() == DependencyCheckReport.State.OK ||
+                        result.getState() == DependencyCheckReport.State.ATTENTION_REQUIRED;
+                report.recordPhase(new StartupReport.Phase(StartupReport.DEPENDENCY_CHECK, result.getDescription(),
+                        result.getStartedMillis(), result.getDurationMillis(), completed));
             }
-        } catch (Exception e) {
-            log.error("Error while fetching list of third party dependencies", e);
         }
+        log.info(dependencyCheckReport.toString());
+        return dependencyCheckReport;
     }
 
     /***
      * Cleans up resources associated with this instance:
      * <ul>
+     *     <li>Stops accepting new Ruby scripts and waits up to the drain timeout (see
+     *     {@link #setShutdownDrainTimeout(long)}) for running scripts and the background dependency checks to finish,
+     *     stopping scripts still running after that</li>
      *     <li>Calls close on underlying Engine instance</li>
+     *     <li>Closes the scripting container pool if this instance created it</li>
      *     <li>Drop reference to obtained Utilities object</li>
      *     <li>Unregisters shutdown hook</li>
-     *     <li>Shuts down logging</li>
+     *     <li>Shuts down logging if {@link #setStopLoggingOnClose(boolean)} was enabled</li>
      * </ul>
      * @throws Exception If thrown, was a result of a method being called by this method and allowed to bubble up to caller.
      */
     @Override
     public void close() throws Exception {
+        // If initialization is still in flight, let it finish first so that a license it obtains is released
+        CompletableFuture<Utilities> initialization;
+        synchronized (this) {
+            closing = true;
+            initialization = utilitiesFuture;
+            utilitiesFuture = null;
+        }
+        try {
+            if (initialization != null && !initialization.isDone()) {
+                try {
+                    initialization.get();
+                } catch (ExecutionException exc) {
+                    // Initialization failures are reported to those waiting on it
+                }
+            }
+
+            drainWork();
+            closeResources();
+        } finally {
+            synchronized (this) {
+                closing = false;
+            }
+        }
+    }
+
+    /***
+     * Waits for work still using the Utilities of this instance to finish, up to the drain timeout (see
+     * {@link #setShutdownDrainTimeout(long)}), then stops Ruby scripts which are still running.
+     */
+    private void drainWork() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + Math.max(0, shutdownDrainTimeoutMillis);
+
+        // Scripts and their completion callbacks
+        for (RubyScriptRunner runner : activeScriptRunners) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining > 0 && runner.isAlive()) {
+                runner.join(remaining);
+            }
+        }
+        int stoppedCount = 0;
+        for (RubyScriptRunner runner : activeScriptRunners) {
+            stoppedCount += runner.cancel();
+        }
+        activeScriptRunners.clear();
+
+        // Work such as map/reduce shards submitted to the executor this instance owns
+        if (ownedScriptExecutor != null) {
+            ownedScriptExecutor.shutdown();
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0 || !ownedScriptExecutor.awaitTermination(remaining, TimeUnit.MILLISECONDS)) {
+                stoppedCount += ownedScriptExecutor.shutdownNow().size();
+            }
+        }
+
+        if (stoppedCount > 0 && log != null) {
+            log.warn(String.format("Stopped %s Ruby script runs which did not finish within %sms of closing",
+                    stoppedCount, shutdownDrainTimeoutMillis));
+        }
+
+        // Dependency checks only read from Utilities, but should not do so once the engine is closed
+        CompletableFuture<DependencyCheckReport> dependencyCheck = getDependencyCheckAsync();
+        if (dependencyCheck != null && !dependencyCheck.isDone()) {
+            long remaining = deadline - System.currentTimeMillis();
+            try {
+                if (remaining > 0) {
+                    dependencyCheck.get(remaining, TimeUnit.MILLISECONDS);
+                }
+            } catch (ExecutionException | TimeoutException exc) {
+                // Checks are informational only
+            }
+        }
+    }
+
+    private void closeResources() throws Exception {
+
         // Close engine if we have an instance to close
         if (engine != null) {
             final String message = "Closing engine instance";
@@ -828,11 +2207,37 @@ public class NuixEngine implements AutoCloseable {
                 System.out.println(message);
             }
             engine.close();
+            engine = null;
+        }
+        removeLease();
+        releaseGlobalContainer();
+
+        // Close scripting container pool if we created it
+        if (scriptingContainerPool != null && ownsScriptingContainerPool) {
+            scriptingContainerPool.close();
+            scriptingContainerPool = null;
+        }
+
+        // Shut down script executor if we created it
+        if (ownedScriptExecutor != null) {
+            ownedScriptExecutor.shutdownNow();
+            ownedScriptExecutor = null;
+        }
+
+        // Close script output dispatcher if we created it, output it has already queued is still delivered
+        if (ownedScriptOutputDispatcher != null) {
+            ownedScriptOutputDispatcher.close();
+            ownedScriptOutputDispatcher = null;
         }
 
         // Drop reference to Utilities object
         utilities = null;
 
+        // Stop capturing runtime snapshots, the snapshots already captured are kept
+        if (runtimeSnapshotSampler != null) {
+            runtimeSnapshotSampler.close();
+        }
+
         // Unregister shutdown hook since we are closing things up now
         if (shutdownHook != null) {
             final String message = "Removing shutdown hook to NuixEngine::close";
@@ -845,13 +2250,32 @@ public class NuixEngine implements AutoCloseable {
             shutdownHook = null;
         }
 
-        // Shutdown logging
+        // Shutdown logging, unless other instances are still using it
         if (log != null) {
-            ((LifeCycle) LogManager.getContext()).stop();
+            if (stopLoggingOnClose) {
+                synchronized (NuixEngine.class) {
+                    if (globalContainerReferences == 0) {
+                        stopLogging();
+                    }
+                }
+            }
             log = null;
         }
     }
 
+    /***
+     * Stops log4j2.  Logging is configured again by the next instance to be initialized, which is comparatively
+     * expensive, so this is best called once the process is done with all instances.  See also
+     * {@link #setStopLoggingOnClose(boolean)}.
+     */
+    public static synchronized void stopLogging() {
+        if (loggingConfigured) {
+            ((LifeCycle) LogManager.getContext()).stop();
+            loggingConfigured = false;
+            activeLoggingConfiguration = null;
+        }
+    }
+
     public void showConfidentialValuesInLog(boolean enabled) {
         System.setProperty("nuix.log.confidential.showValues", String.valueOf(enabled));
     }
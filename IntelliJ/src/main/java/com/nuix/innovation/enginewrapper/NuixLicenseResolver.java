@@ -7,7 +7,16 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Function;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 /***
@@ -26,6 +35,7 @@ import java.util.stream.Stream;
  *         <li>{@link #withFinalDecisionMadeBy(Function)}</li>
  *     </ul></li>
  *     <li>Custom logic to ultimately pick the license acquired from candidates {@link #withFinalDecisionMadeBy(Function)}</li>
+ *     <li>How many workers to request from licenses which let us choose {@link #withWorkerCountPolicy(WorkerCountPolicy)}</li>
  *     <li>Configuration details that are part of obtaining a license:<ul>
  *         <li>{@link #withCertificateTrustCallback(CertificateTrustCallback)}</li>
  *         <li>{@link #withLicenseCredentials(String, String)}</li>
@@ -33,6 +43,12 @@ import java.util.stream.Stream;
  *         <li>{@link #withLicenseCredentialsResolvedFromEnvVars(String, String)}</li>
  *         <li>{@link #withLicenseCredentialsResolvedFromEnvVars()}</li>
  *     </ul></li>
+ *     <li>Caching of discovered licenses between engine starts {@link #withDiscoveryCache(LicenseDiscoveryCache)}</li>
+ *     <li>Bounding how long resolution can take:<ul>
+ *         <li>{@link #withHealthTracker(LicenseSourceHealthTracker)}</li>
+ *         <li>{@link #withDiscoveryDeadline(long)}</li>
+ *         <li>{@link #withAcquireDeadline(long)}</li>
+ *     </ul></li>
  * </ul>
  *<br><br>
  * Example usages:
@@ -57,6 +73,18 @@ import java.util.stream.Stream;
 public class NuixLicenseResolver implements LicenseResolver {
     private static final Logger log = LoggerFactory.getLogger(NuixLicenseResolver.class);
 
+    // Server and cloud resolution communicate the server to contact through the process wide system property
+    // "nuix.registry.servers", so when resolvers run concurrently (see NuixEngine.setRaceLicenseResolvers) those
+    // which rely on it take turns, in the order they asked for it
+    private static final ReentrantLock registryLock = new ReentrantLock(true);
+
+    // Runs work against license sources which have a deadline or need the registry lock, see callTracked
+    private static final ExecutorService workExecutor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "NuixLicenseResolver-Worker");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     /***
      * An enum with options about how this license resolver should locate its license.
      */
@@ -94,6 +122,11 @@ public class NuixLicenseResolver implements LicenseResolver {
     protected int maxWorkerCount = 0;
     protected List<String> targetShortNames = null;
     protected Function<Stream<AvailableLicence>, Optional<AvailableLicence>> finalDecider;
+    protected LicenseDiscoveryCache discoveryCache = null;
+    protected LicenseSourceHealthTracker healthTracker = null;
+    protected WorkerCountPolicy workerCountPolicy = WorkerCountPolicy.minimumOrTwo();
+    protected long discoveryDeadlineMillis = 0;
+    protected long acquireDeadlineMillis = 0;
 
     protected NuixLicenseResolver() {
         // By default, we will just return the first one that matches our criteria, but user
@@ -257,6 +290,19 @@ public class NuixLicenseResolver implements LicenseResolver {
         return this;
     }
 
+    /***
+     * Allows you to provide the policy deciding how many workers to request when acquiring a license which supports
+     * choosing a worker count.  The policy is given {@link #withMinWorkerCount(int)} and
+     * {@link #withMaxWorkerCount(int)} so it can respect them.
+     * @param workerCountPolicy The policy to use, such as {@link WorkerCountPolicy#hostAware()}.  Default is
+     * {@link WorkerCountPolicy#minimumOrTwo()}.
+     * @return This license resolver for chained method calls.
+     */
+    public NuixLicenseResolver withWorkerCountPolicy(@NonNull WorkerCountPolicy workerCountPolicy) {
+        this.workerCountPolicy = workerCountPolicy;
+        return this;
+    }
+
     /***
      * Allows you to provider a license credentials callback used for license authentication (CLS/NMS).
      * @param credentialsCallback The custom credentials callback
@@ -323,6 +369,59 @@ public class NuixLicenseResolver implements LicenseResolver {
         return withCertificateTrustCallback((certificateTrustCallbackInfo) -> certificateTrustCallbackInfo.setTrusted(true));
     }
 
+    /***
+     * Specifies a cache of discovered licenses.  When the cache holds a recent discovery result for this resolver's
+     * license source, filtering and the final decision are made against the cached licenses rather than asking the
+     * licensor again, and when no cached license meets the criteria this resolver finds no license without contacting
+     * its license source.  Acquiring a cached license looks up the live license with the chosen short name; if it is
+     * no longer available the cache entry is discarded and acquisition reports that no license was obtained.
+     * @param discoveryCache The cache to use, or null to always perform live discovery (the default).
+     * @return This license resolver for chained method calls.
+     */
+    public NuixLicenseResolver withDiscoveryCache(LicenseDiscoveryCache discoveryCache) {
+        this.discoveryCache = discoveryCache;
+        return this;
+    }
+
+    /***
+     * Specifies a tracker of license source health.  Successes and failures of this resolver are recorded against its
+     * license source and, while the breaker for the source is open, this resolver skips the source entirely and
+     * reports that it found no license.  When tracking health, a failed discovery (including one which exceeded
+     * {@link #withDiscoveryDeadline(long)}) is logged and also reported as finding no license, rather than thrown, so
+     * that {@link NuixEngine} moves on to its next resolver.
+     * @param healthTracker The tracker to use, for example {@link LicenseSourceHealthTracker#getShared()}, or null to
+     * not track health (the default).
+     * @return This license resolver for chained method calls.
+     */
+    public NuixLicenseResolver withHealthTracker(LicenseSourceHealthTracker healthTracker) {
+        this.healthTracker = healthTracker;
+        return this;
+    }
+
+    /***
+     * Specifies the longest license discovery is allowed to take.  When exceeded, discovery is interrupted and a
+     * {@link TimeoutException} is thrown.  Time spent waiting on another resolver using the registry servers system
+     * property counts towards the deadline.
+     * @param discoveryDeadlineMillis The deadline in milliseconds, 0 for no deadline (the default).
+     * @return This license resolver for chained method calls.
+     */
+    public NuixLicenseResolver withDiscoveryDeadline(long discoveryDeadlineMillis) {
+        this.discoveryDeadlineMillis = discoveryDeadlineMillis;
+        return this;
+    }
+
+    /***
+     * Specifies the longest acquiring a license is allowed to take.  When exceeded, acquisition is interrupted and a
+     * {@link TimeoutException} is thrown, unless the engine turns out to have been licensed just as the deadline
+     * passed, in which case that license is kept.
+     * @param acquireDeadlineMillis The deadline in milliseconds, 0 for no deadline (the default).
+     * @return This license resolver for chained method calls.
+     */
+    public NuixLicenseResolver withAcquireDeadline(long acquireDeadlineMillis) {
+        this.acquireDeadlineMillis = acquireDeadlineMillis;
+        return this;
+    }
+
     /***
      * Attempts to license the provided Engine instance using resolution and filtering configuration of this instance.
      * @param engine The engine instance to attempt to license.
@@ -332,9 +431,201 @@ public class NuixLicenseResolver implements LicenseResolver {
      */
     @Override
     public boolean resolveLicense(@NonNull Engine engine) throws Exception {
-        Map<String, Object> licenseOptions = Collections.emptyMap();
+        // If we have a license to obtain, obtain it and let caller know we have obtained it by
+        // returning true.  Otherwise, return false so caller knows that no license has been resolved yet.
+        Optional<AvailableLicence> possiblySelectedLicense = findLicense(engine);
+        if (possiblySelectedLicense.isPresent()) {
+            return acquireLicense(engine, possiblySelectedLicense.get());
+        } else {
+            return false;
+        }
+    }
 
-        log.info("License Source: " + licenseSource);
+    /***
+     * Attempts to license the provided Engine instance using resolution and filtering configuration of this instance,
+     * requesting the provided worker count rather than the one chosen by this resolver's
+     * {@link #withWorkerCountPolicy(WorkerCountPolicy)} policy when the license supports choosing a worker count.
+     * @param engine The engine instance to attempt to license.
+     * @param workerCount The number of workers to request
+     * @return True if a license was obtained, false if not.
+     * @throws Exception Exceptions thrown by any of the methods working to obtain a license will be uncaught and allowed
+     * to bubble up for caller to respond to.
+     */
+    @Override
+    public boolean resolveLicense(@NonNull Engine engine, int workerCount) throws Exception {
+        Optional<AvailableLicence> possiblySelectedLicense = findLicense(engine);
+        if (possiblySelectedLicense.isPresent()) {
+            return acquireLicense(engine, possiblySelectedLicense.get(), WorkerCountPolicy.fixed(workerCount));
+        } else {
+            return false;
+        }
+    }
+
+    @Override
+    public boolean supportsDiscovery() {
+        return true;
+    }
+
+    /***
+     * Finds the license this resolver would acquire, using the resolution and filtering configuration of this instance,
+     * without acquiring it.
+     * @param engine The engine instance licenses are being found for
+     * @return The license which would be acquired, or empty if no license meets the criteria
+     * @throws Exception Exceptions thrown by any of the methods working to find licenses will be uncaught and allowed
+     * to bubble up for caller to respond to.
+     */
+    @Override
+    public Optional<AvailableLicence> findLicense(@NonNull Engine engine) throws Exception {
+        if (healthTracker != null && !healthTracker.allowAttempt(getSourceKey())) {
+            log.info(String.format("Skipping license source %s while its breaker is open: %s", getSourceKey(),
+                    healthTracker.getHealth(getSourceKey())));
+            return Optional.empty();
+        }
+        try {
+            return callTracked("discovery", discoveryDeadlineMillis, () -> findLicenseUnlocked(engine));
+        } catch (Exception exc) {
+            if (healthTracker == null) {
+                throw exc;
+            }
+            // The failure has been recorded against the source, let the next resolver have a turn
+            log.warn(String.format("License discovery from %s failed, treating it as having found no license",
+                    getSourceKey()), exc);
+            return Optional.empty();
+        }
+    }
+
+    /***
+     * Acquires a license previously found by {@link #findLicense(Engine)}.  If the license supports choosing a worker
+     * count, it is acquired with the worker count chosen by the {@link #withWorkerCountPolicy(WorkerCountPolicy)} policy,
+     * by default {@link #withMinWorkerCount(int)} workers or 2, whichever is higher.  When provided a
+     * license from the discovery cache, the matching live license is looked up and acquired instead; if it is no longer
+     * available the cache entry is discarded.
+     * @param engine The engine instance to license
+     * @param licence The license to acquire
+     * @return True once the license has been acquired, false if a cached license was no longer available
+     * @throws Exception Exceptions thrown while acquiring the license will be uncaught and allowed to bubble up for
+     * caller to respond to.
+     */
+    @Override
+    public boolean acquireLicense(@NonNull Engine engine, @NonNull AvailableLicence licence) throws Exception {
+        return acquireLicense(engine, licence, workerCountPolicy);
+    }
+
+    private boolean acquireLicense(Engine engine, AvailableLicence licence, WorkerCountPolicy policy) throws Exception {
+        try {
+            return callTracked("acquisition", acquireDeadlineMillis, () -> {
+                if (usesRegistryServers()) {
+                    prepareEngine(engine);
+                }
+                return acquireLicenseUnlocked(engine, licence, policy);
+            });
+        } catch (TimeoutException exc) {
+            // The acquisition may have completed just as the deadline passed, in which case the engine holds the
+            // license and reporting a failure would leave it held without anyone knowing
+            if (engine.getLicence() != null) {
+                log.warn(String.format("License acquisition from %s completed after its %sms deadline, keeping the " +
+                        "acquired license", getSourceKey(), acquireDeadlineMillis));
+                return true;
+            }
+            throw exc;
+        }
+    }
+
+    /***
+     * Performs work against this resolver's license source, holding the registry lock if the source needs it,
+     * enforcing a deadline and recording the outcome with the health tracker (if any).  The registry lock is held by
+     * the calling thread while the work runs on a worker thread, so that it is released as soon as the deadline
+     * passes or the caller is interrupted, even if the work itself is stuck waiting on an unresponsive server.
+     * @param operation Describes the work for logging and thread naming
+     * @param deadlineMillis The deadline for the work, 0 for none
+     * @param work The work to perform
+     * @return The result of the work
+     * @throws Exception Thrown by the work, or a {@link TimeoutException} if the deadline is exceeded
+     */
+    private <T> T callTracked(String operation, long deadlineMillis, Callable<T> work) throws Exception {
+        long started = System.currentTimeMillis();
+        long deadline = deadlineMillis > 0 ? started + deadlineMillis : Long.MAX_VALUE;
+        boolean locked = false;
+        boolean reachedSource = false;
+        boolean recorded = false;
+        try {
+            if (usesRegistryServers()) {
+                if (deadline == Long.MAX_VALUE) {
+                    registryLock.lockInterruptibly();
+                } else if (!registryLock.tryLock(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS)) {
+                    throw new TimeoutException(String.format("License %s from %s did not start within %sms, " +
+                            "other resolvers were using the registry servers", operation, getSourceKey(), deadlineMillis));
+                }
+                locked = true;
+            }
+
+            reachedSource = true;
+            T result = locked || deadline != Long.MAX_VALUE ? callOnWorker(operation, deadline, deadlineMillis, work) : work.call();
+            if (healthTracker != null) {
+                healthTracker.recordSuccess(getSourceKey(), System.currentTimeMillis() - started);
+                recorded = true;
+            }
+            return result;
+        } catch (Exception exc) {
+            // Running out of time while another resolver held the registry lock says nothing about our source
+            if (healthTracker != null && reachedSource) {
+                healthTracker.recordFailure(getSourceKey(), System.currentTimeMillis() - started, exc);
+                recorded = true;
+            }
+            throw exc;
+        } finally {
+            if (locked) {
+                registryLock.unlock();
+            }
+            if (healthTracker != null && !recorded) {
+                healthTracker.recordAbandoned(getSourceKey());
+            }
+        }
+    }
+
+    private <T> T callOnWorker(String operation, long deadline, long deadlineMillis, Callable<T> work) throws Exception {
+        Future<T> task = workExecutor.submit(() -> {
+            Thread.currentThread().setName("NuixLicenseResolver-" + licenseSource + "-" + operation);
+            return work.call();
+        });
+        try {
+            if (deadline == Long.MAX_VALUE) {
+                return task.get();
+            }
+            return task.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException exc) {
+            throw new TimeoutException(String.format("License %s from %s did not complete within %sms",
+                    operation, getSourceKey(), deadlineMillis));
+        } catch (ExecutionException exc) {
+            if (exc.getCause() instanceof Exception) {
+                throw (Exception) exc.getCause();
+            } else if (exc.getCause() instanceof Error) {
+                throw (Error) exc.getCause();
+            }
+            throw exc;
+        } finally {
+            // Interrupts work which is being abandoned because of the deadline or because we were interrupted
+            task.cancel(true);
+        }
+    }
+
+    /***
+     * @return True unless this resolver only resolves licenses from dongles, which need neither the registry servers
+     * system property nor the credential and certificate callbacks.
+     */
+    @Override
+    public boolean usesRegistryServers() {
+        return licenseSource != LicenseResolutionSource.Dongle;
+    }
+
+    /***
+     * Builds the licence options for the configured source and, for sources that contact a server, points the
+     * engine at that server and registers the credential and certificate callbacks.
+     * @param engine The engine instance being licensed
+     * @return Options to provide when finding available licenses
+     */
+    private Map<String, Object> prepareEngine(Engine engine) {
+        Map<String, Object> licenseOptions = Collections.emptyMap();
 
         switch (licenseSource) {
             case Cloud:
@@ -356,21 +647,62 @@ public class NuixLicenseResolver implements LicenseResolver {
                 break;
         }
 
-        // Credentials supplier for instances which require it (server/cls)
-        if (credentialsCallback != null) {
-            engine.whenAskedForCredentials(credentialsCallback);
+        if (usesRegistryServers()) {
+            // Credentials supplier for instances which require it (server/cls)
+            if (credentialsCallback != null) {
+                engine.whenAskedForCredentials(credentialsCallback);
+            }
+
+            // Certificate trust callback
+            if (certificateTrustCallback != null) {
+                engine.whenAskedForCertificateTrust(certificateTrustCallback);
+            }
         }
+        return licenseOptions;
+    }
 
-        // Certificate trust callback
-        if (certificateTrustCallback != null) {
-            engine.whenAskedForCertificateTrust(certificateTrustCallback);
+    /***
+     * @return Identifies the license source this resolver uses, discovery results are cached and health is tracked
+     * under this key
+     */
+    public String getSourceKey() {
+        switch (licenseSource) {
+            case Server:
+                return licenseSource + ":" + serverHost + ":" + serverPort;
+            case Custom:
+                return licenseSource + ":" + customSource;
+            default:
+                return licenseSource.toString();
         }
+    }
 
+    private Stream<AvailableLicence> findAvailableLicences(Engine engine) throws Exception {
+        Map<String, Object> licenseOptions = prepareEngine(engine);
         log.info("Obtaining licensor....");
         Licensor licensor = engine.getLicensor();
 
         log.info("Obtaining license stream...");
-        Stream<AvailableLicence> availableLicensesStream = licensor.findAvailableLicencesStream(licenseOptions);
+        return licensor.findAvailableLicencesStream(licenseOptions);
+    }
+
+    private Optional<AvailableLicence> findLicenseUnlocked(Engine engine) throws Exception {
+        log.info("License Source: " + licenseSource);
+        Stream<AvailableLicence> availableLicensesStream;
+        List<AvailableLicence> cachedLicences = null;
+        if (discoveryCache != null) {
+            cachedLicences = discoveryCache.get(getSourceKey());
+        }
+
+        if (cachedLicences != null) {
+            log.info(String.format("Using %s cached license discovery results...", cachedLicences.size()));
+            availableLicensesStream = cachedLicences.stream();
+        } else if (discoveryCache != null) {
+            List<AvailableLicence> liveLicences = findAvailableLicences(engine).collect(Collectors.toList());
+            discoveryCache.put(getSourceKey(), liveLicences);
+            availableLicensesStream = liveLicences.stream();
+        } else {
+            availableLicensesStream = findAvailableLicences(engine);
+        }
 
         log.info("Applying filtering to available licenses...");
         Stream<AvailableLicence> filteredLicensesStream = availableLicensesStream.filter((availableLicense -> {
@@ -426,26 +758,46 @@ public class NuixLicenseResolver implements LicenseResolver {
             possiblySelectedLicense = filteredLicensesStream.findAny();
         }
 
-        // If we have a license to obtain, obtain it and let caller know we have obtained it by
-        // returning true.  Otherwise, return false so caller knows that no license has been resolved yet.
-        if (possiblySelectedLicense.isPresent()) {
-            AvailableLicence selectedLicense = possiblySelectedLicense.get();
-            if (selectedLicense.canChooseWorkers()) {
-                int countToAcquire = Math.max(minWorkerCount, 2);
-                log.info(String.format("License supports choosing worker count, attempting to acquire with %s workers",
-                        countToAcquire));
-                // If we are able to select the number of workers to obtain with the license,
-                // we will either use the minimum user provided or 2, whichever is higher.
-                selectedLicense.acquire(Map.of("workerCount", countToAcquire));
-            } else {
-                log.info(String.format("License does not support choosing worker count, attempting to acquire with all %s workers",
-                        ((LicenceProperties) selectedLicense).getWorkers()));
-                selectedLicense.acquire();
+        // Skipping a source whose licenses are known not to meet the criteria is what the cache is for, licenses
+        // which have become available since will be seen once the entry expires
+        if (cachedLicences != null && possiblySelectedLicense.isEmpty()) {
+            log.info("No cached license meets the criteria, skipping license source until the cached discovery " +
+                    "results expire");
+        }
+        return possiblySelectedLicense;
+    }
+
+    private boolean acquireLicenseUnlocked(Engine engine, AvailableLicence licence, WorkerCountPolicy policy) throws Exception {
+        if (licence instanceof LicenseDiscoveryCache.CachedCandidate) {
+            LicenseDiscoveryCache.CachedLicence cachedLicence = ((LicenseDiscoveryCache.CachedCandidate) licence).getCachedLicence();
+            log.info("Locating live license for cached license: " + cachedLicence);
+            Optional<AvailableLicence> liveLicence = findAvailableLicences(engine)
+                    .filter(availableLicence -> cachedLicence.getShortName().equalsIgnoreCase(availableLicence.getShortName()))
+                    .filter(cachedLicence::matches)
+                    .findFirst();
+            if (liveLicence.isEmpty()) {
+                log.info("Cached license is no longer available, discarding cached discovery results");
+                if (discoveryCache != null) {
+                    discoveryCache.invalidate(getSourceKey());
+                }
+                return false;
             }
-            return true;
+            licence = liveLicence.get();
+        }
+
+        if (licence.canChooseWorkers()) {
+            // If we are able to select the number of workers to obtain with the license, the worker count policy
+            // decides how many (by default the minimum user provided or 2, whichever is higher)
+            int countToAcquire = policy.chooseWorkerCount(licence, minWorkerCount, maxWorkerCount);
+            log.info(String.format("License supports choosing worker count, attempting to acquire with %s workers as chosen by %s",
+                    countToAcquire, policy));
+            licence.acquire(Map.of("workerCount", countToAcquire));
         } else {
-            return false;
+            log.info(String.format("License does not support choosing worker count, attempting to acquire with all %s workers",
+                    ((LicenceProperties) licence).getWorkers()));
+            licence.acquire();
         }
+        return true;
     }
 
     @Override
@@ -0,0 +1,91 @@
+package com.nuix.innovation.enginewrapper;
+
+/***
+ * A {@link WorkerScalingPolicy} which scales up as jobs queue up and returns workers to the pool once the engine has
+ * been idle for a while.  While there are queued jobs the policy asks for {@link #withWorkersPerQueuedJob(int)} workers
+ * for each of them, within {@link #withMinWorkers(int)} and {@link #withMaxWorkers(int)}, but never scales down, so a
+ * draining queue does not cause the license to be re-acquired repeatedly.  Once there have been no queued jobs for
+ * {@link #withIdleTimeout(long)} it scales down to the minimum.<br><br>
+ * Example usage:
+ * <pre>
+ * {@code
+ * NuixEngine nuixEngine = NuixEngine.usingFirstAvailableLicense(resolvers)
+ *     .setWorkerScalingPolicy(WorkerScalingPolicy.queueDepth()
+ *         .withMinWorkers(2)
+ *         .withMaxWorkers(16)
+ *         .withWorkersPerQueuedJob(4));
+ * // Between jobs
+ * nuixEngine.rescaleWorkers(jobQueue.size());
+ * }
+ * </pre>
+ * @author Jason Wells
+ */
+public class QueueDepthWorkerScalingPolicy implements WorkerScalingPolicy {
+    private int minWorkers = 2;
+    private int maxWorkers = 8;
+    private int workersPerQueuedJob = 2;
+    private long idleTimeoutMillis = 10 * 60 * 1000;
+
+    /***
+     * Specifies the fewest workers to hold, which is what the engine scales down to when idle.
+     * @param minWorkers The minimum worker count, default is 2
+     * @return This policy for chained method calls.
+     */
+    public QueueDepthWorkerScalingPolicy withMinWorkers(int minWorkers) {
+        this.minWorkers = Math.max(1, minWorkers);
+        return this;
+    }
+
+    /***
+     * Specifies the most workers to hold, regardless of how many jobs are queued.
+     * @param maxWorkers The maximum worker count, default is 8
+     * @return This policy for chained method calls.
+     */
+    public QueueDepthWorkerScalingPolicy withMaxWorkers(int maxWorkers) {
+        this.maxWorkers = Math.max(1, maxWorkers);
+        return this;
+    }
+
+    /***
+     * Specifies how many workers to ask for per queued job.
+     * @param workersPerQueuedJob Workers per queued job, default is 2
+     * @return This policy for chained method calls.
+     */
+    public QueueDepthWorkerScalingPolicy withWorkersPerQueuedJob(int workersPerQueuedJob) {
+        this.workersPerQueuedJob = Math.max(1, workersPerQueuedJob);
+        return this;
+    }
+
+    /***
+     * Specifies how long the engine must have had no queued jobs before its workers are returned to the pool.
+     * @param idleTimeoutMillis Idle timeout in milliseconds, default is 10 minutes
+     * @return This policy for chained method calls.
+     */
+    public QueueDepthWorkerScalingPolicy withIdleTimeout(long idleTimeoutMillis) {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        return this;
+    }
+
+    @Override
+    public int chooseWorkerCount(int currentWorkerCount, int queuedJobs, long idleMillis) {
+        if (queuedJobs > 0) {
+            long wanted = (long) queuedJobs * workersPerQueuedJob;
+            int target = (int) Math.max(minWorkers, Math.min(maxWorkers, wanted));
+            return Math.max(currentWorkerCount, target);
+        } else if (idleMillis >= idleTimeoutMillis) {
+            return Math.min(currentWorkerCount, minWorkers);
+        } else {
+            return currentWorkerCount;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "QueueDepthWorkerScalingPolicy{" +
+                "minWorkers=" + minWorkers +
+                ", maxWorkers=" + maxWorkers +
+                ", workersPerQueuedJob=" + workersPerQueuedJob +
+                ", idleTimeoutMillis=" + idleTimeoutMillis +
+                '}';
+    }
+}
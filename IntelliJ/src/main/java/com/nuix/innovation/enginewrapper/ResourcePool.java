@@ -0,0 +1,430 @@
+package com.nuix.innovation.enginewrapper;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/***
+ * The pooling shared by {@link ScriptingContainerPool} and {@link EnginePool}: leasing resources which are expensive
+ * to create (booted JRuby runtimes, licensed engines), creating them in the background ahead of demand, and destroying
+ * those which sit idle longer than the idle timeout.  Subclasses decide how resources are created, readied for reuse
+ * and destroyed, and how many are kept ready.<br><br>
+ * Nothing is created in the background until {@link #warmUp()} is called or a resource is first leased, so the order
+ * in which a pool is configured does not matter.
+ * @param <T> The type of pooled resource
+ * @param <L> The type of lease handed out by the pool
+ * @author Jason Wells
+ */
+public abstract class ResourcePool<T, L extends ResourcePool.Lease<T>> implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(ResourcePool.class);
+
+    /***
+     * Represents a resource leased from a {@link ResourcePool}.  Closing the lease returns the resource to the pool.
+     * @param <T> The type of pooled resource
+     */
+    public static class Lease<T> implements AutoCloseable {
+        private final ResourcePool<T, ?> pool;
+        private final T resource;
+        private final long waitMillis;
+        private boolean invalidated = false;
+        private boolean released = false;
+
+        protected Lease(ResourcePool<T, ?> pool, T resource, long waitMillis) {
+            this.pool = pool;
+            this.resource = resource;
+            this.waitMillis = waitMillis;
+        }
+
+        protected T getResource() {
+            return resource;
+        }
+
+        /***
+         * @return How long, in milliseconds, obtaining this lease took, including any time spent creating a new
+         * resource.
+         */
+        public long getWaitMillis() {
+            return waitMillis;
+        }
+
+        /***
+         * Marks the leased resource as unfit for reuse.  Rather than being returned to the pool when this lease is
+         * closed, the resource will be destroyed.
+         */
+        public void invalidate() {
+            invalidated = true;
+        }
+
+        /***
+         * Returns the resource to the pool (or destroys it if {@link #invalidate()} was called).  Calling this more
+         * than once has no further effect.
+         */
+        @Override
+        public synchronized void close() {
+            if (!released) {
+                released = true;
+                pool.release(resource, invalidated);
+            }
+        }
+    }
+
+    // An idle resource and when it became idle
+    private static class Idle<T> {
+        private final T resource;
+        private final long idleSinceMillis;
+
+        private Idle(T resource) {
+            this.resource = resource;
+            this.idleSinceMillis = System.currentTimeMillis();
+        }
+    }
+
+    private final String name;
+    protected int maxSize;
+    protected long idleTimeoutMillis;
+
+    private final Deque<Idle<T>> idle = new ArrayDeque<>();
+    private int totalCount = 0;
+    private int creatingCount = 0;
+    private int waitingCount = 0;
+    private boolean closed = false;
+    private ScheduledExecutorService maintenanceExecutor = null;
+
+    private long leaseCount = 0;
+    private long totalWaitMillis = 0;
+    private long maxWaitMillis = 0;
+    private long timedOutCount = 0;
+
+    /***
+     * @param name Name of the pool, used for its maintenance thread and in messages
+     * @param maxSize Default maximum size
+     * @param idleTimeoutMillis Default idle timeout
+     */
+    protected ResourcePool(String name, int maxSize, long idleTimeoutMillis) {
+        this.name = name;
+        this.maxSize = maxSize;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    /***
+     * Creates a new resource, called without holding the pool's lock.
+     * @return A new resource ready to be leased
+     * @throws Exception If the resource could not be created
+     */
+    protected abstract T create() throws Exception;
+
+    /***
+     * Destroys a resource which is no longer needed, called without holding the pool's lock.
+     * @param resource The resource to destroy
+     * @throws Exception If thrown while destroying the resource, it is logged
+     */
+    protected abstract void destroy(T resource) throws Exception;
+
+    /***
+     * Wraps a resource in the lease handed to the caller of {@link #acquire(long)}.
+     */
+    protected abstract L newLease(T resource, long waitMillis);
+
+    /***
+     * Readies a returned resource for its next lease.  By default resources are reused as they are.
+     * @param resource The returned resource
+     * @return False if the resource cannot be reused and should be destroyed instead
+     */
+    protected boolean prepareForReuse(T resource) {
+        return true;
+    }
+
+    /***
+     * Decides how many resources to create in the background to keep the pool ready.  Must be called while holding
+     * the pool's lock.
+     * @param idleCount Number of idle resources
+     * @param creatingCount Number of resources being created in the background
+     * @param totalCount Number of resources in existence, whether leased, idle or being created
+     * @return How many more resources to create, the maximum size is applied afterwards
+     */
+    protected abstract int getWarmUpShortfall(int idleCount, int creatingCount, int totalCount);
+
+    /***
+     * Decides whether an idle resource which has exceeded the idle timeout may be destroyed.  Must be called while
+     * holding the pool's lock.
+     * @param idleCount Number of idle resources
+     * @param totalCount Number of resources in existence
+     * @return True if one more resource may be destroyed
+     */
+    protected abstract boolean canEvict(int idleCount, int totalCount);
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getIdleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+
+    /***
+     * @return The number of idle resources currently ready to be leased.
+     */
+    public synchronized int getIdleCount() {
+        return idle.size();
+    }
+
+    /***
+     * @return The number of resources currently in existence, whether leased, idle or being created.
+     */
+    public synchronized int getTotalCount() {
+        return totalCount;
+    }
+
+    /***
+     * @return The number of callers currently waiting for a resource.
+     */
+    public synchronized int getWaitingCount() {
+        return waitingCount;
+    }
+
+    /***
+     * @return The number of leases handed out so far.
+     */
+    public synchronized long getLeaseCount() {
+        return leaseCount;
+    }
+
+    /***
+     * @return The average time, in milliseconds, callers waited to obtain a lease.
+     */
+    public synchronized double getAverageWaitMillis() {
+        return leaseCount == 0 ? 0 : (double) totalWaitMillis / leaseCount;
+    }
+
+    /***
+     * @return The longest time, in milliseconds, a caller waited to obtain a lease.
+     */
+    public synchronized long getMaxWaitMillis() {
+        return maxWaitMillis;
+    }
+
+    /***
+     * @return The number of leases which gave up waiting for a resource.
+     */
+    public synchronized long getTimedOutCount() {
+        return timedOutCount;
+    }
+
+    /***
+     * Starts creating resources in the background, as many as the pool keeps ready, without waiting for them.
+     * Useful for overlapping their creation with other startup work.
+     */
+    public void warmUp() {
+        scheduleWarmUp();
+    }
+
+    /***
+     * Leases a resource.  An idle resource is handed out when there is one, otherwise if the pool is below its maximum
+     * size a new resource is created on the calling thread, otherwise this waits for a resource to be returned.
+     * @param timeoutMillis Maximum time to wait for a resource to be returned, 0 or less to wait forever
+     * @return A lease on the resource
+     * @throws TimeoutException If no resource became available within the timeout
+     * @throws InterruptedException If interrupted while waiting
+     * @throws Exception If a new resource could not be created
+     */
+    protected L acquire(long timeoutMillis) throws Exception {
+        long started = System.currentTimeMillis();
+        long deadline = timeoutMillis > 0 ? started + timeoutMillis : Long.MAX_VALUE;
+        T resource = null;
+        synchronized (this) {
+            waitingCount++;
+            try {
+                while (true) {
+                    if (closed) {
+                        throw new IllegalStateException(name + " has been closed");
+                    }
+                    if (!idle.isEmpty()) {
+                        resource = idle.pollLast().resource;
+                        break;
+                    } else if (totalCount < maxSize) {
+                        totalCount++;
+                        break;
+                    }
+
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        timedOutCount++;
+                        throw new TimeoutException("Nothing became available from " + name + " within " + timeoutMillis + "ms");
+                    }
+                    wait(deadline == Long.MAX_VALUE ? 0 : remaining);
+                }
+            } finally {
+                waitingCount--;
+            }
+        }
+
+        if (resource == null) {
+            try {
+                resource = create();
+            } catch (Exception exc) {
+                synchronized (this) {
+                    totalCount--;
+                    notifyAll();
+                }
+                throw exc;
+            }
+        }
+
+        long waitMillis = System.currentTimeMillis() - started;
+        synchronized (this) {
+            leaseCount++;
+            totalWaitMillis += waitMillis;
+            maxWaitMillis = Math.max(maxWaitMillis, waitMillis);
+        }
+
+        scheduleWarmUp();
+        return newLease(resource, waitMillis);
+    }
+
+    private void release(T resource, boolean invalidated) {
+        boolean reusable = !invalidated && prepareForReuse(resource);
+        synchronized (this) {
+            if (reusable && !closed) {
+                idle.addLast(new Idle<>(resource));
+                resource = null;
+            } else {
+                totalCount--;
+            }
+            notifyAll();
+        }
+
+        if (resource != null) {
+            destroyQuietly(resource);
+            scheduleWarmUp();
+        }
+    }
+
+    /***
+     * Ensures a background maintenance thread exists and asks it to create resources until the shortfall reported by
+     * {@link #getWarmUpShortfall(int, int, int)} is made up (without exceeding the maximum size).
+     */
+    private synchronized void scheduleWarmUp() {
+        if (closed) {
+            return;
+        }
+
+        ensureMaintenanceExecutor();
+        int needed = getWarmUpShortfall(idle.size(), creatingCount, totalCount);
+        while (needed > 0 && totalCount < maxSize) {
+            totalCount++;
+            creatingCount++;
+            needed--;
+            maintenanceExecutor.execute(() -> {
+                T resource = null;
+                try {
+                    resource = create();
+                } catch (Exception exc) {
+                    log.error("Error while creating resource for {} in the background", name, exc);
+                }
+
+                synchronized (this) {
+                    creatingCount--;
+                    if (resource != null && !closed) {
+                        idle.addLast(new Idle<>(resource));
+                        resource = null;
+                    } else {
+                        totalCount--;
+                    }
+                    notifyAll();
+                }
+
+                if (resource != null) {
+                    destroyQuietly(resource);
+                }
+            });
+        }
+    }
+
+    private void ensureMaintenanceExecutor() {
+        if (maintenanceExecutor == null) {
+            maintenanceExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, name + "-Maintenance");
+                thread.setDaemon(true);
+                return thread;
+            });
+            maintenanceExecutor.scheduleWithFixedDelay(this::evictIdle, 30, 30, TimeUnit.SECONDS);
+        }
+    }
+
+    /***
+     * Destroys resources which have been idle longer than the idle timeout, as long as
+     * {@link #canEvict(int, int)} allows it.
+     */
+    protected void evictIdle() {
+        if (idleTimeoutMillis <= 0) {
+            return;
+        }
+
+        Deque<T> evicted = new ArrayDeque<>();
+        synchronized (this) {
+            long cutoff = System.currentTimeMillis() - idleTimeoutMillis;
+            // Oldest idle resources are at the head of the deque
+            Iterator<Idle<T>> iterator = idle.iterator();
+            while (iterator.hasNext() && canEvict(idle.size(), totalCount)) {
+                Idle<T> idleResource = iterator.next();
+                if (idleResource.idleSinceMillis < cutoff) {
+                    iterator.remove();
+                    totalCount--;
+                    evicted.add(idleResource.resource);
+                }
+            }
+            notifyAll();
+        }
+
+        if (!evicted.isEmpty()) {
+            log.info("{} destroying {} idle resources", name, evicted.size());
+            evicted.forEach(this::destroyQuietly);
+        }
+    }
+
+    private void destroyQuietly(T resource) {
+        try {
+            destroy(resource);
+        } catch (Exception exc) {
+            log.warn("Error while destroying resource of {}", name, exc);
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%s[total=%s, idle=%s, creating=%s, waiting=%s, leases=%s, avgWaitMillis=%.1f, maxWaitMillis=%s, timedOut=%s]",
+                name, totalCount, idle.size(), creatingCount, waitingCount, leaseCount, getAverageWaitMillis(),
+                maxWaitMillis, timedOutCount);
+    }
+
+    /***
+     * Destroys all idle resources and stops background maintenance.  Resources still leased at this point are
+     * destroyed when their lease is closed.
+     */
+    @Override
+    public void close() {
+        Deque<Idle<T>> toDestroy;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            toDestroy = new ArrayDeque<>(idle);
+            totalCount -= idle.size();
+            idle.clear();
+            if (maintenanceExecutor != null) {
+                maintenanceExecutor.shutdownNow();
+                maintenanceExecutor = null;
+            }
+            notifyAll();
+        }
+        toDestroy.forEach(idleResource -> destroyQuietly(idleResource.resource));
+    }
+}
@@ -0,0 +1,622 @@
+package com.nuix.innovation.enginewrapper;
+
+import nuix.Case;
+import nuix.Item;
+import org.apache.commons.io.FileUtils;
+import org.jruby.RubySymbol;
+import org.jruby.embed.EmbedEvalUnit;
+import org.jruby.embed.ScriptingContainer;
+import org.jruby.javasupport.JavaEmbedUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/***
+ * Runs a Ruby script against every item matched by a query, spreading the work over multiple scripting containers.
+ * The script is expected to define two methods:
+ * <ul>
+ *     <li><code>map(items)</code> - Called once per shard with a Java List of the items in that shard.  Returns a partial
+ *     result.  Shards are processed in parallel, each worker evaluating the script once in its own container and then
+ *     calling <code>map</code> for each shard it picks up.</li>
+ *     <li><code>reduce(partials)</code> - Called once with an Array of the partial results (in shard order) and returns
+ *     the final result.  Optional, if not defined the final result is the Array of partial results.</li>
+ * </ul>
+ * Partial results are transferred between containers using Ruby's <code>Marshal</code>, so <code>map</code> must
+ * return values Marshal can dump, such as Hashes, Arrays, Strings, numbers, Symbols and Structs defined by the
+ * script.  Return item GUIDs rather than the items themselves.  The final result is converted to plain Java values:
+ * Hashes become Maps, Arrays become Lists and Symbols become Strings.
+ * <pre>
+ * {@code
+ * String script = String.join("\n",
+ *     "def map(items)",
+ *     "  items.group_by { |item| item.getType.getName }.transform_values(&:size)",
+ *     "end",
+ *     "def reduce(partials)",
+ *     "  partials.inject({}) { |totals, counts| totals.merge(counts) { |kind, a, b| a + b } }",
+ *     "end");
+ *
+ * RubyScriptMapReduce.Result result = nuixEngine.mapReduceRubyScript(nuixCase, "flag:audited", script)
+ *     .withChunkSize(5000)
+ *     .withParallelism(8)
+ *     .withProgressConsumer(progress -> log.info("{}/{} shards complete", progress.getCompletedShards(), progress.getTotalShards()))
+ *     .run();
+ * }
+ * </pre>
+ * @author Jason Wells
+ */
+public class RubyScriptMapReduce {
+    private static final Logger log = LoggerFactory.getLogger(RubyScriptMapReduce.class);
+
+    // Calls map for the items in $__mapreduce_items and marshals the partial result so it can be loaded in another container
+    private static final String mapScript = "Marshal.dump(map($__mapreduce_items)).to_java_bytes";
+
+    // Loads the marshaled partial results and reduces them, or simply returns them if the script does not define reduce
+    private static final String reduceScript = String.join("\n",
+            "partials = $__mapreduce_partials.map { |bytes| Marshal.load(String.from_java_bytes(bytes)) }",
+            "respond_to?(:reduce, true) ? reduce(partials) : partials"
+    );
+
+    // Removes map and reduce methods left behind in a pooled container by an earlier map/reduce run
+    private static final String removeMethodsScript =
+            "[:map, :reduce].each { |name| Object.send(:remove_method, name) if Object.private_method_defined?(name, false) }";
+
+    /***
+     * Timing of a single shard's map phase.
+     */
+    public static class ShardTiming {
+        private final int shardIndex;
+        private final int itemCount;
+        private final long millis;
+        private final String threadName;
+
+        private ShardTiming(int shardIndex, int itemCount, long millis, String threadName) {
+            this.shardIndex = shardIndex;
+            this.itemCount = itemCount;
+            this.millis = millis;
+            this.threadName = threadName;
+        }
+
+        public int getShardIndex() {
+            return shardIndex;
+        }
+
+        public int getItemCount() {
+            return itemCount;
+        }
+
+        /***
+         * @return Milliseconds spent in <code>map</code> for this shard.
+         */
+        public long getMillis() {
+            return millis;
+        }
+
+        /***
+         * @return Name of the worker thread which processed this shard.
+         */
+        public String getThreadName() {
+            return threadName;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Shard %s: %s items in %sms on %s", shardIndex, itemCount, millis, threadName);
+        }
+    }
+
+    /***
+     * Reported to the progress consumer each time a shard completes.
+     */
+    public static class Progress {
+        private final ShardTiming completedShard;
+        private final int completedShards;
+        private final int totalShards;
+        private final long completedItems;
+        private final long totalItems;
+        private final long elapsedMillis;
+
+        private Progress(ShardTiming completedShard, int completedShards, int totalShards,
+                         long completedItems, long totalItems, long elapsedMillis) {
+            this.completedShard = completedShard;
+            this.completedShards = completedShards;
+            this.totalShards = totalShards;
+            this.completedItems = completedItems;
+            this.totalItems = totalItems;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        /***
+         * @return Timing of the shard which just completed.
+         */
+        public ShardTiming getCompletedShard() {
+            return completedShard;
+        }
+
+        public int getCompletedShards() {
+            return completedShards;
+        }
+
+        public int getTotalShards() {
+            return totalShards;
+        }
+
+        public long getCompletedItems() {
+            return completedItems;
+        }
+
+        public long getTotalItems() {
+            return totalItems;
+        }
+
+        /***
+         * @return Milliseconds since the map phase started.
+         */
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+    }
+
+    /***
+     * The final result of a map/reduce run along with how long each phase took.
+     */
+    public static class Result {
+        private final Object value;
+        private final long itemCount;
+        private final List<ShardTiming> shardTimings;
+        private final long searchMillis;
+        private final long mapMillis;
+        private final long reduceMillis;
+
+        private Result(Object value, long itemCount, List<ShardTiming> shardTimings,
+                       long searchMillis, long mapMillis, long reduceMillis) {
+            this.value = value;
+            this.itemCount = itemCount;
+            this.shardTimings = Collections.unmodifiableList(shardTimings);
+            this.searchMillis = searchMillis;
+            this.mapMillis = mapMillis;
+            this.reduceMillis = reduceMillis;
+        }
+
+        /***
+         * @return The value returned by <code>reduce</code>, converted to plain Java values.
+         */
+        public Object getValue() {
+            return value;
+        }
+
+        /***
+         * @return Number of items matched by the query.
+         */
+        public long getItemCount() {
+            return itemCount;
+        }
+
+        /***
+         * @return Timing of each shard, in shard order.
+         */
+        public List<ShardTiming> getShardTimings() {
+            return shardTimings;
+        }
+
+        public long getSearchMillis() {
+            return searchMillis;
+        }
+
+        public long getMapMillis() {
+            return mapMillis;
+        }
+
+        public long getReduceMillis() {
+            return reduceMillis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("RubyScriptMapReduce.Result[items=%s, shards=%s, searchMillis=%s, mapMillis=%s, reduceMillis=%s]",
+                    itemCount, shardTimings.size(), searchMillis, mapMillis, reduceMillis);
+        }
+    }
+
+    private final ScriptingContainerPool scriptingContainerPool;
+    private final Case nuixCase;
+    private final String query;
+    private String script;
+    private File scriptFile;
+    private String nuixVersion = "0.0.0.0";
+    private Map<String, Object> variables = Collections.emptyMap();
+    private int chunkSize = 0;
+    private int parallelism;
+    private Executor executor;
+    private ScriptCache scriptCache;
+    private ScriptOutputDispatcher outputDispatcher;
+    private Consumer<String> standardOutput;
+    private Consumer<String> errorOutput;
+    private Consumer<Progress> progressConsumer;
+
+    /***
+     * Creates a new instance.  See also {@link NuixEngine#mapReduceRubyScript(Case, String, String)} which creates an
+     * instance configured with the engine's pool, executor, script cache and variables.
+     * @param scriptingContainerPool Pool the map and reduce phases lease their containers from
+     * @param nuixCase The case to search
+     * @param query The query selecting the items to process
+     */
+    public RubyScriptMapReduce(ScriptingContainerPool scriptingContainerPool, Case nuixCase, String query) {
+        this.scriptingContainerPool = scriptingContainerPool;
+        this.nuixCase = nuixCase;
+        this.query = query;
+        this.parallelism = scriptingContainerPool.getMaxSize();
+    }
+
+    /***
+     * @param script A string containing the Ruby script which defines <code>map</code> and optionally <code>reduce</code>
+     * @return This instance for chained method calls.
+     */
+    public RubyScriptMapReduce withScript(String script) {
+        this.script = script;
+        this.scriptFile = null;
+        return this;
+    }
+
+    /***
+     * @param scriptFile A file containing the Ruby script which defines <code>map</code> and optionally <code>reduce</code>
+     * @return This instance for chained method calls.
+     */
+    public RubyScriptMapReduce withScriptFile(File scriptFile) {
+        this.scriptFile = scriptFile;
+        this.script = null;
+        return this;
+    }
+
+    /***
+     * @param nuixVersion A string containing the Nuix version to be assigned to constant 'NUIX_VERSION'
+     * @return This instance for chained method calls.
+     */
+    public RubyScriptMapReduce withNuixVersion(String nuixVersion) {
+        this.nuixVersion = nuixVersion;
+        return this;
+    }
+
+    /***
+     * @param variables Variables to inject into each container before the script is evaluated.  Prefix name with $
+     *                  for global variables.
+     * @return This instance for chained method calls.
+     */
+    public RubyScriptMapReduce withVariables(Map<String, Object> variables) {
+        this.variables = variables;
+        return this;
+    }
+
+    /***
+     * Specifies how many items each shard contains.  If not specified, a chunk size is chosen which gives each worker
+     * about 4 shards (so that uneven shards balance out), capped at 1000 items per shard.
+     * @param chunkSize Number of items per shard, must be at least 1.
+     * @return This instance for chained method calls.
+     */
+    public RubyScriptMapReduce withChunkSize(int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunkSize must be at least 1");
+        }
+        this.chunkSize = chunkSize;
+        return this;
+    }
+
+    /***
+     * Specifies how many shards may be mapped at the same time.  Defaults to the maximum size of the
+     * {@link ScriptingContainerPool}, the actual parallelism is also bounded by the threads of the executor.
+     * @param parallelism Number of workers, must be at least 1.
+     * @return This instance for chained method calls.
+     */
+    public RubyScriptMapReduce withParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1");
+        }
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    /***
+     * @param executor Executor workers run on.  If not specified {@link RubyScriptRunner#getSharedExecutor()} is used.
+     * @return This instance for chained method calls.
+     */
+    public RubyScriptMapReduce withExecutor(Executor executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    /***
+     * @param scriptCache Cache used to avoid re-parsing the script in containers which have run it before, can be null
+     * @return This instance for chained method calls.
+     */
+    public RubyScriptMapReduce withScriptCache(ScriptCache scriptCache) {
+        this.scriptCache = scriptCache;
+        if (scriptCache != null) {
+            scriptCache.watchPool(scriptingContainerPool);
+        }
+        return this;
+    }
+
+    /***
+     * @param outputDispatcher Dispatcher delivering script output.  If not specified each worker delivers its output
+     *                         through a dispatcher of its own.
+     * @return This instance for chained method calls.
+     */
+    public RubyScriptMapReduce withOutputDispatcher(ScriptOutputDispatcher outputDispatcher) {
+        this.outputDispatcher = outputDispatcher;
+        return this;
+    }
+
+    /***
+     * @param standardOutput Receives standard output of the script, one line at a time.  If null, output is logged.
+     * @return This instance for chained method calls.
+     */
+    public RubyScriptMapReduce withStandardOutputConsumer(Consumer<String> standardOutput) {
+        this.standardOutput = standardOutput;
+        return this;
+    }
+
+    /***
+     * @param errorOutput Receives error output of the script, one line at a time.  If null, output is logged.
+     * @return This instance for chained method calls.
+     */
+    public RubyScriptMapReduce withErrorOutputConsumer(Consumer<String> errorOutput) {
+        this.errorOutput = errorOutput;
+        return this;
+    }
+
+    /***
+     * @param progressConsumer Invoked each time a shard completes.  Invocations are serialized but may come from any
+     *                         worker thread.
+     * @return This instance for chained method calls.
+     */
+    public RubyScriptMapReduce withProgressConsumer(Consumer<Progress> progressConsumer) {
+        this.progressConsumer = progressConsumer;
+        return this;
+    }
+
+    /***
+     * Runs the query, maps the shards in parallel and reduces the partial results, blocking until complete.
+     * @return The result of the reduce phase along with timings
+     * @throws Exception If the search fails or <code>map</code>/<code>reduce</code> raise an error.  If any shard
+     * fails, remaining shards are not started.
+     */
+    public Result run() throws Exception {
+        try {
+            return runAsync().get();
+        } catch (ExecutionException exc) {
+            if (exc.getCause() instanceof Exception) {
+                throw (Exception) exc.getCause();
+            }
+            throw exc;
+        }
+    }
+
+    /***
+     * Runs the query on the calling thread, then maps the shards in parallel and reduces the partial results on the
+     * executor.
+     * @return A future which completes with the result of the reduce phase along with timings
+     * @throws IOException If the search fails
+     */
+    public CompletableFuture<Result> runAsync() throws IOException {
+        if (script == null && scriptFile == null) {
+            throw new IllegalStateException("No script was provided, call withScript or withScriptFile");
+        }
+
+        long searchStarted = System.currentTimeMillis();
+        List<Item> items = nuixCase.search(query);
+        long searchMillis = System.currentTimeMillis() - searchStarted;
+
+        int workerCount = Math.max(1, parallelism);
+        int effectiveChunkSize = chunkSize > 0 ? chunkSize
+                : (int) Math.max(1, Math.min(1000, Math.ceil(items.size() / (workerCount * 4.0))));
+        List<List<Item>> shards = new ArrayList<>();
+        for (int start = 0; start < items.size(); start += effectiveChunkSize) {
+            shards.add(new ArrayList<>(items.subList(start, Math.min(items.size(), start + effectiveChunkSize))));
+        }
+        workerCount = Math.min(workerCount, Math.max(1, shards.size()));
+        log.info("Map/reduce over {} items matching '{}' in {} shards of up to {} items using {} workers",
+                items.size(), query, shards.size(), effectiveChunkSize, workerCount);
+
+        Executor runExecutor = executor != null ? executor : RubyScriptRunner.getSharedExecutor();
+        MapPhase mapPhase = new MapPhase(shards, items.size());
+        CompletableFuture<?>[] workers = new CompletableFuture<?>[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            workers[i] = CompletableFuture.runAsync(mapPhase::work, runExecutor);
+        }
+
+        return CompletableFuture.allOf(workers).thenApplyAsync(ignored -> {
+            long mapMillis = System.currentTimeMillis() - mapPhase.startedMillis;
+            long reduceStarted = System.currentTimeMillis();
+            Object value;
+            try {
+                value = reduce(mapPhase.partials);
+            } catch (Exception exc) {
+                throw new CompletionException(exc);
+            }
+            Result result = new Result(value, items.size(), mapPhase.timings(), searchMillis, mapMillis,
+                    System.currentTimeMillis() - reduceStarted);
+            log.info("{}", result);
+            return result;
+        }, runExecutor);
+    }
+
+    /***
+     * State shared by the workers of the map phase.  Workers pull the next shard index until none remain or a shard
+     * has failed.
+     */
+    private class MapPhase {
+        private final List<List<Item>> shards;
+        private final long totalItems;
+        private final byte[][] partials;
+        private final ShardTiming[] shardTimings;
+        private final AtomicInteger nextShard = new AtomicInteger();
+        private final long startedMillis = System.currentTimeMillis();
+        private volatile boolean failed = false;
+        private int completedShards = 0;
+        private long completedItems = 0;
+
+        private MapPhase(List<List<Item>> shards, long totalItems) {
+            this.shards = shards;
+            this.totalItems = totalItems;
+            this.partials = new byte[shards.size()][];
+            this.shardTimings = new ShardTiming[shards.size()];
+        }
+
+        private void work() {
+            if (nextShard.get() >= shards.size() || failed) {
+                return;
+            }
+
+            try (ScriptingContainerPool.Lease lease = scriptingContainerPool.lease();
+                 ContainerOutput output = new ContainerOutput(lease.getContainer())) {
+                ScriptingContainer container = output.container;
+                prepare(container);
+                EmbedEvalUnit mapUnit = container.parse(mapScript);
+
+                int shardIndex;
+                while (!failed && (shardIndex = nextShard.getAndIncrement()) < shards.size()) {
+                    List<Item> shard = shards.get(shardIndex);
+                    long shardStarted = System.currentTimeMillis();
+                    container.put("$__mapreduce_items", shard);
+                    partials[shardIndex] = (byte[]) JavaEmbedUtils.rubyToJava(mapUnit.run());
+                    ShardTiming timing = new ShardTiming(shardIndex, shard.size(),
+                            System.currentTimeMillis() - shardStarted, Thread.currentThread().getName());
+                    shardTimings[shardIndex] = timing;
+                    shardCompleted(timing);
+                }
+            } catch (Exception exc) {
+                failed = true;
+                throw new CompletionException(exc);
+            }
+        }
+
+        private synchronized void shardCompleted(ShardTiming timing) {
+            completedShards++;
+            completedItems += timing.getItemCount();
+            log.debug("{}", timing);
+            if (progressConsumer != null) {
+                try {
+                    progressConsumer.accept(new Progress(timing, completedShards, shards.size(), completedItems,
+                            totalItems, System.currentTimeMillis() - startedMillis));
+                } catch (Exception exc) {
+                    log.error("Error in map/reduce progress callback", exc);
+                }
+            }
+        }
+
+        private List<ShardTiming> timings() {
+            List<ShardTiming> result = new ArrayList<>();
+            Collections.addAll(result, shardTimings);
+            return result;
+        }
+    }
+
+    private Object reduce(byte[][] partials) throws Exception {
+        List<byte[]> partialList = new ArrayList<>();
+        Collections.addAll(partialList, partials);
+
+        try (ScriptingContainerPool.Lease lease = scriptingContainerPool.lease();
+             ContainerOutput output = new ContainerOutput(lease.getContainer())) {
+            ScriptingContainer container = output.container;
+            prepare(container);
+            container.put("$__mapreduce_partials", partialList);
+            // Convert while we still hold the lease, since the container is reset once it is returned to the pool
+            return toPlainJava(container.runScriptlet(reduceScript));
+        }
+    }
+
+    /***
+     * Injects variables and evaluates the script, defining its <code>map</code> and <code>reduce</code> methods.
+     * Methods defined by a script persist in a pooled container, so any left behind by an earlier map/reduce run are
+     * removed first, otherwise a script without <code>reduce</code> could pick up another script's.
+     */
+    private void prepare(ScriptingContainer container) throws IOException {
+        container.clear();
+        container.runScriptlet(removeMethodsScript);
+        container.runScriptlet("NUIX_VERSION = \"" + nuixVersion + "\"");
+        for (Map.Entry<String, Object> variable : variables.entrySet()) {
+            container.put(variable.getKey(), variable.getValue());
+        }
+
+        if (scriptCache != null) {
+            if (scriptFile != null) {
+                scriptCache.compile(container, scriptFile).run();
+            } else {
+                scriptCache.compile(container, script).run();
+            }
+        } else if (scriptFile != null) {
+            try (InputStream scriptFileInputStream = FileUtils.openInputStream(scriptFile)) {
+                container.runScriptlet(scriptFileInputStream, scriptFile.getAbsolutePath());
+            }
+        } else {
+            container.runScriptlet(script);
+        }
+    }
+
+    private static Object toPlainJava(Object value) {
+        if (value instanceof Map) {
+            Map<Object, Object> result = new LinkedHashMap<>();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                result.put(toPlainJava(entry.getKey()), toPlainJava(entry.getValue()));
+            }
+            return result;
+        } else if (value instanceof List) {
+            List<Object> result = new ArrayList<>();
+            for (Object element : (List<?>) value) {
+                result.add(toPlainJava(element));
+            }
+            return result;
+        } else if (value instanceof RubySymbol) {
+            return value.toString();
+        } else {
+            return value;
+        }
+    }
+
+    /***
+     * Directs a container's output to this instance's consumers for the duration of a worker, delivering any
+     * remaining output when closed.
+     */
+    private class ContainerOutput implements AutoCloseable {
+        private final RubyScriptRunner.EventedWriter standardOutputWriter;
+        private final RubyScriptRunner.EventedWriter errorOutputWriter;
+        private final ScriptOutputDispatcher ownedDispatcher;
+        private final ScriptingContainer container;
+
+        private ContainerOutput(ScriptingContainer container) {
+            this.container = container;
+            ownedDispatcher = outputDispatcher != null ? null
+                    : new ScriptOutputDispatcher(ScriptOutputDispatcher.DEFAULT_CAPACITY, ScriptOutputDispatcher.OverflowPolicy.Block);
+            ScriptOutputDispatcher dispatcher = outputDispatcher != null ? outputDispatcher : ownedDispatcher;
+            standardOutputWriter = new RubyScriptRunner.EventedWriter(standardOutput != null ? standardOutput : log::info, dispatcher);
+            errorOutputWriter = new RubyScriptRunner.EventedWriter(errorOutput != null ? errorOutput : log::error, dispatcher);
+            container.setWriter(standardOutputWriter);
+            container.setErrorWriter(errorOutputWriter);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                standardOutputWriter.close();
+                errorOutputWriter.close();
+            } finally {
+                if (ownedDispatcher != null) {
+                    ownedDispatcher.close();
+                }
+            }
+        }
+    }
+}
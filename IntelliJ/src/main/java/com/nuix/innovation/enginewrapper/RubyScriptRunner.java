@@ -3,126 +3,444 @@ package com.nuix.innovation.enginewrapper;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.jetbrains.annotations.NotNull;
+import org.jruby.Ruby;
+import org.jruby.RubyThread;
+import org.jruby.embed.LocalContextScope;
 import org.jruby.embed.LocalVariableBehavior;
+import org.jruby.embed.EmbedEvalUnit;
 import org.jruby.embed.ScriptingContainer;
 import org.jruby.embed.internal.BiVariableMap;
+import org.jruby.javasupport.JavaEmbedUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 
 /***
- * Provides an easy way to execute Ruby scripts.
+ * Provides an easy way to execute Ruby scripts.  Scripts are run on an {@link Executor} (see
+ * {@link #getSharedExecutor()}) and {@link #submitScript(String, String, Map, long)} and
+ * {@link #submitFile(File, String, Map, long)} return a {@link CompletableFuture} of the {@link ScriptResult}, allowing
+ * many runs to be composed without dedicating a thread to waiting on each of them.
  */
 public class RubyScriptRunner {
     private static final Logger log = LoggerFactory.getLogger(RubyScriptRunner.class);
 
     /***
      * Writer implementation which specializes in forwarding to a consumer.  Used to forward
-     * standard out and err to consumer from script container.
+     * standard out and err to consumer from script container.  Output is split into lines using a reusable
+     * buffer and each completed line (without its line terminator) is handed to a {@link ScriptOutputDispatcher},
+     * which delivers it to the consumer on its own thread.  A trailing partial line is delivered when the writer
+     * is closed.
      */
     static class EventedWriter extends Writer {
-        private Consumer<String> consumer;
-        private final StringBuilder buffer = new StringBuilder();
+        private final ScriptOutputDispatcher dispatcher;
+        private final ScriptOutputDispatcher.Channel channel;
+        private final StringBuilder lineBuffer = new StringBuilder(256);
+        private long lineCount = 0;
+        private long charCount = 0;
+        private boolean closed = false;
 
-        public EventedWriter(Consumer<String> consumer) {
-            this.consumer = consumer;
+        public EventedWriter(Consumer<String> consumer, ScriptOutputDispatcher dispatcher) {
+            this.dispatcher = dispatcher;
+            this.channel = new ScriptOutputDispatcher.Channel(consumer);
         }
 
         @Override
         public void write(@NotNull char[] cbuf, int off, int len) throws IOException {
             synchronized (lock) {
-                if (consumer != null) {
-                    char[] subchars = new char[len];
-                    System.arraycopy(cbuf, off, subchars, 0, len);
-                    String value = new String(subchars);
-                    buffer.append(value);
+                if (closed) {
+                    return;
                 }
+
+                charCount += len;
+                int lineStart = off;
+                int end = off + len;
+                for (int i = off; i < end; i++) {
+                    if (cbuf[i] == '\n') {
+                        lineBuffer.append(cbuf, lineStart, i - lineStart);
+                        emitLine();
+                        lineStart = i + 1;
+                    }
+                }
+                lineBuffer.append(cbuf, lineStart, end - lineStart);
+            }
+        }
+
+        // Must be called while holding lock
+        private void emitLine() throws IOException {
+            int length = lineBuffer.length();
+            if (length > 0 && lineBuffer.charAt(length - 1) == '\r') {
+                length--;
+            }
+            String line = lineBuffer.substring(0, length);
+            lineBuffer.setLength(0); // Clear for reuse
+            lineCount++;
+            try {
+                dispatcher.submit(channel, line);
+            } catch (InterruptedException exc) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while queueing script output");
             }
         }
 
+        /***
+         * Partial lines are held until they are completed by a line terminator or the writer is closed, so that
+         * consumers always receive whole lines.
+         */
         @Override
         public void flush() throws IOException {
-            consumer.accept(buffer.toString());
-            buffer.setLength(0); // Clear for reuse
         }
 
+        /***
+         * Delivers any trailing partial line and then waits for all lines written to this writer to be delivered.
+         * Further writes are ignored.
+         */
         @Override
         public void close() throws IOException {
-            consumer = null;
+            synchronized (lock) {
+                if (closed) {
+                    return;
+                }
+                if (lineBuffer.length() > 0) {
+                    emitLine();
+                }
+                closed = true;
+            }
+
+            try {
+                channel.awaitDelivery();
+            } catch (InterruptedException exc) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for script output to be delivered");
+            }
+        }
+
+        public long getLineCount() {
+            synchronized (lock) {
+                return lineCount;
+            }
+        }
+
+        public long getCharCount() {
+            synchronized (lock) {
+                return charCount;
+            }
+        }
+    }
+
+    /***
+     * Holds the state of a single submitted run: the container it is evaluated in, the writers capturing its output
+     * and what is needed to stop it when its deadline passes or its future is cancelled.  Keeping this per run
+     * rather than on the runner is what allows runs on the same runner to execute concurrently.
+     */
+    private static class ScriptRun {
+        private final CompletableFuture<ScriptResult> future = new CompletableFuture<>();
+        private final CompletableFuture<Void> finished = new CompletableFuture<>();
+        private final long submittedMillis = System.currentTimeMillis();
+        private final long timeoutMillis;
+        private final String scriptName;
+        private Runnable task;
+        private ScriptingContainerPool.Lease lease;
+        private ScriptingContainer container;
+        private boolean ownsContainer = false;
+        // Whether the container has a runtime of its own, in which case its Ruby thread can be killed
+        private boolean isolated = false;
+        private Consumer<String> errorOutput;
+        private EventedWriter standardOutputWriter;
+        private EventedWriter errorOutputWriter;
+        private ScriptOutputDispatcher ownedOutputDispatcher;
+        private Thread thread;
+        private long compileNanos = 0;
+        private long executeNanos = 0;
+        private ScriptMetrics metrics;
+        private boolean stopRequested = false;
+        private boolean timedOut = false;
+        private boolean completed = false;
+
+        private ScriptRun(String scriptName, long timeoutMillis) {
+            this.scriptName = scriptName;
+            this.timeoutMillis = timeoutMillis;
+        }
+
+        // Records the thread executing this run, returns false if the run was stopped before it started
+        private synchronized boolean begin(Thread thread) {
+            this.thread = thread;
+            return !stopRequested;
+        }
+
+        // Records the container this run is evaluating in, returns false if the run has been stopped
+        private synchronized boolean attach(ScriptingContainer container) {
+            this.container = container;
+            return !stopRequested;
+        }
+
+        // Marks evaluation as over so a later stop request has no effect, returns true if the run was stopped
+        private synchronized boolean complete() {
+            completed = true;
+            thread = null;
+            return stopRequested;
+        }
+
+        private synchronized void interrupt() {
+            if (thread != null) {
+                thread.interrupt();
+            }
+        }
+
+        private synchronized void stop(boolean dueToTimeout) {
+            if (stopRequested || completed) {
+                return;
+            }
+            stopRequested = true;
+            timedOut = dueToTimeout;
+            if (thread != null) {
+                // Killing a thread of the process wide singleton runtime could leave it in a bad state for everything
+                // else using it, so a run in the singleton container is only interrupted
+                if (container != null && isolated) {
+                    killRubyThread(container, thread);
+                }
+                thread.interrupt();
+            }
         }
     }
 
-    protected ScriptingContainer scriptingContainer;
-    protected Thread scriptThread;
+    // Evaluates a script in the container leased for a run
+    @FunctionalInterface
+    private interface ScriptEvaluation {
+        Object evaluate(ScriptRun run) throws Exception;
+    }
+
+    private static final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    private static ExecutorService sharedExecutor = null;
+    private static ScheduledExecutorService deadlineScheduler = null;
+
+    protected ScriptingContainerPool scriptingContainerPool;
+    protected ScriptCache scriptCache;
+    protected Executor executor;
+    protected int maxConcurrentRuns = 1;
     protected Consumer<String> standardOutput;
     protected Consumer<String> errorOutput;
+    protected ScriptOutputDispatcher outputDispatcher;
+    protected boolean outputDispatcherPerRun = false;
     protected BiConsumer<Object, BiVariableMap> completedCallback;
+    protected Consumer<ScriptMetrics> metricsConsumer;
+
+    // Runs which have been submitted but not yet finished, and those of them waiting for a free slot
+    private final Set<ScriptRun> outstandingRuns = new LinkedHashSet<>();
+    private final Deque<ScriptRun> queuedRuns = new ArrayDeque<>();
+    private int executingRunCount = 0;
+    // Dispatcher shared by this instance's runs when not given one, closed once it has no outstanding runs
+    private ScriptOutputDispatcher defaultOutputDispatcher;
 
     public RubyScriptRunner() {
     }
 
+    /***
+     * Creates a new instance which leases its {@link ScriptingContainer} from the provided pool rather than
+     * constructing a new one for each script run.  The container is returned to the pool once the script has
+     * completed and the completed callback (if any) has been invoked.
+     * @param scriptingContainerPool The pool to lease containers from
+     */
+    public RubyScriptRunner(ScriptingContainerPool scriptingContainerPool) {
+        this.scriptingContainerPool = scriptingContainerPool;
+    }
+
+    /***
+     * Gets the executor used to run scripts for instances which have not been given one via {@link #setExecutor(Executor)}.
+     * It has one daemon thread per available processor (minimum of 2), matching the default maximum size of a
+     * {@link ScriptingContainerPool}.  A run leases its container on the executor thread, so a run waiting for a
+     * container from an exhausted pool occupies a thread while it waits.  Runners sharing a pool which is smaller than
+     * this executor should be given an executor of their own, or limit their concurrent runs, to avoid holding threads
+     * other runners could use.
+     * @return The shared script executor
+     */
+    public static synchronized ExecutorService getSharedExecutor() {
+        if (sharedExecutor == null || sharedExecutor.isShutdown()) {
+            AtomicInteger threadNumber = new AtomicInteger();
+            sharedExecutor = Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()), runnable -> {
+                Thread thread = new Thread(runnable, "RubyScriptRunner-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return sharedExecutor;
+    }
+
+    private static synchronized ScheduledExecutorService getDeadlineScheduler() {
+        if (deadlineScheduler == null) {
+            ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+                Thread thread = new Thread(runnable, "RubyScriptRunner-Deadlines");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.setRemoveOnCancelPolicy(true);
+            deadlineScheduler = scheduler;
+        }
+        return deadlineScheduler;
+    }
+
+    /***
+     * Ruby code does not respond to {@link Thread#interrupt()}, so a run is stopped by killing the Ruby thread
+     * associated with the Java thread executing it.  The kill is delivered the next time the script reaches a
+     * point where Ruby checks for thread events, such as a loop iteration or method call.  Only used for containers
+     * with a runtime of their own, which are discarded afterwards.
+     */
+    private static void killRubyThread(ScriptingContainer container, Thread thread) {
+        try {
+            Ruby runtime = container.getProvider().getRuntime();
+            for (RubyThread rubyThread : runtime.getThreadService().getActiveRubyThreads()) {
+                if (rubyThread.getNativeThread() == thread) {
+                    rubyThread.kill();
+                }
+            }
+        } catch (Exception exc) {
+            log.warn("Error while killing Ruby thread of script run", exc);
+        }
+    }
+
     /***
      * Allows you to provide a callback to be invoked when script finishes.
      * @param completedCallback A {@link Consumer} that accepts an Object (the final returned value) and
      *                          a Map containing all the variables in the scripting container upon completion.
+     *                          When the container was leased from a {@link ScriptingContainerPool}, the variable map is
+     *                          only valid for the duration of the callback, after which the container is reset.
      */
     public void whenScriptCompletes(BiConsumer<Object, BiVariableMap> completedCallback) {
         this.completedCallback = completedCallback;
     }
 
     /***
-     * Interrupts running script thread if there is one running.  See also {@link #isAlive()}.
+     * Allows you to provide a callback which receives the {@link ScriptMetrics} of each run.  It is invoked when the
+     * script finishes, just before the callback provided to {@link #whenScriptCompletes(BiConsumer)}.  The metrics
+     * are also available from {@link ScriptResult#getMetrics()}.
+     * @param metricsConsumer A {@link Consumer} which accepts the metrics recorded for a run
+     */
+    public void whenMetricsRecorded(Consumer<ScriptMetrics> metricsConsumer) {
+        this.metricsConsumer = metricsConsumer;
+    }
+
+    /***
+     * Interrupts the threads of any script runs currently executing.  Note that Ruby code generally does not respond
+     * to interrupts, to reliably stop a script use a deadline or cancel the future returned by
+     * {@link #submitScript(String, String, Map, long)}.  See also {@link #isAlive()}.
      */
     public void interrupt() {
-        if (scriptThread != null) {
-            scriptThread.interrupt();
+        List<ScriptRun> runs;
+        synchronized (this) {
+            runs = new ArrayList<>(outstandingRuns);
         }
+        runs.forEach(ScriptRun::interrupt);
     }
 
     /***
-     * Checks if script thread exists and is currently running.
-     * @return True if script thread exists (non-null) and {@link Thread#isAlive()} returns true.
+     * Stops all script runs of this instance which have not yet finished, both those executing and those waiting to
+     * start, as though their futures returned by {@link #submitScript(String, String, Map, long)} had been cancelled.
+     * @return The number of runs which were stopped
      */
-    public boolean isAlive() {
-        if (scriptThread != null) {
-            return scriptThread.isAlive();
-        } else {
-            return false;
+    public int cancel() {
+        List<ScriptRun> runs;
+        synchronized (this) {
+            runs = new ArrayList<>(outstandingRuns);
         }
+        int cancelledCount = 0;
+        for (ScriptRun run : runs) {
+            if (run.future.cancel(true)) {
+                cancelledCount++;
+            }
+        }
+        return cancelledCount;
+    }
+
+    /***
+     * Checks if script runs have been submitted to this instance which have not yet finished.
+     * @return True if any run is queued or executing.
+     */
+    public synchronized boolean isAlive() {
+        return !outstandingRuns.isEmpty();
+    }
+
+    /***
+     * @return The number of script runs of this instance currently executing.
+     */
+    public synchronized int getExecutingRunCount() {
+        return executingRunCount;
     }
 
     /***
-     * Joins script thread (if it exists) via {@link Thread#join(long)}.
-     * @param timeoutMillis the time to wait in milliseconds
+     * @return The number of script runs of this instance waiting for one of the runs ahead of them to finish
+     * (see {@link #setMaxConcurrentRuns(int)}).
+     */
+    public synchronized int getQueuedRunCount() {
+        return queuedRuns.size();
+    }
+
+    /***
+     * Waits for all script runs submitted to this instance so far to finish, for at most the specified time.
+     * @param timeoutMillis the time to wait in milliseconds, a value of 0 means wait forever
      * @throws InterruptedException if any thread has interrupted the current thread. The interrupted status of the
      * current thread is cleared when this exception is thrown.
      */
     public void join(long timeoutMillis) throws InterruptedException {
-        if (scriptThread != null) {
-            scriptThread.join(timeoutMillis);
+        CompletableFuture<Void> allFinished;
+        synchronized (this) {
+            allFinished = CompletableFuture.allOf(outstandingRuns.stream()
+                    .map(run -> run.finished)
+                    .toArray(CompletableFuture[]::new));
+        }
+
+        try {
+            if (timeoutMillis == 0) {
+                allFinished.get();
+            } else {
+                allFinished.get(timeoutMillis, TimeUnit.MILLISECONDS);
+            }
+        } catch (ExecutionException | TimeoutException exc) {
+            // Like Thread.join, we simply return once the runs have finished or the time has elapsed
         }
     }
 
     /***
-     * Joins script thread (if it exists) via {@link Thread#join()}.
+     * Waits for all script runs submitted to this instance so far to finish.
      * @throws InterruptedException if any thread has interrupted the current thread. The interrupted status of the
      * current thread is cleared when this exception is thrown.
      */
     public void join() throws InterruptedException {
-        if (scriptThread != null) {
-            scriptThread.join();
-        }
+        join(0);
     }
 
     /***
-     * Sets the {@link Consumer} which will receive standard output while script is running.  If null when a script is
+     * Sets the {@link Consumer} which will receive standard output while script is running, one line at a time without
+     * line terminators.  Lines are delivered on a dispatcher thread (see {@link #setOutputDispatcher}).  If null when a script is
      * executed, received messages will be logged by this instance via log4j2.
      * @param standardOutput The consumer of running script's standard output
      */
@@ -131,7 +449,8 @@ public class RubyScriptRunner {
     }
 
     /***
-     * Sets the {@link Consumer} which will receive error output while script is running.  If null when a script is
+     * Sets the {@link Consumer} which will receive error output while script is running, one line at a time without
+     * line terminators.  Lines are delivered on a dispatcher thread (see {@link #setOutputDispatcher}).  If null when a script is
      * executed, received messages will be logged by this instance via log4j2.
      * @param errorOutput The consumer of running script's error output
      */
@@ -139,6 +458,75 @@ public class RubyScriptRunner {
         this.errorOutput = errorOutput;
     }
 
+    /***
+     * Sets the {@link ScriptOutputDispatcher} which delivers standard and error output lines to their consumers.
+     * If not set, the runs of this instance share a dispatcher it creates, which is closed once none of its runs are
+     * outstanding (see also {@link #setOutputDispatcherPerRun(boolean)}).
+     * @param outputDispatcher The dispatcher to deliver script output through
+     */
+    public void setOutputDispatcher(ScriptOutputDispatcher outputDispatcher) {
+        this.outputDispatcher = outputDispatcher;
+    }
+
+    /***
+     * Specifies whether, when not given a dispatcher (see {@link #setOutputDispatcher(ScriptOutputDispatcher)}), each
+     * run delivers its output through a dispatcher of its own, closed once the run has finished.  This costs a thread
+     * per run, but a slow consumer of one run's output then does not hold up the output of other runs.  By default
+     * this is false and runs share one dispatcher.
+     * @param outputDispatcherPerRun True to create a dispatcher for each run
+     */
+    public void setOutputDispatcherPerRun(boolean outputDispatcherPerRun) {
+        this.outputDispatcherPerRun = outputDispatcherPerRun;
+    }
+
+    /***
+     * Sets the {@link ScriptCache} used to avoid re-parsing scripts this instance has run before.  If null, scripts
+     * are parsed every time they are run.
+     * @param scriptCache The script cache to use, or null for no caching
+     */
+    public void setScriptCache(ScriptCache scriptCache) {
+        this.scriptCache = scriptCache;
+        if (scriptCache != null && scriptingContainerPool != null) {
+            scriptCache.watchPool(scriptingContainerPool);
+        }
+    }
+
+    /***
+     * Sets the {@link Executor} scripts are run on.  If null, {@link #getSharedExecutor()} is used.
+     * @param executor The executor to run scripts on
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /***
+     * Specifies how many script runs submitted to this instance may execute at the same time.  By default this is 1,
+     * meaning runs execute one after another in the order submitted.  With a higher value, up to that many runs
+     * execute concurrently, each in its own scripting container with its own variables (including
+     * <code>$utilities</code>) and output writers, while further runs wait their turn without occupying a thread.
+     * How many runs actually execute in parallel is also bounded by the size of the {@link ScriptingContainerPool}
+     * and the number of threads of the {@link Executor}.
+     * @param maxConcurrentRuns Maximum number of concurrently executing runs, must be at least 1.
+     */
+    public void setMaxConcurrentRuns(int maxConcurrentRuns) {
+        if (maxConcurrentRuns < 1) {
+            throw new IllegalArgumentException("maxConcurrentRuns must be at least 1");
+        }
+        List<ScriptRun> toDispatch = new ArrayList<>();
+        synchronized (this) {
+            this.maxConcurrentRuns = maxConcurrentRuns;
+            while (executingRunCount < maxConcurrentRuns && !queuedRuns.isEmpty()) {
+                executingRunCount++;
+                toDispatch.add(queuedRuns.pollFirst());
+            }
+        }
+        toDispatch.forEach(this::dispatch);
+    }
+
+    public synchronized int getMaxConcurrentRuns() {
+        return maxConcurrentRuns;
+    }
+
     /***
      * Runs a ruby script asynchronously
      * @param script A string containing the Ruby script
@@ -147,19 +535,7 @@ public class RubyScriptRunner {
      *                  value to assign to that variable.  Prefix name with $ for global variables.
      */
     public void runScriptAsync(String script, String nuixVersion, Map<String, Object> variables) {
-        initialize(nuixVersion, variables);
-
-        scriptThread = new Thread(() -> {
-            try {
-                Object returnedValue = scriptingContainer.runScriptlet(script);
-                fireCompletedCallback(returnedValue);
-            } catch (Exception exc) {
-                errorOutput.accept(ExceptionUtils.getMessage(exc) + "\n" + ExceptionUtils.getStackTrace(exc));
-                fireCompletedCallback(null);
-            }
-        });
-
-        scriptThread.start();
+        submitScript(script, nuixVersion, variables, 0);
     }
 
     /***
@@ -170,53 +546,370 @@ public class RubyScriptRunner {
      *                  value to assign to that variable.  Prefix name with $ for global variables.
      */
     public void runFileAsync(File scriptFile, String nuixVersion, Map<String, Object> variables) {
-        initialize(nuixVersion, variables);
+        submitFile(scriptFile, nuixVersion, variables, 0);
+    }
 
-        scriptThread = new Thread(() -> {
-            try (InputStream scriptFileInputStream = FileUtils.openInputStream(scriptFile)) {
-                Object returnedValue = scriptingContainer.runScriptlet(scriptFileInputStream, scriptFile.getAbsolutePath());
-                fireCompletedCallback(returnedValue);
-            } catch (Exception exc) {
-                errorOutput.accept(ExceptionUtils.getMessage(exc) + "\n" + ExceptionUtils.getStackTrace(exc));
-                fireCompletedCallback(null);
+    /***
+     * Submits a ruby script to be run on this instance's executor, without blocking the calling thread.  Up to
+     * {@link #setMaxConcurrentRuns(int)} runs execute at once, further runs start in the order submitted as earlier
+     * ones finish.<br><br>
+     * If the script has not finished within timeoutMillis of starting, it is stopped and the result's exception is a
+     * {@link TimeoutException}.  Cancelling the returned future likewise stops the script.  Since a stopped script
+     * may have been interrupted part way through, a pooled container it was running in is discarded rather than
+     * returned to its pool.  Without a {@link ScriptingContainerPool}, a script with a deadline runs in a container
+     * with a runtime of its own, which is terminated afterwards.  A script without a deadline may run in the process
+     * wide singleton runtime, in which case cancelling it only interrupts its thread.
+     * @param script A string containing the Ruby script
+     * @param nuixVersion A string containing the Nuix version to be assigned to constant 'NUIX_VERSION'
+     * @param variables A map of variables to inject into the script container.  Key is variable name, value is the
+     *                  value to assign to that variable.  Prefix name with $ for global variables.
+     * @param timeoutMillis Maximum time in milliseconds the script may run for, 0 or less for no limit
+     * @return A future which completes with the {@link ScriptResult} once the script has finished
+     */
+    public CompletableFuture<ScriptResult> submitScript(String script, String nuixVersion, Map<String, Object> variables, long timeoutMillis) {
+        String scriptName = "<script>#" + Integer.toHexString(script.hashCode());
+        return submit(scriptName, nuixVersion, variables, timeoutMillis, run -> evaluate(run, script));
+    }
+
+    /***
+     * Submits a ruby script file to be run on this instance's executor.  See
+     * {@link #submitScript(String, String, Map, long)} for details on ordering, deadlines and cancellation.
+     * @param scriptFile A file containing a Ruby script
+     * @param nuixVersion A string containing the Nuix version to be assigned to constant 'NUIX_VERSION'
+     * @param variables A map of variables to inject into the script container.  Key is variable name, value is the
+     *                  value to assign to that variable.  Prefix name with $ for global variables.
+     * @param timeoutMillis Maximum time in milliseconds the script may run for, 0 or less for no limit
+     * @return A future which completes with the {@link ScriptResult} once the script has finished
+     */
+    public CompletableFuture<ScriptResult> submitFile(File scriptFile, String nuixVersion, Map<String, Object> variables, long timeoutMillis) {
+        return submit(scriptFile.getAbsolutePath(), nuixVersion, variables, timeoutMillis, run -> evaluate(run, scriptFile));
+    }
+
+    private CompletableFuture<ScriptResult> submit(String scriptName, String nuixVersion, Map<String, Object> variables,
+                                                   long timeoutMillis, ScriptEvaluation evaluation) {
+        ScriptRun run = new ScriptRun(scriptName, timeoutMillis);
+        run.task = () -> execute(run, nuixVersion, variables, evaluation);
+        run.future.whenComplete((result, error) -> {
+            if (run.future.isCancelled()) {
+                run.stop(false);
             }
         });
 
-        scriptThread.start();
+        boolean startNow;
+        synchronized (this) {
+            outstandingRuns.add(run);
+            startNow = executingRunCount < maxConcurrentRuns;
+            if (startNow) {
+                executingRunCount++;
+            } else {
+                queuedRuns.addLast(run);
+            }
+        }
+
+        if (startNow) {
+            dispatch(run);
+        }
+        return run.future;
     }
 
-    private void initialize(String nuixVersion, Map<String, Object> variablesToSet) {
-        // Wait on any already running scripts
+    private void dispatch(ScriptRun run) {
+        Executor runExecutor = executor != null ? executor : getSharedExecutor();
         try {
-            join();
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
+            runExecutor.execute(run.task);
+        } catch (RejectedExecutionException exc) {
+            run.future.completeExceptionally(exc);
+            runFinished(run);
         }
+    }
 
-        if (standardOutput == null) {
-            standardOutput = log::info;
+    // Frees the slot held by a finished run, handing it to the next queued run if there is one
+    private void runFinished(ScriptRun run) {
+        ScriptRun next;
+        ScriptOutputDispatcher idleOutputDispatcher = null;
+        synchronized (this) {
+            outstandingRuns.remove(run);
+            next = queuedRuns.pollFirst();
+            if (next == null) {
+                executingRunCount--;
+            }
+            if (outstandingRuns.isEmpty()) {
+                idleOutputDispatcher = defaultOutputDispatcher;
+                defaultOutputDispatcher = null;
+            }
+        }
+        if (idleOutputDispatcher != null) {
+            idleOutputDispatcher.close();
         }
+        run.finished.complete(null);
 
-        if (errorOutput == null) {
-            errorOutput = log::error;
+        if (next != null) {
+            dispatch(next);
         }
+    }
+
+    private void execute(ScriptRun run, String nuixVersion, Map<String, Object> variables, ScriptEvaluation evaluation) {
+        long startedMillis = System.currentTimeMillis();
+        Object returnedValue = null;
+        Map<String, Object> finalVariables = null;
+        Exception exception = null;
+        boolean stopped = false;
+        ScheduledFuture<?> deadline = null;
+
+        try {
+            if (run.future.isDone() || !run.begin(Thread.currentThread())) {
+                // Cancelled before it started
+                return;
+            }
+
+            long wallStarted = System.nanoTime();
+            long cpuStarted = currentThreadCpuNanos();
+            long allocatedStarted = currentThreadAllocatedBytes();
+            if (run.timeoutMillis > 0) {
+                deadline = getDeadlineScheduler().schedule(() -> run.stop(true), run.timeoutMillis, TimeUnit.MILLISECONDS);
+            }
 
-        scriptingContainer = new ScriptingContainer(LocalVariableBehavior.PERSISTENT);
+            try {
+                initialize(run, nuixVersion, variables);
+                if (run.attach(run.container)) {
+                    returnedValue = evaluation.evaluate(run);
+                }
+            } catch (Exception exc) {
+                exception = exc;
+            }
+
+            stopped = run.complete();
+            if (run.standardOutputWriter != null) {
+                finishOutput(run);
+            }
+
+            if (stopped) {
+                returnedValue = null;
+                if (run.timedOut) {
+                    exception = new TimeoutException("Script exceeded its deadline of " + run.timeoutMillis + "ms and was stopped");
+                } else {
+                    exception = new CancellationException("Script was cancelled");
+                }
+                if (run.lease != null) {
+                    run.lease.invalidate();
+                }
+            }
+
+            run.metrics = recordMetrics(run, exception == null, System.nanoTime() - wallStarted,
+                    difference(cpuStarted, currentThreadCpuNanos()),
+                    difference(allocatedStarted, currentThreadAllocatedBytes()));
+
+            if (exception == null) {
+                finalVariables = new LinkedHashMap<>(run.container.getVarMap());
+                fireCompletedCallback(run, returnedValue);
+            } else {
+                run.errorOutput.accept(ExceptionUtils.getMessage(exception) + "\n" + ExceptionUtils.getStackTrace(exception));
+                fireCompletedCallback(run, null);
+            }
+        } catch (Exception exc) {
+            log.error("Error while completing script run", exc);
+            if (exception == null) {
+                exception = exc;
+            }
+        } finally {
+            if (deadline != null) {
+                deadline.cancel(false);
+            }
+            // Clear any interrupt left behind by stopping the run before this thread is reused
+            Thread.interrupted();
+            if (run.ownedOutputDispatcher != null) {
+                run.ownedOutputDispatcher.close();
+            }
+            releaseScriptingContainer(run);
+            run.future.complete(new ScriptResult(returnedValue, finalVariables, exception, stopped && run.timedOut,
+                    run.submittedMillis, startedMillis, System.currentTimeMillis(), run.metrics));
+            runFinished(run);
+        }
+    }
+
+    private void initialize(ScriptRun run, String nuixVersion, Map<String, Object> variablesToSet) {
+        Consumer<String> runStandardOutput = standardOutput != null ? standardOutput : log::info;
+        run.errorOutput = errorOutput != null ? errorOutput : log::error;
+        ScriptOutputDispatcher runOutputDispatcher = getRunOutputDispatcher(run);
+
+        if (scriptingContainerPool != null) {
+            try {
+                run.lease = scriptingContainerPool.lease();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+            run.container = run.lease.getContainer();
+            run.isolated = true;
+        } else if (maxConcurrentRuns > 1 || run.timeoutMillis > 0) {
+            // The default singleton scoped container would share one runtime, and its variables, between concurrent
+            // runs, and a run with a deadline may have its Ruby thread killed, which must not happen in a shared runtime
+            run.container = new ScriptingContainer(LocalContextScope.SINGLETHREAD, LocalVariableBehavior.PERSISTENT);
+            run.ownsContainer = true;
+            run.isolated = true;
+        } else {
+            run.container = new ScriptingContainer(LocalVariableBehavior.PERSISTENT);
+        }
 
-        scriptingContainer.setWriter(new EventedWriter(this.standardOutput));
-        scriptingContainer.setErrorWriter(new EventedWriter(this.standardOutput));
+        run.standardOutputWriter = new EventedWriter(runStandardOutput, runOutputDispatcher);
+        run.errorOutputWriter = new EventedWriter(run.errorOutput, runOutputDispatcher);
+        run.container.setWriter(run.standardOutputWriter);
+        run.container.setErrorWriter(run.errorOutputWriter);
 
-        scriptingContainer.clear();
+        run.container.clear();
 
-        scriptingContainer.runScriptlet("NUIX_VERSION = \"" + nuixVersion + "\"");
+        run.container.runScriptlet("NUIX_VERSION = \"" + nuixVersion + "\"");
         for (Map.Entry<String, Object> variableToSet : variablesToSet.entrySet()) {
-            scriptingContainer.put(variableToSet.getKey(), variableToSet.getValue());
+            run.container.put(variableToSet.getKey(), variableToSet.getValue());
+        }
+    }
+
+    // Gets the dispatcher a run delivers its output through, creating one if this instance was not given one
+    private synchronized ScriptOutputDispatcher getRunOutputDispatcher(ScriptRun run) {
+        if (outputDispatcher != null) {
+            return outputDispatcher;
+        } else if (outputDispatcherPerRun) {
+            run.ownedOutputDispatcher = new ScriptOutputDispatcher(ScriptOutputDispatcher.DEFAULT_CAPACITY,
+                    ScriptOutputDispatcher.OverflowPolicy.Block);
+            return run.ownedOutputDispatcher;
+        } else {
+            if (defaultOutputDispatcher == null) {
+                defaultOutputDispatcher = new ScriptOutputDispatcher(ScriptOutputDispatcher.DEFAULT_CAPACITY,
+                        ScriptOutputDispatcher.OverflowPolicy.Block);
+            }
+            return defaultOutputDispatcher;
+        }
+    }
+
+    private Object evaluate(ScriptRun run, String script) throws Exception {
+        long compileStarted = System.nanoTime();
+        if (scriptCache != null) {
+            ScriptCache.CompiledScript compiledScript = scriptCache.compile(run.container, script);
+            run.compileNanos = System.nanoTime() - compileStarted;
+            return timeExecution(run, compiledScript::run);
+        } else {
+            EmbedEvalUnit evalUnit = run.container.parse(script);
+            run.compileNanos = System.nanoTime() - compileStarted;
+            return timeExecution(run, () -> JavaEmbedUtils.rubyToJava(evalUnit.run()));
+        }
+    }
+
+    private Object evaluate(ScriptRun run, File scriptFile) throws Exception {
+        long compileStarted = System.nanoTime();
+        if (scriptCache != null) {
+            ScriptCache.CompiledScript compiledScript = scriptCache.compile(run.container, scriptFile);
+            run.compileNanos = System.nanoTime() - compileStarted;
+            return timeExecution(run, compiledScript::run);
+        } else {
+            EmbedEvalUnit evalUnit;
+            try (InputStream scriptFileInputStream = FileUtils.openInputStream(scriptFile)) {
+                evalUnit = run.container.parse(scriptFileInputStream, scriptFile.getAbsolutePath());
+            }
+            run.compileNanos = System.nanoTime() - compileStarted;
+            return timeExecution(run, () -> JavaEmbedUtils.rubyToJava(evalUnit.run()));
+        }
+    }
+
+    private static Object timeExecution(ScriptRun run, Callable<Object> execution) throws Exception {
+        long executeStarted = System.nanoTime();
+        try {
+            return execution.call();
+        } finally {
+            run.executeNanos = System.nanoTime() - executeStarted;
         }
     }
 
-    private void fireCompletedCallback(Object returnedValue) {
+    private ScriptMetrics recordMetrics(ScriptRun run, boolean successful, long wallNanos, long cpuNanos, long allocatedBytes) {
+        ScriptMetrics metrics = new ScriptMetrics(run.scriptName, wallNanos, cpuNanos, allocatedBytes,
+                run.compileNanos, run.executeNanos,
+                run.standardOutputWriter != null ? run.standardOutputWriter.getLineCount() : 0,
+                run.standardOutputWriter != null ? run.standardOutputWriter.getCharCount() : 0,
+                run.errorOutputWriter != null ? run.errorOutputWriter.getLineCount() : 0,
+                run.errorOutputWriter != null ? run.errorOutputWriter.getCharCount() : 0,
+                successful);
+        log.debug("{}", metrics);
+
+        if (metricsConsumer != null) {
+            try {
+                metricsConsumer.accept(metrics);
+            } catch (Exception exc) {
+                log.error("Error in script metrics callback", exc);
+            }
+        }
+        return metrics;
+    }
+
+    private static long currentThreadCpuNanos() {
+        try {
+            if (threadMXBean.isCurrentThreadCpuTimeSupported() && threadMXBean.isThreadCpuTimeEnabled()) {
+                return threadMXBean.getCurrentThreadCpuTime();
+            }
+        } catch (UnsupportedOperationException exc) {
+            // Fall through to unsupported
+        }
+        return -1;
+    }
+
+    private static long currentThreadAllocatedBytes() {
+        // Allocated bytes are only available through the HotSpot specific extension of ThreadMXBean
+        if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean hotSpotThreadMXBean = (com.sun.management.ThreadMXBean) threadMXBean;
+            try {
+                if (hotSpotThreadMXBean.isThreadAllocatedMemorySupported() && hotSpotThreadMXBean.isThreadAllocatedMemoryEnabled()) {
+                    return hotSpotThreadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+                }
+            } catch (UnsupportedOperationException exc) {
+                // Fall through to unsupported
+            }
+        }
+        return -1;
+    }
+
+    private static long difference(long started, long finished) {
+        return started < 0 || finished < 0 ? -1 : finished - started;
+    }
+
+    /***
+     * Delivers any trailing partial lines and waits for all script output to reach its consumers, so that output
+     * has been fully received by the time the completed callback is invoked.
+     */
+    private void finishOutput(ScriptRun run) {
+        for (EventedWriter writer : new EventedWriter[]{run.standardOutputWriter, run.errorOutputWriter}) {
+            try {
+                writer.close();
+            } catch (IOException exc) {
+                log.error("Error while finishing script output", exc);
+            }
+        }
+    }
+
+    private void fireCompletedCallback(ScriptRun run, Object returnedValue) {
         if(completedCallback != null) {
-            completedCallback.accept(returnedValue, scriptingContainer.getVarMap());
+            completedCallback.accept(returnedValue, run.container != null ? run.container.getVarMap() : null);
+        }
+    }
+
+    /***
+     * If the run's container was leased from a pool, returns it to that pool, or if it was created just for this run
+     * terminates it.  Called after the completed callback has been invoked, since the callback receives the
+     * container's variable map.
+     */
+    private void releaseScriptingContainer(ScriptRun run) {
+        if (run.lease != null) {
+            run.lease.close();
+            run.lease = null;
+            return;
+        }
+
+        // A container created just for this run is not used again, so what was compiled against it is of no further use
+        if (scriptCache != null && run.container != null) {
+            scriptCache.remove(run.container);
+        }
+        if (run.ownsContainer && run.container != null) {
+            try {
+                run.container.terminate();
+            } catch (Exception exc) {
+                log.warn("Error while terminating scripting container", exc);
+            }
         }
     }
 }
@@ -0,0 +1,264 @@
+package com.nuix.innovation.enginewrapper;
+
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ClassLoadingMXBean;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryUsage;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.RuntimeMXBean;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/***
+ * Periodically writes a snapshot of the state of the JVM to a rolling set of files, so that when a job slows down or
+ * fails there is a record of what was happening in the minutes before.  Each snapshot is a small text file holding
+ * JVM and OS load, heap and memory pool usage, garbage collection counts and times, class loading counts and a dump of
+ * all threads, gathered through the platform MXBeans.  Only the most recent snapshots are kept (see
+ * {@link #withRetention(int)}).<br><br>
+ * Snapshots can be bundled with Nuix diagnostics using
+ * {@link NuixDiagnostics#saveDiagnosticsToFile(File, RuntimeSnapshotSampler, int)}.  A sampler can be started and
+ * stopped along with an engine using {@link NuixEngine#setRuntimeSnapshotSampler(RuntimeSnapshotSampler)}, in which
+ * case snapshots are written under the log directory by default.
+ * @author Jason Wells
+ */
+public class RuntimeSnapshotSampler implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(RuntimeSnapshotSampler.class);
+    private static final String SNAPSHOT_PREFIX = "RuntimeSnapshot-";
+    private static final String SNAPSHOT_EXTENSION = ".txt";
+
+    private File directory = null;
+    private long intervalMillis = 60 * 1000;
+    private int retention = 30;
+    private int maxStackDepth = 32;
+    private boolean includeThreadDumps = true;
+    private ScheduledExecutorService scheduler = null;
+
+    /***
+     * @param directory Directory snapshot files are written to
+     * @return This instance for chained method calls.
+     */
+    public RuntimeSnapshotSampler withDirectory(File directory) {
+        this.directory = directory;
+        return this;
+    }
+
+    /***
+     * @param intervalMillis Time between snapshots in milliseconds, default is 60 seconds
+     * @return This instance for chained method calls.
+     */
+    public RuntimeSnapshotSampler withInterval(long intervalMillis) {
+        this.intervalMillis = Math.max(1, intervalMillis);
+        return this;
+    }
+
+    /***
+     * @param retention How many of the most recent snapshots to keep, default is 30
+     * @return This instance for chained method calls.
+     */
+    public RuntimeSnapshotSampler withRetention(int retention) {
+        this.retention = Math.max(1, retention);
+        return this;
+    }
+
+    /***
+     * @param maxStackDepth How many frames of each thread's stack to record, default is 32
+     * @return This instance for chained method calls.
+     */
+    public RuntimeSnapshotSampler withMaxStackDepth(int maxStackDepth) {
+        this.maxStackDepth = Math.max(0, maxStackDepth);
+        return this;
+    }
+
+    /***
+     * @param includeThreadDumps Whether snapshots include a dump of all threads, default is true
+     * @return This instance for chained method calls.
+     */
+    public RuntimeSnapshotSampler withThreadDumps(boolean includeThreadDumps) {
+        this.includeThreadDumps = includeThreadDumps;
+        return this;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public long getIntervalMillis() {
+        return intervalMillis;
+    }
+
+    public int getRetention() {
+        return retention;
+    }
+
+    /***
+     * Starts taking a snapshot every interval on a background thread, the first of them right away.  Does nothing if
+     * already started.
+     */
+    public synchronized void start() {
+        if (directory == null) {
+            throw new IllegalStateException("No snapshot directory has been provided, see withDirectory");
+        }
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "RuntimeSnapshotSampler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                captureNow();
+            } catch (Exception exc) {
+                log.warn("Error while capturing runtime snapshot", exc);
+            }
+        }, 0, intervalMillis, TimeUnit.MILLISECONDS);
+        log.info("Capturing runtime snapshots every {}ms to {}, keeping the last {}", intervalMillis,
+                directory.getAbsolutePath(), retention);
+    }
+
+    public synchronized boolean isRunning() {
+        return scheduler != null;
+    }
+
+    /***
+     * Stops taking snapshots.  Snapshots already written are kept.
+     */
+    @Override
+    public synchronized void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /***
+     * @return The snapshot files currently kept, oldest first.
+     */
+    public List<File> getSnapshotFiles() {
+        if (directory == null) {
+            return Collections.emptyList();
+        }
+        File[] files = directory.listFiles((dir, name) -> name.startsWith(SNAPSHOT_PREFIX) && name.endsWith(SNAPSHOT_EXTENSION));
+        if (files == null) {
+            return Collections.emptyList();
+        }
+        // Time stamped names sort chronologically
+        List<File> snapshotFiles = new ArrayList<>(Arrays.asList(files));
+        snapshotFiles.sort((a, b) -> a.getName().compareTo(b.getName()));
+        return snapshotFiles;
+    }
+
+    /***
+     * @param count Maximum number of snapshots
+     * @return The most recent snapshot files, oldest first.
+     */
+    public List<File> getLatestSnapshotFiles(int count) {
+        List<File> snapshotFiles = getSnapshotFiles();
+        return snapshotFiles.subList(Math.max(0, snapshotFiles.size() - count), snapshotFiles.size());
+    }
+
+    /***
+     * Takes a snapshot right away and then removes the oldest snapshots beyond the retention.
+     * @return The snapshot file written
+     * @throws IOException If the snapshot could not be written
+     */
+    public synchronized File captureNow() throws IOException {
+        directory.mkdirs();
+        String timeStamp = DateTime.now().toString("yyyyMMdd-HHmmss-SSS");
+        File snapshotFile = new File(directory, SNAPSHOT_PREFIX + timeStamp + SNAPSHOT_EXTENSION);
+        File tempFile = new File(directory, snapshotFile.getName() + ".tmp");
+        Files.writeString(tempFile.toPath(), buildSnapshot(), StandardCharsets.UTF_8);
+        Files.move(tempFile.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        List<File> snapshotFiles = getSnapshotFiles();
+        for (int i = 0; i < snapshotFiles.size() - retention; i++) {
+            Files.deleteIfExists(snapshotFiles.get(i).toPath());
+        }
+        return snapshotFile;
+    }
+
+    /***
+     * @return The text of a snapshot of the current state of the JVM
+     */
+    protected String buildSnapshot() {
+        StringBuilder snapshot = new StringBuilder(16 * 1024);
+        RuntimeMXBean runtime = ManagementFactory.getRuntimeMXBean();
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        snapshot.append(String.format("Time: %s%n", DateTime.now()));
+        snapshot.append(String.format("JVM: %s %s, PID %s, uptime %sms%n", runtime.getVmName(), runtime.getVmVersion(),
+                ProcessHandle.current().pid(), runtime.getUptime()));
+        snapshot.append(String.format("OS: %s %s, %s processors, load average %.2f%n", os.getName(), os.getVersion(),
+                os.getAvailableProcessors(), os.getSystemLoadAverage()));
+
+        snapshot.append(String.format("%nMemory%n"));
+        snapshot.append(String.format("  Heap: %s%n", describe(ManagementFactory.getMemoryMXBean().getHeapMemoryUsage())));
+        snapshot.append(String.format("  Non-heap: %s%n", describe(ManagementFactory.getMemoryMXBean().getNonHeapMemoryUsage())));
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            snapshot.append(String.format("  %s (%s): %s%n", pool.getName(), pool.getType(), describe(pool.getUsage())));
+        }
+
+        snapshot.append(String.format("%nGarbage collection%n"));
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            snapshot.append(String.format("  %s: %s collections, %sms%n", gc.getName(), gc.getCollectionCount(), gc.getCollectionTime()));
+        }
+
+        ClassLoadingMXBean classLoading = ManagementFactory.getClassLoadingMXBean();
+        snapshot.append(String.format("%nClasses: %s loaded, %s total loaded, %s unloaded%n", classLoading.getLoadedClassCount(),
+                classLoading.getTotalLoadedClassCount(), classLoading.getUnloadedClassCount()));
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        snapshot.append(String.format("Threads: %s live, %s daemon, %s peak%n", threads.getThreadCount(),
+                threads.getDaemonThreadCount(), threads.getPeakThreadCount()));
+
+        if (includeThreadDumps) {
+            snapshot.append(String.format("%nThread dump%n"));
+            // Locked monitors and synchronizers are left out, they make dumping considerably more expensive, and stacks
+            // are limited by the JVM so that deep stacks are not walked only to be cut short here
+            for (ThreadInfo threadInfo : threads.dumpAllThreads(false, false, maxStackDepth)) {
+                snapshot.append(String.format("%n\"%s\" id=%s %s", threadInfo.getThreadName(), threadInfo.getThreadId(),
+                        threadInfo.getThreadState()));
+                if (threadInfo.getLockName() != null) {
+                    snapshot.append(" on ").append(threadInfo.getLockName());
+                }
+                if (threadInfo.getLockOwnerName() != null) {
+                    snapshot.append(" owned by \"").append(threadInfo.getLockOwnerName()).append("\"");
+                }
+                snapshot.append(System.lineSeparator());
+                StackTraceElement[] stackTrace = threadInfo.getStackTrace();
+                for (StackTraceElement frame : stackTrace) {
+                    snapshot.append("    at ").append(frame).append(System.lineSeparator());
+                }
+                if (stackTrace.length > 0 && stackTrace.length == maxStackDepth) {
+                    snapshot.append(String.format("    ... (limited to %s frames)%n", maxStackDepth));
+                }
+            }
+        }
+        return snapshot.toString();
+    }
+
+    private static String describe(MemoryUsage usage) {
+        if (usage == null) {
+            return "unavailable";
+        }
+        return String.format("used %sMB, committed %sMB, max %s", usage.getUsed() / (1024 * 1024),
+                usage.getCommitted() / (1024 * 1024), usage.getMax() < 0 ? "undefined" : usage.getMax() / (1024 * 1024) + "MB");
+    }
+}
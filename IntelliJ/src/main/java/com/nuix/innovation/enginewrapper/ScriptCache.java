@@ -0,0 +1,373 @@
+package com.nuix.innovation.enginewrapper;
+
+import com.google.common.hash.Hashing;
+import org.apache.commons.io.FileUtils;
+import org.jruby.ParseResult;
+import org.jruby.Ruby;
+import org.jruby.ast.RootNode;
+import org.jruby.embed.EmbedEvalUnit;
+import org.jruby.embed.ScriptingContainer;
+import org.jruby.ir.IRBuilder;
+import org.jruby.ir.IRManager;
+import org.jruby.ir.IRScope;
+import org.jruby.ir.interpreter.InterpreterContext;
+import org.jruby.ir.persistence.IRReader;
+import org.jruby.ir.persistence.IRReaderStream;
+import org.jruby.ir.persistence.IRWriter;
+import org.jruby.ir.persistence.IRWriterStream;
+import org.jruby.javasupport.JavaEmbedUtils;
+import org.jruby.runtime.Constants;
+import org.jruby.runtime.builtin.IRubyObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/***
+ * Caches parsed/compiled Ruby scripts so that running the same script repeatedly does not re-parse it every time.
+ * Entries are keyed by a SHA-256 hash of the script content, the JRuby version, the script's name and the names of
+ * any local variables present in the container when the script is compiled.<br><br>
+ * Compiled scripts are bound to the JRuby runtime which compiled them, so the in-memory cache keeps a separate
+ * LRU set of entries for each {@link ScriptingContainer} (this works well with {@link ScriptingContainerPool}, where
+ * containers are long-lived).  A compiled script references its container, so the entries of a container have to be
+ * removed once it is discarded for it to be garbage collected: see {@link #watchPool(ScriptingContainerPool)} for pooled
+ * containers and {@link #remove(ScriptingContainer)} for any others.<br><br>
+ * Optionally a cache directory can be provided via {@link #withCacheDirectory(File)}, in which case the JRuby IR
+ * (internal representation) of compiled scripts is persisted to disk, allowing a cold JVM to skip parsing
+ * altogether.  Note that the on-disk cache is only used for scripts run without local variables injected, since
+ * persisted IR is run directly against the runtime rather than through the container's local variable handling.
+ * Scripts loaded this way will also not report the local variables they assign in the container's variable map.
+ * Global variables work as normal either way.<br><br>
+ * Scripts run from a file are re-hashed whenever the file's modification time or size changes.
+ * @author Jason Wells
+ */
+public class ScriptCache {
+    private static final Logger log = LoggerFactory.getLogger(ScriptCache.class);
+
+    // Name JRuby reports for scripts which are not run from a file
+    private static final String scriptletName = "<script>";
+
+    /***
+     * A script which has been compiled against a particular {@link ScriptingContainer} and is ready to run.
+     */
+    public static class CompiledScript {
+        private final ScriptingContainer container;
+        private final EmbedEvalUnit evalUnit;
+        private final byte[] persistedIR;
+        private final String scriptName;
+
+        private CompiledScript(ScriptingContainer container, EmbedEvalUnit evalUnit) {
+            this.container = container;
+            this.evalUnit = evalUnit;
+            this.persistedIR = null;
+            this.scriptName = null;
+        }
+
+        private CompiledScript(ScriptingContainer container, byte[] persistedIR, String scriptName) {
+            this.container = container;
+            this.evalUnit = null;
+            this.persistedIR = persistedIR;
+            this.scriptName = scriptName;
+        }
+
+        /***
+         * Runs the compiled script in the container it was compiled against.
+         * @return The value of the script's final expression, converted to a Java object
+         */
+        public Object run() throws IOException {
+            IRubyObject result;
+            if (evalUnit != null) {
+                result = evalUnit.run();
+            } else {
+                // JRuby discards a script body's interpreter context once it has run, so persisted IR is decoded
+                // for each run.  Decoding is still considerably cheaper than parsing and building the IR.
+                Ruby runtime = container.getProvider().getRuntime();
+                IRManager irManager = runtime.getIRManager();
+                IRScope irScope = IRReader.load(irManager, new IRReaderStream(irManager, persistedIR, scriptName));
+                result = runtime.runInterpreter(runtime.getCurrentContext(), irScope, runtime.getTopSelf());
+            }
+            return JavaEmbedUtils.rubyToJava(result);
+        }
+    }
+
+    // Hash and stamp of a script file, used to avoid re-reading and re-hashing unchanged files
+    private static class FileStamp {
+        private final long lastModified;
+        private final long length;
+        private final String hash;
+
+        private FileStamp(long lastModified, long length, String hash) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.hash = hash;
+        }
+    }
+
+    protected int maxEntriesPerContainer = 64;
+    protected File cacheDirectory = null;
+
+    // Compiled scripts reference their container, so a weak map would never drop an entry.  Entries are instead
+    // removed explicitly when their container is discarded.
+    private final Map<ScriptingContainer, Map<String, CompiledScript>> containerCaches = new IdentityHashMap<>();
+    private final Consumer<ScriptingContainer> terminationListener = this::remove;
+    private final Map<String, FileStamp> fileStamps = new ConcurrentHashMap<>();
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public ScriptCache() {
+    }
+
+    /***
+     * Specifies the maximum number of compiled scripts kept in memory for each container.  When exceeded, the least
+     * recently used entry is discarded.
+     * @param maxEntriesPerContainer The maximum number of entries per container, must be at least 1.
+     * @return This cache for chained method calls.
+     */
+    public ScriptCache withMaxEntriesPerContainer(int maxEntriesPerContainer) {
+        if (maxEntriesPerContainer < 1) {
+            throw new IllegalArgumentException("maxEntriesPerContainer must be at least 1");
+        }
+        this.maxEntriesPerContainer = maxEntriesPerContainer;
+        return this;
+    }
+
+    /***
+     * Specifies a directory in which compiled script IR will be persisted so that it can be reused by later JVMs.
+     * Directory will be created if it does not exist.
+     * @param cacheDirectory The directory to persist compiled scripts to, or null to only cache in memory.
+     * @return This cache for chained method calls.
+     */
+    public ScriptCache withCacheDirectory(File cacheDirectory) {
+        this.cacheDirectory = cacheDirectory;
+        return this;
+    }
+
+    /***
+     * @return Number of times a compiled script was found in memory.
+     */
+    public long getMemoryHitCount() {
+        return memoryHits.get();
+    }
+
+    /***
+     * @return Number of times a compiled script was loaded from the cache directory.
+     */
+    public long getDiskHitCount() {
+        return diskHits.get();
+    }
+
+    /***
+     * @return Number of times a script had to be parsed and compiled.
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /***
+     * Gets a compiled version of the provided script for the provided container, parsing it only if it is not
+     * already cached.
+     * @param container The container the script will be run in
+     * @param script The Ruby script
+     * @return A compiled script ready to be run
+     * @throws IOException If there is an error reading from or writing to the cache directory
+     */
+    public CompiledScript compile(ScriptingContainer container, String script) throws IOException {
+        byte[] content = script.getBytes(StandardCharsets.UTF_8);
+        return compile(container, content, sha256(content), scriptletName, null);
+    }
+
+    /***
+     * Gets a compiled version of the provided script file for the provided container, parsing it only if it is not
+     * already cached or if the file has changed since it was cached.
+     * @param container The container the script will be run in
+     * @param scriptFile The file containing the Ruby script
+     * @return A compiled script ready to be run
+     * @throws IOException If there is an error reading the script file or reading from/writing to the cache directory
+     */
+    public CompiledScript compile(ScriptingContainer container, File scriptFile) throws IOException {
+        String path = scriptFile.getAbsolutePath();
+        long lastModified = scriptFile.lastModified();
+        long length = scriptFile.length();
+
+        byte[] content = null;
+        FileStamp stamp = fileStamps.get(path);
+        if (stamp == null || stamp.lastModified != lastModified || stamp.length != length) {
+            content = FileUtils.readFileToByteArray(scriptFile);
+            String hash = sha256(content);
+            if (stamp != null && !stamp.hash.equals(hash)) {
+                log.debug("Script file has changed, invalidating cached entries: {}", path);
+                invalidate(stamp.hash);
+            }
+            stamp = new FileStamp(lastModified, length, hash);
+            fileStamps.put(path, stamp);
+        }
+
+        return compile(container, content, stamp.hash, path, scriptFile);
+    }
+
+    private CompiledScript compile(ScriptingContainer container, byte[] content, String hash, String scriptName,
+                                   File sourceFile) throws IOException {
+        // Local variable names are baked into the parse, so they need to be part of the key
+        TreeSet<String> localVariableNames = new TreeSet<>();
+        for (String name : container.getVarMap().getNames()) {
+            if (!name.startsWith("$") && !name.startsWith("@")) {
+                localVariableNames.add(name);
+            }
+        }
+        String key = String.join(":", Constants.VERSION, hash, scriptName, String.join(",", localVariableNames));
+
+        Map<String, CompiledScript> containerCache = getContainerCache(container);
+        CompiledScript compiledScript;
+        synchronized (containerCache) {
+            compiledScript = containerCache.get(key);
+        }
+        if (compiledScript != null) {
+            memoryHits.incrementAndGet();
+            return compiledScript;
+        }
+
+        if (content == null) {
+            content = FileUtils.readFileToByteArray(sourceFile);
+        }
+
+        if (cacheDirectory != null && localVariableNames.isEmpty()) {
+            compiledScript = compileUsingCacheDirectory(container, content, hash, scriptName);
+        } else {
+            misses.incrementAndGet();
+            EmbedEvalUnit evalUnit = container.parse(new ByteArrayInputStream(content), scriptName);
+            compiledScript = new CompiledScript(container, evalUnit);
+        }
+
+        synchronized (containerCache) {
+            containerCache.put(key, compiledScript);
+        }
+        return compiledScript;
+    }
+
+    private CompiledScript compileUsingCacheDirectory(ScriptingContainer container, byte[] content, String hash,
+                                                      String scriptName) throws IOException {
+        String fileName = sha256(String.join(":", Constants.VERSION, hash, scriptName).getBytes(StandardCharsets.UTF_8)) + ".ir";
+        File irFile = new File(cacheDirectory, fileName);
+
+        if (irFile.exists()) {
+            diskHits.incrementAndGet();
+            return new CompiledScript(container, FileUtils.readFileToByteArray(irFile), scriptName);
+        }
+
+        misses.incrementAndGet();
+        Ruby runtime = container.getProvider().getRuntime();
+        ParseResult parseResult = runtime.parseFile(scriptName, new ByteArrayInputStream(content), null);
+        InterpreterContext interpreterContext = IRBuilder.buildRoot(runtime.getIRManager(), (RootNode) parseResult);
+        ByteArrayOutputStream persistedIR = new ByteArrayOutputStream();
+        IRWriter.persist(new IRWriterStream(persistedIR), interpreterContext.getScope());
+
+        // Write to a temp file first and then move into place so concurrent readers never see a partial file
+        cacheDirectory.mkdirs();
+        File tempFile = File.createTempFile(fileName, ".tmp", cacheDirectory);
+        try {
+            FileUtils.writeByteArrayToFile(tempFile, persistedIR.toByteArray());
+            Files.move(tempFile.toPath(), irFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (Exception exc) {
+            log.warn("Unable to persist compiled script IR to: {}", irFile.getAbsolutePath(), exc);
+        } finally {
+            Files.deleteIfExists(tempFile.toPath());
+        }
+
+        return new CompiledScript(container, persistedIR.toByteArray(), scriptName);
+    }
+
+    private static String sha256(byte[] content) {
+        return Hashing.sha256().hashBytes(content).toString();
+    }
+
+    private Map<String, CompiledScript> getContainerCache(ScriptingContainer container) {
+        synchronized (containerCaches) {
+            return containerCaches.computeIfAbsent(container, c -> new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CompiledScript> eldest) {
+                    return size() > maxEntriesPerContainer;
+                }
+            });
+        }
+    }
+
+    /***
+     * Removes the in-memory entries compiled against the provided container.  Must be called when a container which
+     * scripts were compiled against through this cache is discarded, otherwise the cache keeps the container and its
+     * JRuby runtime alive.
+     * @param container The container being discarded
+     */
+    public void remove(ScriptingContainer container) {
+        synchronized (containerCaches) {
+            containerCaches.remove(container);
+        }
+    }
+
+    /***
+     * Removes the entries of containers from the provided pool as the pool terminates them, whether they were
+     * invalidated, evicted while idle or terminated when the pool was closed.  Calling this more than once for the same
+     * pool has no further effect.
+     * @param pool The pool whose containers scripts are compiled against
+     */
+    public void watchPool(ScriptingContainerPool pool) {
+        pool.addTerminationListener(terminationListener);
+    }
+
+    /***
+     * @return The number of containers this cache currently holds compiled scripts for.
+     */
+    public int getContainerCount() {
+        synchronized (containerCaches) {
+            return containerCaches.size();
+        }
+    }
+
+    /***
+     * Removes in-memory entries for scripts with the provided content hash.
+     * @param hash The content hash of the entries to remove
+     */
+    private void invalidate(String hash) {
+        String keyFragment = ":" + hash + ":";
+        synchronized (containerCaches) {
+            for (Map<String, CompiledScript> containerCache : containerCaches.values()) {
+                synchronized (containerCache) {
+                    containerCache.keySet().removeIf(key -> key.contains(keyFragment));
+                }
+            }
+        }
+    }
+
+    /***
+     * Discards all in-memory entries and file stamps.  Files in the cache directory are left in place.
+     */
+    public void clear() {
+        synchronized (containerCaches) {
+            containerCaches.clear();
+        }
+        fileStamps.clear();
+    }
+
+    @Override
+    public String toString() {
+        return "ScriptCache{" +
+                "memoryHits=" + memoryHits.get() +
+                ", diskHits=" + diskHits.get() +
+                ", misses=" + misses.get() +
+                ", cacheDirectory=" + cacheDirectory +
+                '}';
+    }
+}
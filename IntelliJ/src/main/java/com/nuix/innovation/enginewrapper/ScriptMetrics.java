@@ -0,0 +1,112 @@
+package com.nuix.innovation.enginewrapper;
+
+/***
+ * Resource usage recorded for a single Ruby script run by {@link RubyScriptRunner}.  CPU time and allocated bytes are
+ * measured on the thread which executed the script, using {@link java.lang.management.ThreadMXBean}, and are -1 when
+ * the JVM does not support measuring them.
+ * @author Jason Wells
+ */
+public class ScriptMetrics {
+    private final String scriptName;
+    private final long wallNanos;
+    private final long cpuNanos;
+    private final long allocatedBytes;
+    private final long compileNanos;
+    private final long executeNanos;
+    private final long standardOutputLines;
+    private final long standardOutputChars;
+    private final long errorOutputLines;
+    private final long errorOutputChars;
+    private final boolean successful;
+
+    ScriptMetrics(String scriptName, long wallNanos, long cpuNanos, long allocatedBytes, long compileNanos,
+                  long executeNanos, long standardOutputLines, long standardOutputChars,
+                  long errorOutputLines, long errorOutputChars, boolean successful) {
+        this.scriptName = scriptName;
+        this.wallNanos = wallNanos;
+        this.cpuNanos = cpuNanos;
+        this.allocatedBytes = allocatedBytes;
+        this.compileNanos = compileNanos;
+        this.executeNanos = executeNanos;
+        this.standardOutputLines = standardOutputLines;
+        this.standardOutputChars = standardOutputChars;
+        this.errorOutputLines = errorOutputLines;
+        this.errorOutputChars = errorOutputChars;
+        this.successful = successful;
+    }
+
+    /***
+     * @return The absolute path of the script file, or for a script provided as a String, <code>&lt;script&gt;#</code>
+     * followed by the hex hash code of the script.  Used as the key by {@link ScriptStatistics}.
+     */
+    public String getScriptName() {
+        return scriptName;
+    }
+
+    /***
+     * @return Wall clock time of the run in nanoseconds, from leasing a container until the script's output was delivered.
+     */
+    public long getWallNanos() {
+        return wallNanos;
+    }
+
+    /***
+     * @return CPU time in nanoseconds used by the thread executing the script, or -1 if not supported.
+     */
+    public long getCpuNanos() {
+        return cpuNanos;
+    }
+
+    /***
+     * @return Bytes allocated by the thread executing the script, or -1 if not supported.
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /***
+     * @return Time in nanoseconds spent parsing/compiling the script (or fetching it from the {@link ScriptCache}).
+     */
+    public long getCompileNanos() {
+        return compileNanos;
+    }
+
+    /***
+     * @return Time in nanoseconds spent executing the compiled script.
+     */
+    public long getExecuteNanos() {
+        return executeNanos;
+    }
+
+    public long getStandardOutputLines() {
+        return standardOutputLines;
+    }
+
+    public long getStandardOutputChars() {
+        return standardOutputChars;
+    }
+
+    public long getErrorOutputLines() {
+        return errorOutputLines;
+    }
+
+    public long getErrorOutputChars() {
+        return errorOutputChars;
+    }
+
+    /***
+     * @return True if the script completed without raising an error and within its deadline.
+     */
+    public boolean isSuccessful() {
+        return successful;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ScriptMetrics[script=%s, successful=%s, wallMillis=%.1f, cpuMillis=%.1f, allocatedBytes=%s, " +
+                        "compileMillis=%.1f, executeMillis=%.1f, stdoutLines=%s, stdoutChars=%s, stderrLines=%s, stderrChars=%s]",
+                scriptName, successful, wallNanos / 1e6, cpuNanos / 1e6, allocatedBytes,
+                compileNanos / 1e6, executeNanos / 1e6, standardOutputLines, standardOutputChars,
+                errorOutputLines, errorOutputChars);
+    }
+}
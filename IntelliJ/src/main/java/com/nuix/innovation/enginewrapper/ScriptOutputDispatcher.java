@@ -0,0 +1,269 @@
+package com.nuix.innovation.enginewrapper;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/***
+ * Delivers lines of script output to their consumers on a dedicated dispatcher thread, so that a slow consumer
+ * (a log appender, a UI, etc.) does not throttle the script producing the output.  Lines are handed over through a
+ * bounded queue and what happens when that queue is full is determined by the {@link OverflowPolicy}.<br><br>
+ * A dispatcher is shared by the runs it is given to (see {@link RubyScriptRunner#setOutputDispatcher(ScriptOutputDispatcher)}),
+ * which then deliver their output one line at a time on its single thread.  A {@link RubyScriptRunner} which has not
+ * been given one shares a dispatcher of its own between its runs, or, if asked to (see
+ * {@link RubyScriptRunner#setOutputDispatcherPerRun(boolean)}), creates one for each run so that a slow consumer only
+ * holds up the script producing its output.
+ * @author Jason Wells
+ */
+public class ScriptOutputDispatcher implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(ScriptOutputDispatcher.class);
+
+    /***
+     * Queue capacity of the dispatchers {@link RubyScriptRunner} creates for runs which were not given one.
+     */
+    public static final int DEFAULT_CAPACITY = 10_000;
+
+    /***
+     * Determines what happens when a script produces output faster than it can be delivered and the queue fills up.
+     */
+    public enum OverflowPolicy {
+        /***
+         * The script thread waits for room in the queue.  No output is lost.
+         */
+        Block,
+        /***
+         * The oldest queued line is discarded to make room for the new line.
+         */
+        DropOldest,
+        /***
+         * Only every Nth line (see {@link #withSampleInterval(int)}) is queued, waiting for room if needed, while
+         * the others are discarded.
+         */
+        Sample
+    }
+
+    /***
+     * Receives lines on behalf of one output stream (such as a script's standard output) and tracks how many of
+     * its lines are still waiting to be delivered.
+     */
+    static class Channel {
+        private final Consumer<String> consumer;
+        private long pending = 0;
+
+        Channel(Consumer<String> consumer) {
+            this.consumer = consumer;
+        }
+
+        private synchronized void enqueued() {
+            pending++;
+        }
+
+        private synchronized void completed() {
+            pending--;
+            if (pending <= 0) {
+                notifyAll();
+            }
+        }
+
+        /***
+         * Waits until every line submitted through this channel has been delivered (or dropped).
+         * @throws InterruptedException If interrupted while waiting
+         */
+        synchronized void awaitDelivery() throws InterruptedException {
+            while (pending > 0) {
+                wait();
+            }
+        }
+    }
+
+    // A line along with the channel it is to be delivered through
+    private static class Entry {
+        private final Channel channel;
+        private final String line;
+
+        private Entry(Channel channel, String line) {
+            this.channel = channel;
+            this.line = line;
+        }
+    }
+
+    // The queue and closed flag are guarded by lock, so that a line is either queued before close() or dropped by it
+    private final Deque<Entry> queue = new ArrayDeque<>();
+    private final int capacity;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private boolean closed = false;
+    private final OverflowPolicy overflowPolicy;
+    private int sampleInterval = 100;
+    private final AtomicLong deliveredCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong sampleCounter = new AtomicLong();
+    private final Thread dispatcherThread;
+
+    /***
+     * Creates a new dispatcher with its own dispatcher thread.
+     * @param capacity The maximum number of lines which may be queued awaiting delivery
+     * @param overflowPolicy What to do when the queue is full
+     */
+    public ScriptOutputDispatcher(int capacity, OverflowPolicy overflowPolicy) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1");
+        }
+        this.capacity = capacity;
+        this.overflowPolicy = overflowPolicy;
+        dispatcherThread = new Thread(this::dispatch, "ScriptOutputDispatcher");
+        dispatcherThread.setDaemon(true);
+        dispatcherThread.start();
+    }
+
+    /***
+     * When using {@link OverflowPolicy#Sample}, specifies that only 1 of every N lines is kept while the queue is full.
+     * @param sampleInterval Keep 1 of every sampleInterval lines while full, must be at least 1.
+     * @return This dispatcher for chained method calls.
+     */
+    public ScriptOutputDispatcher withSampleInterval(int sampleInterval) {
+        if (sampleInterval < 1) {
+            throw new IllegalArgumentException("sampleInterval must be at least 1");
+        }
+        this.sampleInterval = sampleInterval;
+        return this;
+    }
+
+    /***
+     * @return Total number of lines delivered to consumers.
+     */
+    public long getDeliveredCount() {
+        return deliveredCount.get();
+    }
+
+    /***
+     * @return Total number of lines discarded due to the overflow policy.
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /***
+     * @return Number of lines currently queued awaiting delivery.
+     */
+    public int getQueuedCount() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /***
+     * Queues a line for delivery through the given channel, applying the overflow policy if the queue is full.  Lines
+     * submitted once this dispatcher has been closed, including those waiting for room in the queue when it is
+     * closed, are dropped.
+     * @param channel The channel the line was written to
+     * @param line The line to deliver
+     * @return True if the line was queued, false if it was dropped
+     * @throws InterruptedException If interrupted while waiting for room in the queue
+     */
+    boolean submit(Channel channel, String line) throws InterruptedException {
+        Entry entry = new Entry(channel, line);
+        channel.enqueued();
+        Entry dropped = null;
+        boolean queued;
+        lock.lock();
+        try {
+            if (closed) {
+                queued = false;
+            } else if (queue.size() < capacity) {
+                queued = true;
+            } else if (overflowPolicy == OverflowPolicy.DropOldest) {
+                dropped = queue.pollFirst();
+                queued = true;
+            } else if (overflowPolicy == OverflowPolicy.Sample && sampleCounter.getAndIncrement() % sampleInterval != 0) {
+                queued = false;
+            } else {
+                // Block, or a line kept by sampling, waits for room
+                queued = awaitRoom();
+            }
+
+            if (queued) {
+                queue.addLast(entry);
+                notEmpty.signal();
+            }
+        } catch (InterruptedException exc) {
+            channel.completed();
+            throw exc;
+        } finally {
+            lock.unlock();
+        }
+
+        if (dropped != null) {
+            droppedCount.incrementAndGet();
+            dropped.channel.completed();
+        }
+        if (!queued) {
+            droppedCount.incrementAndGet();
+            channel.completed();
+        }
+        return queued;
+    }
+
+    // Waits while the queue is full, returns false if this dispatcher was closed meanwhile.  Must hold lock.
+    private boolean awaitRoom() throws InterruptedException {
+        while (!closed && queue.size() >= capacity) {
+            notFull.await();
+        }
+        return !closed;
+    }
+
+    private void dispatch() {
+        while (true) {
+            Entry entry;
+            lock.lock();
+            try {
+                while (queue.isEmpty() && !closed) {
+                    notEmpty.awaitUninterruptibly();
+                }
+                // Lines queued before close are still delivered
+                entry = queue.pollFirst();
+                if (entry == null) {
+                    return;
+                }
+                notFull.signal();
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                entry.channel.consumer.accept(entry.line);
+                deliveredCount.incrementAndGet();
+            } catch (Exception exc) {
+                log.error("Error while delivering script output to consumer", exc);
+            } finally {
+                entry.channel.completed();
+            }
+        }
+    }
+
+    /***
+     * Stops accepting new lines and stops the dispatcher thread once it has delivered the lines already queued.
+     * Lines waiting for room in the queue are dropped.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
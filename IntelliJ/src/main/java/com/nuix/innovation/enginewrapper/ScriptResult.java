@@ -0,0 +1,120 @@
+package com.nuix.innovation.enginewrapper;
+
+import java.util.Collections;
+import java.util.Map;
+
+/***
+ * The outcome of a Ruby script run submitted through {@link RubyScriptRunner#submitScript(String, String, Map, long)}
+ * or {@link RubyScriptRunner#submitFile(java.io.File, String, Map, long)}.  A script which raises an error or exceeds
+ * its deadline still produces a result, with {@link #getException()} describing what went wrong.
+ * @author Jason Wells
+ */
+public class ScriptResult {
+    private final Object returnedValue;
+    private final Map<String, Object> variables;
+    private final Exception exception;
+    private final boolean timedOut;
+    private final long submittedMillis;
+    private final long startedMillis;
+    private final long finishedMillis;
+    private final ScriptMetrics metrics;
+
+    ScriptResult(Object returnedValue, Map<String, Object> variables, Exception exception, boolean timedOut,
+                 long submittedMillis, long startedMillis, long finishedMillis, ScriptMetrics metrics) {
+        this.returnedValue = returnedValue;
+        this.variables = variables == null ? Collections.emptyMap() : Collections.unmodifiableMap(variables);
+        this.exception = exception;
+        this.timedOut = timedOut;
+        this.submittedMillis = submittedMillis;
+        this.startedMillis = startedMillis;
+        this.finishedMillis = finishedMillis;
+        this.metrics = metrics;
+    }
+
+    /***
+     * @return The value of the last expression evaluated by the script, or null if the script did not complete.
+     */
+    public Object getReturnedValue() {
+        return returnedValue;
+    }
+
+    /***
+     * Gets a copy of the variables in the scripting container as they were when the script completed.  Unlike the
+     * variable map passed to {@link RubyScriptRunner#whenScriptCompletes}, this copy remains valid after the
+     * container has been returned to its pool.
+     * @return Variable names mapped to their values, empty if the script did not complete.
+     */
+    public Map<String, Object> getVariables() {
+        return variables;
+    }
+
+    /***
+     * @return The exception raised while running the script, or null if it completed successfully.  When the script
+     * exceeded its deadline this is a {@link java.util.concurrent.TimeoutException}.
+     */
+    public Exception getException() {
+        return exception;
+    }
+
+    /***
+     * @return True if the script completed without raising an error and within its deadline.
+     */
+    public boolean isSuccessful() {
+        return exception == null;
+    }
+
+    /***
+     * @return True if the script was stopped because it exceeded its deadline.
+     */
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+
+    /***
+     * @return Time (epoch milliseconds) the run was submitted.
+     */
+    public long getSubmittedMillis() {
+        return submittedMillis;
+    }
+
+    /***
+     * @return Time (epoch milliseconds) the run started executing.
+     */
+    public long getStartedMillis() {
+        return startedMillis;
+    }
+
+    /***
+     * @return Time (epoch milliseconds) the run finished.
+     */
+    public long getFinishedMillis() {
+        return finishedMillis;
+    }
+
+    /***
+     * @return Milliseconds the run waited between being submitted and starting to execute.
+     */
+    public long getQueuedMillis() {
+        return startedMillis - submittedMillis;
+    }
+
+    /***
+     * @return Milliseconds the run spent executing, including leasing and preparing its scripting container.
+     */
+    public long getElapsedMillis() {
+        return finishedMillis - startedMillis;
+    }
+
+    /***
+     * @return Resource usage recorded for the run, or null if the run was cancelled before it started.
+     */
+    public ScriptMetrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ScriptResult[successful=%s, timedOut=%s, queuedMillis=%s, elapsedMillis=%s, returnedValue=%s]",
+                isSuccessful(), timedOut, getQueuedMillis(), getElapsedMillis(), returnedValue);
+    }
+}
@@ -0,0 +1,255 @@
+package com.nuix.innovation.enginewrapper;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.ToLongFunction;
+
+/***
+ * Aggregates {@link ScriptMetrics} into rolling statistics per script, keyed by {@link ScriptMetrics#getScriptName()}.
+ * Only the most recent runs of each script (see {@link #withWindowSize(int)}) are considered, so the statistics follow
+ * changes to a script or the data it runs against.  Statistics are kept for a bounded number of scripts (see
+ * {@link #withMaxScripts(int)}), since every distinct inline script has a name of its own.
+ * <pre>
+ * {@code
+ * ScriptStatistics.Summary summary = nuixEngine.getScriptStatistics().getSummary(scriptFile.getAbsolutePath());
+ * log.info("p95 wall time: {}ms", summary.getWallMillisP95());
+ * }
+ * </pre>
+ * @author Jason Wells
+ */
+public class ScriptStatistics {
+    /***
+     * Statistics for one script over the runs in the window.  Percentiles are computed using the nearest-rank method.
+     * Runs where a measurement was not supported (see {@link ScriptMetrics}) are left out of its percentiles, which
+     * are -1 if no run in the window supported it.
+     */
+    public static class Summary {
+        private final String scriptName;
+        private final int runCount;
+        private final int failedCount;
+        private final long[] wallNanos;
+        private final long[] cpuNanos;
+        private final long[] allocatedBytes;
+        private final long[] compileNanos;
+        private final long[] executeNanos;
+        private final long[] outputChars;
+
+        private Summary(String scriptName, ScriptMetrics[] window) {
+            this.scriptName = scriptName;
+            this.runCount = window.length;
+            this.failedCount = (int) Arrays.stream(window).filter(metrics -> !metrics.isSuccessful()).count();
+            this.wallNanos = sorted(window, ScriptMetrics::getWallNanos);
+            this.cpuNanos = sorted(window, ScriptMetrics::getCpuNanos);
+            this.allocatedBytes = sorted(window, ScriptMetrics::getAllocatedBytes);
+            this.compileNanos = sorted(window, ScriptMetrics::getCompileNanos);
+            this.executeNanos = sorted(window, ScriptMetrics::getExecuteNanos);
+            this.outputChars = sorted(window, metrics -> metrics.getStandardOutputChars() + metrics.getErrorOutputChars());
+        }
+
+        private static long[] sorted(ScriptMetrics[] window, ToLongFunction<ScriptMetrics> value) {
+            // Unsupported measurements are reported as -1
+            long[] values = Arrays.stream(window).mapToLong(value).filter(measured -> measured >= 0).toArray();
+            Arrays.sort(values);
+            return values;
+        }
+
+        private static long percentile(long[] sortedValues, double percentile) {
+            if (sortedValues.length == 0) {
+                return -1;
+            }
+            int rank = (int) Math.ceil(percentile / 100.0 * sortedValues.length);
+            return sortedValues[Math.max(0, rank - 1)];
+        }
+
+        private static double millis(long nanos) {
+            return nanos < 0 ? -1 : nanos / 1e6;
+        }
+
+        public String getScriptName() {
+            return scriptName;
+        }
+
+        /***
+         * @return Number of runs in the window these statistics were computed from.
+         */
+        public int getRunCount() {
+            return runCount;
+        }
+
+        /***
+         * @return Number of runs in the window which raised an error or exceeded their deadline.
+         */
+        public int getFailedCount() {
+            return failedCount;
+        }
+
+        public double getWallMillisP50() {
+            return millis(percentile(wallNanos, 50));
+        }
+
+        public double getWallMillisP95() {
+            return millis(percentile(wallNanos, 95));
+        }
+
+        public double getCpuMillisP50() {
+            return millis(percentile(cpuNanos, 50));
+        }
+
+        public double getCpuMillisP95() {
+            return millis(percentile(cpuNanos, 95));
+        }
+
+        public long getAllocatedBytesP50() {
+            return percentile(allocatedBytes, 50);
+        }
+
+        public long getAllocatedBytesP95() {
+            return percentile(allocatedBytes, 95);
+        }
+
+        public double getCompileMillisP50() {
+            return millis(percentile(compileNanos, 50));
+        }
+
+        public double getCompileMillisP95() {
+            return millis(percentile(compileNanos, 95));
+        }
+
+        public double getExecuteMillisP50() {
+            return millis(percentile(executeNanos, 50));
+        }
+
+        public double getExecuteMillisP95() {
+            return millis(percentile(executeNanos, 95));
+        }
+
+        /***
+         * @return Median number of characters written to standard and error output combined.
+         */
+        public long getOutputCharsP50() {
+            return percentile(outputChars, 50);
+        }
+
+        /***
+         * @return 95th percentile of the number of characters written to standard and error output combined.
+         */
+        public long getOutputCharsP95() {
+            return percentile(outputChars, 95);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: runs=%s, failed=%s, wallMillis p50/p95=%.1f/%.1f, cpuMillis p50/p95=%.1f/%.1f, " +
+                            "allocatedBytes p50/p95=%s/%s, compileMillis p50/p95=%.1f/%.1f, executeMillis p50/p95=%.1f/%.1f, " +
+                            "outputChars p50/p95=%s/%s",
+                    scriptName, runCount, failedCount, getWallMillisP50(), getWallMillisP95(),
+                    getCpuMillisP50(), getCpuMillisP95(), getAllocatedBytesP50(), getAllocatedBytesP95(),
+                    getCompileMillisP50(), getCompileMillisP95(), getExecuteMillisP50(), getExecuteMillisP95(),
+                    getOutputCharsP50(), getOutputCharsP95());
+        }
+    }
+
+    // Ordered by most recent run (see record), so the least recently run script is the one dropped when there are too many
+    private final Map<String, Deque<ScriptMetrics>> windows = new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Deque<ScriptMetrics>> eldest) {
+            return size() > maxScripts;
+        }
+    };
+    private int windowSize = 100;
+    private int maxScripts = 1000;
+
+    /***
+     * Specifies how many of the most recent runs of each script statistics are computed from.
+     * @param windowSize Number of runs per script to keep, must be at least 1.
+     * @return This instance for chained method calls.
+     */
+    public synchronized ScriptStatistics withWindowSize(int windowSize) {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("windowSize must be at least 1");
+        }
+        this.windowSize = windowSize;
+        windows.values().forEach(this::trim);
+        return this;
+    }
+
+    /***
+     * Specifies how many scripts statistics are kept for.  Once exceeded, the statistics of the script which was least
+     * recently run are discarded.
+     * @param maxScripts Number of scripts to keep statistics for, must be at least 1.
+     * @return This instance for chained method calls.
+     */
+    public synchronized ScriptStatistics withMaxScripts(int maxScripts) {
+        if (maxScripts < 1) {
+            throw new IllegalArgumentException("maxScripts must be at least 1");
+        }
+        this.maxScripts = maxScripts;
+        while (windows.size() > maxScripts) {
+            windows.remove(windows.keySet().iterator().next());
+        }
+        return this;
+    }
+
+    /***
+     * Records the metrics of a completed run.
+     * @param metrics The metrics to record
+     */
+    public synchronized void record(ScriptMetrics metrics) {
+        Deque<ScriptMetrics> window = windows.remove(metrics.getScriptName());
+        if (window == null) {
+            window = new ArrayDeque<>();
+        }
+        windows.put(metrics.getScriptName(), window);
+        window.addLast(metrics);
+        trim(window);
+    }
+
+    private void trim(Deque<ScriptMetrics> window) {
+        while (window.size() > windowSize) {
+            window.pollFirst();
+        }
+    }
+
+    /***
+     * @return The names of all scripts which have recorded runs.
+     */
+    public synchronized Set<String> getScriptNames() {
+        return new TreeSet<>(windows.keySet());
+    }
+
+    /***
+     * Gets the statistics of a particular script.
+     * @param scriptName The script name, see {@link ScriptMetrics#getScriptName()}
+     * @return Statistics for that script, or null if it has no recorded runs.
+     */
+    public synchronized Summary getSummary(String scriptName) {
+        Deque<ScriptMetrics> window = windows.get(scriptName);
+        if (window == null) {
+            return null;
+        }
+        return new Summary(scriptName, window.toArray(new ScriptMetrics[0]));
+    }
+
+    /***
+     * @return Statistics of every script which has recorded runs, keyed by script name.
+     */
+    public synchronized Map<String, Summary> getSummaries() {
+        Map<String, Summary> result = new LinkedHashMap<>();
+        for (String scriptName : getScriptNames()) {
+            result.put(scriptName, getSummary(scriptName));
+        }
+        return result;
+    }
+
+    /***
+     * Discards all recorded runs.
+     */
+    public synchronized void clear() {
+        windows.clear();
+    }
+}
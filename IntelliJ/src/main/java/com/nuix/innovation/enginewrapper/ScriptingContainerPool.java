@@ -0,0 +1,215 @@
+package com.nuix.innovation.enginewrapper;
+
+import org.jruby.embed.LocalContextScope;
+import org.jruby.embed.LocalVariableBehavior;
+import org.jruby.embed.ScriptingContainer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Writer;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.function.Consumer;
+
+/***
+ * Maintains a pool of JRuby {@link ScriptingContainer} instances so that running a script does not require booting
+ * a brand-new JRuby runtime each time.  Each pooled container has its own runtime (see
+ * {@link LocalContextScope#SINGLETHREAD}), containers are booted ahead of time on a background thread once
+ * {@link #warmUp()} is called or the first container is leased, and containers which sit idle longer than the
+ * configured idle timeout are terminated.<br><br>
+ * Between leases a container is reset: its variables are cleared, the constant <code>NUIX_VERSION</code> is removed,
+ * <code>$utilities</code> and <code>$nuix_version</code> are set to nil and its standard/error writers are replaced
+ * with writers which discard output.  Global variables defined by a script are likewise set to nil.  Note that constants, classes
+ * and methods defined by a script persist in the container's runtime and will be visible to later scripts.
+ * <pre>
+ * {@code
+ * ScriptingContainerPool pool = new ScriptingContainerPool()
+ *     .withMaxSize(8)
+ *     .withPreWarmCount(2)
+ *     .withIdleTimeout(5 * 60 * 1000);
+ * pool.warmUp();
+ *
+ * try (ScriptingContainerPool.Lease lease = pool.lease()) {
+ *     lease.getContainer().runScriptlet("puts 'Hello'");
+ * }
+ * }
+ * </pre>
+ * @author Jason Wells
+ */
+public class ScriptingContainerPool extends ResourcePool<ScriptingContainer, ScriptingContainerPool.Lease> {
+    private static final Logger log = LoggerFactory.getLogger(ScriptingContainerPool.class);
+
+    // Script used to reset a container before it is placed back into the pool.  Global variables which did not
+    // exist when the container was booted are set to nil, so globals defined by one script do not leak into the next.
+    private static final String resetScript = String.join("\n",
+            "Object.send(:remove_const, :NUIX_VERSION) if Object.const_defined?(:NUIX_VERSION)",
+            "$utilities = nil",
+            "$nuix_version = nil",
+            "(global_variables - $__pool_baseline_globals).each { |name| eval(\"#{name} = nil\") rescue nil }"
+    );
+
+    /***
+     * Represents a container leased from a {@link ScriptingContainerPool}.  Closing the lease returns the container
+     * to the pool, or terminates it if {@link #invalidate()} was called.
+     */
+    public static class Lease extends ResourcePool.Lease<ScriptingContainer> {
+        private Lease(ScriptingContainerPool pool, ScriptingContainer container, long waitMillis) {
+            super(pool, container, waitMillis);
+        }
+
+        /***
+         * Gets the leased container.
+         * @return The leased ScriptingContainer
+         */
+        public ScriptingContainer getContainer() {
+            return getResource();
+        }
+    }
+
+    protected int preWarmCount = 1;
+    private final Set<Consumer<ScriptingContainer>> terminationListeners = new CopyOnWriteArraySet<>();
+
+    public ScriptingContainerPool() {
+        super("ScriptingContainerPool", Math.max(2, Runtime.getRuntime().availableProcessors()), 5 * 60 * 1000);
+    }
+
+    /***
+     * Specifies the maximum number of containers this pool will have in existence at any one time (leased, idle or
+     * booting).  When all containers are leased, calls to {@link #lease()} will block until one is returned.
+     * @param maxSize The maximum number of containers, must be at least 1.
+     * @return This pool for chained method calls.
+     */
+    public ScriptingContainerPool withMaxSize(int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be at least 1");
+        }
+        this.maxSize = maxSize;
+        return this;
+    }
+
+    /***
+     * Specifies how many idle containers this pool will attempt to keep booted and ready in the background.  No
+     * containers are booted until {@link #warmUp()} is called or a container is first leased, so the order in which
+     * the pool is configured does not matter.
+     * @param preWarmCount The number of containers to keep warm.  A value of 0 means containers are only booted on demand.
+     * @return This pool for chained method calls.
+     */
+    public ScriptingContainerPool withPreWarmCount(int preWarmCount) {
+        this.preWarmCount = Math.max(0, preWarmCount);
+        return this;
+    }
+
+    /***
+     * Specifies how long a container may sit idle in the pool before it is terminated.  Containers needed to
+     * satisfy {@link #withPreWarmCount(int)} are not evicted.
+     * @param idleTimeoutMillis Idle timeout in milliseconds.  A value of 0 or less disables idle eviction.
+     * @return This pool for chained method calls.
+     */
+    public ScriptingContainerPool withIdleTimeout(long idleTimeoutMillis) {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        return this;
+    }
+
+    /***
+     * Starts booting containers in the background, up to {@link #withPreWarmCount(int)}, without waiting for them.
+     * Useful for overlapping the JRuby boot with other startup work, so the first script run does not pay for it.
+     */
+    @Override
+    public void warmUp() {
+        super.warmUp();
+    }
+
+    /***
+     * Registers a listener which is called with each container this pool terminates, so that state kept elsewhere
+     * about the container (such as the compiled scripts of a {@link ScriptCache}) can be discarded along with it.
+     * Registering the same listener more than once has no further effect.
+     * @param listener The listener to call
+     */
+    public void addTerminationListener(Consumer<ScriptingContainer> listener) {
+        terminationListeners.add(listener);
+    }
+
+    public void removeTerminationListener(Consumer<ScriptingContainer> listener) {
+        terminationListeners.remove(listener);
+    }
+
+    /***
+     * Leases a container from this pool, blocking until one is available if the pool is at its maximum size.  An
+     * idle pre-booted container is handed out when there is one, otherwise a new container is booted on the calling
+     * thread.  Close the returned lease to return the container to the pool.
+     * @return A lease on a ready to use container
+     * @throws InterruptedException If the calling thread is interrupted while waiting for a container
+     */
+    public Lease lease() throws InterruptedException {
+        try {
+            return acquire(0);
+        } catch (InterruptedException | RuntimeException exc) {
+            throw exc;
+        } catch (Exception exc) {
+            // bootContainer does not throw checked exceptions and there is no timeout, so this should not happen
+            throw new IllegalStateException(exc);
+        }
+    }
+
+    /***
+     * Creates a new container and forces its runtime to boot.
+     * @return A booted container
+     */
+    protected ScriptingContainer bootContainer() {
+        long started = System.currentTimeMillis();
+        ScriptingContainer container = new ScriptingContainer(LocalContextScope.SINGLETHREAD, LocalVariableBehavior.PERSISTENT);
+        // $defout and $deferr only show up once a writer has been set, they are aliases of $stdout and $stderr
+        container.runScriptlet("$__pool_baseline_globals = global_variables + [:$__pool_baseline_globals, :$defout, :$deferr]");
+        log.debug("Booted JRuby scripting container in {}ms", System.currentTimeMillis() - started);
+        return container;
+    }
+
+    @Override
+    protected ScriptingContainer create() {
+        return bootContainer();
+    }
+
+    @Override
+    protected Lease newLease(ScriptingContainer container, long waitMillis) {
+        return new Lease(this, container, waitMillis);
+    }
+
+    @Override
+    protected boolean prepareForReuse(ScriptingContainer container) {
+        try {
+            // Note that we do not use resetWriter/resetErrorWriter here, since a container whose writers wrap
+            // System.out and System.err will close them when it is later terminated.
+            container.setWriter(Writer.nullWriter());
+            container.setErrorWriter(Writer.nullWriter());
+            container.runScriptlet(resetScript);
+            container.clear();
+            return true;
+        } catch (Exception exc) {
+            log.warn("Error while resetting scripting container, container will be discarded", exc);
+            return false;
+        }
+    }
+
+    // Keeps preWarmCount containers idle and ready
+    @Override
+    protected int getWarmUpShortfall(int idleCount, int creatingCount, int totalCount) {
+        return preWarmCount - idleCount - creatingCount;
+    }
+
+    @Override
+    protected boolean canEvict(int idleCount, int totalCount) {
+        return idleCount > preWarmCount;
+    }
+
+    @Override
+    protected void destroy(ScriptingContainer container) {
+        for (Consumer<ScriptingContainer> listener : terminationListeners) {
+            try {
+                listener.accept(container);
+            } catch (Exception exc) {
+                log.warn("Error in scripting container termination listener", exc);
+            }
+        }
+        container.terminate();
+    }
+}
@@ -0,0 +1,47 @@
+package com.nuix.innovation.enginewrapper;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/***
+ * Serializes access to a file shared by threads of this JVM and by other processes on the host.  A {@link FileLock} is
+ * held on behalf of the whole JVM, and a second attempt to take one from this JVM fails with an
+ * OverlappingFileLockException rather than waiting, so threads first take a lock kept per canonical lock file path.
+ * @author Jason Wells
+ */
+final class SharedFileLock {
+    private static final Map<String, ReentrantLock> jvmLocks = new ConcurrentHashMap<>();
+
+    private SharedFileLock() {
+    }
+
+    /***
+     * Performs work while holding both the lock of this JVM and the file lock for the provided lock file.
+     * @param lockFile The lock file, which is created as needed
+     * @param work The work to perform
+     * @param <T> The type of result the work produces
+     * @return The result of the work
+     * @throws Exception If the lock file could not be locked or thrown by the work
+     */
+    static <T> T withLock(File lockFile, Callable<T> work) throws Exception {
+        ReentrantLock jvmLock = jvmLocks.computeIfAbsent(lockFile.getCanonicalPath(), path -> new ReentrantLock());
+        jvmLock.lock();
+        try (RandomAccessFile file = new RandomAccessFile(lockFile, "rw");
+             FileChannel channel = file.getChannel()) {
+            FileLock fileLock = channel.lock();
+            try {
+                return work.call();
+            } finally {
+                fileLock.release();
+            }
+        } finally {
+            jvmLock.unlock();
+        }
+    }
+}
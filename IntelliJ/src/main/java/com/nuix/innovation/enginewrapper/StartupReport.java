@@ -0,0 +1,305 @@
+package com.nuix.innovation.enginewrapper;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/***
+ * Timings of the phases {@link NuixEngine} goes through while being initialized and licensed, see
+ * {@link NuixEngine#getStartupReport()}.  Phases are recorded in the order they complete, and phases which happen
+ * more than once (such as {@link #LICENSE_RESOLVER} and {@link #DEPENDENCY_CHECK}) have one entry per occurrence, with
+ * {@link Phase#getDetail()} identifying the resolver or dependency.
+ * <br><br>
+ * A report can be appended as a single JSON line to a history file (see {@link NuixEngine#setStartupHistoryFile(File)}),
+ * so that startup times can be compared across Nuix upgrades and hosts.  Phases which take longer than their budget
+ * (see {@link NuixEngine#setStartupPhaseBudget(String, long)}) are logged as warnings and listed by
+ * {@link #getBudgetOverruns()}.
+ * @author Jason Wells
+ */
+public class StartupReport {
+    public static final String PRECONDITIONS = "preconditions";
+    public static final String LOGGING = "logging";
+    public static final String GLOBAL_CONTAINER = "globalContainer";
+    public static final String NEW_ENGINE = "newEngine";
+    public static final String LEASE_RECOVERY = "leaseRecovery";
+    public static final String LICENSE_RESOLVER = "licenseResolver";
+    public static final String LICENSE_ACQUIRE = "licenseAcquire";
+    public static final String LICENSE = "license";
+    public static final String DEPENDENCY_CHECK = "dependencyCheck";
+    public static final String DEPENDENCY_CHECKS = "dependencyChecks";
+
+    private static final Logger log = LoggerFactory.getLogger(StartupReport.class);
+    private static final Gson gson = new GsonBuilder().disableHtmlEscaping().create();
+
+    /***
+     * The timing of a single phase.
+     */
+    public static class Phase {
+        private final String name;
+        private final String detail;
+        private final long startedMillis;
+        private final long durationMillis;
+        private final boolean successful;
+
+        Phase(String name, String detail, long startedMillis, long durationMillis, boolean successful) {
+            this.name = name;
+            this.detail = detail;
+            this.startedMillis = startedMillis;
+            this.durationMillis = durationMillis;
+            this.successful = successful;
+        }
+
+        /***
+         * @return The name of the phase, one of the constants of {@link StartupReport}.
+         */
+        public String getName() {
+            return name;
+        }
+
+        /***
+         * @return For phases which happen more than once, what this occurrence was for (a resolver or dependency
+         * description), otherwise null.
+         */
+        public String getDetail() {
+            return detail;
+        }
+
+        /***
+         * @return Time (epoch milliseconds) the phase started.
+         */
+        public long getStartedMillis() {
+            return startedMillis;
+        }
+
+        public long getDurationMillis() {
+            return durationMillis;
+        }
+
+        /***
+         * @return False if the phase threw an exception or, for {@link #LICENSE_RESOLVER} and {@link #LICENSE},
+         * did not obtain a license.
+         */
+        public boolean isSuccessful() {
+            return successful;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s%s: %sms%s", name, detail == null ? "" : " (" + detail + ")", durationMillis,
+                    successful ? "" : " [failed]");
+        }
+    }
+
+    /***
+     * Times a phase, see {@link #startPhase(String, String)}.
+     */
+    public class PhaseTimer implements AutoCloseable {
+        private final String name;
+        private final String detail;
+        private final long startedMillis = System.currentTimeMillis();
+        private final long startedNanos = System.nanoTime();
+        private boolean successful = false;
+
+        private PhaseTimer(String name, String detail) {
+            this.name = name;
+            this.detail = detail;
+        }
+
+        /***
+         * Marks the phase as successful.  Phases which are closed without calling this (for example because an
+         * exception was thrown) are recorded as failed.
+         */
+        public void succeeded() {
+            successful = true;
+        }
+
+        /***
+         * Records the phase in the report.
+         */
+        @Override
+        public void close() {
+            long durationMillis = (System.nanoTime() - startedNanos) / 1_000_000;
+            recordPhase(new Phase(name, detail, startedMillis, durationMillis, successful));
+        }
+    }
+
+    private final long startedMillis = System.currentTimeMillis();
+    private final List<Phase> phases = new ArrayList<>();
+    private final List<Phase> budgetOverruns = new ArrayList<>();
+    private final Map<String, Long> phaseBudgets;
+    private String nuixVersion = null;
+    private boolean licensed = false;
+    private boolean complete = false;
+
+    /***
+     * @param phaseBudgets Maximum expected duration in milliseconds of each occurrence of a phase, keyed by phase name
+     */
+    StartupReport(Map<String, Long> phaseBudgets) {
+        this.phaseBudgets = Map.copyOf(phaseBudgets);
+    }
+
+    /***
+     * Begins timing a phase.  Use with try-with-resources, calling {@link PhaseTimer#succeeded()} once the phase
+     * has completed successfully.
+     * @param name The name of the phase
+     * @param detail What this occurrence of the phase is for, or null
+     * @return A timer which records the phase when closed
+     */
+    PhaseTimer startPhase(String name, String detail) {
+        return new PhaseTimer(name, detail);
+    }
+
+    synchronized void recordPhase(Phase phase) {
+        phases.add(phase);
+        Long budgetMillis = phaseBudgets.get(phase.getName());
+        if (budgetMillis != null && phase.getDurationMillis() > budgetMillis) {
+            budgetOverruns.add(phase);
+            log.warn("Startup phase {} took {}ms, exceeding its budget of {}ms", phase, phase.getDurationMillis(), budgetMillis);
+        }
+    }
+
+    synchronized void setNuixVersion(String nuixVersion) {
+        this.nuixVersion = nuixVersion;
+    }
+
+    synchronized void setLicensed(boolean licensed) {
+        this.licensed = licensed;
+    }
+
+    synchronized void markComplete() {
+        this.complete = true;
+    }
+
+    /***
+     * @return Time (epoch milliseconds) initialization started.
+     */
+    public long getStartedMillis() {
+        return startedMillis;
+    }
+
+    /***
+     * @return All recorded phases, in the order they completed.
+     */
+    public synchronized List<Phase> getPhases() {
+        return Collections.unmodifiableList(new ArrayList<>(phases));
+    }
+
+    /***
+     * @return Recorded phases which took longer than their budget.
+     */
+    public synchronized List<Phase> getBudgetOverruns() {
+        return Collections.unmodifiableList(new ArrayList<>(budgetOverruns));
+    }
+
+    /***
+     * @param name The phase name
+     * @return Every recorded occurrence of the named phase.
+     */
+    public synchronized List<Phase> getPhases(String name) {
+        return phases.stream().filter(phase -> phase.getName().equals(name)).collect(Collectors.toList());
+    }
+
+    /***
+     * @param name The phase name
+     * @return Combined duration of every recorded occurrence of the named phase, 0 if there were none.
+     */
+    public synchronized long getPhaseMillis(String name) {
+        return phases.stream().filter(phase -> phase.getName().equals(name)).mapToLong(Phase::getDurationMillis).sum();
+    }
+
+    /***
+     * @return Milliseconds from the start of initialization until licensed Utilities were available (or
+     * initialization ended without them).  Dependency checks, which run in the background, are not included.
+     */
+    public synchronized long getTimeToUtilitiesMillis() {
+        return phases.stream()
+                .filter(phase -> !phase.getName().equals(DEPENDENCY_CHECK) && !phase.getName().equals(DEPENDENCY_CHECKS))
+                .mapToLong(phase -> phase.getStartedMillis() + phase.getDurationMillis() - startedMillis)
+                .max().orElse(0);
+    }
+
+    /***
+     * @return The version of the engine which was initialized, or null if an engine was not created.
+     */
+    public synchronized String getNuixVersion() {
+        return nuixVersion;
+    }
+
+    public synchronized boolean isLicensed() {
+        return licensed;
+    }
+
+    /***
+     * @return True once all phases, including the background dependency checks, have been recorded.
+     */
+    public synchronized boolean isComplete() {
+        return complete;
+    }
+
+    /***
+     * @return This report as a single line of JSON, including the host name and JVM version.
+     */
+    public synchronized String toJson() {
+        StartupHistoryEntry entry = new StartupHistoryEntry();
+        entry.startedMillis = startedMillis;
+        entry.host = getHostName();
+        entry.javaVersion = System.getProperty("java.version");
+        entry.nuixVersion = nuixVersion;
+        entry.licensed = licensed;
+        entry.timeToUtilitiesMillis = getTimeToUtilitiesMillis();
+        entry.phases = new ArrayList<>(phases);
+        return gson.toJson(entry);
+    }
+
+    /***
+     * Appends this report to a JSON lines history file, creating the file if needed.
+     * @param historyFile The file to append to
+     * @throws IOException If the file could not be written to
+     */
+    public void appendTo(File historyFile) throws IOException {
+        File parent = historyFile.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        Files.writeString(historyFile.toPath(), toJson() + System.lineSeparator(), StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    private static String getHostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (IOException exc) {
+            return null;
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("StartupReport[nuixVersion=%s, licensed=%s, timeToUtilitiesMillis=%s, phases=%s]",
+                nuixVersion, licensed, getTimeToUtilitiesMillis(), phases);
+    }
+
+    // Shape of one line in the history file
+    private static class StartupHistoryEntry {
+        private long startedMillis;
+        private String host;
+        private String javaVersion;
+        private String nuixVersion;
+        private boolean licensed;
+        private long timeToUtilitiesMillis;
+        private List<Phase> phases;
+    }
+}
@@ -0,0 +1,284 @@
+package com.nuix.innovation.enginewrapper;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import nuix.ThirdPartyDependency;
+import nuix.ThirdPartyDependencyStatus;
+import nuix.Utilities;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/***
+ * Checks the Nuix third party dependencies (the external programs some Nuix functionality relies upon) concurrently,
+ * giving each check a timeout, and producing a {@link DependencyCheckReport}.<br><br>
+ * Since some checks probe external binaries and can take seconds each, results can be cached in a file (see
+ * {@link #withCacheFile(File)}).  The cache is keyed by the engine version, the names and modification times of the
+ * files in the engine's <code>bin</code> and <code>bin/x86</code> directories and the PATH, so an upgraded or
+ * modified engine is checked again.  The Nuix API does not expose where each third party binary lives, so
+ * installing or removing one outside of the engine is only picked up once the cached results are older than
+ * {@link #withCacheTtl(long)}.  Results are only cached when every check completed.
+ * @author Jason Wells
+ */
+public class ThirdPartyDependencyChecker {
+    private static final Logger log = LoggerFactory.getLogger(ThirdPartyDependencyChecker.class);
+    private static final Gson gson = new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create();
+
+    protected long checkTimeoutMillis = 30 * 1000;
+    protected int maxConcurrentChecks = 8;
+    protected File cacheFile = null;
+    protected long cacheTtlMillis = 24 * 60 * 60 * 1000;
+
+    /***
+     * Specifies how long each dependency check may take before it is reported as {@link DependencyCheckReport.State#TIMED_OUT}.
+     * @param checkTimeoutMillis Timeout in milliseconds
+     * @return This instance for chained method calls.
+     */
+    public ThirdPartyDependencyChecker withCheckTimeout(long checkTimeoutMillis) {
+        this.checkTimeoutMillis = checkTimeoutMillis;
+        return this;
+    }
+
+    /***
+     * Specifies how many dependency checks may run at the same time.
+     * @param maxConcurrentChecks Maximum number of concurrent checks, must be at least 1.
+     * @return This instance for chained method calls.
+     */
+    public ThirdPartyDependencyChecker withMaxConcurrentChecks(int maxConcurrentChecks) {
+        if (maxConcurrentChecks < 1) {
+            throw new IllegalArgumentException("maxConcurrentChecks must be at least 1");
+        }
+        this.maxConcurrentChecks = maxConcurrentChecks;
+        return this;
+    }
+
+    /***
+     * Specifies a file check results are cached in, allowing repeat startups on an unchanged host to skip the checks.
+     * @param cacheFile The cache file, or null to not cache results
+     * @return This instance for chained method calls.
+     */
+    public ThirdPartyDependencyChecker withCacheFile(File cacheFile) {
+        this.cacheFile = cacheFile;
+        return this;
+    }
+
+    /***
+     * Specifies how long cached results remain valid, regardless of whether the engine has changed.
+     * @param cacheTtlMillis Time to live in milliseconds
+     * @return This instance for chained method calls.
+     */
+    public ThirdPartyDependencyChecker withCacheTtl(long cacheTtlMillis) {
+        this.cacheTtlMillis = cacheTtlMillis;
+        return this;
+    }
+
+    /***
+     * Checks all third party dependencies, or loads their results from the cache if valid cached results exist.
+     * @param utilities Licensed Utilities, used to get the list of third party dependencies
+     * @param engineVersion The engine version, part of the cache key
+     * @param engineDistributionDirectory The engine distribution directory, whose binaries are part of the cache key
+     * @return A report of the outcome of each check
+     * @throws Exception If the list of third party dependencies could not be obtained
+     */
+    public DependencyCheckReport check(Utilities utilities, String engineVersion, File engineDistributionDirectory) throws Exception {
+        long started = System.currentTimeMillis();
+        String cacheKey = null;
+        if (cacheFile != null) {
+            cacheKey = buildCacheKey(engineVersion, engineDistributionDirectory);
+            List<DependencyCheckReport.Result> cachedResults = readCache(cacheKey);
+            if (cachedResults != null) {
+                log.info("Using cached third party dependency check results from {}", cacheFile.getAbsolutePath());
+                return new DependencyCheckReport(cachedResults, true, System.currentTimeMillis() - started);
+            }
+        }
+
+        List<ThirdPartyDependency> dependencies = utilities.getThirdPartyDependencies();
+        List<DependencyCheckReport.Result> results = performChecks(dependencies);
+        DependencyCheckReport report = new DependencyCheckReport(results, false, System.currentTimeMillis() - started);
+
+        if (cacheKey != null) {
+            boolean allCompleted = results.stream().allMatch(result ->
+                    result.getState() == DependencyCheckReport.State.OK || result.getState() == DependencyCheckReport.State.ATTENTION_REQUIRED);
+            if (allCompleted) {
+                writeCache(cacheKey, results);
+            }
+        }
+        return report;
+    }
+
+    private List<DependencyCheckReport.Result> performChecks(List<ThirdPartyDependency> dependencies) {
+        if (dependencies.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(maxConcurrentChecks, dependencies.size()), runnable -> {
+            Thread thread = new Thread(runnable, "DependencyCheck-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try {
+            List<CompletableFuture<DependencyCheckReport.Result>> futures = new ArrayList<>();
+            for (ThirdPartyDependency dependency : dependencies) {
+                futures.add(CompletableFuture.supplyAsync(() -> performCheck(dependency), executor));
+            }
+
+            // The timeout of each check starts once it begins running, but checks which are still queued behind
+            // stuck checks once the last possible deadline has passed are reported as timed out as well
+            long lastDeadline = System.currentTimeMillis() + 1000
+                    + checkTimeoutMillis * ((dependencies.size() + maxConcurrentChecks - 1) / maxConcurrentChecks);
+            List<DependencyCheckReport.Result> results = new ArrayList<>();
+            for (int i = 0; i < dependencies.size(); i++) {
+                ThirdPartyDependency dependency = dependencies.get(i);
+                long remaining = Math.max(0, lastDeadline - System.currentTimeMillis());
+                try {
+                    results.add(futures.get(i).get(remaining, TimeUnit.MILLISECONDS));
+                } catch (TimeoutException exc) {
+                    results.add(timedOut(dependency));
+                } catch (InterruptedException exc) {
+                    Thread.currentThread().interrupt();
+                    results.add(timedOut(dependency));
+                } catch (ExecutionException exc) {
+                    results.add(new DependencyCheckReport.Result(describe(dependency), DependencyCheckReport.State.ERROR,
+                            String.valueOf(exc.getCause()), System.currentTimeMillis(), 0));
+                }
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private DependencyCheckReport.Result performCheck(ThirdPartyDependency dependency) {
+        String description = describe(dependency);
+        long startedMillis = System.currentTimeMillis();
+        long startedNanos = System.nanoTime();
+        CompletableFuture<ThirdPartyDependencyStatus> check = new CompletableFuture<>();
+        Thread checkThread = new Thread(() -> {
+            try {
+                check.complete(dependency.performCheck());
+            } catch (Throwable throwable) {
+                check.completeExceptionally(throwable);
+            }
+        }, Thread.currentThread().getName() + "-Probe");
+        checkThread.setDaemon(true);
+        checkThread.start();
+
+        try {
+            ThirdPartyDependencyStatus status = check.get(checkTimeoutMillis, TimeUnit.MILLISECONDS);
+            long durationMillis = (System.nanoTime() - startedNanos) / 1_000_000;
+            return new DependencyCheckReport.Result(description,
+                    status.isAttentionRequired() ? DependencyCheckReport.State.ATTENTION_REQUIRED : DependencyCheckReport.State.OK,
+                    status.getMessage(), startedMillis, durationMillis);
+        } catch (TimeoutException | InterruptedException exc) {
+            // Probe is left to finish on its own daemon thread, it may be blocked in native code
+            checkThread.interrupt();
+            return new DependencyCheckReport.Result(description, DependencyCheckReport.State.TIMED_OUT,
+                    "Check did not complete within " + checkTimeoutMillis + "ms", startedMillis,
+                    (System.nanoTime() - startedNanos) / 1_000_000);
+        } catch (ExecutionException exc) {
+            return new DependencyCheckReport.Result(description, DependencyCheckReport.State.ERROR,
+                    "Error Checking Status: " + exc.getCause().getMessage(), startedMillis,
+                    (System.nanoTime() - startedNanos) / 1_000_000);
+        }
+    }
+
+    private DependencyCheckReport.Result timedOut(ThirdPartyDependency dependency) {
+        return new DependencyCheckReport.Result(describe(dependency), DependencyCheckReport.State.TIMED_OUT,
+                "Check did not start and complete in time", System.currentTimeMillis(), 0);
+    }
+
+    private static String describe(ThirdPartyDependency dependency) {
+        try {
+            return dependency.getDescription();
+        } catch (Exception exc) {
+            return String.valueOf(dependency);
+        }
+    }
+
+    /***
+     * Builds the cache key from the engine version, the names and modification times of the engine's binaries and the PATH.
+     */
+    private String buildCacheKey(String engineVersion, File engineDistributionDirectory) {
+        Hasher hasher = Hashing.sha256().newHasher();
+        hasher.putString(String.valueOf(engineVersion), StandardCharsets.UTF_8);
+        if (engineDistributionDirectory != null) {
+            File binDirectory = new File(engineDistributionDirectory, "bin");
+            for (File directory : List.of(binDirectory, new File(binDirectory, "x86"))) {
+                File[] files = directory.listFiles(File::isFile);
+                if (files != null) {
+                    Arrays.sort(files, Comparator.comparing(File::getName));
+                    for (File file : files) {
+                        hasher.putString(file.getName(), StandardCharsets.UTF_8);
+                        hasher.putLong(file.lastModified());
+                    }
+                }
+            }
+        }
+        hasher.putString(String.valueOf(System.getenv("PATH")), StandardCharsets.UTF_8);
+        return hasher.hash().toString();
+    }
+
+    private List<DependencyCheckReport.Result> readCache(String cacheKey) {
+        if (!cacheFile.isFile()) {
+            return null;
+        }
+        try {
+            CacheEntry entry = gson.fromJson(Files.readString(cacheFile.toPath(), StandardCharsets.UTF_8), CacheEntry.class);
+            if (entry == null || !cacheKey.equals(entry.key) || entry.results == null) {
+                log.info("Cached third party dependency check results are for a different engine or host, checking again");
+                return null;
+            } else if (cacheTtlMillis > 0 && System.currentTimeMillis() - entry.createdMillis > cacheTtlMillis) {
+                log.info("Cached third party dependency check results have expired, checking again");
+                return null;
+            }
+            return entry.results;
+        } catch (Exception exc) {
+            log.warn("Error while reading third party dependency check cache " + cacheFile.getAbsolutePath(), exc);
+            return null;
+        }
+    }
+
+    private void writeCache(String cacheKey, List<DependencyCheckReport.Result> results) {
+        try {
+            CacheEntry entry = new CacheEntry();
+            entry.key = cacheKey;
+            entry.createdMillis = System.currentTimeMillis();
+            entry.results = results;
+
+            // Write to a temporary file then move it into place so concurrent readers never see a partial file
+            File parent = cacheFile.getAbsoluteFile().getParentFile();
+            parent.mkdirs();
+            File tempFile = File.createTempFile("dependency-checks", ".tmp", parent);
+            Files.writeString(tempFile.toPath(), gson.toJson(entry), StandardCharsets.UTF_8);
+            Files.move(tempFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (Exception exc) {
+            log.warn("Error while writing third party dependency check cache " + cacheFile.getAbsolutePath(), exc);
+        }
+    }
+
+    // Shape of the cache file
+    private static class CacheEntry {
+        private String key;
+        private long createdMillis;
+        private List<DependencyCheckReport.Result> results;
+    }
+}
@@ -0,0 +1,67 @@
+package com.nuix.innovation.enginewrapper;
+
+import lombok.NonNull;
+import nuix.engine.AvailableLicence;
+
+/***
+ * Decides how many workers {@link NuixLicenseResolver} requests when acquiring a license which supports choosing a
+ * worker count (a license from a shared pool, see {@link AvailableLicence#canChooseWorkers()}).  Provide a policy
+ * using {@link NuixLicenseResolver#withWorkerCountPolicy(WorkerCountPolicy)}.
+ * @author Jason Wells
+ */
+@FunctionalInterface
+public interface WorkerCountPolicy {
+    /***
+     * Determines the worker count to request.
+     * @param licence The license being acquired
+     * @param minWorkerCount The resolver's minimum worker count, 0 if there is no minimum
+     * @param maxWorkerCount The resolver's maximum worker count, 0 if there is no maximum
+     * @return The number of workers to request
+     */
+    int chooseWorkerCount(@NonNull AvailableLicence licence, int minWorkerCount, int maxWorkerCount);
+
+    /***
+     * The policy resolvers use by default: the resolver's minimum worker count or 2, whichever is higher.
+     * @return A policy requesting the minimum worker count or 2
+     */
+    static WorkerCountPolicy minimumOrTwo() {
+        return new WorkerCountPolicy() {
+            @Override
+            public int chooseWorkerCount(@NonNull AvailableLicence licence, int minWorkerCount, int maxWorkerCount) {
+                return Math.max(minWorkerCount, 2);
+            }
+
+            @Override
+            public String toString() {
+                return "minimum worker count or 2";
+            }
+        };
+    }
+
+    /***
+     * A policy which always requests the same worker count.
+     * @param workerCount The number of workers to request
+     * @return A policy requesting the provided worker count
+     */
+    static WorkerCountPolicy fixed(int workerCount) {
+        return new WorkerCountPolicy() {
+            @Override
+            public int chooseWorkerCount(@NonNull AvailableLicence licence, int minWorkerCount, int maxWorkerCount) {
+                return workerCount;
+            }
+
+            @Override
+            public String toString() {
+                return "fixed worker count of " + workerCount;
+            }
+        };
+    }
+
+    /***
+     * A policy sizing the worker count to the host's cores and physical memory, see {@link HostAwareWorkerCountPolicy}.
+     * @return A host aware policy with default settings
+     */
+    static HostAwareWorkerCountPolicy hostAware() {
+        return new HostAwareWorkerCountPolicy();
+    }
+}
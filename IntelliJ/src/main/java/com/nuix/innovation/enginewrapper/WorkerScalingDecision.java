@@ -0,0 +1,90 @@
+package com.nuix.innovation.enginewrapper;
+
+/***
+ * Records a decision made by {@link NuixEngine#rescaleWorkers(int)}, see {@link NuixEngine#getWorkerScalingHistory()}.
+ * @author Jason Wells
+ */
+public class WorkerScalingDecision {
+    private final long timestamp;
+    private final int queuedJobs;
+    private final long idleMillis;
+    private final int previousWorkerCount;
+    private final int targetWorkerCount;
+    private final int resultingWorkerCount;
+    private final long durationMillis;
+    private final String error;
+
+    WorkerScalingDecision(long timestamp, int queuedJobs, long idleMillis, int previousWorkerCount,
+                          int targetWorkerCount, int resultingWorkerCount, long durationMillis, String error) {
+        this.timestamp = timestamp;
+        this.queuedJobs = queuedJobs;
+        this.idleMillis = idleMillis;
+        this.previousWorkerCount = previousWorkerCount;
+        this.targetWorkerCount = targetWorkerCount;
+        this.resultingWorkerCount = resultingWorkerCount;
+        this.durationMillis = durationMillis;
+        this.error = error;
+    }
+
+    /***
+     * @return Time (epoch milliseconds) the decision was made.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public int getQueuedJobs() {
+        return queuedJobs;
+    }
+
+    public long getIdleMillis() {
+        return idleMillis;
+    }
+
+    public int getPreviousWorkerCount() {
+        return previousWorkerCount;
+    }
+
+    /***
+     * @return The worker count the {@link WorkerScalingPolicy} asked for.
+     */
+    public int getTargetWorkerCount() {
+        return targetWorkerCount;
+    }
+
+    /***
+     * @return The worker count held after the decision was carried out, which differs from the target if the license
+     * could not be re-acquired with the target count.
+     */
+    public int getResultingWorkerCount() {
+        return resultingWorkerCount;
+    }
+
+    /***
+     * @return How long re-acquiring the license took, 0 if the worker count was left as it was.
+     */
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    /***
+     * @return A description of the error which prevented reaching the target worker count, otherwise null.
+     */
+    public String getError() {
+        return error;
+    }
+
+    /***
+     * @return True if the license was re-acquired to carry out this decision.
+     */
+    public boolean isRescaled() {
+        return previousWorkerCount != targetWorkerCount;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s queued jobs, idle %sms: %s -> %s workers (target %s) in %sms%s", queuedJobs,
+                idleMillis, previousWorkerCount, resultingWorkerCount, targetWorkerCount, durationMillis,
+                error == null ? "" : ", error: " + error);
+    }
+}
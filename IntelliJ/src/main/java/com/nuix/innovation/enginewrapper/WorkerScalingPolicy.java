@@ -0,0 +1,27 @@
+package com.nuix.innovation.enginewrapper;
+
+/***
+ * Decides how many workers a long-lived {@link NuixEngine} should hold, based on how much work is waiting for it.
+ * Provide a policy using {@link NuixEngine#setWorkerScalingPolicy(WorkerScalingPolicy)} and consult it between jobs
+ * with {@link NuixEngine#rescaleWorkers(int)}.
+ * @author Jason Wells
+ */
+@FunctionalInterface
+public interface WorkerScalingPolicy {
+    /***
+     * Determines the worker count the engine should hold.
+     * @param currentWorkerCount The number of workers the engine currently holds
+     * @param queuedJobs The number of jobs waiting to be run
+     * @param idleMillis How long there have been no queued jobs, 0 if there currently are some
+     * @return The worker count the engine should hold, returning currentWorkerCount leaves the license as it is
+     */
+    int chooseWorkerCount(int currentWorkerCount, int queuedJobs, long idleMillis);
+
+    /***
+     * A policy scaling the worker count with the depth of the job queue, see {@link QueueDepthWorkerScalingPolicy}.
+     * @return A queue depth based policy with default settings
+     */
+    static QueueDepthWorkerScalingPolicy queueDepth() {
+        return new QueueDepthWorkerScalingPolicy();
+    }
+}
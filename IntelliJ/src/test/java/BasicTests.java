@@ -1,19 +1,46 @@
+import com.nuix.innovation.enginewrapper.AggregatingItemEventLogger;
+import com.nuix.innovation.enginewrapper.DependencyCheckReport;
+import com.nuix.innovation.enginewrapper.DiagnosticsBeanSimulator;
+import com.nuix.innovation.enginewrapper.EnginePool;
+import com.nuix.innovation.enginewrapper.JobLogScope;
+import com.nuix.innovation.enginewrapper.LicenseDiscoveryCache;
+import com.nuix.innovation.enginewrapper.LicenseLeaseJournal;
+import com.nuix.innovation.enginewrapper.LicenseSourceHealthTracker;
+import com.nuix.innovation.enginewrapper.NuixDiagnostics;
 import com.nuix.innovation.enginewrapper.NuixEngine;
+import com.nuix.innovation.enginewrapper.NuixLicenseResolver;
 import com.nuix.innovation.enginewrapper.NuixVersion;
+import com.nuix.innovation.enginewrapper.RuntimeSnapshotSampler;
+import com.nuix.innovation.enginewrapper.StartupReport;
+import com.nuix.innovation.enginewrapper.ThirdPartyDependencyChecker;
+import com.nuix.innovation.enginewrapper.WorkerScalingDecision;
+import com.nuix.innovation.enginewrapper.WorkerScalingPolicy;
 import nuix.*;
 import org.junit.jupiter.api.Test;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
 public class BasicTests extends CommonTestFunctionality {
     @Test
@@ -48,6 +75,331 @@ public class BasicTests extends CommonTestFunctionality {
         nuixEngine.close();
     }
 
+    @Test
+    public void GetLicenseAsync() throws Exception {
+        // Start initialization in the background, concurrent callers share it
+        try (NuixEngine nuixEngine = constructNuixEngine().startAsync()) {
+            CompletableFuture<Utilities> first = nuixEngine.getUtilitiesAsync();
+            CompletableFuture<Utilities> second = nuixEngine.getUtilitiesAsync();
+            Utilities utilities = nuixEngine.getUtilities();
+            assertSame(utilities, first.get());
+            assertSame(utilities, second.get());
+            utilities.getItemTypeUtility().getAllTypes();
+            nuixEngine.getDependencyCheckAsync().get();
+        }
+    }
+
+    @Test
+    public void GetLicenseByRacingResolvers() throws Exception {
+        // Discovery for all resolvers happens at the same time, resolver order still picks the license acquired
+        try (NuixEngine nuixEngine = constructNuixEngine().setRaceLicenseResolvers(true)) {
+            Utilities utilities = nuixEngine.getUtilities();
+            utilities.getItemTypeUtility().getAllTypes();
+            assertEquals(1, nuixEngine.getStartupReport().getPhases(StartupReport.LICENSE_ACQUIRE).size());
+        }
+    }
+
+    @Test
+    public void LicenseDiscoveryIsCached() throws Exception {
+        LicenseDiscoveryCache discoveryCache = new LicenseDiscoveryCache()
+                .withCacheFile(new File(testOutputDirectory, "LicenseDiscoveryIsCached/discovery.json"));
+        discoveryCache.clear();
+        for (int i = 0; i < 2; i++) {
+            NuixEngine nuixEngine = NuixEngine.usingFirstAvailableLicense(
+                            NuixLicenseResolver.fromCloud()
+                                    .withLicenseCredentialsResolvedFromEnvVars()
+                                    .withMinWorkerCount(4)
+                                    .withDiscoveryCache(discoveryCache),
+                            NuixLicenseResolver.fromDongle()
+                                    .withDiscoveryCache(discoveryCache))
+                    .setEngineDistributionDirectoryFromEnvVar()
+                    .setLogDirectory(new File(testOutputDirectory, "LicenseDiscoveryIsCached/" + i).getCanonicalFile());
+            try (nuixEngine) {
+                nuixEngine.getUtilities();
+            }
+        }
+        // Second start should have found its candidates in the cache
+        assertTrue(discoveryCache.getHitCount() >= 1);
+    }
+
+    @Test
+    public void UnreachableLicenseSourceIsSkipped() throws Exception {
+        LicenseSourceHealthTracker healthTracker = new LicenseSourceHealthTracker().withFailureThreshold(1);
+        NuixLicenseResolver unreachableServer = NuixLicenseResolver.fromServer("127.0.0.1", 1)
+                .withHealthTracker(healthTracker)
+                .withDiscoveryDeadline(10 * 1000);
+        for (int i = 0; i < 2; i++) {
+            NuixEngine nuixEngine = NuixEngine.usingFirstAvailableLicense(unreachableServer,
+                            NuixLicenseResolver.fromCloud()
+                                    .withLicenseCredentialsResolvedFromEnvVars()
+                                    .withMinWorkerCount(4),
+                            NuixLicenseResolver.fromDongle())
+                    .setEngineDistributionDirectoryFromEnvVar()
+                    .setLogDirectory(new File(testOutputDirectory, "UnreachableLicenseSourceIsSkipped/" + i).getCanonicalFile());
+            try (nuixEngine) {
+                nuixEngine.getUtilities();
+            }
+            log.info(healthTracker.getHealth(unreachableServer.getSourceKey()).toString());
+        }
+        // Whether the engine reports the unreachable server as an error or as having no licenses, the attempt is
+        // recorded and the engine falls through to the other resolvers
+        assertFalse(healthTracker.getHealth(unreachableServer.getSourceKey()).getHistory().isEmpty());
+    }
+
+    @Test
+    public void RescaleWorkersBetweenJobs() throws Exception {
+        try (NuixEngine nuixEngine = constructNuixEngine()
+                .setWorkerScalingPolicy(WorkerScalingPolicy.queueDepth().withMinWorkers(2).withMaxWorkers(4).withIdleTimeout(0))) {
+            nuixEngine.getUtilities();
+            log.info("Started with {} workers", nuixEngine.getWorkerCount());
+
+            // Licenses which cannot choose a worker count are re-acquired at most once, after which they are kept
+            Utilities utilities = nuixEngine.rescaleWorkers(2);
+            utilities.getItemTypeUtility().getAllTypes();
+            utilities = nuixEngine.rescaleWorkers(0);
+            utilities.getItemTypeUtility().getAllTypes();
+
+            List<WorkerScalingDecision> history = nuixEngine.getWorkerScalingHistory();
+            history.forEach(decision -> log.info(decision.toString()));
+            assertEquals(2, history.size());
+            assertTrue(nuixEngine.getWorkerCount() > 0);
+        }
+    }
+
+    @Test
+    public void LicenseLeaseIsJournaled() throws Exception {
+        File journalFile = new File(testOutputDirectory, "LicenseLeaseIsJournaled/leases.json");
+        journalFile.delete();
+        LicenseLeaseJournal journal = new LicenseLeaseJournal(journalFile);
+        try (NuixEngine nuixEngine = constructNuixEngine().setLeaseJournal(journal)) {
+            nuixEngine.getUtilities();
+            List<LicenseLeaseJournal.Lease> leases = journal.getLeases();
+            leases.forEach(lease -> log.info(lease.toString()));
+            assertEquals(1, leases.size());
+            assertEquals(ProcessHandle.current().pid(), leases.get(0).getPid());
+            assertFalse(leases.get(0).isStale());
+        }
+        assertEquals(0, journal.getLeases().size());
+    }
+
+    @Test
+    public void LeaseJournalIsUpdatedConcurrently() throws Exception {
+        File journalFile = new File(testOutputDirectory, "LeaseJournalIsUpdatedConcurrently/leases.json");
+        journalFile.delete();
+        LicenseLeaseJournal journal = new LicenseLeaseJournal(journalFile);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            // Engines in a pool record and remove their leases from their own threads
+            List<Future<LicenseLeaseJournal.Lease>> recorded = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                int workers = i;
+                recorded.add(executor.submit(() -> journal.record("Simulated", "enterprise-workstation", workers)));
+            }
+            List<LicenseLeaseJournal.Lease> leases = new ArrayList<>();
+            for (Future<LicenseLeaseJournal.Lease> lease : recorded) {
+                leases.add(lease.get());
+            }
+            assertEquals(200, journal.getLeases().size());
+
+            List<Future<?>> removed = new ArrayList<>();
+            for (LicenseLeaseJournal.Lease lease : leases) {
+                removed.add(executor.submit(() -> {
+                    journal.remove(lease);
+                    return null;
+                }));
+            }
+            for (Future<?> removal : removed) {
+                removal.get();
+            }
+            assertEquals(0, journal.getLeases().size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void StartupReportIsRecorded() throws Exception {
+        File historyFile = new File(testOutputDirectory, "StartupHistory.jsonl");
+        try (NuixEngine nuixEngine = constructNuixEngine()
+                .setStartupHistoryFile(historyFile)
+                .setStartupPhaseBudget(StartupReport.LICENSE, 60 * 1000)) {
+            nuixEngine.getUtilities();
+            nuixEngine.getDependencyCheckAsync().get();
+
+            StartupReport report = nuixEngine.getStartupReport();
+            log.info(report.toString());
+            assertTrue(report.isComplete());
+            assertTrue(report.isLicensed());
+            assertEquals(1, report.getPhases(StartupReport.GLOBAL_CONTAINER).size());
+            assertTrue(report.getPhases(StartupReport.LICENSE_RESOLVER).size() >= 1);
+            assertTrue(historyFile.exists());
+        }
+    }
+
+    @Test
+    public void DependencyChecksAreCached() throws Exception {
+        File cacheFile = new File(testOutputDirectory, "DependencyChecksAreCached/cache.json");
+        cacheFile.delete();
+        ThirdPartyDependencyChecker dependencyChecker = new ThirdPartyDependencyChecker()
+                .withCheckTimeout(60 * 1000)
+                .withCacheFile(cacheFile);
+
+        try (NuixEngine nuixEngine = constructNuixEngine().setDependencyChecker(dependencyChecker)) {
+            Utilities utilities = nuixEngine.getUtilities();
+            DependencyCheckReport report = nuixEngine.getDependencyCheckAsync().get();
+            log.info(report.toString());
+            assertFalse(report.isFromCache());
+
+            // Second check against the same engine is answered from the cache
+            DependencyCheckReport cachedReport = dependencyChecker.check(utilities, nuixEngine.getNuixVersionString(),
+                    new File(System.getenv("NUIX_ENGINE_DIR")));
+            assertTrue(cachedReport.isFromCache());
+            assertEquals(report.getResults().size(), cachedReport.getResults().size());
+        }
+    }
+
+    @Test
+    public void LeaseEnginesFromPool() throws Exception {
+        // Pool creates engines on demand, each obtaining its own license
+        try (EnginePool enginePool = new EnginePool(() -> {
+            try {
+                return constructNuixEngine();
+            } catch (IOException exc) {
+                throw new UncheckedIOException(exc);
+            }
+        }).withMaxSize(2)) {
+            try (EnginePool.Lease first = enginePool.lease();
+                 EnginePool.Lease second = enginePool.lease()) {
+                assertNotSame(first.getEngine(), second.getEngine());
+                first.getUtilities().getItemTypeUtility().getAllTypes();
+                second.getUtilities().getItemTypeUtility().getAllTypes();
+                assertEquals(2, enginePool.getTotalCount());
+            }
+
+            // Returned engines are reused rather than licensed again
+            assertEquals(2, enginePool.getIdleCount());
+            try (EnginePool.Lease lease = enginePool.lease()) {
+                lease.getUtilities().getItemTypeUtility().getAllTypes();
+            }
+            assertEquals(2, enginePool.getTotalCount());
+            log.info(enginePool.toString());
+        }
+    }
+
+    @Test
+    public void ParallelEnginesShareGlobalContainer() throws Exception {
+        try (NuixEngine first = constructNuixEngine().setStopLoggingOnClose(false);
+             NuixEngine second = constructNuixEngine().setStopLoggingOnClose(false)) {
+            // Both start on their own threads at the same time
+            CompletableFuture<Utilities> firstUtilities = first.getUtilitiesAsync();
+            CompletableFuture<Utilities> secondUtilities = second.getUtilitiesAsync();
+            firstUtilities.get().getItemTypeUtility().getAllTypes();
+            secondUtilities.get().getItemTypeUtility().getAllTypes();
+            assertEquals(2, NuixEngine.getGlobalContainerReferenceCount());
+
+            // Container is not closed out from under engines still using it
+            assertFalse(NuixEngine.closeGlobalContainer());
+        }
+        assertEquals(0, NuixEngine.getGlobalContainerReferenceCount());
+    }
+
+    @Test
+    public void JobLogsAreRouted() throws Exception {
+        File jobLogDirectory = new File(testOutputDirectory, "JobLogsAreRouted");
+        try (NuixEngine nuixEngine = constructNuixEngine().setJobLogDirectory(jobLogDirectory)) {
+            nuixEngine.getUtilities();
+            File jobLogFile;
+            try (JobLogScope scope = JobLogScope.open("JobLogsAreRouted-1")) {
+                log.info("Logged within job");
+                nuixEngine.runRubyScriptAsync("puts 'Script output within job'", null, null).join();
+                jobLogFile = scope.getLogFile();
+            }
+            log.info("Logged after job");
+
+            String jobLog = Files.readString(jobLogFile.toPath());
+            assertTrue(jobLog.contains("Logged within job"));
+            assertTrue(jobLog.contains("Script output within job"));
+            assertFalse(jobLog.contains("Logged after job"));
+        }
+    }
+
+    @Test
+    public void RuntimeSnapshotsAreBundledWithDiagnostics() throws Exception {
+        File outputDirectory = new File(testOutputDirectory, "RuntimeSnapshotsAreBundledWithDiagnostics");
+        RuntimeSnapshotSampler sampler = new RuntimeSnapshotSampler()
+                .withDirectory(new File(outputDirectory, "Snapshots"))
+                .withInterval(100)
+                .withRetention(5);
+        try (NuixEngine nuixEngine = constructNuixEngine().setRuntimeSnapshotSampler(sampler)) {
+            nuixEngine.getUtilities();
+            Thread.sleep(1000);
+            assertTrue(sampler.isRunning());
+            assertEquals(5, sampler.getSnapshotFiles().size());
+
+            File zipFile = new File(outputDirectory, "Diagnostics.zip");
+            NuixDiagnostics.saveDiagnosticsToFile(zipFile, sampler, 3);
+            assertTrue(zipFile.exists());
+        }
+        assertFalse(sampler.isRunning());
+    }
+
+    @Test
+    public void DiagnosticsBeanIsCached() throws Exception {
+        File outputDirectory = new File(testOutputDirectory, "DiagnosticsBeanIsCached");
+        try (DiagnosticsBeanSimulator simulator = new DiagnosticsBeanSimulator().registerAsCached()) {
+            // The simulator is registered under a name which is not searched for, so it can only be used if cached
+            NuixDiagnostics.saveDiagnosticsToFile(new File(outputDirectory, "First.zip"));
+            NuixDiagnostics.saveDiagnosticsToFile(new File(outputDirectory, "Second.zip"));
+            assertEquals(2, simulator.getInvocationCount());
+
+            // Once the cached bean is no longer registered, the bean is located again
+            simulator.registerForDiscovery();
+            long registeredCount = ManagementFactory.getPlatformMBeanServer().queryNames(null, null).stream()
+                    .filter(name -> name.toString().contains("DiagnosticsControl"))
+                    .count();
+            assumeTrue(registeredCount == 1, "Another DiagnosticsControl bean is registered");
+            File zipFile = new File(outputDirectory, "Third.zip");
+            NuixDiagnostics.saveDiagnosticsToFile(zipFile);
+            assertEquals(3, simulator.getInvocationCount());
+            assertTrue(zipFile.exists());
+        }
+    }
+
+    @Test
+    public void DiagnosticsCaptureIsCapped() throws Exception {
+        File outputDirectory = new File(testOutputDirectory, "DiagnosticsCaptureIsCapped");
+        try (DiagnosticsBeanSimulator simulator = new DiagnosticsBeanSimulator().withOutputBytes(10 * 1024).registerAsCached()) {
+            // Diagnostics larger than the cap are deleted
+            File oversizedFile = new File(outputDirectory, "Oversized.zip");
+            NuixDiagnostics.Result oversized = NuixDiagnostics.saveDiagnosticsToFileAsync(oversizedFile, 0, 1024).get();
+            assertFalse(oversized.isSuccessful());
+            assertFalse(oversizedFile.exists());
+
+            NuixDiagnostics.Result withinCap = NuixDiagnostics.saveDiagnosticsToFileAsync(
+                    new File(outputDirectory, "WithinCap.zip"), 0, 100 * 1024).get();
+            assertTrue(withinCap.isSuccessful());
+            assertEquals(10 * 1024, withinCap.getSizeBytes());
+
+            // A capture which times out still counts as in progress until generation finishes
+            simulator.withDelay(2000);
+            File slowFile = new File(outputDirectory, "Slow.zip");
+            CompletableFuture<NuixDiagnostics.Result> slow = NuixDiagnostics.saveDiagnosticsToFileAsync(slowFile, 200, 0);
+            assertFalse(slow.get().isSuccessful());
+            assertSame(slow, NuixDiagnostics.saveDiagnosticsToFileAsync(slowFile, 200, 0));
+
+            // Captures to another file are rejected rather than handed the capture in progress
+            File otherFile = new File(outputDirectory, "Other.zip");
+            NuixDiagnostics.Result rejected = NuixDiagnostics.saveDiagnosticsToFileAsync(otherFile, 200, 0).get();
+            assertFalse(rejected.isSuccessful());
+            assertEquals(otherFile, rejected.getZipFile());
+            assertEquals(3, simulator.getInvocationCount());
+
+            // Let generation finish, so that the capture does not outlive the simulator
+            Thread.sleep(2000);
+            assertTrue(slowFile.exists());
+        }
+    }
+
     @Test
     public void OverrideUserDataViaProperty() throws Exception {
         File engineUserDataBase = Paths.get(System.getenv("NUIX_ENGINE_DIR"), "user-data").toFile();
@@ -358,38 +710,12 @@ public class BasicTests extends CommonTestFunctionality {
                     "workerTemp", new File(testOutputDirectory, "WorkerTemp").getAbsolutePath()
             ));
 
-            // Track error count
-            AtomicInteger errorCount = new AtomicInteger();
-
-            exporter.whenItemEventOccurs(new ItemEventCallback() {
-                // Use this to track when we reported progress last
-                long lastProgressMillis = System.currentTimeMillis();
-
-                @Override
-                public void itemProcessed(ItemEventInfo info) {
-                    // Report progress if it has been at least 5 seconds (5000 milliseconds) since
-                    // the last time we reported progress
-                    long currentTimeMillis = System.currentTimeMillis();
-                    if (currentTimeMillis - lastProgressMillis > 5 * 1000) {
-                        String progressMessage = String.format(
-                                "Stage: %s, Progress: %s, Errors: %s",
-                                info.getStage(), info.getStageCount(), errorCount.get());
-                        log.info(progressMessage);
-                        lastProgressMillis = System.currentTimeMillis();
-                    }
-
-                    // If this particular item had an error we always record this
-                    Exception possibleItemException = info.getFailure();
-                    if (possibleItemException != null) {
-                        Item item = info.getItem();
-                        errorCount.incrementAndGet();
-                        String errorMessage = String.format(
-                                "Error while exporting item %s/%s: %s",
-                                item.getGuid(), item.getLocalisedName(), possibleItemException.getMessage());
-                        log.error(errorMessage);
-                    }
-                }
-            });
+            // Item failures are logged in bounded volume: the first few of each kind in full, the rest summarized
+            // along with progress every 5 seconds, and a report of all of them at the end
+            AggregatingItemEventLogger itemEventLogger = new AggregatingItemEventLogger("Export")
+                    .withSummaryInterval(5 * 1000)
+                    .withReportFile(new File(testOutputDirectory, "ExportFailures.json"));
+            exporter.whenItemEventOccurs(itemEventLogger);
 
             String itemsToExportQuery = "flag:audited";
 
@@ -399,11 +725,12 @@ public class BasicTests extends CommonTestFunctionality {
 
             log.info("Beginning export...");
             exporter.exportItems(itemsToExport);
+            itemEventLogger.close();
             log.info("Export completed");
 
-            log.info(String.format("Errors: %s", errorCount.get()));
-            if (errorCount.get() > 0) {
-                log.info("Review logs for more details regarding export errors");
+            log.info(String.format("Errors: %s", itemEventLogger.getFailureCount()));
+            if (itemEventLogger.getFailureCount() > 0) {
+                log.info("Review ExportFailures.json for more details regarding export errors");
             }
 
             log.info("Closing case");
@@ -0,0 +1,128 @@
+import com.nuix.innovation.enginewrapper.LicenseDiscoveryCache;
+import com.nuix.innovation.enginewrapper.LicenseResolutionBenchmark;
+import com.nuix.innovation.enginewrapper.LicenseSourceHealthTracker;
+import com.nuix.innovation.enginewrapper.LicenseSourceSimulator;
+import com.nuix.innovation.enginewrapper.NuixLicenseResolver;
+import com.nuix.innovation.enginewrapper.WorkerCountPolicy;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/***
+ * Benchmarks of license resolution strategies against simulated license sources.  These do not need a Nuix license
+ * (or a license server), only the Nuix Engine API on the classpath.  Timings are logged for comparison; assertions
+ * only check that each strategy licensed the engines it should have, since timings vary from machine to machine.
+ */
+public class LicenseResolverBenchmarks {
+    private static final Logger log = LoggerFactory.getLogger("Benchmarks");
+
+    private static LicenseSourceSimulator simulatedFleet() {
+        return new LicenseSourceSimulator()
+                .withSeed(42)
+                .withLicence(LicenseSourceSimulator.CLOUD, "enterprise-workstation", 100, 400, true, "CASE_CREATION")
+                .withLicence(LicenseSourceSimulator.SERVER, "enterprise-workstation", 100, 200, true, "CASE_CREATION")
+                .withLicence(LicenseSourceSimulator.DONGLE, "enterprise-workstation", 100, 4, false, "CASE_CREATION")
+                .withDiscoveryLatency(LicenseSourceSimulator.CLOUD, 150, 50)
+                .withDiscoveryLatency(LicenseSourceSimulator.SERVER, 60, 20)
+                .withDiscoveryLatency(LicenseSourceSimulator.DONGLE, 20, 5)
+                .withAcquireLatency(20);
+    }
+
+    @Test
+    public void CompareResolverOrdering() throws Exception {
+        LicenseSourceSimulator simulator = simulatedFleet();
+        LicenseResolutionBenchmark benchmark = new LicenseResolutionBenchmark(simulator).withIterations(10);
+
+        LicenseResolutionBenchmark.Result cloudFirst = benchmark.run("Cloud, server, dongle", false,
+                NuixLicenseResolver.fromCloud(), NuixLicenseResolver.fromServer("nms"), NuixLicenseResolver.fromDongle());
+        LicenseResolutionBenchmark.Result dongleFirst = benchmark.run("Dongle, server, cloud", false,
+                NuixLicenseResolver.fromDongle(), NuixLicenseResolver.fromServer("nms"), NuixLicenseResolver.fromCloud());
+
+        assertEquals(10, cloudFirst.getLicensedCount());
+        assertEquals(10, dongleFirst.getLicensedCount());
+        assertEquals(0, simulator.getWorkersInUse());
+    }
+
+    @Test
+    public void CompareSequentialAndRacingWithUnreachableServer() throws Exception {
+        LicenseSourceSimulator simulator = simulatedFleet()
+                .withDiscoveryLatency(LicenseSourceSimulator.SERVER, 500, 0)
+                .withDiscoveryFailureRate(LicenseSourceSimulator.SERVER, 1.0);
+        LicenseResolutionBenchmark benchmark = new LicenseResolutionBenchmark(simulator).withIterations(10);
+
+        // Failed discovery is treated as no license when tracking health, which lets the chain fall through.  A
+        // tracker which never opens its breaker gives the sequential baseline.
+        LicenseResolutionBenchmark.Result sequential = benchmark.run("Sequential", false,
+                NuixLicenseResolver.fromServer("nms")
+                        .withHealthTracker(new LicenseSourceHealthTracker().withFailureThreshold(Integer.MAX_VALUE)),
+                NuixLicenseResolver.fromCloud());
+        LicenseResolutionBenchmark.Result raced = benchmark.run("Raced", true,
+                NuixLicenseResolver.fromServer("nms"), NuixLicenseResolver.fromCloud());
+        LicenseResolutionBenchmark.Result circuitBreaker = benchmark.run("Sequential with circuit breaker", false,
+                NuixLicenseResolver.fromServer("nms")
+                        .withHealthTracker(new LicenseSourceHealthTracker().withFailureThreshold(2)),
+                NuixLicenseResolver.fromCloud());
+
+        assertEquals(10, sequential.getLicensedCount());
+        assertEquals(10, raced.getLicensedCount());
+        assertEquals(10, circuitBreaker.getLicensedCount());
+        assertTrue(circuitBreaker.getPercentileMillis(50) < sequential.getPercentileMillis(50));
+    }
+
+    @Test
+    public void CompareDiscoveryCaching() throws Exception {
+        LicenseSourceSimulator simulator = simulatedFleet().withDisappearanceRate(0.1);
+        LicenseResolutionBenchmark benchmark = new LicenseResolutionBenchmark(simulator).withIterations(20);
+
+        LicenseResolutionBenchmark.Result live = benchmark.run("Live discovery", false,
+                NuixLicenseResolver.fromCloud());
+        LicenseResolutionBenchmark.Result cached = benchmark.run("Cached discovery", false,
+                NuixLicenseResolver.fromCloud().withDiscoveryCache(new LicenseDiscoveryCache()));
+
+        log.info("Licenses which disappeared before being acquired: {}", simulator.getDisappearanceCount());
+        assertEquals(live.getIterations(), live.getLicensedCount() + live.getErrorCount());
+        assertEquals(cached.getIterations(), cached.getLicensedCount() + cached.getErrorCount());
+    }
+
+    @Test
+    public void CachedDiscoverySkipsSourcesWithoutSuitableLicenses() throws Exception {
+        LicenseSourceSimulator simulator = simulatedFleet();
+        LicenseResolutionBenchmark benchmark = new LicenseResolutionBenchmark(simulator).withIterations(5);
+
+        // No cloud license has this many workers, so every engine falls through to the dongle
+        LicenseResolutionBenchmark.Result cached = benchmark.run("Cached cloud then dongle", false,
+                NuixLicenseResolver.fromCloud().withMinWorkerCount(1000).withDiscoveryCache(new LicenseDiscoveryCache()),
+                NuixLicenseResolver.fromDongle());
+
+        log.info(cached.toString());
+        assertEquals(cached.getIterations(), cached.getLicensedCount());
+        // The cloud is only asked once, every later engine is rejected from its cached licenses
+        assertEquals(cached.getIterations() + 1, simulator.getDiscoveryCount());
+    }
+
+    @Test
+    public void CompareWorkerCountPoliciesUnderContention() throws Exception {
+        LicenseSourceSimulator simulator = new LicenseSourceSimulator()
+                .withSeed(42)
+                .withLicence(LicenseSourceSimulator.SERVER, "enterprise-workstation", 100, 32, true, "CASE_CREATION")
+                .withDiscoveryLatency(LicenseSourceSimulator.SERVER, 30, 10)
+                .withAcquireLatency(10)
+                .withServerConcurrency(2);
+        LicenseResolutionBenchmark benchmark = new LicenseResolutionBenchmark(simulator)
+                .withIterations(16)
+                .withConcurrency(8);
+
+        // 8 engines taking 2 workers each fit in the pool, 8 taking 8 each do not
+        LicenseResolutionBenchmark.Result small = benchmark.run("2 workers each", false,
+                NuixLicenseResolver.fromServer("nms").withWorkerCountPolicy(WorkerCountPolicy.minimumOrTwo()));
+        LicenseResolutionBenchmark.Result large = benchmark.run("8 workers each", false,
+                NuixLicenseResolver.fromServer("nms").withWorkerCountPolicy(WorkerCountPolicy.fixed(8)));
+
+        assertEquals(16, small.getLicensedCount());
+        assertTrue(large.getLicensedCount() < 16);
+        assertEquals(0, simulator.getWorkersInUse());
+    }
+}
@@ -1,12 +1,26 @@
 import com.nuix.innovation.enginewrapper.NuixEngine;
+import com.nuix.innovation.enginewrapper.RubyScriptMapReduce;
 import com.nuix.innovation.enginewrapper.RubyScriptRunner;
+import com.nuix.innovation.enginewrapper.ScriptCache;
+import com.nuix.innovation.enginewrapper.ScriptMetrics;
+import com.nuix.innovation.enginewrapper.ScriptResult;
+import com.nuix.innovation.enginewrapper.ScriptStatistics;
+import com.nuix.innovation.enginewrapper.ScriptingContainerPool;
+import nuix.EvidenceContainer;
+import nuix.Processor;
+import nuix.SimpleCase;
 import nuix.Utilities;
+import org.jruby.embed.ScriptingContainer;
 import org.junit.jupiter.api.Test;
 
 import java.io.File;
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.TimeoutException;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -75,4 +89,208 @@ public class RubyScriptRunnerTests extends CommonTestFunctionality {
             rubyScriptRunner.join();
         }
     }
+
+    @Test
+    public void TestPooledContainerIsResetBetweenRuns() throws Exception {
+        try (NuixEngine nuixEngine = constructNuixEngine()) {
+            nuixEngine.setScriptingContainerPool(new ScriptingContainerPool().withMaxSize(1));
+            List<Object> results = new ArrayList<>();
+
+            RubyScriptRunner first = nuixEngine.runRubyScriptAsync(
+                    "$leaked = 42; NUIX_VERSION", null, (result, vars) -> results.add(result));
+            first.join();
+
+            RubyScriptRunner second = nuixEngine.runRubyScriptAsync(
+                    "$leaked.inspect", null, (result, vars) -> results.add(result));
+            second.join();
+
+            // Global defined by first run should not be visible to second run, which reused the same container
+            assertEquals(2, results.size());
+            assertEquals(nuixEngine.getNuixVersionString(), results.get(0));
+            assertEquals("nil", results.get(1));
+            assertEquals(1, nuixEngine.getScriptingContainerPool().getTotalCount());
+        }
+    }
+
+    @Test
+    public void TestScriptCacheReusesCompiledScript() throws Exception {
+        File rubyScriptFile = new File(testDataDirectory, "BasicRubyScript.rb").getCanonicalFile();
+        try (NuixEngine nuixEngine = constructNuixEngine()) {
+            // Compiled scripts are cached per container, so use a single container to make hit counts predictable
+            ScriptCache scriptCache = new ScriptCache();
+            nuixEngine.setScriptCache(scriptCache);
+            nuixEngine.setScriptingContainerPool(new ScriptingContainerPool().withMaxSize(1));
+            List<Object> results = new ArrayList<>();
+            Map<String, Object> additionalVariables = Map.of(
+                    "x", 40,
+                    "y", 2
+            );
+
+            for (int i = 0; i < 3; i++) {
+                RubyScriptRunner rubyScriptRunner = nuixEngine.runRubyScriptFileAsync(
+                        rubyScriptFile, additionalVariables, (result, vars) -> results.add(result));
+                rubyScriptRunner.join();
+            }
+
+            log.info("Script Cache: {}", scriptCache);
+            assertEquals(List.of(42L, 42L, 42L), results);
+            assertEquals(1, scriptCache.getMissCount());
+            assertEquals(2, scriptCache.getMemoryHitCount());
+        }
+    }
+
+    @Test
+    public void TestScriptCacheReleasesTerminatedContainers() throws Exception {
+        ScriptCache scriptCache = new ScriptCache();
+        try (ScriptingContainerPool pool = new ScriptingContainerPool().withMaxSize(1).withPreWarmCount(0)) {
+            scriptCache.watchPool(pool);
+            ScriptingContainerPool.Lease lease = pool.lease();
+            WeakReference<ScriptingContainer> containerReference = new WeakReference<>(lease.getContainer());
+            assertEquals(3L, scriptCache.compile(lease.getContainer(), "1 + 2").run());
+            assertEquals(1, scriptCache.getContainerCount());
+
+            // Terminated rather than returned to the pool, like a container evicted for sitting idle
+            lease.invalidate();
+            lease.close();
+            lease = null;
+            assertEquals(0, scriptCache.getContainerCount());
+
+            for (int i = 0; i < 50 && containerReference.get() != null; i++) {
+                System.gc();
+                Thread.sleep(100);
+            }
+            assertNull(containerReference.get());
+        }
+    }
+
+    @Test
+    public void TestSubmittedScriptDeadlineStopsRunawayScript() throws Exception {
+        try (NuixEngine nuixEngine = constructNuixEngine()) {
+            ScriptResult completed = nuixEngine.submitRubyScript(
+                    "answer = 6 * 7", null, null, null, 0).get();
+            assertTrue(completed.isSuccessful());
+            assertEquals(42L, completed.getReturnedValue());
+            assertEquals(42L, completed.getVariables().get("answer"));
+
+            // Ruby loops ignore Thread.interrupt, deadline needs to actually stop the script
+            ScriptResult timedOut = nuixEngine.submitRubyScript(
+                    "loop { }", null, null, null, 1000).get();
+            log.info("Timed out result: {}", timedOut);
+            assertTrue(timedOut.isTimedOut());
+            assertInstanceOf(TimeoutException.class, timedOut.getException());
+            assertTrue(timedOut.getElapsedMillis() < 30_000);
+        }
+    }
+
+    @Test
+    public void TestCloseDrainsRunningScripts() throws Exception {
+        CompletableFuture<ScriptResult> finishing;
+        CompletableFuture<ScriptResult> runaway;
+        NuixEngine nuixEngine = constructNuixEngine().setShutdownDrainTimeout(5000);
+        try {
+            nuixEngine.setScriptConcurrency(2);
+            finishing = nuixEngine.submitRubyScript("sleep(1); 42", null, null, null, 0);
+            runaway = nuixEngine.submitRubyScript("loop { }", null, null, null, 0);
+        } finally {
+            nuixEngine.close();
+        }
+
+        // Script which finishes within the drain timeout is waited for, the one which does not is stopped
+        assertTrue(finishing.isDone());
+        assertEquals(42L, finishing.get().getReturnedValue());
+        assertTrue(runaway.isCancelled());
+    }
+
+    @Test
+    public void TestConcurrentScriptsHaveIsolatedVariables() throws Exception {
+        try (NuixEngine nuixEngine = constructNuixEngine()) {
+            nuixEngine.setScriptConcurrency(4);
+            List<CompletableFuture<ScriptResult>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                String script = "sleep(0.5); $utilities.nil? ? nil : $tag";
+                futures.add(nuixEngine.submitRubyScript(script, Map.of("$tag", i), null, null, 0));
+            }
+
+            // Each run should see its own $tag, and its own $utilities, even while others are running
+            for (int i = 0; i < futures.size(); i++) {
+                ScriptResult result = futures.get(i).get();
+                log.info("Run {}: {}", i, result);
+                assertTrue(result.isSuccessful());
+                assertEquals((long) i, result.getReturnedValue());
+            }
+            assertTrue(nuixEngine.getScriptingContainerPool().getTotalCount() <= 4);
+        }
+    }
+
+    @Test
+    public void TestScriptMetricsAreRecorded() throws Exception {
+        File rubyScriptFile = new File(testDataDirectory, "BasicRubyScript.rb").getCanonicalFile();
+        try (NuixEngine nuixEngine = constructNuixEngine()) {
+            Map<String, Object> additionalVariables = Map.of(
+                    "x", 40,
+                    "y", 2
+            );
+
+            ScriptResult result = null;
+            for (int i = 0; i < 5; i++) {
+                result = nuixEngine.submitRubyScriptFile(rubyScriptFile, additionalVariables, null, null, 0).get();
+            }
+
+            ScriptMetrics metrics = result.getMetrics();
+            log.info("Metrics: {}", metrics);
+            assertEquals(rubyScriptFile.getAbsolutePath(), metrics.getScriptName());
+            assertTrue(metrics.getWallNanos() >= metrics.getExecuteNanos());
+            assertTrue(metrics.getExecuteNanos() > 0);
+
+            ScriptStatistics.Summary summary = nuixEngine.getScriptStatistics().getSummary(rubyScriptFile.getAbsolutePath());
+            log.info("Statistics: {}", summary);
+            assertEquals(5, summary.getRunCount());
+            assertEquals(0, summary.getFailedCount());
+            assertTrue(summary.getWallMillisP95() >= summary.getWallMillisP50());
+        }
+    }
+
+    @Test
+    public void TestMapReduceOverCaseItems() throws Exception {
+        File caseDirectory = new File(testOutputDirectory, "TestMapReduceOverCaseItems_Case");
+        File textFilesDirectory = TestData.getTestDataTextFilesDirectory();
+        try (NuixEngine nuixEngine = constructNuixEngine()) {
+            Utilities utilities = nuixEngine.getUtilities();
+            Map<String, Object> caseSettings = Map.of(
+                    "compound", false,
+                    "name", "TestMapReduceOverCaseItems",
+                    "description", "A Nuix case created using the Nuix Java Engine API",
+                    "investigator", "Test"
+            );
+            SimpleCase nuixCase = (SimpleCase) utilities.getCaseFactory().create(caseDirectory, caseSettings);
+            Processor processor = nuixCase.createProcessor();
+            EvidenceContainer evidenceContainer = processor.newEvidenceContainer("MapReduceTestData");
+            evidenceContainer.addFile(textFilesDirectory);
+            evidenceContainer.save();
+            processor.process();
+
+            String script = String.join("\n",
+                    "def map(items)",
+                    "  items.group_by { |item| item.getType.getKind.getName }.transform_values(&:size)",
+                    "end",
+                    "def reduce(partials)",
+                    "  partials.inject({}) { |totals, counts| totals.merge(counts) { |kind, a, b| a + b } }",
+                    "end"
+            );
+
+            AtomicInteger progressReports = new AtomicInteger();
+            RubyScriptMapReduce.Result result = nuixEngine.mapReduceRubyScript(nuixCase, "", script)
+                    .withChunkSize(10)
+                    .withParallelism(4)
+                    .withProgressConsumer(progress -> progressReports.incrementAndGet())
+                    .run();
+            log.info("{}", result);
+
+            Map<?, ?> kindCounts = (Map<?, ?>) result.getValue();
+            long total = kindCounts.values().stream().mapToLong(count -> (Long) count).sum();
+            assertEquals(nuixCase.count(""), total);
+            assertEquals(result.getShardTimings().size(), progressReports.get());
+            nuixCase.close();
+        }
+    }
 }
@@ -0,0 +1,127 @@
+package com.nuix.innovation.enginewrapper;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/***
+ * An in-process stand-in for the Nuix DiagnosticsControl MBean, allowing {@link NuixDiagnostics} to be exercised
+ * without a running engine.  Generating diagnostics writes a file of a configurable size after a configurable delay,
+ * and the number of times diagnostics were generated is counted.<br><br>
+ * {@link #registerAsCached()} registers the simulator under a name {@link NuixDiagnostics} would not find by itself
+ * and makes it the bean NuixDiagnostics has cached, while {@link #registerForDiscovery()} registers it under a name
+ * NuixDiagnostics locates when it has no cached bean.  Closing the simulator unregisters it and clears the cached bean.
+ * <pre>
+ * {@code
+ * try (DiagnosticsBeanSimulator simulator = new DiagnosticsBeanSimulator().withOutputBytes(1024).registerAsCached()) {
+ *     NuixDiagnostics.saveDiagnosticsToFile(zipFile);
+ * }
+ * }
+ * </pre>
+ * @author Jason Wells
+ */
+public class DiagnosticsBeanSimulator implements AutoCloseable {
+    public static final String CACHED_BEAN_NAME = "com.nuix.innovation.test:kind=SimulatedDiagnostics";
+    public static final String DISCOVERABLE_BEAN_NAME = "com.nuix.innovation.test:type=DiagnosticsControl";
+
+    /***
+     * The operation NuixDiagnostics invokes on the DiagnosticsControl MBean.
+     */
+    public interface DiagnosticsControl {
+        void generateDiagnostics(String path) throws Exception;
+    }
+
+    private final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+    private final AtomicInteger invocationCount = new AtomicInteger();
+    private long outputBytes = 1024;
+    private long delayMillis = 0;
+    private ObjectName registeredName = null;
+
+    /***
+     * @param outputBytes Size of the file written each time diagnostics are generated
+     * @return This instance for chained method calls.
+     */
+    public DiagnosticsBeanSimulator withOutputBytes(long outputBytes) {
+        this.outputBytes = outputBytes;
+        return this;
+    }
+
+    /***
+     * @param delayMillis How long generating diagnostics takes
+     * @return This instance for chained method calls.
+     */
+    public DiagnosticsBeanSimulator withDelay(long delayMillis) {
+        this.delayMillis = delayMillis;
+        return this;
+    }
+
+    /***
+     * @return The number of times diagnostics were generated using this simulator.
+     */
+    public int getInvocationCount() {
+        return invocationCount.get();
+    }
+
+    /***
+     * Registers this simulator under {@link #CACHED_BEAN_NAME} and makes it the bean NuixDiagnostics has cached.
+     * @return This instance for chained method calls.
+     * @throws Exception If registering the bean fails
+     */
+    public DiagnosticsBeanSimulator registerAsCached() throws Exception {
+        register(CACHED_BEAN_NAME);
+        NuixDiagnostics.setDiagnosticsBean(mBeanServer, registeredName);
+        return this;
+    }
+
+    /***
+     * Registers this simulator under {@link #DISCOVERABLE_BEAN_NAME}, leaving NuixDiagnostics to locate it.
+     * @return This instance for chained method calls.
+     * @throws Exception If registering the bean fails
+     */
+    public DiagnosticsBeanSimulator registerForDiscovery() throws Exception {
+        register(DISCOVERABLE_BEAN_NAME);
+        return this;
+    }
+
+    private void register(String name) throws Exception {
+        unregister();
+        DiagnosticsControl diagnosticsControl = this::generateDiagnostics;
+        registeredName = new ObjectName(name);
+        mBeanServer.registerMBean(new StandardMBean(diagnosticsControl, DiagnosticsControl.class), registeredName);
+    }
+
+    /***
+     * Unregisters this simulator, without clearing the bean NuixDiagnostics has cached.
+     * @throws Exception If unregistering the bean fails
+     */
+    public void unregister() throws Exception {
+        if (registeredName != null && mBeanServer.isRegistered(registeredName)) {
+            mBeanServer.unregisterMBean(registeredName);
+        }
+        registeredName = null;
+    }
+
+    private void generateDiagnostics(String path) throws Exception {
+        invocationCount.incrementAndGet();
+        if (delayMillis > 0) {
+            Thread.sleep(delayMillis);
+        }
+
+        // NuixDiagnostics creates the path as a directory before invoking the bean
+        File target = new File(path);
+        File outputFile = target.isDirectory() ? new File(target, "Diagnostics.bin") : target;
+        try (RandomAccessFile file = new RandomAccessFile(outputFile, "rw")) {
+            file.setLength(outputBytes);
+        }
+    }
+
+    @Override
+    public void close() throws Exception {
+        unregister();
+        NuixDiagnostics.setDiagnosticsBean(null, null);
+    }
+}
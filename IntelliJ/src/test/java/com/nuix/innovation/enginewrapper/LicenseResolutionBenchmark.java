@@ -0,0 +1,204 @@
+package com.nuix.innovation.enginewrapper;
+
+import nuix.engine.Engine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/***
+ * Measures how long a chain of license resolvers takes to license engines provided by a {@link LicenseSourceSimulator},
+ * going through the same code {@link NuixEngine} uses at startup, so that resolver ordering, racing
+ * ({@link NuixEngine#setRaceLicenseResolvers(boolean)}), discovery caching and the like can be compared without
+ * access to real license sources.<br><br>
+ * Example usage:
+ * <pre>
+ * {@code
+ * LicenseResolutionBenchmark benchmark = new LicenseResolutionBenchmark(simulator).withIterations(50);
+ * log.info(benchmark.run("Cloud then dongle", false, cloudResolver, dongleResolver).toString());
+ * log.info(benchmark.run("Cloud and dongle raced", true, cloudResolver, dongleResolver).toString());
+ * }
+ * </pre>
+ * @author Jason Wells
+ */
+public class LicenseResolutionBenchmark {
+    private static final Logger log = LoggerFactory.getLogger(LicenseResolutionBenchmark.class);
+
+    /***
+     * The outcome of benchmarking one resolver chain.
+     */
+    public static class Result {
+        private final String name;
+        private final List<Long> durationsMillis;
+        private final int licensedCount;
+        private final int errorCount;
+
+        Result(String name, List<Long> durationsMillis, int licensedCount, int errorCount) {
+            this.name = name;
+            this.durationsMillis = new ArrayList<>(durationsMillis);
+            Collections.sort(this.durationsMillis);
+            this.licensedCount = licensedCount;
+            this.errorCount = errorCount;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getIterations() {
+            return durationsMillis.size();
+        }
+
+        /***
+         * @return How many iterations obtained a license.
+         */
+        public int getLicensedCount() {
+            return licensedCount;
+        }
+
+        /***
+         * @return How many iterations ended with an exception rather than obtaining a license or finding none.
+         */
+        public int getErrorCount() {
+            return errorCount;
+        }
+
+        public long getAverageMillis() {
+            return (long) durationsMillis.stream().mapToLong(Long::longValue).average().orElse(0);
+        }
+
+        /***
+         * @param percentile The percentile, between 0.0 and 100.0
+         * @return The duration below which the provided percentage of iterations completed
+         */
+        public long getPercentileMillis(double percentile) {
+            if (durationsMillis.isEmpty()) {
+                return 0;
+            }
+            int index = (int) Math.ceil(percentile / 100.0 * durationsMillis.size()) - 1;
+            return durationsMillis.get(Math.max(0, Math.min(durationsMillis.size() - 1, index)));
+        }
+
+        public long getMaxMillis() {
+            return durationsMillis.isEmpty() ? 0 : durationsMillis.get(durationsMillis.size() - 1);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %s iterations, %s licensed, %s errors, avg %sms, p50 %sms, p95 %sms, max %sms",
+                    name, getIterations(), licensedCount, errorCount, getAverageMillis(), getPercentileMillis(50),
+                    getPercentileMillis(95), getMaxMillis());
+        }
+    }
+
+    private final LicenseSourceSimulator simulator;
+    private int iterations = 20;
+    private int concurrency = 1;
+
+    /***
+     * Creates a benchmark licensing engines from the provided simulator.
+     * @param simulator The simulated license sources
+     */
+    public LicenseResolutionBenchmark(LicenseSourceSimulator simulator) {
+        this.simulator = simulator;
+    }
+
+    /***
+     * Specifies how many engines to license for each resolver chain.
+     * @param iterations Number of engines, default is 20
+     * @return This benchmark for chained method calls.
+     */
+    public LicenseResolutionBenchmark withIterations(int iterations) {
+        this.iterations = Math.max(1, iterations);
+        return this;
+    }
+
+    /***
+     * Specifies how many engines are licensed at the same time.  Engines licensed together hold on to their licenses
+     * until all of them are done, so that they contend for seats and workers like engines starting across a fleet.
+     * @param concurrency Number of engines licensed at the same time, default is 1
+     * @return This benchmark for chained method calls.
+     */
+    public LicenseResolutionBenchmark withConcurrency(int concurrency) {
+        this.concurrency = Math.max(1, concurrency);
+        return this;
+    }
+
+    /***
+     * Benchmarks a resolver chain.  The same resolver instances are used for every iteration, so state they keep
+     * (such as a {@link LicenseDiscoveryCache} or {@link LicenseSourceHealthTracker}) carries over between iterations.
+     * @param name Describes the chain in the result
+     * @param raceLicenseResolvers Whether to race the resolvers, see {@link NuixEngine#setRaceLicenseResolvers(boolean)}
+     * @param resolvers The resolvers, in order
+     * @return The timings of the iterations
+     * @throws Exception If interrupted while waiting for iterations to complete
+     */
+    public Result run(String name, boolean raceLicenseResolvers, LicenseResolver... resolvers) throws Exception {
+        List<LicenseResolver> resolverList = Arrays.asList(resolvers);
+        List<Long> durationsMillis = new ArrayList<>();
+        int licensedCount = 0;
+        int errorCount = 0;
+
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency, runnable -> {
+            Thread thread = new Thread(runnable, "LicenseResolutionBenchmark");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            int remaining = iterations;
+            while (remaining > 0) {
+                int roundSize = Math.min(concurrency, remaining);
+                remaining -= roundSize;
+
+                List<Engine> roundEngines = new ArrayList<>();
+                List<Future<Boolean>> outcomes = new ArrayList<>();
+                List<long[]> roundDurations = new ArrayList<>();
+                for (int i = 0; i < roundSize; i++) {
+                    NuixEngine nuixEngine = NuixEngine.usingFirstAvailableLicense(resolverList)
+                            .setRaceLicenseResolvers(raceLicenseResolvers);
+                    Engine engine = simulator.newEngine();
+                    roundEngines.add(engine);
+                    long[] duration = new long[1];
+                    roundDurations.add(duration);
+                    outcomes.add(executor.submit(() -> {
+                        long started = System.nanoTime();
+                        try {
+                            return nuixEngine.obtainLicenseFor(engine, new StartupReport(Collections.emptyMap()));
+                        } finally {
+                            duration[0] = (System.nanoTime() - started) / 1000000;
+                        }
+                    }));
+                }
+
+                for (int i = 0; i < roundSize; i++) {
+                    try {
+                        if (outcomes.get(i).get()) {
+                            licensedCount++;
+                        }
+                    } catch (Exception exc) {
+                        errorCount++;
+                        log.debug("Iteration of {} failed", name, exc);
+                    }
+                    durationsMillis.add(roundDurations.get(i)[0]);
+                }
+
+                // Return licenses to the simulator before the next round
+                for (Engine engine : roundEngines) {
+                    engine.close();
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Result result = new Result(name, durationsMillis, licensedCount, errorCount);
+        log.info(result.toString());
+        return result;
+    }
+}
@@ -0,0 +1,522 @@
+package com.nuix.innovation.enginewrapper;
+
+import nuix.Licence;
+import nuix.LicenceProperties;
+import nuix.Utilities;
+import nuix.engine.AvailableLicence;
+import nuix.engine.Engine;
+import nuix.engine.LicenceSource;
+import nuix.engine.Licensor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/***
+ * An in-process stand-in for the license sources an Engine obtains licenses from (dongles, a Nuix Management Server,
+ * the Cloud License Server), allowing license resolution strategies to be exercised and benchmarked without access
+ * to any of them.  {@link #newEngine()} provides Engine instances whose Licensor discovers the licenses configured
+ * on the simulator, which can then be used with {@link LicenseResolver} implementations as with a real Engine.<br><br>
+ * Besides the licenses on offer, the simulator can inject:
+ * <ul>
+ *     <li>Discovery latency per source {@link #withDiscoveryLatency(String, long, long)}</li>
+ *     <li>Discovery failures per source {@link #withDiscoveryFailureRate(String, double)}</li>
+ *     <li>Acquisition latency {@link #withAcquireLatency(long)}</li>
+ *     <li>Licenses disappearing between discovery and acquisition {@link #withDisappearanceRate(double)}</li>
+ *     <li>Contention: seats and shared worker pools are consumed by acquisitions and returned when an Engine is
+ *     closed, and {@link #withServerConcurrency(int)} limits how many requests the servers handle at once</li>
+ * </ul>
+ * Only the parts of the Nuix API involved in licensing are simulated, calling anything else throws
+ * {@link UnsupportedOperationException}.<br><br>
+ * Example usage:
+ * <pre>
+ * {@code
+ * LicenseSourceSimulator simulator = new LicenseSourceSimulator()
+ *     .withLicence(LicenseSourceSimulator.CLOUD, "enterprise-workstation", 1, 32, true, "CASE_CREATION")
+ *     .withLicence(LicenseSourceSimulator.DONGLE, "enterprise-workstation", 1, 4, false, "CASE_CREATION")
+ *     .withDiscoveryLatency(LicenseSourceSimulator.CLOUD, 800, 200);
+ * Engine engine = simulator.newEngine();
+ * boolean licensed = NuixLicenseResolver.fromCloud().resolveLicense(engine);
+ * }
+ * </pre>
+ * @author Jason Wells
+ */
+public class LicenseSourceSimulator {
+    private static final Logger log = LoggerFactory.getLogger(LicenseSourceSimulator.class);
+
+    /***
+     * Source type of licenses on simulated dongles.
+     */
+    public static final String DONGLE = "dongle";
+    /***
+     * Source type of licenses on a simulated Nuix Management Server.
+     */
+    public static final String SERVER = "server";
+    /***
+     * Source type of licenses on the simulated Cloud License Server.
+     */
+    public static final String CLOUD = "cloud-server";
+
+    // A license on offer and how much of it is in use
+    private static class SimulatedLicence {
+        private final String sourceType;
+        private final String shortName;
+        private final int count;
+        private final int workers;
+        private final boolean canChooseWorkers;
+        private final Set<String> features;
+        private int seatsInUse = 0;
+        private int workersInUse = 0;
+
+        private SimulatedLicence(String sourceType, String shortName, int count, int workers, boolean canChooseWorkers,
+                                 Set<String> features) {
+            this.sourceType = sourceType;
+            this.shortName = shortName;
+            this.count = count;
+            this.workers = workers;
+            this.canChooseWorkers = canChooseWorkers;
+            this.features = features;
+        }
+    }
+
+    // How a source behaves when licenses are discovered from it
+    private static class SourceBehaviour {
+        private long latencyMillis = 0;
+        private long jitterMillis = 0;
+        private double failureRate = 0.0;
+    }
+
+    private final List<SimulatedLicence> licences = new ArrayList<>();
+    private final Map<String, SourceBehaviour> sourceBehaviours = new HashMap<>();
+    private long acquireLatencyMillis = 0;
+    private double disappearanceRate = 0.0;
+    private Semaphore serverConcurrency = null;
+    private Random random = new Random();
+    private String engineVersion = "9.10.0.0";
+
+    private final AtomicInteger discoveryCount = new AtomicInteger();
+    private final AtomicInteger discoveryFailureCount = new AtomicInteger();
+    private final AtomicInteger acquireCount = new AtomicInteger();
+    private final AtomicInteger acquireFailureCount = new AtomicInteger();
+    private final AtomicInteger disappearanceCount = new AtomicInteger();
+
+    /***
+     * Adds a license on offer.
+     * @param sourceType The source offering the license, {@link #DONGLE}, {@link #SERVER} or {@link #CLOUD}
+     * @param shortName The short name of the license, such as "enterprise-workstation"
+     * @param count How many engines can hold this license at the same time
+     * @param workers The workers each engine holding the license gets or, when workers can be chosen, the size of the
+     * worker pool shared by all engines holding it
+     * @param canChooseWorkers Whether engines choose how many workers to take from the pool when acquiring
+     * @param features The features the license enables
+     * @return This simulator for chained method calls.
+     */
+    public LicenseSourceSimulator withLicence(String sourceType, String shortName, int count, int workers,
+                                              boolean canChooseWorkers, String... features) {
+        licences.add(new SimulatedLicence(sourceType, shortName, count, workers, canChooseWorkers,
+                new LinkedHashSet<>(Arrays.asList(features))));
+        return this;
+    }
+
+    /***
+     * Specifies how long discovering licenses from a source takes.
+     * @param sourceType The source, {@link #DONGLE}, {@link #SERVER} or {@link #CLOUD}
+     * @param latencyMillis The typical latency in milliseconds
+     * @param jitterMillis Up to this many milliseconds are randomly added to each discovery
+     * @return This simulator for chained method calls.
+     */
+    public LicenseSourceSimulator withDiscoveryLatency(String sourceType, long latencyMillis, long jitterMillis) {
+        SourceBehaviour behaviour = getBehaviour(sourceType);
+        behaviour.latencyMillis = latencyMillis;
+        behaviour.jitterMillis = jitterMillis;
+        return this;
+    }
+
+    /***
+     * Specifies how often discovering licenses from a source fails, after its latency has elapsed.  A rate of 1.0
+     * simulates a source which is unreachable.
+     * @param sourceType The source, {@link #DONGLE}, {@link #SERVER} or {@link #CLOUD}
+     * @param failureRate Fraction of discoveries which fail, between 0.0 and 1.0
+     * @return This simulator for chained method calls.
+     */
+    public LicenseSourceSimulator withDiscoveryFailureRate(String sourceType, double failureRate) {
+        getBehaviour(sourceType).failureRate = failureRate;
+        return this;
+    }
+
+    /***
+     * Specifies how long acquiring a license takes.
+     * @param acquireLatencyMillis Latency in milliseconds
+     * @return This simulator for chained method calls.
+     */
+    public LicenseSourceSimulator withAcquireLatency(long acquireLatencyMillis) {
+        this.acquireLatencyMillis = acquireLatencyMillis;
+        return this;
+    }
+
+    /***
+     * Specifies how often a license which was discovered is no longer available by the time it is acquired, for
+     * example because another client acquired it in the meantime.
+     * @param disappearanceRate Fraction of acquisitions which fail this way, between 0.0 and 1.0
+     * @return This simulator for chained method calls.
+     */
+    public LicenseSourceSimulator withDisappearanceRate(double disappearanceRate) {
+        this.disappearanceRate = disappearanceRate;
+        return this;
+    }
+
+    /***
+     * Specifies how many discovery and acquisition requests the simulated servers ({@link #SERVER} and
+     * {@link #CLOUD}) handle at the same time, further requests wait their turn.
+     * @param permits Concurrent requests, 0 or less for no limit (the default)
+     * @return This simulator for chained method calls.
+     */
+    public LicenseSourceSimulator withServerConcurrency(int permits) {
+        this.serverConcurrency = permits > 0 ? new Semaphore(permits, true) : null;
+        return this;
+    }
+
+    /***
+     * Seeds the random number generator used for jitter, failures and disappearances, making runs repeatable.
+     * @param seed The seed
+     * @return This simulator for chained method calls.
+     */
+    public LicenseSourceSimulator withSeed(long seed) {
+        this.random = new Random(seed);
+        return this;
+    }
+
+    /***
+     * Specifies the version simulated engines report.
+     * @param engineVersion A Nuix version string, default is "9.10.0.0"
+     * @return This simulator for chained method calls.
+     */
+    public LicenseSourceSimulator withEngineVersion(String engineVersion) {
+        this.engineVersion = engineVersion;
+        return this;
+    }
+
+    public int getDiscoveryCount() {
+        return discoveryCount.get();
+    }
+
+    public int getDiscoveryFailureCount() {
+        return discoveryFailureCount.get();
+    }
+
+    public int getAcquireCount() {
+        return acquireCount.get();
+    }
+
+    public int getAcquireFailureCount() {
+        return acquireFailureCount.get();
+    }
+
+    public int getDisappearanceCount() {
+        return disappearanceCount.get();
+    }
+
+    /***
+     * @return The number of workers currently held by simulated engines, across all licenses.
+     */
+    public synchronized int getWorkersInUse() {
+        return licences.stream().mapToInt(l -> l.workersInUse).sum();
+    }
+
+    /***
+     * Creates a simulated Engine, which obtains its license from this simulator.  Closing the Engine returns the
+     * license (and its workers) to the simulator.
+     * @return A new simulated Engine
+     */
+    public Engine newEngine() {
+        SimulatedEngine simulatedEngine = new SimulatedEngine();
+        return proxy(Engine.class, new Class<?>[]{Engine.class}, (method, args) -> {
+            switch (method.getName()) {
+                case "getVersion":
+                    return engineVersion;
+                case "getLicensor":
+                    return simulatedEngine.licensor;
+                case "getLicence":
+                    return simulatedEngine.getLicence();
+                case "getUtilities":
+                    return simulatedEngine.getUtilities();
+                case "whenAskedForCredentials":
+                case "whenAskedForCertificateTrust":
+                    return null;
+                case "close":
+                    simulatedEngine.close();
+                    return null;
+                default:
+                    throw unsupported(method);
+            }
+        });
+    }
+
+    // State of one simulated engine
+    private class SimulatedEngine {
+        private final Licensor licensor;
+        private SimulatedLicence heldLicence = null;
+        private int heldWorkers = 0;
+
+        private SimulatedEngine() {
+            licensor = proxy(Licensor.class, new Class<?>[]{Licensor.class}, (method, args) -> {
+                if (method.getName().startsWith("findAvailableLicences")) {
+                    @SuppressWarnings("unchecked")
+                    Map<String, Object> options = args != null && args.length > 0 && args[0] instanceof Map
+                            ? (Map<String, Object>) args[0] : Collections.emptyMap();
+                    List<AvailableLicence> found = discover(this, options);
+                    return method.getReturnType().isAssignableFrom(List.class) ? found : found.stream();
+                }
+                throw unsupported(method);
+            });
+        }
+
+        private synchronized Licence getLicence() {
+            if (heldLicence == null) {
+                return null;
+            }
+            SimulatedLicence licence = heldLicence;
+            int workers = heldWorkers;
+            return proxy(Licence.class, new Class<?>[]{Licence.class, LicenceProperties.class}, (method, args) ->
+                    describe(licence, workers, method, args));
+        }
+
+        private synchronized Utilities getUtilities() {
+            if (heldLicence == null) {
+                throw new IllegalStateException("Simulated engine is not licensed");
+            }
+            return proxy(Utilities.class, new Class<?>[]{Utilities.class}, (method, args) -> {
+                switch (method.getName()) {
+                    case "getLicence":
+                        return getLicence();
+                    case "getThirdPartyDependencies":
+                        return Collections.emptyList();
+                    default:
+                        throw unsupported(method);
+                }
+            });
+        }
+
+        private synchronized void acquire(SimulatedLicence licence, int workerCount) {
+            if (heldLicence != null) {
+                throw new IllegalStateException("Simulated engine is already licensed");
+            }
+            synchronized (LicenseSourceSimulator.this) {
+                if (licence.seatsInUse >= licence.count) {
+                    throw new IllegalStateException("No seats of " + licence.shortName + " are available");
+                }
+                if (licence.canChooseWorkers && licence.workersInUse + workerCount > licence.workers) {
+                    throw new IllegalStateException(String.format("Only %s workers of %s are available, %s were requested",
+                            licence.workers - licence.workersInUse, licence.shortName, workerCount));
+                }
+                licence.seatsInUse++;
+                licence.workersInUse += workerCount;
+            }
+            heldLicence = licence;
+            heldWorkers = workerCount;
+        }
+
+        private synchronized void close() {
+            if (heldLicence != null) {
+                synchronized (LicenseSourceSimulator.this) {
+                    heldLicence.seatsInUse--;
+                    heldLicence.workersInUse -= heldWorkers;
+                }
+                heldLicence = null;
+                heldWorkers = 0;
+            }
+        }
+    }
+
+    private List<AvailableLicence> discover(SimulatedEngine simulatedEngine, Map<String, Object> options) throws Exception {
+        discoveryCount.incrementAndGet();
+        Set<String> sources = options.containsKey("sources")
+                ? Arrays.stream(String.valueOf(options.get("sources")).split(",")).map(String::trim).collect(Collectors.toSet())
+                : licences.stream().map(l -> l.sourceType).collect(Collectors.toSet());
+
+        // Sources are queried at the same time, so discovery takes as long as the slowest of them
+        long latencyMillis = 0;
+        Set<String> failedSources = new LinkedHashSet<>();
+        for (String source : sources) {
+            SourceBehaviour behaviour = getBehaviour(source);
+            latencyMillis = Math.max(latencyMillis, behaviour.latencyMillis + randomMillis(behaviour.jitterMillis));
+            if (randomChance(behaviour.failureRate)) {
+                failedSources.add(source);
+            }
+        }
+
+        boolean usesServer = sources.contains(SERVER) || sources.contains(CLOUD);
+        long discoveryMillis = latencyMillis;
+        withServerPermit(usesServer, () -> Thread.sleep(discoveryMillis));
+        if (!failedSources.isEmpty() && failedSources.containsAll(sources)) {
+            discoveryFailureCount.incrementAndGet();
+            throw new IllegalStateException("Simulated failure contacting license source(s) " + failedSources);
+        }
+
+        List<AvailableLicence> result = new ArrayList<>();
+        synchronized (this) {
+            for (SimulatedLicence licence : licences) {
+                if (sources.contains(licence.sourceType) && !failedSources.contains(licence.sourceType) &&
+                        licence.seatsInUse < licence.count) {
+                    result.add(createAvailableLicence(simulatedEngine, licence));
+                }
+            }
+        }
+        log.debug("Simulated discovery of {} found {} licenses in {}ms", sources, result.size(), discoveryMillis);
+        return result;
+    }
+
+    private AvailableLicence createAvailableLicence(SimulatedEngine simulatedEngine, SimulatedLicence licence) {
+        // Like the real thing, a license with a shared worker pool reports the workers available at the time of discovery
+        int availableWorkers = licence.canChooseWorkers ? licence.workers - licence.workersInUse : licence.workers;
+        return proxy(AvailableLicence.class, new Class<?>[]{AvailableLicence.class, LicenceProperties.class}, (method, args) -> {
+            switch (method.getName()) {
+                case "acquire":
+                    int workerCount = availableWorkers;
+                    if (licence.canChooseWorkers && args != null && args.length > 0 && args[0] instanceof Map) {
+                        Object requested = ((Map<?, ?>) args[0]).get("workerCount");
+                        if (requested instanceof Number) {
+                            workerCount = ((Number) requested).intValue();
+                        }
+                    } else if (!licence.canChooseWorkers) {
+                        workerCount = licence.workers;
+                    }
+                    acquire(simulatedEngine, licence, workerCount);
+                    return method.getReturnType() == boolean.class ? Boolean.TRUE : null;
+                case "getCount":
+                    return licence.count;
+                case "canChooseWorkers":
+                    return licence.canChooseWorkers;
+                case "getSource":
+                    return createSource(licence);
+                default:
+                    return describe(licence, availableWorkers, method, args);
+            }
+        });
+    }
+
+    private void acquire(SimulatedEngine simulatedEngine, SimulatedLicence licence, int workerCount) throws Exception {
+        acquireCount.incrementAndGet();
+        boolean usesServer = !licence.sourceType.equals(DONGLE);
+        try {
+            withServerPermit(usesServer, () -> Thread.sleep(acquireLatencyMillis));
+            if (randomChance(disappearanceRate)) {
+                disappearanceCount.incrementAndGet();
+                throw new IllegalStateException("Licence " + licence.shortName + " is no longer available");
+            }
+            simulatedEngine.acquire(licence, workerCount);
+        } catch (Exception exc) {
+            acquireFailureCount.incrementAndGet();
+            throw exc;
+        }
+    }
+
+    private LicenceSource createSource(SimulatedLicence licence) {
+        return proxy(LicenceSource.class, new Class<?>[]{LicenceSource.class}, (method, args) -> {
+            switch (method.getName()) {
+                case "getType":
+                    return licence.sourceType;
+                case "getLocation":
+                    return "simulated-" + licence.sourceType;
+                default:
+                    throw unsupported(method);
+            }
+        });
+    }
+
+    // Methods shared by AvailableLicence and Licence, through LicenceProperties
+    private Object describe(SimulatedLicence licence, int workers, Method method, Object[] args) {
+        switch (method.getName()) {
+            case "getShortName":
+                return licence.shortName;
+            case "getDescription":
+                return "Simulated " + licence.shortName;
+            case "getWorkers":
+                return workers;
+            case "getAllEnabledFeatures":
+                return Collections.unmodifiableSet(licence.features);
+            case "hasFeature":
+                return licence.features.contains(String.valueOf(args[0]));
+            default:
+                throw unsupported(method);
+        }
+    }
+
+    private interface ThrowingRunnable {
+        void run() throws Exception;
+    }
+
+    private void withServerPermit(boolean usesServer, ThrowingRunnable runnable) throws Exception {
+        Semaphore permits = serverConcurrency;
+        if (usesServer && permits != null) {
+            permits.acquire();
+            try {
+                runnable.run();
+            } finally {
+                permits.release();
+            }
+        } else {
+            runnable.run();
+        }
+    }
+
+    private synchronized SourceBehaviour getBehaviour(String sourceType) {
+        return sourceBehaviours.computeIfAbsent(sourceType, s -> new SourceBehaviour());
+    }
+
+    private synchronized long randomMillis(long bound) {
+        return bound > 0 ? (long) (random.nextDouble() * bound) : 0;
+    }
+
+    private synchronized boolean randomChance(double rate) {
+        return rate > 0 && random.nextDouble() < rate;
+    }
+
+    private interface Handler {
+        Object handle(Method method, Object[] args) throws Exception;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, Class<?>[] interfaces, Handler handler) {
+        InvocationHandler invocationHandler = (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "toString":
+                    if (method.getParameterCount() == 0) {
+                        return "Simulated" + type.getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(proxy));
+                    }
+                    break;
+                case "hashCode":
+                    if (method.getParameterCount() == 0) {
+                        return System.identityHashCode(proxy);
+                    }
+                    break;
+                case "equals":
+                    if (method.getParameterCount() == 1) {
+                        return proxy == args[0];
+                    }
+                    break;
+            }
+            return handler.handle(method, args);
+        };
+        return (T) Proxy.newProxyInstance(LicenseSourceSimulator.class.getClassLoader(), interfaces, invocationHandler);
+    }
+
+    private static UnsupportedOperationException unsupported(Method method) {
+        return new UnsupportedOperationException("Not simulated: " + method.getDeclaringClass().getSimpleName() +
+                "." + method.getName());
+    }
+}